@@ -3,6 +3,7 @@ package characters;
 import java.awt.image.BufferedImage;
 import java.util.Random;
 
+import util.BoardMap;
 import util.Coords;
 
 /**
@@ -16,6 +17,7 @@ public class Ghost{
 	protected Coords location;
 	protected int boardSize;
 	protected BufferedImage image;
+	protected BoardMap map;			// the walls of the board, or null if it has none
 	
 	/**
 	 * Creates a new stationary ghost
@@ -62,6 +64,32 @@ public class Ghost{
 		return location;
 	}
 	
+	/**
+	 * Puts walls on the board. The ghost never moves into a blocked cell and, if it starts in one,
+	 * it is moved to a random open cell.
+	 * 
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	public void setBoardMap(BoardMap map) {
+		if(map != null && map.getSize() != boardSize) {
+			throw new IllegalArgumentException("The map is for a board of size " + map.getSize());
+		}
+		if(map != null && map.getNumOpen() == 0) {
+			throw new IllegalArgumentException("Every cell of the map is blocked");
+		}
+		this.map = map;
+		Random rng = new Random();
+		while(!isOpen(location.row, location.col)) {
+			location = new Coords(rng.nextInt(boardSize), rng.nextInt(boardSize));
+		}
+	}
+	
+	// Checks that a cell on the board is not blocked by a wall
+	protected boolean isOpen(int row, int col) {
+		return map == null || !map.isBlocked(row, col);
+	}
+	
 	protected enum Direction {
 		UP, DOWN, LEFT, RIGHT;	
 	}	
@@ -35,7 +35,7 @@ public class GoEastGhost extends Ghost {
 	@Override
 	public Coords move() {
 		
-		if(location.col < boardSize-1) {
+		if(location.col < boardSize-1 && isOpen(location.row, location.col+1)) {
 			location.col = location.col+1;
 		}
 		return location;
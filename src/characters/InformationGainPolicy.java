@@ -0,0 +1,229 @@
+package characters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.Coords;
+
+/**
+ * A move policy that steps to the neighbor where the next sonar reading is expected to tell Pacman
+ * the most about the ghost, traded off against how far the ghost is expected to be.
+ *
+ * For a candidate position x, let G be the ghost's location after its next move and E the reading
+ * taken from x. The expected reduction in the entropy of G is the mutual information
+ *
+ * 		I(G; E) = H(E) - H(E | G)
+ *
+ * E depends on G only through the distance d(x, G), so both terms only need the histogram h of
+ * that distance under the predicted belief:
+ *
+ * 		H(E | G) = sum_d h[d] * H(cpt[d])		(the entropy of each CPT row is precomputed)
+ * 		p(E = e) = sum_d h[d] * cpt[d][e]		(each CPT row is non-zero on a narrow band only)
+ *
+ * Only the bands of the CPT are read (see Sonar.likelihood), so the policy needs O(distances) memory
+ * and never builds the dense table.
+ *
+ * Building a histogram is one pass over the cells the belief gives any weight to. The predicted
+ * belief and its support are computed once per step and shared by all candidates, which are then
+ * scored in parallel on large boards. Each candidate's score is
+ *
+ * 		I(G; E) - distanceCost * E[d(x, G)]
+ *
+ * so Pacman explores while the belief is diffuse and chases once it is concentrated.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class InformationGainPolicy implements MovePolicy {
+	public static final double DEFAULT_DISTANCE_COST = 0.3;
+	private static final double SUPPORT_EPSILON = 1e-12;	// cells below this probability are left out of the histograms
+	private static final int PARALLEL_SUPPORT = 1 << 14;	// score the candidates in parallel above this many support cells
+	private static final int MAX_CANDIDATES = 4;
+
+	private GridModel model;
+	private final int size;
+	private final int numDistances;
+	private final double distanceCost;
+
+	private final int bandWidth;
+	private final double[] band;			// band[d*bandWidth + j] = p(reading first[d] + j | true distance d)
+	private final double[] rowEntropy;		// the entropy of each row of the CPT
+	private final int[] first;				// the first reading in the band of each row
+
+	private double[] belief;
+	private double[] predicted;
+	private int[] supportCell;				// the cells of the predicted belief above SUPPORT_EPSILON...
+	private int[] supportRow;
+	private int[] supportCol;
+	private double[] supportProb;			// ...and their probabilities
+	private int numSupport;
+	private final double[][] histograms;	// one distance histogram per candidate
+	private final double[][] readings;		// one reading distribution per candidate
+	private final double[] scores;
+
+	/**
+	 * Creates a policy with the default distance cost
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 */
+	public InformationGainPolicy(int size, Sonar sonar) {
+		this(size, sonar, DEFAULT_DISTANCE_COST);
+	}
+
+	/**
+	 * Creates a policy
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 * @param distanceCost
+	 * 			Nats of information a candidate must offer to be worth one more step of expected distance
+	 */
+	public InformationGainPolicy(int size, Sonar sonar, double distanceCost) {
+		this.model = new GridModel(size, sonar);
+		this.size = size;
+		this.numDistances = model.getNumDistances();
+		this.distanceCost = distanceCost;
+
+		bandWidth = sonar.getBandWidth();
+		band = new double[numDistances*bandWidth];
+		rowEntropy = new double[numDistances];
+		first = new int[numDistances];
+		for(int d = 0; d < numDistances; d++) {
+			first[d] = sonar.getBandStart(d);
+			for(int j = 0; j < bandWidth; j++) {
+				double p = sonar.likelihood(d, first[d] + j);
+				band[d*bandWidth + j] = p;
+				if(p > 0.0) {
+					rowEntropy[d] -= p*Math.log(p);
+				}
+			}
+		}
+
+		histograms = new double[MAX_CANDIDATES][numDistances];
+		readings = new double[MAX_CANDIDATES][numDistances];
+		scores = new double[MAX_CANDIDATES];
+	}
+
+	@Override
+	public int choose(Pacman pacman, List<Coords> neighbors) {
+		if(pacman.getBoardMap() != model.getMap()) {
+			model = new GridModel(size, model.getSonar(), pacman.getBoardMap());
+		}
+
+		// The next reading is taken after the ghost moves, so score against the predicted belief
+		belief = pacman.getBeliefVector(belief);
+		if(predicted == null) {
+			predicted = new double[belief.length];
+		}
+		model.predict(belief, predicted);
+		collectSupport();
+
+		int n = neighbors.size();
+		if(numSupport >= PARALLEL_SUPPORT) {
+			IntStream.range(0, n).parallel().forEach(k -> scores[k] = score(neighbors.get(k), k));
+		}
+		else {
+			for(int k = 0; k < n; k++) {
+				scores[k] = score(neighbors.get(k), k);
+			}
+		}
+
+		int best = 0;
+		for(int k = 1; k < n; k++) {
+			if(scores[k] > scores[best]) {
+				best = k;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the expected information gain (in nats) of a reading taken from the given cell, under
+	 * the belief of the most recent call to choose()
+	 */
+	public double expectedGain(Coords cell) {
+		return gain(cell, histograms[0], readings[0]);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Gathers the cells of the predicted belief that carry any weight
+	private void collectSupport() {
+		if(supportProb == null) {
+			supportCell = new int[predicted.length];
+			supportRow = new int[predicted.length];
+			supportCol = new int[predicted.length];
+			supportProb = new double[predicted.length];
+		}
+		numSupport = 0;
+		for(int r = 0, i = 0; r < size; r++) {
+			for(int c = 0; c < size; c++, i++) {
+				if(predicted[i] > SUPPORT_EPSILON) {
+					supportCell[numSupport] = i;
+					supportRow[numSupport] = r;
+					supportCol[numSupport] = c;
+					supportProb[numSupport] = predicted[i];
+					numSupport++;
+				}
+			}
+		}
+	}
+
+	private double score(Coords candidate, int k) {
+		double gain = gain(candidate, histograms[k], readings[k]);
+		double expectedDistance = 0.0;
+		double[] h = histograms[k];
+		for(int d = 0; d < numDistances; d++) {
+			expectedDistance += d*h[d];
+		}
+		return gain - distanceCost*expectedDistance;
+	}
+
+	// Fills h with the distance histogram from the candidate and returns I(G; E), using pe as scratch
+	private double gain(Coords candidate, double[] h, double[] pe) {
+		Arrays.fill(h, 0.0);
+		if(model.isManhattan()) {
+			for(int s = 0; s < numSupport; s++) {
+				h[Math.abs(supportRow[s] - candidate.row) + Math.abs(supportCol[s] - candidate.col)] += supportProb[s];
+			}
+		}
+		else {
+			int from = model.index(candidate);
+			for(int s = 0; s < numSupport; s++) {
+				h[model.distance(from, supportCell[s])] += supportProb[s];
+			}
+		}
+
+		Arrays.fill(pe, 0.0);
+		double conditional = 0.0;
+		for(int d = 0; d < numDistances; d++) {
+			double w = h[d];
+			if(w == 0.0) {
+				continue;
+			}
+			conditional += w*rowEntropy[d];
+			for(int j = 0, e = first[d], b = d*bandWidth; j < bandWidth; j++, e++, b++) {
+				pe[e] += w*band[b];
+			}
+		}
+
+		double marginal = 0.0;
+		for(double p : pe) {
+			if(p > 0.0) {
+				marginal -= p*Math.log(p);
+			}
+		}
+		return marginal - conditional;
+	}
+}
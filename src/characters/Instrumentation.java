@@ -0,0 +1,148 @@
+package characters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import util.Coords;
+import util.FilterMetrics;
+import util.ObservationQueue;
+
+/**
+ * Runs Pacman's update and move while recording FilterMetrics. When the metrics are null the calls
+ * go straight through to Pacman, so leaving instrumentation in the game loop costs nothing when it
+ * is disabled.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Instrumentation {
+	private static final ThreadLocal<double[]> BELIEF = new ThreadLocal<>();	// scratch for the belief vector
+
+	private Instrumentation() {
+	}
+
+	/**
+	 * Updates Pacman's belief and records how long it took and how good the new belief is
+	 *
+	 * @param pacman
+	 * 			The Pacman to update
+	 * @param noisyDistance
+	 * 			A noisy distance reading
+	 * @param ghost
+	 * 			The ghost's true location (used to measure the error of the estimate)
+	 * @param metrics
+	 * 			Where to record the metrics, or null to just update
+	 */
+	public static void update(Pacman pacman, int noisyDistance, Coords ghost, FilterMetrics metrics) {
+		if(metrics == null) {
+			pacman.update(noisyDistance);
+			return;
+		}
+		measure(pacman, () -> pacman.update(noisyDistance), ghost, metrics);
+	}
+
+	/**
+	 * Updates Pacman's belief with a batch of readings and records how long the whole batch took and how
+	 * good the new belief is
+	 *
+	 * @param pacman
+	 * 			The Pacman to update
+	 * @param batch
+	 * 			Readings drained from an ObservationQueue
+	 * @param ghost
+	 * 			The ghost's true location (used to measure the error of the estimate)
+	 * @param metrics
+	 * 			Where to record the metrics, or null to just update
+	 */
+	public static void update(Pacman pacman, ObservationQueue.Batch batch, Coords ghost, FilterMetrics metrics) {
+		if(metrics == null) {
+			pacman.update(batch);
+			return;
+		}
+		measure(pacman, () -> pacman.update(batch), ghost, metrics);
+	}
+
+	/**
+	 * Moves Pacman and records how long it took
+	 *
+	 * @param pacman
+	 * 			The Pacman to move
+	 * @param metrics
+	 * 			Where to record the metrics, or null to just move
+	 * @return
+	 * 			Pacman's updated location
+	 */
+	public static Coords move(Pacman pacman, FilterMetrics metrics) {
+		if(metrics == null) {
+			return pacman.move();
+		}
+		long start = System.nanoTime();
+		Coords location = pacman.move();
+		metrics.recordMove(System.nanoTime() - start);
+		return location;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Runs the update, then records its time, its allocations and the belief it left behind
+	private static void measure(Pacman pacman, Runnable update, Coords ghost, FilterMetrics metrics) {
+		com.sun.management.ThreadMXBean allocations = Allocations.BEAN;
+		long bytes = allocations == null ? 0 : allocations.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		update.run();
+		long nanos = System.nanoTime() - start;
+		bytes = allocations == null ? -1 : allocations.getCurrentThreadAllocatedBytes() - bytes;
+		metrics.recordUpdate(nanos, bytes);
+
+		recordBelief(pacman, ghost, metrics);
+		if(pacman instanceof PacmanParticleFilter) {
+			PacmanParticleFilter filter = (PacmanParticleFilter) pacman;
+			metrics.recordParticles(filter.getEffectiveSampleSize(), filter.getNumDistinctParticles());
+		}
+	}
+
+	// Entropy, probability of the most likely cell and its distance from the ghost. The entropy is taken
+	// over the belief vector, copied into a scratch array that is reused from step to step, and the most
+	// likely cell comes from topCells, so no WeightedSet is built just to be measured.
+	private static void recordBelief(Pacman pacman, Coords ghost, FilterMetrics metrics) {
+		double[] belief = pacman.getBeliefVector(BELIEF.get());
+		BELIEF.set(belief);
+		double entropy = 0.0, total = 0.0;
+		for(double prob : belief) {
+			total += prob;
+			if(prob > 0.0) {
+				entropy -= prob*Math.log(prob);
+			}
+		}
+		if(total <= 0.0) {
+			return;
+		}
+		// H(p/Z) = (H_unnormalized)/Z + log Z
+		entropy = entropy/total + Math.log(total);
+		double[] highestProb = new double[1];
+		int[] best = pacman.topCells(1, highestProb);
+		int error = best.length == 0 ? 0 : pacman.sonar.manhattanDistance(new Coords(best[0]/pacman.size, best[0]%pacman.size), ghost);
+		metrics.recordBelief(entropy/Math.log(2), highestProb[0]/total, error);
+	}
+
+	// Switching on allocation accounting slows down every thread of the JVM a little, so it is only done
+	// the first time an update is measured, when this class is initialized
+	private static class Allocations {
+		static final com.sun.management.ThreadMXBean BEAN = allocationBean();
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if(sunBean.isThreadAllocatedMemorySupported()) {
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+				return sunBean;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,437 @@
+package characters;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.Coords;
+
+/**
+ * A move policy that plans Pacman's next steps with Monte Carlo tree search in belief space.
+ *
+ * Every iteration samples a ghost location from Pacman's current belief and plays the game forward
+ * from it: Pacman's moves come from the tree (chosen by UCT) and then from a rollout policy, while the
+ * ghost moves according to the transition model. A capture after t steps is worth DISCOUNT^t. Since
+ * Pacman's moves are deterministic, a node of the tree is just a sequence of moves, and the sampled
+ * ghost locations average over what Pacman does not know.
+ *
+ * The rollout policy uses the sonar: each step a reading is drawn from the CPT for the true distance,
+ * and Pacman heads for the ghost only when the reading is within one of the truth, otherwise he takes
+ * a random step. A rollout that reaches the horizon without a capture is valued as if the remaining
+ * distance would be closed directly.
+ *
+ * The search is root-parallel: every thread grows its own tree in its own node arena and the visit
+ * counts of the root's children are summed at the end. The arenas are plain arrays that are reused
+ * from move to move, so a search allocates almost nothing. Each move runs for a fixed number of
+ * iterations per thread or a fixed amount of time, whichever comes first.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class MctsPolicy implements MovePolicy, AutoCloseable {
+	public static final int DEFAULT_ITERATIONS = 2000;			// per thread and per move
+	public static final long DEFAULT_BUDGET_NANOS = 50000000L;	// 50ms per move
+	private static final int DEFAULT_HORIZON = 40;
+	private static final double DISCOUNT = 0.95;
+	private static final double EXPLORATION = 0.5;				// the UCT exploration constant, relative to rewards in [0, 1]
+	private static final int CLOCK_CHECK = 32;					// iterations between looks at the clock
+
+	private GridModel model;
+	private final int size;
+	private final int horizon;
+	private final int iterations;
+	private final long budgetNanos;
+	private final double[] discount;		// discount[t] = DISCOUNT^t
+
+	private final int bandWidth;
+	private final double[] band;			// band[d*bandWidth + j] = p(reading bandStart[d] + j | true distance d)
+	private final int[] bandStart;			// the first reading in the band of each CPT row
+	private final int[] last;				// the last non-zero reading of each CPT row
+
+	private final Tree[] trees;
+	private final ExecutorService pool;
+	private final SplittableRandom seeds;
+
+	private double[] belief;
+	private int[] supportCells;				// the cells of the belief with non-zero probability...
+	private double[] supportCdf;			// ...and their cumulative probabilities
+	private int numSupport;
+	private long lastIterations;
+
+	/**
+	 * Creates a planner that uses every available processor with the default budgets
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 */
+	public MctsPolicy(int size, Sonar sonar) {
+		this(size, sonar, Runtime.getRuntime().availableProcessors(), DEFAULT_ITERATIONS, DEFAULT_BUDGET_NANOS);
+	}
+
+	/**
+	 * Creates a planner
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 * @param threads
+	 * 			The number of trees to grow in parallel
+	 * @param iterations
+	 * 			The number of iterations each thread runs per move
+	 * @param budgetNanos
+	 * 			The time limit per move in nanoseconds
+	 */
+	public MctsPolicy(int size, Sonar sonar, int threads, int iterations, long budgetNanos) {
+		if(threads <= 0 || iterations <= 0 || budgetNanos <= 0) {
+			throw new IllegalArgumentException("The search needs at least one thread, iteration and nanosecond");
+		}
+		this.model = new GridModel(size, sonar);
+		this.size = size;
+		this.horizon = DEFAULT_HORIZON;
+		this.iterations = iterations;
+		this.budgetNanos = budgetNanos;
+
+		discount = new double[horizon + 2*size + 1];
+		discount[0] = 1.0;
+		for(int t = 1; t < discount.length; t++) {
+			discount[t] = discount[t-1]*DISCOUNT;
+		}
+
+		// Only the bands of the CPT are copied, never the dense (distances x distances) table
+		int numDistances = model.getNumDistances();
+		bandWidth = sonar.getBandWidth();
+		band = new double[numDistances*bandWidth];
+		bandStart = new int[numDistances];
+		last = new int[numDistances];
+		for(int d = 0; d < numDistances; d++) {
+			bandStart[d] = sonar.getBandStart(d);
+			last[d] = bandStart[d];
+			for(int j = 0; j < bandWidth; j++) {
+				band[d*bandWidth + j] = sonar.likelihood(d, bandStart[d] + j);
+				if(band[d*bandWidth + j] > 0.0) {
+					last[d] = bandStart[d] + j;
+				}
+			}
+		}
+
+		seeds = new SplittableRandom();
+		trees = new Tree[threads];
+		for(int i = 0; i < threads; i++) {
+			trees[i] = new Tree(seeds.split());
+		}
+		pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "mcts");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public int choose(Pacman pacman, List<Coords> neighbors) {
+		if(pacman.getBoardMap() != model.getMap()) {
+			model = new GridModel(size, model.getSonar(), pacman.getBoardMap());
+		}
+		belief = pacman.getBeliefVector(belief);
+		collectSupport();
+		int root = model.index(pacman.getLocation());
+		long deadline = System.nanoTime() + budgetNanos;
+
+		if(pool == null) {
+			trees[0].search(root, deadline);
+		}
+		else {
+			Future<?>[] futures = new Future<?>[trees.length];
+			for(int i = 0; i < trees.length; i++) {
+				Tree tree = trees[i];
+				futures[i] = pool.submit(() -> tree.search(root, deadline));
+			}
+			try {
+				for(Future<?> future : futures) {
+					future.get();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return pacman.greedy(neighbors);
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("The search failed", e.getCause());
+			}
+		}
+
+		// The most visited move over all the trees
+		long[] visits = new long[neighbors.size()];
+		lastIterations = 0;
+		for(Tree tree : trees) {
+			lastIterations += tree.iterationsRun;
+			for(int k = 0; k < visits.length; k++) {
+				visits[k] += tree.visits[tree.firstChild[0] + k];
+			}
+		}
+		int best = 0;
+		for(int k = 1; k < visits.length; k++) {
+			if(visits[k] > visits[best]) {
+				best = k;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the total number of iterations run by all threads for the most recent move
+	 */
+	public long getLastIterations() {
+		return lastIterations;
+	}
+
+	/**
+	 * Stops the search threads
+	 */
+	@Override
+	public void close() {
+		if(pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Gathers the cells of the belief with non-zero probability so ghosts can be sampled by binary search
+	private void collectSupport() {
+		if(supportCells == null) {
+			supportCells = new int[belief.length];
+			supportCdf = new double[belief.length];
+		}
+		numSupport = 0;
+		double total = 0.0;
+		for(int i = 0; i < belief.length; i++) {
+			if(belief[i] > 0.0) {
+				total += belief[i];
+				supportCells[numSupport] = i;
+				supportCdf[numSupport] = total;
+				numSupport++;
+			}
+		}
+		if(numSupport == 0) {
+			// An empty belief gives no information, so sample uniformly
+			for(int i = 0; i < belief.length; i++) {
+				supportCells[i] = i;
+				supportCdf[i] = i + 1;
+			}
+			numSupport = belief.length;
+		}
+	}
+
+	// The number of Pacman's legal moves from a cell, in the order of Pacman.getLegalNeighbors()
+	private int numPacmanMoves(int cell) {
+		// the ghost's moves are the same plus staying put
+		return model.numMoves(cell) - 1;
+	}
+
+	// The cell Pacman reaches with his k'th legal move, in the order of Pacman.getLegalNeighbors()
+	private int pacmanMove(int cell, int k) {
+		return model.move(cell, k + 1);
+	}
+
+	/**
+	 * One search tree and the random state of the thread growing it. Nodes live in parallel arrays;
+	 * node 0 is the root and the children of a node are stored next to each other.
+	 */
+	private class Tree {
+		private final SplittableRandom rng;
+		private int numNodes;
+		private int[] cell;				// Pacman's location after the node's moves
+		private int[] firstChild;		// the index of the node's first child, or -1 if not expanded
+		private int[] visits;
+		private double[] value;			// the sum of the rewards of the iterations through the node
+		private final int[] path;		// the nodes visited by the current iteration
+		private long iterationsRun;
+
+		Tree(SplittableRandom rng) {
+			this.rng = rng;
+			this.path = new int[horizon + 1];
+			allocate(1024);
+		}
+
+		void search(int root, long deadline) {
+			numNodes = 1;
+			cell[0] = root;
+			firstChild[0] = -1;
+			visits[0] = 0;
+			value[0] = 0.0;
+			expand(0);
+			iterationsRun = 0;
+			while(iterationsRun < iterations && (iterationsRun % CLOCK_CHECK != 0 || System.nanoTime() < deadline)) {
+				iterate();
+				iterationsRun++;
+			}
+		}
+
+		// Samples a ghost, walks down the tree, expands a leaf, rolls out and backs up the reward
+		private void iterate() {
+			int ghost = sampleGhost();
+			int node = 0;
+			int depth = 0;
+			path[0] = 0;
+			double reward = -1.0;
+
+			// Selection: follow UCT while the nodes are expanded
+			while(firstChild[node] >= 0 && depth < horizon) {
+				node = select(node);
+				path[++depth] = node;
+				if(cell[node] == ghost) {
+					reward = discount[depth];
+					break;
+				}
+				ghost = moveGhost(ghost);
+				if(visits[node] == 0) {
+					break;
+				}
+			}
+
+			if(reward < 0.0) {
+				if(firstChild[node] < 0 && visits[node] > 0 && depth < horizon) {
+					expand(node);
+				}
+				reward = rollout(cell[node], ghost, depth);
+			}
+
+			for(int i = 0; i <= depth; i++) {
+				visits[path[i]]++;
+				value[path[i]] += reward;
+			}
+		}
+
+		// The child with the highest upper confidence bound; unvisited children come first
+		private int select(int node) {
+			int start = firstChild[node];
+			int n = numPacmanMoves(cell[node]);
+			double logVisits = Math.log(Math.max(1, visits[node]));
+			int best = start;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for(int child = start; child < start + n; child++) {
+				if(visits[child] == 0) {
+					return child;
+				}
+				double score = value[child]/visits[child] + EXPLORATION*Math.sqrt(logVisits/visits[child]);
+				if(score > bestScore) {
+					best = child;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+
+		private void expand(int node) {
+			int n = numPacmanMoves(cell[node]);
+			if(numNodes + n > cell.length) {
+				allocate(2*cell.length);
+			}
+			firstChild[node] = numNodes;
+			for(int k = 0; k < n; k++) {
+				int child = numNodes++;
+				cell[child] = pacmanMove(cell[node], k);
+				firstChild[child] = -1;
+				visits[child] = 0;
+				value[child] = 0.0;
+			}
+		}
+
+		// Plays on from the given step with the sonar-driven rollout policy
+		private double rollout(int pacman, int ghost, int depth) {
+			for(int t = depth; t < horizon; t++) {
+				int d = model.distance(pacman, ghost);
+				int reading = sampleReading(d);
+				int n = numPacmanMoves(pacman);
+				if(Math.abs(reading - d) <= 1) {
+					pacman = towards(pacman, ghost);
+				}
+				else if(n > 0) {
+					pacman = pacmanMove(pacman, rng.nextInt(n));
+				}
+				if(pacman == ghost) {
+					return discount[t + 1];
+				}
+				ghost = moveGhost(ghost);
+			}
+			// Not caught yet: value the rest as if Pacman closed the distance directly
+			return discount[horizon + model.distance(pacman, ghost)];
+		}
+
+		// One step from a towards b, along the axis with the larger gap. If a wall is in the way
+		// (or Pacman is already there) he takes a random step instead.
+		private int towards(int a, int b) {
+			int dr = b/size - a/size, dc = b%size - a%size;
+			int next = a;
+			if(Math.abs(dr) >= Math.abs(dc) && dr != 0) {
+				next = a + Integer.signum(dr)*size;
+			}
+			else if(dc != 0) {
+				next = a + Integer.signum(dc);
+			}
+			if(next == a || !model.isOpen(next)) {
+				int n = numPacmanMoves(a);
+				return n == 0 ? a : pacmanMove(a, rng.nextInt(n));
+			}
+			return next;
+		}
+
+		private int moveGhost(int ghost) {
+			return model.move(ghost, rng.nextInt(model.numMoves(ghost)));
+		}
+
+		private int sampleGhost() {
+			double u = rng.nextDouble()*supportCdf[numSupport-1];
+			int lo = 0, hi = numSupport-1;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(supportCdf[mid] < u) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return supportCells[lo];
+		}
+
+		private int sampleReading(int d) {
+			double u = rng.nextDouble();
+			for(int e = bandStart[d], b = d*bandWidth; e < last[d]; e++, b++) {
+				u -= band[b];
+				if(u <= 0.0) {
+					return e;
+				}
+			}
+			return last[d];
+		}
+
+		private void allocate(int capacity) {
+			int[] newCell = new int[capacity];
+			int[] newFirstChild = new int[capacity];
+			int[] newVisits = new int[capacity];
+			double[] newValue = new double[capacity];
+			if(cell != null) {
+				System.arraycopy(cell, 0, newCell, 0, numNodes);
+				System.arraycopy(firstChild, 0, newFirstChild, 0, numNodes);
+				System.arraycopy(visits, 0, newVisits, 0, numNodes);
+				System.arraycopy(value, 0, newValue, 0, numNodes);
+			}
+			cell = newCell;
+			firstChild = newFirstChild;
+			visits = newVisits;
+			value = newValue;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package characters;
+
+import java.util.List;
+
+import util.Coords;
+
+/**
+ * Chooses where Pacman steps next. By default Pacman steps greedily towards the most likely
+ * location of the ghost; a policy given to Pacman.setMovePolicy replaces that choice.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public interface MovePolicy {
+
+	/**
+	 * Chooses one of Pacman's legal neighbors to step to
+	 *
+	 * @param pacman
+	 * 			Pacman, whose belief has already been updated with the latest reading
+	 * @param neighbors
+	 * 			The legal neighbors of Pacman's location, in the order returned by getLegalNeighbors()
+	 * @return
+	 * 			The index of the chosen neighbor
+	 */
+	int choose(Pacman pacman, List<Coords> neighbors);
+}
@@ -0,0 +1,148 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+import graphics.Sonar;
+import util.Coords;
+
+/**
+ * Runs PacmanForwardAlgorithm and PacmanOffHeap (in mapped files in java.io.tmpdir, or in the directory
+ * given by the ghostbusters.offheap.dir property) on the same readings from a ghost walking at random,
+ * and reports the time per update, the garbage collections during the run, the heap in use at the end,
+ * and the largest difference in the moments and the top cells from the first filter that ran (normally
+ * the on-heap one). Pacman stays in the middle of the board so every filter sees the same readings.
+ *
+ * A filter that runs out of heap is reported as such; run with a small -Xmx to see where the on-heap
+ * belief stops fitting.
+ *
+ * Usage: java characters.OffHeapBenchmark steps [boardSize]...
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class OffHeapBenchmark {
+	private static final int SONAR_RANGE = 2;
+	private static final int TOP = 10;
+	private static final String[] TYPES = {"forward", "offheap"};
+
+	public static void main(String[] args) throws IOException {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int[] sizes = {500, 1000, 2000};
+		if(args.length > 1) {
+			sizes = new int[args.length - 1];
+			for(int i = 1; i < args.length; i++) {
+				sizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%6s %-8s %12s %8s %10s %10s %12s%n", "size", "belief", "ms/update", "GCs", "GC ms",
+				"heap MB", "max diff");
+		for(int size : sizes) {
+			Sonar sonar = new Sonar(size, SONAR_RANGE);
+			int[] readings = readings(size, steps, sonar);
+			double[] moments = null, top = null;
+			for(String type : TYPES) {
+				Pacman pacman = null;
+				try {
+					pacman = create(type, size, sonar);
+					long gcCount = gcCount(), gcMillis = gcMillis();
+					long start = System.nanoTime();
+					for(int reading : readings) {
+						pacman.update(reading);
+					}
+					double millis = (System.nanoTime() - start)/1e6/steps;
+					gcCount = gcCount() - gcCount;
+					gcMillis = gcMillis() - gcMillis;
+					long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+					double[] m = pacman.getMoments();
+					double[] t = new double[TOP];
+					pacman.topCells(TOP, t);
+					String diff = "-";
+					if(moments == null) {
+						moments = m;
+						top = t;
+					}
+					else {
+						double d = 0;
+						for(int i = 0; i < m.length; i++) {
+							d = Math.max(d, Math.abs(m[i] - moments[i]));
+						}
+						for(int i = 0; i < t.length; i++) {
+							d = Math.max(d, Math.abs(t[i] - top[i]));
+						}
+						diff = String.format("%.2e", d);
+					}
+					System.out.printf("%6d %-8s %12.2f %8d %10d %10.1f %12s%n", size, type, millis, gcCount, gcMillis,
+							heap/1048576.0, diff);
+				}
+				catch(OutOfMemoryError e) {
+					pacman = null;
+					System.out.printf("%6d %-8s %12s%n", size, type, "out of heap");
+				}
+				finally {
+					if(pacman instanceof Closeable) {
+						((Closeable)pacman).close();
+					}
+					pacman = null;
+					System.gc();
+				}
+			}
+		}
+	}
+
+	// The readings heard by a Pacman in the middle of the board from a ghost taking random steps
+	private static int[] readings(int size, int steps, Sonar sonar) {
+		SplittableRandom rng = new SplittableRandom(size);
+		Coords pacman = new Coords(size/2, size/2);
+		int row = rng.nextInt(size), col = rng.nextInt(size);
+		int[] readings = new int[steps];
+		for(int s = 0; s < steps; s++) {
+			switch(rng.nextInt(5)) {
+				case 1: row = Math.max(row - 1, 0); break;
+				case 2: row = Math.min(row + 1, size - 1); break;
+				case 3: col = Math.max(col - 1, 0); break;
+				case 4: col = Math.min(col + 1, size - 1); break;
+				default: break;
+			}
+			readings[s] = sonar.getNoisyDistance(new Coords(row, col), pacman);
+		}
+		return readings;
+	}
+
+	private static Pacman create(String type, int size, Sonar sonar) throws IOException {
+		BufferedImage[] images = new BufferedImage[4];
+		Pacman pacman;
+		switch(type) {
+			case "forward": pacman = new PacmanForwardAlgorithm(size, images, sonar); break;
+			default:
+				String directory = System.getProperty("ghostbusters.offheap.dir");
+				pacman = directory == null ? new PacmanOffHeap(size, images, sonar)
+						: new PacmanOffHeap(size, images, sonar, Paths.get(directory));
+				break;
+		}
+		pacman.location = new Coords(size/2, size/2);
+		return pacman;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(gc.getCollectionTime(), 0);
+		}
+		return millis;
+	}
+}
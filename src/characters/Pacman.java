@@ -1,6 +1,8 @@
 package characters;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -8,7 +10,10 @@ import java.util.List;
 import java.util.Set;
 
 import graphics.Sonar;
+import inference.BeliefQueries;
+import util.BoardMap;
 import util.Coords;
+import util.ObservationQueue;
 import util.WeightedSet;
 
 /**
@@ -35,6 +40,13 @@ public abstract class Pacman {
 	protected Coords location;
 	protected WeightedSet<Coords> belief;
 	protected Sonar sonar;			// This is Pacman's sonar apparatus for taking readings of the ghost's location
+	protected BoardMap map;			// The walls of the board, or null if it has none
+	private MovePolicy policy;		// How Pacman chooses his next step, or null to step towards the most likely cell
+	private BeliefQueries queries;	// Answers topCells, credibleRegion and getMoments, created on first use
+	private int[] beliefCells;		// The cells of the published belief and their weights, for the default queries
+	private double[] beliefWeights;
+	private int[] stepReadings = new int[1];	// The readings of one step of a Batch and the cells they were taken from
+	private int[] stepObservers = new int[1];
 
 
 	/**
@@ -98,7 +110,317 @@ public abstract class Pacman {
 	 * 		Pacman's updated location
 	 */
 	public Coords move() {
-		// Find the cell with the highest probability
+		// Get the possible next steps
+		List<Integer> legalDirs =  getLegalDirections(location);
+		List<Coords> neighbors = getLegalNeighbors(location);
+		if(neighbors.isEmpty()) {
+			return location; // walled in
+		}
+
+		int pos = policy != null ? policy.choose(this, neighbors) : greedy(neighbors);
+		movePacman(legalDirs.get(pos));
+		return location;
+	}
+
+	/**
+	 * Replaces the way Pacman chooses his next step
+	 *
+	 * @param policy
+	 * 			The policy to consult on every move, or null to step towards the most likely cell
+	 */
+	public void setMovePolicy(MovePolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the policy Pacman consults on every move, or null if he steps towards the most likely cell
+	 */
+	public MovePolicy getMovePolicy() {
+		return policy;
+	}
+
+	/**
+	 * Puts walls on the board. Pacman never steps into a blocked cell and, if he starts in one, he is moved
+	 * to the first open cell. Subclasses also rebuild their belief so that the ghost is never believed to
+	 * be in a blocked cell. Call this before the first update.
+	 *
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	public void setBoardMap(BoardMap map) {
+		if(map != null && map.getSize() != size) {
+			throw new IllegalArgumentException("The map is for a board of size " + map.getSize());
+		}
+		this.map = map;
+		if(map != null && map.isBlocked(location)) {
+			int open = map.firstOpen();
+			if(open < 0) {
+				throw new IllegalArgumentException("Every cell of the map is blocked");
+			}
+			location = new Coords(open/size, open%size);
+		}
+	}
+
+	/**
+	 * Returns the walls of the board, or null if it has none
+	 */
+	public BoardMap getBoardMap() {
+		return map;
+	}
+
+
+	/**
+	 * Copies Pacman's belief into a row-major vector, i.e. the probability of cell (r, c) is stored at r*size + c
+	 *
+	 * @param dst
+	 * 			A vector of length size*size, or null to allocate a new one
+	 * @return
+	 * 			The belief vector
+	 */
+	public double[] getBeliefVector(double[] dst) {
+		if(dst == null || dst.length != size*size) {
+			dst = new double[size*size];
+		}
+		Arrays.fill(dst, 0.0);
+		WeightedSet<Coords> belief = getBelief();
+		for(Coords cell : belief.getElements()) {
+			dst[cell.row*size + cell.col] = belief.getWeight(cell);
+		}
+		return dst;
+	}
+
+	/**
+	 * Returns the k most likely cells of Pacman's belief, most likely first
+	 *
+	 * @param k
+	 * 			The number of cells
+	 * @param probabilities
+	 * 			Filled with the probability of each returned cell, or null
+	 * @return
+	 * 			The row-major indices (r*size + c) of at most k cells with non-zero probability
+	 */
+	public int[] topCells(int k, double[] probabilities) {
+		int n = sparseBelief();
+		return queries().topK(beliefCells, beliefWeights, n, k, probabilities);
+	}
+
+	/**
+	 * Returns the smallest set of cells that the ghost is in with at least the given probability
+	 *
+	 * @param mass
+	 * 			The probability to cover, e.g. 0.95
+	 * @return
+	 * 			The row-major indices (r*size + c) of the cells, in no particular order
+	 */
+	public int[] credibleRegion(double mass) {
+		int n = sparseBelief();
+		return queries().credibleRegion(beliefCells, beliefWeights, n, mass);
+	}
+
+	/**
+	 * Returns the expected location of the ghost under Pacman's belief and its spread. Every kind of
+	 * Pacman answers the same way: if the belief has no mass (e.g. it has not been set up yet) there is
+	 * no expected location, and all five values are NaN.
+	 *
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}
+	 */
+	public double[] getMoments() {
+		int n = sparseBelief();
+		return queries().moments(beliefCells, beliefWeights, n);
+	}
+
+	/**
+	 * Updates Pacman's belief of the ghost's location.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	public abstract void update(int noisyDistance);
+
+	/**
+	 * Updates Pacman's belief with a reading taken after the ghost moved the given number of times since
+	 * the previous one, e.g. because readings in between were lost. The belief is predicted steps-1
+	 * times without an emission and then updated as usual.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 * @param steps
+	 * 			The number of times the ghost moved since the previous reading, at least 1
+	 * @throws UnsupportedOperationException if steps > 1 and this kind of Pacman cannot predict
+	 */
+	public void update(int noisyDistance, int steps) {
+		if(steps < 1) {
+			throw new IllegalArgumentException("The ghost must have moved at least once");
+		}
+		if(steps > 1) {
+			predict(steps-1);
+		}
+		update(noisyDistance);
+	}
+
+	/**
+	 * Updates Pacman's belief with several readings of the ghost at the same step, each taken from its own
+	 * cell (e.g. by several sensors). The belief is predicted once, over all the steps the ghost moved, and
+	 * then weighed by the product of the readings' likelihoods, each measured from the cell it was taken
+	 * from. Not every kind of Pacman supports more than one reading, or a reading taken away from his
+	 * current location.
+	 *
+	 * @param noisyDistances
+	 * 			The readings
+	 * @param observers
+	 * 			The row-major cell (r*size + c) each reading was taken from
+	 * @param n
+	 * 			The number of readings, at least 1
+	 * @param steps
+	 * 			The number of times the ghost moved since the previous reading, at least 1
+	 * @throws UnsupportedOperationException if this kind of Pacman cannot take these readings
+	 */
+	public void update(int[] noisyDistances, int[] observers, int n, int steps) {
+		if(steps < 1) {
+			throw new IllegalArgumentException("The ghost must have moved at least once");
+		}
+		if(n < 1) {
+			throw new IllegalArgumentException("There must be at least one reading");
+		}
+		for(int j = 0; j < n; j++) {
+			if(observers[j] < 0 || observers[j] >= size*size) {
+				throw new IllegalArgumentException("Reading " + j + " was taken off the board");
+			}
+		}
+		if(steps > 1) {
+			predict(steps-1);
+		}
+		observe(noisyDistances, observers, n);
+	}
+
+	/**
+	 * Updates Pacman's belief with a batch of readings drained from an ObservationQueue, in step order.
+	 * Each step of the batch is one prediction over the ghost steps since the previous one, followed by a
+	 * single weighting by all of that step's readings (see update(int[], int[], int, int)).
+	 *
+	 * @param batch
+	 * 			The readings, the cells they were taken from and the number of ghost steps before each
+	 */
+	public void update(ObservationQueue.Batch batch) {
+		for(int i = 0; i < batch.getSize(); i++) {
+			int n = batch.getNumReadings(i);
+			if(stepReadings.length < n) {
+				stepReadings = new int[n];
+				stepObservers = new int[n];
+			}
+			for(int j = 0; j < n; j++) {
+				stepReadings[j] = batch.getReading(i, j);
+				stepObservers[j] = batch.getObserverRow(i, j)*size + batch.getObserverCol(i, j);
+			}
+			update(stepReadings, stepObservers, n, batch.getGap(i));
+		}
+	}
+
+	/**
+	 * Moves Pacman's belief forward the given number of ghost steps without a reading, i.e. applies only
+	 * the transition model. Use this when a reading is missing. Not every kind of Pacman supports it.
+	 *
+	 * @param steps
+	 * 			The number of times the ghost moved
+	 * @throws UnsupportedOperationException if this kind of Pacman cannot predict
+	 */
+	public void predict(int steps) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support prediction without a reading");
+	}
+
+	/**
+	 * Predicts the belief one ghost step and weighs it by the product of the likelihoods of the given
+	 * readings of that step. This default only takes a single reading made at Pacman's location, and
+	 * passes it to update(int).
+	 *
+	 * @param noisyDistances
+	 * 			The readings
+	 * @param observers
+	 * 			The row-major cell (r*size + c) each reading was taken from
+	 * @param n
+	 * 			The number of readings, at least 1
+	 * @throws UnsupportedOperationException if there are several readings or one taken elsewhere
+	 */
+	protected void observe(int[] noisyDistances, int[] observers, int n) {
+		if(n > 1 || observers[0] != location.row*size + location.col) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " only takes readings made at Pacman's location");
+		}
+		update(noisyDistances[0]);
+	}
+
+	/**
+	 * Passes a single reading made at Pacman's location to observe(), for the kinds of Pacman whose
+	 * update(int) is just that
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	protected final void observeHere(int noisyDistance) {
+		stepReadings[0] = noisyDistance;
+		stepObservers[0] = location.row*size + location.col;
+		observe(stepReadings, stepObservers, 1);
+	}
+
+	/**
+	 * Saves Pacman's location and belief (and the state of his random number generator, if he has one)
+	 * so that restore() can carry on with exactly the same filter. Not every kind of Pacman supports
+	 * checkpoints.
+	 *
+	 * @param path
+	 * 			Where to write the checkpoint
+	 * @throws IOException if the checkpoint cannot be written
+	 * @throws UnsupportedOperationException if this kind of Pacman cannot be checkpointed
+	 */
+	public void checkpoint(Path path) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support checkpoints");
+	}
+
+	/**
+	 * Restores the location and belief saved by checkpoint(). The board must have the same size and walls
+	 * as when the checkpoint was written.
+	 *
+	 * @param path
+	 * 			The checkpoint file
+	 * @throws IOException if the checkpoint cannot be read or does not match this Pacman
+	 * @throws UnsupportedOperationException if this kind of Pacman cannot be checkpointed
+	 */
+	public void restore(Path path) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support checkpoints");
+	}
+
+
+	/*----------------------------------------------
+	 *		FEEL FREE TO USE THESE HELPER METHODS
+	/*---------------------------------------------*/
+
+	// Returns the belief queries for this board
+	protected BeliefQueries queries() {
+		if(queries == null) {
+			queries = new BeliefQueries(size);
+		}
+		return queries;
+	}
+
+	// Lists the cells of the published belief and their weights in beliefCells and beliefWeights,
+	// returning how many there are. Subclasses answer the queries from their own storage instead.
+	private int sparseBelief() {
+		WeightedSet<Coords> belief = getBelief();
+		Set<Coords> elements = belief.getElements();
+		if(beliefCells == null || beliefCells.length < elements.size()) {
+			beliefCells = new int[elements.size()];
+			beliefWeights = new double[elements.size()];
+		}
+		int n = 0;
+		for(Coords cell : elements) {
+			beliefCells[n] = cell.row*size + cell.col;
+			beliefWeights[n++] = belief.getWeight(cell);
+		}
+		return n;
+	}
+
+	// Returns the cell with the highest probability in Pacman's belief
+	protected Coords mostLikely() {
 		Set<Coords> cells = belief.getElements();
 		Coords mostLikely = null;
 		double highestProb = 0.0;
@@ -109,10 +431,13 @@ public abstract class Pacman {
 				highestProb = prob;
 			}
 		}
+		return mostLikely;
+	}
 
-		// Get the possible next steps
-		List<Integer> legalDirs =  getLegalDirections(location);
-		List<Coords> neighbors = getLegalNeighbors(location);
+	// Returns the index of the neighbor closest to the most likely cell, breaking ties at random
+	protected int greedy(List<Coords> neighbors) {
+		// Find the cell with the highest probability
+		Coords mostLikely = mostLikely();
 
 		// Choose the neighbor that minimizes the Manhattan distance between the ghost
 		// and the most likely location of the ghost
@@ -129,38 +454,23 @@ public abstract class Pacman {
 				minDistance = d;
 			}
 		}
-		movePacman(legalDirs.get(pos));
-		return location;
+		return pos;
 	}
 
-
-	/**
-	 * Updates Pacman's belief of the ghost's location.
-	 *
-	 * @param noisyDistance
-	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
-	 */
-	public abstract void update(int noisyDistance);
-
-
-	/*----------------------------------------------
-	 *		FEEL FREE TO USE THESE HELPER METHODS
-	/*---------------------------------------------*/
-
 	// Returns the legal neighbors of a given state
 	// The ordering must match the ordering returned by getLegalDirections()
 	protected List<Coords> getLegalNeighbors(Coords center){
 		List<Coords> neighbors = new ArrayList<>();
-		if(center.row > 0) { // UP
+		if(center.row > 0 && isOpen(center.row-1, center.col)) { // UP
 			neighbors.add(new Coords(center.row-1, center.col));
 		}
-		if(center.row < size-1) { // DOWN
+		if(center.row < size-1 && isOpen(center.row+1, center.col)) { // DOWN
 			neighbors.add(new Coords(center.row+1, center.col));
 		}
-		if(center.col > 0) { // LEFT
+		if(center.col > 0 && isOpen(center.row, center.col-1)) { // LEFT
 			neighbors.add(new Coords(center.row, center.col-1));
 		}
-		if(center.col < size-1) { // RIGHt
+		if(center.col < size-1 && isOpen(center.row, center.col+1)) { // RIGHt
 			neighbors.add(new Coords(center.row, center.col+1));
 		}
 		return neighbors;
@@ -170,21 +480,26 @@ public abstract class Pacman {
 	// The ordering must match the ordering returned by getLegalNeighbors()
 	protected List<Integer> getLegalDirections(Coords center) {
 		List<Integer> directions = new ArrayList<>();
-		if(center.row > 0) {
+		if(center.row > 0 && isOpen(center.row-1, center.col)) {
 			directions.add(UP);
 		}
-		if(center.row < size-1) {
+		if(center.row < size-1 && isOpen(center.row+1, center.col)) {
 			directions.add(DOWN);
 		}
-		if(center.col > 0) {
+		if(center.col > 0 && isOpen(center.row, center.col-1)) {
 			directions.add(LEFT);
 		}
-		if(center.col < size-1) {
+		if(center.col < size-1 && isOpen(center.row, center.col+1)) {
 			directions.add(RIGHT);
 		}
 		return directions;
 	}
 
+	// Checks that a cell on the board is not blocked by a wall
+	protected boolean isOpen(int row, int col) {
+		return map == null || !map.isBlocked(row, col);
+	}
+
 	// Alter pacman's location and image in response to the direction
 	protected void movePacman(int direction) {
 		switch(direction) {
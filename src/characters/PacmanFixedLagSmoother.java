@@ -0,0 +1,223 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import inference.ActiveRegion;
+import inference.FixedLagSmoother;
+import inference.GridModel;
+import util.BoardMap;
+import util.Coords;
+import util.WeightedSet;
+
+/**
+ * The version of Pacman that runs a fixed-lag smoother alongside the forward algorithm.
+ *
+ * Pacman still chases the filtered belief (the smoothed estimate is L steps old), but the smoothed
+ * belief of step t-L is available through getSmoothedBelief() for anyone who can afford to wait
+ * L readings for a better estimate. The lag trades latency against accuracy.
+ *
+ * An update only touches the smoother's preallocated vectors. The WeightedSets returned by getBelief()
+ * and getSmoothedBelief() are built when they are asked for, so the queries and the choice of move
+ * read the belief vector directly.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class PacmanFixedLagSmoother extends Pacman {
+	public static final int DEFAULT_LAG = 3;
+
+	private GridModel model;
+	private FixedLagSmoother smoother;
+	private ActiveRegion board;		// the whole board, for the queries on the dense belief
+	private Coords[] cells;			// one Coords per cell, shared by every published belief
+	private boolean beliefStale;	// true if the published WeightedSet does not reflect the filtered belief
+	private WeightedSet<Coords> smoothedBelief;
+	private long smoothedBeliefStep;
+
+	/**
+	 * Creates a new Pacman agent that uses fixed-lag smoothing with the default lag
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 *
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 *
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears)
+	 */
+	public PacmanFixedLagSmoother(int size, BufferedImage[] images, Sonar sonar) {
+		this(size, images, sonar, DEFAULT_LAG);
+	}
+
+	/**
+	 * Creates a new Pacman agent that uses fixed-lag smoothing
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 *
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 *
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears)
+	 *
+	 * @param lag
+	 * 			How many readings the smoothed estimate trails the newest reading
+	 */
+	public PacmanFixedLagSmoother(int size, BufferedImage[] images, Sonar sonar, int lag) {
+		super(size, images, sonar);
+		model = new GridModel(size, sonar);
+		smoother = new FixedLagSmoother(model, lag);
+		board = new ActiveRegion(size);
+		smoothedBeliefStep = -2;
+		beliefStale = true;
+	}
+
+	/**
+	 * Updates Pacman's belief of the ghost's location.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	@Override
+	public void update(int noisyDistance) {
+		smoother.update(model.index(location), noisyDistance);
+		beliefStale = true;
+	}
+
+	/**
+	 * Puts walls on the board and resets the belief to the uniform distribution over the open cells
+	 *
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	@Override
+	public void setBoardMap(BoardMap map) {
+		super.setBoardMap(map);
+		model = new GridModel(size, sonar, map);
+		smoother = new FixedLagSmoother(model, smoother.getLag());
+		smoothedBeliefStep = -2;
+		beliefStale = true;
+	}
+
+	/**
+	 * Returns the lag of the smoother
+	 */
+	public int getLag() {
+		return smoother.getLag();
+	}
+
+	/**
+	 * Returns the step that getSmoothedBelief() refers to (numbered from 0 for the first reading),
+	 * or -1 if fewer than lag+1 readings have been seen
+	 */
+	public long getSmoothedStep() {
+		return smoother.getSmoothedStep();
+	}
+
+	/**
+	 * Returns the smoothed belief of the ghost's location lag readings ago
+	 *
+	 * @return
+	 * 			A distribution over the coordinates of the grid
+	 */
+	public WeightedSet<Coords> getSmoothedBelief() {
+		if(smoothedBeliefStep != smoother.getSmoothedStep()) {
+			if(smoothedBelief == null) {
+				smoothedBelief = new WeightedSet<>();
+			}
+			publish(smoother.getSmoothed(), smoothedBelief);
+			smoothedBeliefStep = smoother.getSmoothedStep();
+		}
+		return smoothedBelief;
+	}
+
+	/**
+	 * Copies the smoothed belief of lag readings ago into a row-major vector
+	 *
+	 * @param dst
+	 * 			A vector of length size*size, or null to allocate a new one
+	 * @return
+	 * 			The smoothed belief vector
+	 */
+	public double[] getSmoothedBeliefVector(double[] dst) {
+		return copy(smoother.getSmoothed(), dst);
+	}
+
+	/**
+	 * Returns Pacman's belief of the ghost's location, built from the filtered belief the first time it
+	 * is asked for after an update
+	 *
+	 * @return
+	 * 			A distribution over the coordinates of the grid
+	 */
+	@Override
+	public WeightedSet<Coords> getBelief() {
+		if(beliefStale) {
+			if(belief == null) {
+				belief = new WeightedSet<Coords>();
+			}
+			publish(smoother.getFiltered(), belief);
+			beliefStale = false;
+		}
+		return belief;
+	}
+
+	@Override
+	public double[] getBeliefVector(double[] dst) {
+		return copy(smoother.getFiltered(), dst);
+	}
+
+	@Override
+	public int[] topCells(int k, double[] probabilities) {
+		return queries().topK(smoother.getFiltered(), board, k, probabilities);
+	}
+
+	@Override
+	public int[] credibleRegion(double mass) {
+		return queries().credibleRegion(smoother.getFiltered(), board, mass);
+	}
+
+	@Override
+	public double[] getMoments() {
+		return queries().moments(smoother.getFiltered(), board);
+	}
+
+	@Override
+	protected Coords mostLikely() {
+		double[] filtered = smoother.getFiltered();
+		int best = 0;
+		for(int i = 1; i < filtered.length; i++) {
+			if(filtered[i] > filtered[best]) {
+				best = i;
+			}
+		}
+		return model.coords(best);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Overwrites the weights of a published belief with a belief vector
+	private void publish(double[] v, WeightedSet<Coords> set) {
+		if(cells == null) {
+			cells = new Coords[v.length];
+			for(int i = 0; i < cells.length; i++) {
+				cells[i] = model.coords(i);
+			}
+		}
+		for(int i = 0; i < cells.length; i++) {
+			set.addEvent(cells[i], v[i]);
+		}
+	}
+
+	private static double[] copy(double[] v, double[] dst) {
+		if(dst == null || dst.length != v.length) {
+			dst = new double[v.length];
+		}
+		System.arraycopy(v, 0, dst, 0, v.length);
+		return dst;
+	}
+}
@@ -1,11 +1,18 @@
 package characters;
 
 import java.awt.image.BufferedImage;
-import java.util.List;
-import java.util.Set;
-import java.util.Iterator;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import graphics.Sonar;
+import inference.ActiveRegion;
+import inference.GridModel;
+import inference.RingEmission;
+import inference.StepKernel;
+import util.BeliefHistory;
+import util.BoardMap;
+import util.Checkpoint;
 import util.Coords;
 import util.WeightedSet;
 
@@ -20,6 +27,34 @@ import util.WeightedSet;
 * @version 4/12/19
 */
 public class PacmanForwardAlgorithm extends Pacman{
+	private BeliefHistory history;	// if set, the belief after every reading is appended here
+
+	//The belief is kept as a dense row-major vector (cell (r, c) at r*size + c) and every step is a
+	//sweep over it: model.predict for the transition and model.weigh for the emission, which applies
+	//a whole row of emission probabilities at a time. The WeightedSet is only built when asked for.
+	//With Manhattan distances the emission is applied one ring around Pacman at a time instead, and both
+	//steps only touch the active region, the rectangle outside of which the belief is zero. A few readings
+	//narrow the belief down to a small part of the board, after which an update costs far less than a sweep.
+	private GridModel model;
+	private RingEmission rings;		//the ring emission, or null if the sonar measures shortest paths
+	private double[] alpha;			//the current belief
+	private double[] next;			//the belief being computed
+	private ActiveRegion alphaRegion;	//alpha is zero outside this region...
+	private ActiveRegion nextRegion;	//...and next outside this one
+	private ActiveRegion changed;		//scratch: the union of the two
+	private Coords[] cells;			//one Coords per cell, shared by every published belief
+	private boolean beliefStale;	//true if the published WeightedSet does not reflect alpha
+
+	// Convergence-aware mode: once the belief stops changing and the ghost is known to stand still,
+	// the prediction step is skipped and only the emission is applied
+	private static final double SURPRISE = 1e-3;	// a reading less likely than this under the belief resumes full updates
+	private double convergenceThreshold = 0.0;	// the change below which a step counts as stable (0 = off)
+	private int patience;						// the number of stable steps needed before predictions are skipped
+	private boolean stationaryGhost = false;
+	private int stableSteps = 0;
+	private long skippedPredictions = 0;
+	private double lastChange = Double.NaN;		// the L1 change of the belief in the most recent update
+	private double entropy;						// the entropy of the current belief in bits
 
 	/**
 	* Creates a new Pacman agent that uses the Forward Algorithm
@@ -36,16 +71,120 @@ public class PacmanForwardAlgorithm extends Pacman{
 		super(size, images, sonar);
 
 		//compute the prior distribution. initialize p(G0), a uniform distribution over the cells.
-		belief = new WeightedSet();
-		for(int r = 0; r < size; r++){
-			for(int c = 0; c < size; c++){
-				Coords coords = new Coords(r, c);
-				belief.addEvent(coords, 1);
-			}
+		model = new GridModel(size, sonar);
+		rings = model.isManhattan() ? new RingEmission(model) : null;
+		alpha = new double[size*size];
+		next = new double[size*size];
+		alphaRegion = new ActiveRegion(size);
+		nextRegion = new ActiveRegion(size);
+		changed = new ActiveRegion(size);
+		model.uniform(alpha);
+		entropy = Math.log(size*size) / Math.log(2);
+		beliefStale = true;
+	}
+
+	/**
+	* Puts walls on the board and resets the belief to the uniform distribution over the open cells
+	*
+	* @param map
+	* 			The walls of the board, or null to remove them
+	*/
+	@Override
+	public void setBoardMap(BoardMap map){
+		super.setBoardMap(map);
+		model = new GridModel(size, sonar, map);
+		rings = model.isManhattan() ? new RingEmission(model) : null;
+		model.uniform(alpha);
+		alphaRegion.setFull(size);
+		nextRegion.setFull(size);
+		entropy = Math.log(model.getNumOpenCells()) / Math.log(2);
+		stableSteps = 0;
+		beliefStale = true;
+	}
+
+	/**
+	* Records the belief after every reading in the given history, so step t of the history is the belief
+	* given the first t + 1 readings. predict() takes no reading and records nothing. Pass null to stop
+	* recording.
+	*
+	* @param history
+	* 			A history whose belief vectors have size*size cells
+	*/
+	public void setHistory(BeliefHistory history){
+		if(history != null && history.getNumCells() != size*size){
+			throw new IllegalArgumentException("The history must store " + size*size + " cells per step");
 		}
-		belief.normalize();
+		this.history = history;
+	}
+
+	/**
+	* Turns on convergence-aware updates. An update counts as stable when the L1 change of the belief or
+	* the change in its entropy (in bits) is below the threshold. Once the belief has been stable for the
+	* given number of consecutive updates and the ghost is stationary (see setStationaryGhost), updates skip
+	* the prediction step and only apply the emission. A reading that is very unlikely under the current
+	* belief switches back to full updates.
+	*
+	* @param threshold
+	* 			The change below which an update counts as stable, or 0 to turn the mode off
+	* @param patience
+	* 			The number of consecutive stable updates needed before predictions are skipped
+	*/
+	public void setConvergence(double threshold, int patience){
+		if(threshold < 0 || patience < 1){
+			throw new IllegalArgumentException("The threshold must be non-negative and the patience positive");
+		}
+		this.convergenceThreshold = threshold;
+		this.patience = patience;
+		this.stableSteps = 0;
+	}
+
+	/**
+	* Tells Pacman whether the ghost stands still (e.g. the plain Ghost). Predictions can only be skipped
+	* for a stationary ghost, since for a moving ghost the prediction step is what tracks the motion.
+	*
+	* @param stationary
+	* 			True if the ghost never moves
+	*/
+	public void setStationaryGhost(boolean stationary){
+		this.stationaryGhost = stationary;
+		this.stableSteps = 0;
+	}
+
+	/**
+	* Returns the number of updates that skipped the prediction step
+	*/
+	public long getSkippedPredictions(){
+		return skippedPredictions;
+	}
+
+	/**
+	* Returns the L1 distance between the belief before and after the most recent update
+	*/
+	public double getLastChange(){
+		return lastChange;
+	}
 
+	/**
+	* Returns the entropy of the current belief in bits
+	*/
+	public double getEntropy(){
+		return entropy;
+	}
 
+	/**
+	* Returns the rectangle of the board outside of which the belief is zero. The region is only valid
+	* until the next update and must not be modified.
+	*/
+	public ActiveRegion getActiveRegion(){
+		return alphaRegion;
+	}
+
+	/**
+	* Returns the ring emission, which holds the belief's mass on each ring around Pacman after the most
+	* recent update, or null if the sonar measures shortest paths
+	*/
+	public RingEmission getRingEmission(){
+		return rings;
 	}
 
 	/**
@@ -55,76 +194,351 @@ public class PacmanForwardAlgorithm extends Pacman{
 	* 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
 	*/
 	public void update(int noisyDistance){
+		observeHere(noisyDistance);
+	}
 
-			WeightedSet<Coords> temp = new WeightedSet<Coords>();
+	/**
+	* Predicts the belief one ghost step and weighs it by every reading of that step, each from the cell
+	* it was taken from
+	*
+	* @param noisyDistances
+	* 			The readings
+	* @param observers
+	* 			The row-major cell each reading was taken from
+	* @param n
+	* 			The number of readings
+	*/
+	@Override
+	protected void observe(int[] noisyDistances, int[] observers, int n){
 
-			Set<Coords> set_p = belief.getElements(); //Xt
-			Set<Coords> set_q = belief.getElements(); //Xt-1
+			//A converged belief about a ghost that stands still does not need the prediction step
+			boolean skipPrediction = convergenceThreshold > 0 && stationaryGhost && stableSteps >= patience;
 
-			// Compute the distribution over set_p (Xt)
-			for(Coords p : set_p){
-				double sum = 0;
+			//next still holds an old belief; the kernels expect it to be zero outside the region they write
+			if(rings != null){
+				clear(next, nextRegion);
+			}
 
-				for(Coords q : set_q){
-					//Compute the transition distribution and multiply that by weight of q
-					sum += sumHelper(p, q) * belief.getWeight(q); // sum += p(Xt = p | Xt-1 = q) * F(q)
-				}
+			// Compute the distribution over Xt: sum over q of p(Xt = p | Xt-1 = q) * F(q)
+			if(skipPrediction){
+				copy(alpha, alphaRegion, next); // p(Xt = p | Xt-1 = q) is 1 when p == q and 0 otherwise
+				nextRegion.set(alphaRegion);
+				skippedPredictions++;
+			}
+			else{
+				model.predict(alpha, alphaRegion, next, nextRegion);
+			}
 
-				//Compute the emmision distribution and multiply it by sum to get a new weight for Coords p
-				double newWeight = newWeightHelper(p, noisyDistance) * sum;
-				temp.addEvent(p, newWeight);
+			//Multiply in the emmision distribution. The sum is p(et | e1..et-1), the probability of the readings under the old belief
+			double likelihood = weigh(noisyDistances, observers, n);
+			double sum = likelihood;
+			if(sum == 0){
+				//the readings are impossible under the belief, so the belief was wrong: start over from the prior
+				model.uniform(next);
+				nextRegion.setFull(size);
+				sum = weigh(noisyDistances, observers, n);
+			}
+			model.scale(next, sum, nextRegion);
 
+			//Measure how much the belief moved so we know when it has converged. Both beliefs are zero
+			//outside the union of their regions.
+			double newEntropy = 0;
+			lastChange = 0;
+			changed.union(alphaRegion, nextRegion);
+			for(int r = changed.getRowMin(); r <= changed.getRowMax(); r++){
+				for(int i = r*size + changed.getColMin(); i <= r*size + changed.getColMax(); i++){
+					double prob = next[i];
+					lastChange += Math.abs(prob - alpha[i]);
+					if(prob > 0){
+						newEntropy -= prob * Math.log(prob);
+					}
+				}
+			}
+			newEntropy /= Math.log(2);
+			boolean stable = lastChange < convergenceThreshold || Math.abs(newEntropy - entropy) < convergenceThreshold;
+			if(skipPrediction){
+				stableSteps = likelihood < SURPRISE ? 0 : stableSteps; //a surprising reading resumes full updates
 			}
-			temp.normalize();
+			else{
+				stableSteps = stable ? stableSteps + 1 : 0;
+			}
+			entropy = newEntropy;
 
-			belief = temp;
+			swap();
+			beliefStale = true;
+			record();
 	}
 
-
 	/**
-	* Compute the emmision distribution p(et | Xt = p) where et is out noisyDistance.
+	* Moves the belief forward the given number of ghost steps without a reading. A few steps from a
+	* concentrated belief away from the walls are taken at once with a cached k-step kernel; otherwise the
+	* one-step prediction is repeated, whichever costs less. A converged belief about a stationary ghost is
+	* left as it is, just like update() skips its prediction.
 	*
-	* @param p
-	* 			A Coords at time Xt
-	* @param noisyDistance
-	* 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
-	* @return
-	*				the emmision distribution
+	* @param steps
+	* 			The number of times the ghost moved
 	*/
-	private double newWeightHelper(Coords p, int noisyDistance){
+	@Override
+	public void predict(int steps){
+		if(steps < 0){
+			throw new IllegalArgumentException("The number of steps must not be negative");
+		}
+		if(steps == 0){
+			return;
+		}
+		if(convergenceThreshold > 0 && stationaryGhost && stableSteps >= patience){
+			skippedPredictions += steps;
+			return;
+		}
 
-		//compute the manhattanDistance from where pacman is to coord1 (where ghost might be)
-		int manhatDist = sonar.manhattanDistance(location, p);
+		//The kernel scatters each cell holding mass over 2k^2 + 2k + 1 cells; k one-step predictions each
+		//sweep the region grown so far with five terms per cell
+		long sources = model.countInterior(alpha, alphaRegion, steps);
+		double kernelCost = sources * (2.0*steps*steps + 2.0*steps + 1);
+		double repeatedCost = 0;
+		for(int k = 1; k <= steps && (sources < 0 || repeatedCost < kernelCost); k++){
+			long rows = Math.min(size, alphaRegion.getRowMax() - alphaRegion.getRowMin() + 1 + 2L*k);
+			long cols = Math.min(size, alphaRegion.getColMax() - alphaRegion.getColMin() + 1 + 2L*k);
+			repeatedCost += 5.0 * rows * cols;
+		}
+
+		if(sources >= 0 && kernelCost < repeatedCost){
+			if(rings != null){
+				clear(next, nextRegion);
+			}
+			model.predict(alpha, alphaRegion, next, nextRegion, StepKernel.get(steps));
+			swap();
+		}
+		else{
+			for(int k = 0; k < steps; k++){
+				if(rings != null){
+					clear(next, nextRegion);
+				}
+				model.predict(alpha, alphaRegion, next, nextRegion);
+				swap();
+			}
+		}
 
-		//get the emission table of the manhattanDistance from sonar.java
-		//emmision table is the set of probabilities of it being a true distance given a noisy distance.
-		double[] eTbl = sonar.getEmissionTable(manhatDist);
+		//The transition keeps the mass, but renormalizing stops rounding errors from building up
+		double sum = 0;
+		entropy = 0;
+		for(int r = alphaRegion.getRowMin(); r <= alphaRegion.getRowMax(); r++){
+			for(int i = r*size + alphaRegion.getColMin(); i <= r*size + alphaRegion.getColMax(); i++){
+				sum += alpha[i];
+			}
+		}
+		model.scale(alpha, sum, alphaRegion);
+		for(int r = alphaRegion.getRowMin(); r <= alphaRegion.getRowMax(); r++){
+			for(int i = r*size + alphaRegion.getColMin(); i <= r*size + alphaRegion.getColMax(); i++){
+				if(alpha[i] > 0){
+					entropy -= alpha[i] * Math.log(alpha[i]);
+				}
+			}
+		}
+		entropy /= Math.log(2);
+		lastChange = Double.NaN;
+		stableSteps = 0;
+		beliefStale = true;
+	}
 
-		//get the probability of true distance given our noisyDistance
-		return eTbl[noisyDistance];
+	/**
+	* Saves Pacman's location and belief vector. The active region is saved with them.
+	*
+	* @param path
+	* 			Where to write the checkpoint
+	*/
+	@Override
+	public void checkpoint(Path path) throws IOException{
+		int[] region = {alphaRegion.getRowMin(), alphaRegion.getRowMax(), alphaRegion.getColMin(), alphaRegion.getColMax()};
+		new Checkpoint(Checkpoint.FORWARD, size, location, map == null ? 0 : map.fingerprint(), 0, 0)
+				.write(path, region, region.length, alpha, alpha.length);
 	}
 
+	/**
+	* Restores the location and belief vector saved by checkpoint(). Convergence-aware updates start
+	* counting stable steps from scratch.
+	*
+	* @param path
+	* 			The checkpoint file
+	*/
+	@Override
+	public void restore(Path path) throws IOException{
+		Checkpoint checkpoint = Checkpoint.read(path);
+		checkpoint.check(Checkpoint.FORWARD, size, map);
+		if(checkpoint.getNumDoubles() != alpha.length || checkpoint.getNumInts() != 4){
+			throw new IOException("The checkpoint does not hold a belief over " + alpha.length + " cells");
+		}
+		int[] region = new int[4];
+		checkpoint.readInts(region);
+		if(region[0] < 0 || region[0] > region[1] || region[1] >= size || region[2] < 0 || region[2] > region[3] || region[3] >= size){
+			throw new IOException("The checkpoint's active region " + Arrays.toString(region) + " is not on the board");
+		}
+
+		//The belief is read into next and checked there, so a bad checkpoint leaves the current belief alone
+		checkpoint.readDoubles(next);
+		double mass = 0;
+		for(int i = 0; i < next.length; i++){
+			int r = i / size, c = i % size;
+			boolean inside = r >= region[0] && r <= region[1] && c >= region[2] && c <= region[3];
+			if(!(next[i] >= 0 && next[i] <= 1) || (next[i] > 0 && (!inside || !model.isOpen(i)))){
+				nextRegion.setFull(size);
+				throw new IOException("The checkpoint's belief of cell " + i + " is " + next[i]);
+			}
+			mass += next[i];
+		}
+		if(Math.abs(mass - 1) > 1e-6){
+			nextRegion.setFull(size);
+			throw new IOException("The checkpoint's belief adds up to " + mass);
+		}
+		double[] swap = alpha;
+		alpha = next;
+		next = swap;
+		alphaRegion.set(region[0], region[1], region[2], region[3]);
+		nextRegion.setFull(size); //next holds whatever it held before, so all of it is cleared on the next update
+		location = checkpoint.getLocation();
+
+		entropy = 0;
+		for(int r = alphaRegion.getRowMin(); r <= alphaRegion.getRowMax(); r++){
+			for(int i = r*size + alphaRegion.getColMin(); i <= r*size + alphaRegion.getColMax(); i++){
+				if(alpha[i] > 0){
+					entropy -= alpha[i] * Math.log(alpha[i]);
+				}
+			}
+		}
+		entropy /= Math.log(2);
+		lastChange = Double.NaN;
+		stableSteps = 0;
+		beliefStale = true;
+	}
 
 	/**
-	* Compute the transition distribution p(Xt = p | Xt-1 = q)
+	* Returns Pacman's belief of the ghost's location
 	*
-	* @param p
-	* 			A Coords at time Xt
-	* @param q
-	*				A Coords at time Xt-1
 	* @return
-	*				the tranistion distrubution
+	* 			A distribution over the coordinates of the grid
+	*/
+	@Override
+	public WeightedSet<Coords> getBelief(){
+		if(beliefStale){
+			if(cells == null){
+				cells = new Coords[alpha.length];
+				for(int i = 0; i < cells.length; i++){
+					cells[i] = model.coords(i);
+				}
+				belief = new WeightedSet<Coords>();
+			}
+			for(int i = 0; i < cells.length; i++){
+				belief.addEvent(cells[i], alpha[i]);
+			}
+			beliefStale = false;
+		}
+		return belief;
+	}
+
+	@Override
+	public double[] getBeliefVector(double[] dst){
+		if(dst == null || dst.length != alpha.length){
+			dst = new double[alpha.length];
+		}
+		System.arraycopy(alpha, 0, dst, 0, alpha.length);
+		return dst;
+	}
+
+	/**
+	* Returns the k most likely cells, straight from the belief vector's active region
 	*/
-	private double sumHelper(Coords p, Coords q){
+	@Override
+	public int[] topCells(int k, double[] probabilities){
+		return queries().topK(alpha, alphaRegion, k, probabilities);
+	}
 
-		//figure out if the coords are neighbors
-		List<Coords> neighbors  = getLegalNeighbors(q); //list of coord2's neighbor coordinates
+	/**
+	* Returns the smallest set of cells holding the given probability, straight from the belief vector's
+	* active region
+	*/
+	@Override
+	public int[] credibleRegion(double mass){
+		return queries().credibleRegion(alpha, alphaRegion, mass);
+	}
 
-		if(neighbors.contains(p)){
-			double numMoves = neighbors.size() + 1;
-			return 1.0/numMoves;
+	@Override
+	public double[] getMoments(){
+		return queries().moments(alpha, alphaRegion);
+	}
+
+	@Override
+	protected Coords mostLikely(){
+		int best = 0;
+		for(int r = alphaRegion.getRowMin(); r <= alphaRegion.getRowMax(); r++){
+			for(int i = r*size + alphaRegion.getColMin(); i <= r*size + alphaRegion.getColMax(); i++){
+				if(alpha[i] > alpha[best]){
+					best = i;
+				}
+			}
 		}
-		return 0.0; //This should be 0.0 but it's incompatible with her code. Packman.java move method. If we put 0.0 there's a chance we never enter the if statement.
+		return model.coords(best);
+	}
 
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	//Multiplies next by the emission, ring by ring when the distances are Manhattan (which also shrinks
+	//nextRegion to the cells still standing) or with the row kernel otherwise
+	private double weigh(int pacmanCell, int noisyDistance){
+		if(rings != null){
+			return rings.weigh(next, pacmanCell, noisyDistance, nextRegion);
+		}
+		return model.weigh(next, pacmanCell, noisyDistance);
+	}
+
+	//Multiplies next by the likelihood of every reading and returns the total weight left
+	private double weigh(int[] noisyDistances, int[] observers, int n){
+		double sum = 0;
+		for(int j = 0; j < n; j++){
+			sum = weigh(observers[j], noisyDistances[j]);
+			if(sum == 0){
+				break;
+			}
+		}
+		return sum;
+	}
+
+	//Makes next the current belief
+	private void swap(){
+		double[] swap = alpha;
+		alpha = next;
+		next = swap;
+		ActiveRegion swapRegion = alphaRegion;
+		alphaRegion = nextRegion;
+		nextRegion = swapRegion;
+	}
+
+	//Appends the current belief to the history, if there is one
+	private void record(){
+		if(history != null){
+			try{
+				history.append(alpha);
+			}
+			catch(IOException e){
+				throw new UncheckedIOException("Unable to record the belief", e);
+			}
+		}
+	}
+
+	//Zeroes v inside the region
+	private void clear(double[] v, ActiveRegion region){
+		for(int r = region.getRowMin(); r <= region.getRowMax(); r++){
+			Arrays.fill(v, r*size + region.getColMin(), r*size + region.getColMax() + 1, 0.0);
+		}
+	}
+
+	//Copies src into dst inside the region
+	private void copy(double[] src, ActiveRegion region, double[] dst){
+		for(int r = region.getRowMin(); r <= region.getRowMax(); r++){
+			int from = r*size + region.getColMin();
+			System.arraycopy(src, from, dst, from, region.getColMax() - region.getColMin() + 1);
+		}
 	}
 }
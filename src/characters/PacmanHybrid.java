@@ -0,0 +1,449 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import graphics.Sonar;
+import inference.ActiveRegion;
+import inference.GridModel;
+import util.BoardMap;
+import util.Coords;
+import util.WeightedSet;
+
+/**
+ * The version of Pacman that switches between the exact forward algorithm and a particle filter
+ * at runtime.
+ *
+ * - While the belief is spread over many cells the exact representation is used: it costs O(cells)
+ *   per step and never loses probability mass in cells no particle happens to visit.
+ * - Once the belief is concentrated on a small part of the board, and particles are measured to be
+ *   cheaper than a full sweep of the board, the belief is converted into particles.
+ * - When the particles spread out again (or get more expensive than the exact update) they are
+ *   histogrammed back into a dense belief.
+ *
+ * The per-step cost of each representation is measured (as nanoseconds per cell and per particle)
+ * so that the decision adapts to the machine. Both are timed on scratch state when Pacman is created,
+ * and since the particle cost is otherwise only measured while particles are in use, a particle step
+ * is timed now and then while the belief is sparse enough for them to pay off. The belief is always
+ * available through getBelief() whichever representation is active.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class PacmanHybrid extends Pacman {
+	private static final double SUPPORT_EPSILON = 1e-6;		// cells below this probability do not count as support
+	private static final int PARTICLES_PER_CELL = 50;			// particles allotted to each cell of support
+	private static final int MIN_PARTICLES = 1000;
+	private static final double SPARSE_FRACTION = 0.1;		// switch to particles when the support is below this fraction of the board
+	private static final double DIFFUSE_FRACTION = 0.25;		// switch back when the particles cover more than this fraction
+	private static final double COST_SMOOTHING = 0.2;			// weight of the newest measurement in the cost averages
+	private static final int CALIBRATION_RUNS = 3;			// steps of each representation timed at creation; the fastest counts
+	private static final int PROBE_STEPS = 16;				// exact steps with a sparse belief between timings of a particle step
+
+	private GridModel model;
+	private SplittableRandom rng;
+
+	private boolean exact;			// which representation is active
+	private double[] alpha;			// the exact belief
+	private double[] scratch;
+	private ActiveRegion board;		// the whole board, the region the belief queries look at
+	private int[] particles;		// the particle belief: one cell per particle
+	private int[] nextParticles;
+	private double[] weights;
+	private int numParticles;
+	private int[] counts;			// scratch particle counts per cell, all zero between uses
+	private int[] occupied;			// the distinct cells found by the last count
+	private int distinct;			// the number of distinct cells occupied by particles
+	private int modeCell;			// the cell holding the most particles
+
+	private double nanosPerCell;	// measured cost of the exact update
+	private double nanosPerParticle;// measured cost of the particle update
+	private long sparseSteps;		// exact steps taken with a belief sparse enough for particles
+	private long switches;
+
+	private Coords[] cells;			// one Coords per cell, shared by every published belief
+	private boolean beliefStale;	// true if the published WeightedSet does not reflect the latest update
+
+	/**
+	 * Creates a new Pacman agent that switches between exact and particle inference
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 *
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 *
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears)
+	 */
+	public PacmanHybrid(int size, BufferedImage[] images, Sonar sonar) {
+		super(size, images, sonar);
+		model = new GridModel(size, sonar);
+		rng = new SplittableRandom();
+
+		// The prior is uniform, which is as diffuse as a belief gets, so we start out exact
+		exact = true;
+		alpha = new double[size*size];
+		scratch = new double[size*size];
+		board = new ActiveRegion(size);
+		model.uniform(alpha);
+
+		cells = new Coords[size*size];
+		for(int i = 0; i < cells.length; i++) {
+			cells[i] = model.coords(i);
+		}
+		calibrate();
+		beliefStale = true;
+	}
+
+	/**
+	 * Updates Pacman's belief of the ghost's location.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	@Override
+	public void update(int noisyDistance) {
+		observeHere(noisyDistance);
+	}
+
+	/**
+	 * Predicts the belief one ghost step and weighs it by every reading of that step, each from the cell
+	 * it was taken from
+	 *
+	 * @param noisyDistances
+	 * 			The readings
+	 * @param observers
+	 * 			The row-major cell each reading was taken from
+	 * @param n
+	 * 			The number of readings
+	 */
+	@Override
+	protected void observe(int[] noisyDistances, int[] observers, int n) {
+		long start = System.nanoTime();
+		if(exact) {
+			model.predict(alpha, scratch);
+			double[] swap = alpha; alpha = scratch; scratch = swap;
+			weighExact(noisyDistances, observers, n);
+			nanosPerCell = smooth(nanosPerCell, (double)(System.nanoTime() - start)/alpha.length);
+		}
+		else {
+			elapse();
+			if(!weigh(noisyDistances, observers, n)) {
+				// Every particle is inconsistent with the readings, so fall back on the exact belief
+				toExact();
+				weighExact(noisyDistances, observers, n);
+			}
+			else {
+				resample();
+				nanosPerParticle = smooth(nanosPerParticle, (double)(System.nanoTime() - start)/numParticles);
+			}
+		}
+		beliefStale = true;
+		chooseRepresentation(noisyDistances, observers, n);
+	}
+
+	/**
+	 * Puts walls on the board and resets the belief to the uniform distribution over the open cells
+	 *
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	@Override
+	public void setBoardMap(BoardMap map) {
+		super.setBoardMap(map);
+		model = new GridModel(size, sonar, map);
+		exact = true;
+		model.uniform(alpha);
+		beliefStale = true;
+	}
+
+	/**
+	 * Checks if the exact representation is currently active
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Returns the number of times the representation has changed
+	 */
+	public long getNumSwitches() {
+		return switches;
+	}
+
+	/**
+	 * Returns the number of particles in use, or 0 while the exact representation is active
+	 */
+	public int getNumParticles() {
+		return exact ? 0 : numParticles;
+	}
+
+	/**
+	 * Returns Pacman's belief of the ghost's location, whichever representation is active
+	 *
+	 * @return
+	 * 			A distribution over the coordinates of the grid
+	 */
+	@Override
+	public WeightedSet<Coords> getBelief() {
+		if(beliefStale) {
+			double[] dense = exact ? alpha : histogram(scratch);
+			if(belief == null) {
+				belief = new WeightedSet<>();
+			}
+			for(int i = 0; i < dense.length; i++) {
+				belief.addEvent(cells[i], dense[i]);
+			}
+			beliefStale = false;
+		}
+		return belief;
+	}
+
+	@Override
+	public double[] getBeliefVector(double[] dst) {
+		if(dst == null || dst.length != alpha.length) {
+			dst = new double[alpha.length];
+		}
+		if(exact) {
+			System.arraycopy(alpha, 0, dst, 0, alpha.length);
+			return dst;
+		}
+		return histogram(dst);
+	}
+
+	@Override
+	public int[] topCells(int k, double[] probabilities) {
+		return queries().topK(exact ? alpha : histogram(scratch), board, k, probabilities);
+	}
+
+	@Override
+	public int[] credibleRegion(double mass) {
+		return queries().credibleRegion(exact ? alpha : histogram(scratch), board, mass);
+	}
+
+	@Override
+	public double[] getMoments() {
+		return queries().moments(exact ? alpha : histogram(scratch), board);
+	}
+
+	@Override
+	protected Coords mostLikely() {
+		if(!exact) {
+			return cells[modeCell];
+		}
+		int best = 0;
+		for(int i = 1; i < alpha.length; i++) {
+			if(alpha[i] > alpha[best]) {
+				best = i;
+			}
+		}
+		return cells[best];
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private static double smooth(double average, double measurement) {
+		return (1 - COST_SMOOTHING)*average + COST_SMOOTHING*measurement;
+	}
+
+	// Applies the emission to the exact belief. If the reading is impossible under the belief, the
+	// belief was wrong and we start over from the uniform distribution.
+	private void weighExact(int[] noisyDistances, int[] observers, int n) {
+		double sum = weighAll(noisyDistances, observers, n);
+		if(sum == 0.0) {
+			model.uniform(alpha);
+			sum = weighAll(noisyDistances, observers, n);
+		}
+		GridModel.scale(alpha, sum);
+	}
+
+	// Multiplies the exact belief by the likelihood of every reading and returns the total weight left
+	private double weighAll(int[] noisyDistances, int[] observers, int n) {
+		double sum = 0.0;
+		for(int j = 0; j < n; j++) {
+			sum = model.weigh(alpha, observers[j], noisyDistances[j]);
+			if(sum == 0.0) {
+				break;
+			}
+		}
+		return sum;
+	}
+
+	// Times a few steps of each representation on scratch state, from the uniform prior and a reading at
+	// Pacman's location, so that the first decision rests on this machine's costs rather than a guess.
+	// The belief itself is left as it was.
+	private void calibrate() {
+		int[] reading = {size - 1}, observer = {model.index(location)};
+		nanosPerCell = Double.MAX_VALUE;
+		nanosPerParticle = Double.MAX_VALUE;
+		for(int run = 0; run < CALIBRATION_RUNS; run++) {
+			long start = System.nanoTime();
+			model.predict(alpha, scratch);
+			model.weigh(scratch, observer[0], reading[0]);
+			nanosPerCell = Math.min(nanosPerCell, (double)(System.nanoTime() - start)/alpha.length);
+			nanosPerParticle = Math.min(nanosPerParticle, timeParticles(MIN_PARTICLES, reading, observer, 1));
+		}
+		numParticles = 0;
+	}
+
+	// Draws n particles from the exact belief and times one particle step over them, in nanoseconds per
+	// particle. The exact belief stays the active one.
+	private double timeParticles(int n, int[] noisyDistances, int[] observers, int m) {
+		drawParticles(n);
+		long start = System.nanoTime();
+		elapse();
+		if(weigh(noisyDistances, observers, m)) {
+			resample();
+		}
+		return (double)(System.nanoTime() - start)/n;
+	}
+
+	// Switches representation if the belief's support and the measured costs favor the other one
+	private void chooseRepresentation(int[] noisyDistances, int[] observers, int n) {
+		int cellCount = alpha.length;
+		if(exact) {
+			int support = 0;
+			for(double p : alpha) {
+				if(p > SUPPORT_EPSILON) {
+					support++;
+				}
+			}
+			if(support >= SPARSE_FRACTION*cellCount) {
+				return;
+			}
+			int wanted = particlesFor(support);
+			if(++sparseSteps % PROBE_STEPS == 0) {
+				nanosPerParticle = smooth(nanosPerParticle, timeParticles(wanted, noisyDistances, observers, n));
+			}
+			if(wanted*nanosPerParticle < cellCount*nanosPerCell) {
+				toParticles(wanted);
+			}
+		}
+		else {
+			int support = distinct;
+			if(support > DIFFUSE_FRACTION*cellCount || numParticles*nanosPerParticle > cellCount*nanosPerCell) {
+				toExact();
+			}
+		}
+	}
+
+	private static int particlesFor(int support) {
+		return Math.max(MIN_PARTICLES, support*PARTICLES_PER_CELL);
+	}
+
+	// Switches to particles drawn from the exact belief
+	private void toParticles(int n) {
+		drawParticles(n);
+		exact = false;
+		switches++;
+	}
+
+	// Draws the particles from the exact belief by systematic resampling, which keeps every cell's
+	// share of the particles within one particle of its probability
+	private void drawParticles(int n) {
+		if(particles == null || particles.length < n) {
+			particles = new int[n];
+			nextParticles = new int[n];
+			weights = new double[n];
+		}
+		if(counts == null) {
+			counts = new int[alpha.length];
+			occupied = new int[alpha.length];
+		}
+		numParticles = n;
+		double step = 1.0/n;
+		double u = rng.nextDouble()*step;
+		double cumulative = alpha[0];
+		int cell = 0;
+		for(int i = 0; i < n; i++) {
+			while(u > cumulative && cell < alpha.length-1) {
+				cumulative += alpha[++cell];
+			}
+			particles[i] = cell;
+			u += step;
+		}
+		countParticles();
+	}
+
+	// Histograms the particles into the exact belief
+	private void toExact() {
+		histogram(alpha);
+		exact = true;
+		switches++;
+	}
+
+	// Fills dst with the fraction of particles in each cell
+	private double[] histogram(double[] dst) {
+		Arrays.fill(dst, 0.0);
+		double share = 1.0/numParticles;
+		for(int i = 0; i < numParticles; i++) {
+			dst[particles[i]] += share;
+		}
+		return dst;
+	}
+
+	// Counts the distinct cells occupied by particles and finds the most popular one in O(particles)
+	private void countParticles() {
+		distinct = 0;
+		modeCell = particles[0];
+		for(int i = 0; i < numParticles; i++) {
+			int cell = particles[i];
+			if(counts[cell]++ == 0) {
+				occupied[distinct++] = cell;
+			}
+			if(counts[cell] > counts[modeCell]) {
+				modeCell = cell;
+			}
+		}
+		for(int i = 0; i < distinct; i++) {
+			counts[occupied[i]] = 0;
+		}
+	}
+
+	// Moves every particle according to the ghost's transition model
+	private void elapse() {
+		for(int i = 0; i < numParticles; i++) {
+			int cell = particles[i];
+			particles[i] = model.move(cell, rng.nextInt(model.numMoves(cell)));
+		}
+	}
+
+	// Weights every particle by the emission probability. Returns false if every weight is 0.
+	private boolean weigh(int[] noisyDistances, int[] observers, int n) {
+		double sum = 0.0;
+		for(int i = 0; i < numParticles; i++) {
+			double w = 1.0;
+			for(int j = 0; j < n && w > 0.0; j++) {
+				w *= model.emission(observers[j], particles[i], noisyDistances[j]);
+			}
+			weights[i] = w;
+			sum += w;
+		}
+		if(sum == 0.0) {
+			return false;
+		}
+		GridModel.scale(weights, sum);
+		return true;
+	}
+
+	// Systematic resampling of the weighted particles
+	private void resample() {
+		double step = 1.0/numParticles;
+		double u = rng.nextDouble()*step;
+		double cumulative = weights[0];
+		int j = 0;
+		for(int i = 0; i < numParticles; i++) {
+			while(u > cumulative && j < numParticles-1) {
+				cumulative += weights[++j];
+			}
+			nextParticles[i] = particles[j];
+			u += step;
+		}
+		int[] swap = particles; particles = nextParticles; nextParticles = swap;
+		countParticles();
+	}
+}
@@ -0,0 +1,217 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import graphics.Sonar;
+import inference.OffHeapBelief;
+import util.BoardMap;
+import util.Coords;
+import util.WeightedSet;
+
+/**
+ * The version of Pacman that runs the forward algorithm on a belief kept outside the Java heap (see
+ * OffHeapBelief), in memory-mapped scratch files. It makes the same updates as
+ * PacmanForwardAlgorithm, but a belief over hundreds of millions of cells puts no pressure on the heap
+ * or the garbage collector, and the heap only needs a few rows' worth of scratch space.
+ *
+ * The off-heap memory belongs to this Pacman until close() is called; after that he cannot be updated
+ * or queried. The queries (topCells, credibleRegion, getMoments) and the choice of move stream over the
+ * rows of the belief. getBelief() and getBeliefVector() copy the belief onto the heap, so they are best
+ * left to small boards. The cell indices the queries return are ints, so the board may have at most
+ * 46340 rows.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanOffHeap extends Pacman implements Closeable {
+	private OffHeapBelief alpha;
+
+	/**
+	 * Creates a new Pacman agent that keeps his belief in memory-mapped files in java.io.tmpdir
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 *
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 *
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears). It must measure Manhattan distances.
+	 * @throws UncheckedIOException if the files cannot be created
+	 */
+	public PacmanOffHeap(int size, BufferedImage[] images, Sonar sonar) {
+		super(size, images, sonar);
+		try {
+			alpha = new OffHeapBelief(size, sonar, null, null);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Unable to create the belief in " + System.getProperty("java.io.tmpdir"), e);
+		}
+	}
+
+	/**
+	 * Creates a new Pacman agent that keeps his belief in memory-mapped files
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears). It must measure Manhattan distances.
+	 * @param directory
+	 * 			Where to put the files, which are deleted by close()
+	 * @throws IOException if the files cannot be created
+	 */
+	public PacmanOffHeap(int size, BufferedImage[] images, Sonar sonar, Path directory) throws IOException {
+		super(size, images, sonar);
+		alpha = new OffHeapBelief(size, sonar, null, directory);
+	}
+
+	/**
+	 * Updates Pacman's belief of the ghost's location.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	@Override
+	public void update(int noisyDistance) {
+		observeHere(noisyDistance);
+	}
+
+	/**
+	 * Predicts the belief one ghost step and weighs it by every reading of that step, each from the cell
+	 * it was taken from
+	 *
+	 * @param noisyDistances
+	 * 			The readings
+	 * @param observers
+	 * 			The row-major cell each reading was taken from
+	 * @param n
+	 * 			The number of readings
+	 */
+	@Override
+	protected void observe(int[] noisyDistances, int[] observers, int n) {
+		alpha.predict();
+		double sum = weigh(noisyDistances, observers, n);
+		if(sum == 0) {
+			//the readings are impossible under the belief, so the belief was wrong: start over from the prior
+			alpha.uniform();
+			sum = weigh(noisyDistances, observers, n);
+		}
+		alpha.scale(sum);
+	}
+
+	/**
+	 * Moves the belief forward the given number of ghost steps without a reading
+	 *
+	 * @param steps
+	 * 			The number of times the ghost moved
+	 */
+	@Override
+	public void predict(int steps) {
+		if(steps < 0) {
+			throw new IllegalArgumentException("The number of steps must not be negative");
+		}
+		if(steps == 0) {
+			return;
+		}
+		for(int k = 0; k < steps; k++) {
+			alpha.predict();
+		}
+		//The transition keeps the mass, but renormalizing stops rounding errors from building up
+		alpha.scale(alpha.getTotalMass());
+	}
+
+	/**
+	 * Puts walls on the board and resets the belief to the uniform distribution over the open cells
+	 *
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	@Override
+	public void setBoardMap(BoardMap map) {
+		super.setBoardMap(map);
+		alpha.setBoardMap(map);
+	}
+
+	/**
+	 * Returns the off-heap belief. It must not be modified.
+	 */
+	public OffHeapBelief getOffHeapBelief() {
+		return alpha;
+	}
+
+	/**
+	 * Returns Pacman's belief of the ghost's location, copied onto the heap
+	 *
+	 * @return
+	 * 			A distribution over the coordinates of the grid
+	 */
+	@Override
+	public WeightedSet<Coords> getBelief() {
+		double[] dense = getBeliefVector(null);
+		if(belief == null) {
+			belief = new WeightedSet<Coords>();
+		}
+		belief.clear();
+		for(int i = 0; i < dense.length; i++) {
+			if(dense[i] > 0) {
+				belief.addEvent(new Coords(i/size, i%size), dense[i]);
+			}
+		}
+		return belief;
+	}
+
+	@Override
+	public double[] getBeliefVector(double[] dst) {
+		if(dst == null || dst.length != size*size) {
+			dst = new double[size*size];
+		}
+		alpha.toDense(dst);
+		return dst;
+	}
+
+	@Override
+	public int[] topCells(int k, double[] probabilities) {
+		return alpha.topCells(k, probabilities);
+	}
+
+	@Override
+	public int[] credibleRegion(double mass) {
+		return alpha.credibleRegion(mass);
+	}
+
+	@Override
+	public double[] getMoments() {
+		return alpha.moments();
+	}
+
+	/**
+	 * Releases the off-heap memory holding the belief by truncating and deleting its files
+	 */
+	@Override
+	public void close() throws IOException {
+		alpha.close();
+	}
+
+	@Override
+	protected Coords mostLikely() {
+		int cell = alpha.mostLikely();
+		return new Coords(cell/size, cell%size);
+	}
+
+	//Multiplies the belief by the likelihood of every reading and returns the total weight left
+	private double weigh(int[] noisyDistances, int[] observers, int n) {
+		double sum = 0;
+		for(int j = 0; j < n; j++) {
+			sum = alpha.weigh(observers[j]/size, observers[j]%size, noisyDistances[j]);
+			if(sum == 0) {
+				break;
+			}
+		}
+		return sum;
+	}
+}
@@ -1,13 +1,21 @@
 package characters;
 
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
 import java.util.Random;
 
 import graphics.Sonar;
+import inference.CompressedParticles;
+import inference.GridModel;
+import inference.StepKernel;
+import util.BoardMap;
+import util.Checkpoint;
 import util.Coords;
+import util.FenwickWeightedSet;
+import util.SplitMix64;
 import util.WeightedSet;
 
 /**
@@ -21,8 +29,36 @@ import util.WeightedSet;
 * @version 4/11/19
 */
 public class PacmanParticleFilter extends Pacman{
-	private int N = 200;
-	private Coords[] samples;
+	public static final int DEFAULT_PARTICLES = 200;
+
+	private int N = DEFAULT_PARTICLES;
+	private GridModel model;
+	private SplitMix64 rng;	//its state is saved in checkpoints, so a restored filter draws the same numbers
+
+	//The particles are stored as parallel primitive arrays: particle i is in cell[i] with weight[i].
+	//resample writes into nextCell and the two buffers are swapped, so a step allocates nothing.
+	private int[] cell;
+	private int[] nextCell;
+	private double[] weight;
+	private double[] likelihood;	//p(noisyDistance | true distance d) for the current reading
+	private double ess;				//the effective sample size of the most recent weighting
+
+	//Particles counted per cell, recomputed on demand after each update
+	private boolean countsStale;
+	private int[] counts;			//scratch counts indexed by cell, all zero between uses
+	private int[] occupied;			//the distinct occupied cells...
+	private int[] occupiedCounts;	//...and the number of particles in each
+	private double[] occupiedWeights;	//scratch for the belief queries: the fraction of the particles in each
+	private int distinct;
+	private int modeCell;			//the cell holding the most particles
+	private boolean beliefStale;	//true if the published WeightedSet does not reflect the particles
+
+	//In compressed mode the particles are stored as (cell, count, weight) tuples instead
+	private CompressedParticles compressed;
+
+	//The weight of each sample for the Coords version of resample, which draws from it in O(log N)
+	private FenwickWeightedSet sampleWeights;
+	private Coords[] drawn;			//scratch for resample: the samples being drawn from
 
 	/**
 	* Creates a new Pacman agent that uses particle filtering
@@ -36,10 +72,39 @@ public class PacmanParticleFilter extends Pacman{
 	* 			Pacman's sonar apparatus (i.e. his ears)
 	*/
 	public PacmanParticleFilter(int size, BufferedImage[] images, Sonar sonar) {
+		this(size, images, sonar, DEFAULT_PARTICLES, false);
+	}
+
+	/**
+	* Creates a new Pacman agent that uses particle filtering with the given number of particles
+	* @param size
+	* 			The size of the grid (e.g. 10 rows/columns)
+	*
+	* @param images
+	* 			Images of Pacman in the 4 cardinal directions
+	*
+	* @param sonar
+	* 			Pacman's sonar apparatus (i.e. his ears)
+	*
+	* @param numParticles
+	* 			The number of particles, N
+	*
+	* @param compressed
+	* 			True to store the particles as one (cell, count, weight) tuple per occupied cell, so that
+	* 			each step costs O(occupied cells) instead of O(N). Use this for large N.
+	*/
+	public PacmanParticleFilter(int size, BufferedImage[] images, Sonar sonar, int numParticles, boolean compressed) {
 		super(size, images, sonar);
+		if(numParticles <= 0){
+			throw new IllegalArgumentException("There must be at least one particle");
+		}
+		N = numParticles;
+		model = new GridModel(size, sonar);
+		rng = new SplitMix64();
+		ess = N;
 
 		//compute the prior distribution. initialize p(G0), a uniform distribution over the cells.
-		belief = new WeightedSet();
+		belief = new WeightedSet<Coords>();
 		for(int r = 0; r < size; r++){
 			for(int c = 0; c < size; c++){
 				Coords coords = new Coords(r, c);
@@ -48,15 +113,34 @@ public class PacmanParticleFilter extends Pacman{
 		}
 		belief.normalize();
 
+		if(compressed){
+			this.compressed = new CompressedParticles(model, N, rng);
+			beliefStale = true;
+			return;
+		}
 
 		//Randomly sample N times from the prior distribution
-		samples = new Coords[N];
-		for(int i = 0; i < samples.length; i++){
-			samples[i] = belief.sample();
+		cell = new int[N];
+		nextCell = new int[N];
+		weight = new double[N];
+		likelihood = new double[model.getNumDistances()];
+		int numCells = size*size;
+		for(int i = 0; i < N; i++){
+			cell[i] = rng.nextInt(numCells);
 		}
+		counts = new int[numCells];
+		occupied = new int[Math.min(numCells, N)];
+		occupiedCounts = new int[occupied.length];
+		countsStale = true;
+		beliefStale = true;
 	}
 
 
+	/*----------------------------------------------
+	 *	Sample-array versions of the three steps. update() works on the primitive
+	 *	particle arrays instead, but these are kept for callers that work with Coords.
+	/*---------------------------------------------*/
+
 	/**
 	* Elapses each sample forward using the transition distribution
 	*
@@ -113,20 +197,15 @@ public class PacmanParticleFilter extends Pacman{
 
 		//a set of new weights associated with samples
 		double[] weights = new double[N];
+		int pacmanCell = model.index(pacmanLocation);
 
 		for (int i = 0; i < N; i++){
 
-			//Update the weight of each sample in the WeightedSet belief to the
-			//noisyDistance in the emmision table for that sample.
-			int manhatDist = sonar.manhattanDistance(pacmanLocation, samples[i]);
-			double[] eTbl = sonar.getEmissionTable(manhatDist);
-			weights[i] = eTbl[noisyDistance];
-
-			//Update the weight in the belief Weighted Set
-			belief.increment(samples[i], weights[i]);
+			//The weight of each sample is the probability of the noisyDistance given the sample's distance,
+			//read from the sonar's banded CPT
+			weights[i] = model.emission(pacmanCell, model.index(samples[i]), noisyDistance);
 
 		}
-		belief.normalize();
 
 		return weights;
 	}
@@ -143,11 +222,21 @@ public class PacmanParticleFilter extends Pacman{
 	* 			A new set of unweighted samples
 	*/
 	protected Coords[] resample(Coords[] samples, double[] weights) {
+		if(sampleWeights == null){
+			sampleWeights = new FenwickWeightedSet(N);
+			drawn = new Coords[N];
+		}
+		sampleWeights.setAll(weights); //O(N)
+		if(sampleWeights.getSum() <= 0.0){
+			return samples; //no sample agrees with the reading, so keep them all as update() does
+		}
+		System.arraycopy(samples, 0, drawn, 0, N);
 
 		//Sample N new samples based on the weights of the old samples.
 		//(e.g., samples with higher weights are more likely to be sampled again)
+		//Each draw is one walk down the Fenwick tree of sample weights
 		for (int i = 0; i < N; i++){
-			samples[i] = belief.sample();
+			samples[i] = drawn[sampleWeights.sample(rng.nextDouble())];
 		}
 
 		return samples;
@@ -160,17 +249,419 @@ public class PacmanParticleFilter extends Pacman{
 	* 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
 	*/
 	public void update(int noisyDistance){
+		observeHere(noisyDistance);
+	}
+
+	/**
+	* Moves the particles one ghost step and weights them by every reading of that step, each from the cell
+	* it was taken from
+	*
+	* @param noisyDistances
+	* 			The readings
+	* @param observers
+	* 			The row-major cell each reading was taken from
+	* @param n
+	* 			The number of readings
+	*/
+	@Override
+	protected void observe(int[] noisyDistances, int[] observers, int n){
+		if(compressed != null){
+			updateCompressed(noisyDistances, observers, n);
+		}
+		else{
+			//propogate the particles through time, weight them by the readings and resample
+			elapseParticles();
+			if(weighParticles(noisyDistances, observers, n)){
+				resampleParticles();
+			}
+			//if no particle agrees with the readings we keep the elapsed particles rather than lose them all
+			countsStale = true;
+		}
+		beliefStale = true;
+	}
+
+	/**
+	* Moves every particle the given number of ghost steps without weighting them by a reading. A
+	* particle far enough from the edges and walls takes all the steps in one draw from a cached k-step
+	* kernel; the others take them one at a time.
+	*
+	* @param steps
+	* 			The number of times the ghost moved
+	*/
+	@Override
+	public void predict(int steps){
+		if(steps < 0){
+			throw new IllegalArgumentException("The number of steps must not be negative");
+		}
+		if(steps == 0){
+			return;
+		}
+		if(compressed != null){
+			for(int k = 0; k < steps; k++){
+				compressed.elapse();
+			}
+		}
+		else{
+			//Building a k-step kernel costs O(k^3), so it is only built if some particle can use it; once k is
+			//more than half the board none can, and a long gap goes straight to the step-by-step moves
+			StepKernel kernel = null;
+			for(int i = 0; i < N; i++){
+				if(model.isInterior(cell[i], steps)){
+					kernel = StepKernel.get(steps);
+					break;
+				}
+			}
+			for(int i = 0; i < N; i++){
+				int c = cell[i];
+				if(kernel != null && model.isInterior(c, steps)){
+					int j = kernel.sample(rng.nextDouble());
+					cell[i] = c + kernel.getRowOffset(j)*size + kernel.getColOffset(j);
+				}
+				else{
+					for(int k = 0; k < steps; k++){
+						c = model.move(c, rng.nextInt(model.numMoves(c)));
+					}
+					cell[i] = c;
+				}
+			}
+			countsStale = true;
+		}
+		beliefStale = true;
+	}
+
+	/**
+	* Returns Pacman's belief of the ghost's location: the fraction of particles in each cell
+	*
+	* @return
+	* 			A distribution over the coordinates of the grid
+	*/
+	@Override
+	public WeightedSet<Coords> getBelief(){
+		if(beliefStale){
+			belief.clear();
+			if(compressed != null){
+				for(int i = 0; i < compressed.getNumCells(); i++){
+					belief.addEvent(model.coords(compressed.getCell(i)), (double) compressed.getCount(i) / N);
+				}
+			}
+			else{
+				countParticles();
+				for(int i = 0; i < distinct; i++){
+					belief.addEvent(model.coords(occupied[i]), (double) occupiedCounts[i] / N);
+				}
+			}
+			beliefStale = false;
+		}
+		return belief;
+	}
+
+	/**
+	* Puts walls on the board and redraws the particles from the uniform distribution over the open cells
+	*
+	* @param map
+	* 			The walls of the board, or null to remove them
+	*/
+	@Override
+	public void setBoardMap(BoardMap map){
+		super.setBoardMap(map);
+		model = new GridModel(size, sonar, map);
+		belief.clear();
+		for(int i = 0; i < size*size; i++){
+			if(model.isOpen(i)){
+				belief.addEvent(model.coords(i), 1);
+			}
+		}
+		belief.normalize();
+		ess = N;
+
+		if(compressed != null){
+			compressed = new CompressedParticles(model, N, rng);
+		}
+		else{
+			//rejection sampling is fine unless nearly the whole board is walls
+			for(int i = 0; i < N; i++){
+				int c;
+				do{
+					c = rng.nextInt(size*size);
+				}while(!model.isOpen(c));
+				cell[i] = c;
+			}
+			countsStale = true;
+		}
+		beliefStale = true;
+	}
+
+	/**
+	* Returns the effective sample size of the most recent weighting, (sum w)^2 / sum w^2.
+	* This is N when all particles are equally weighted and 1 when a single particle has all the weight.
+	*
+	* @return
+	* 			The effective sample size, or N before the first update
+	*/
+	public double getEffectiveSampleSize(){
+		return ess;
+	}
+
+	/**
+	* Returns the number of distinct cells occupied by the particles
+	*/
+	public int getNumDistinctParticles(){
+		if(compressed != null){
+			return compressed.getNumCells();
+		}
+		countParticles();
+		return distinct;
+	}
+
+	/**
+	* Returns the number of particles, N
+	*/
+	public int getNumParticles(){
+		return N;
+	}
 
-		//propogate a new set of samples through time. (e.g., given the Samples
-		// at time t-1, gather a set of new samples at time t)
-		samples = elapse(samples);
-		//update the weights of the samples
-		double[] weights = weight(samples, noisyDistance, location);
-		//resample according to the weights
+	/**
+	* Checks if the particles are stored as (cell, count, weight) tuples
+	*/
+	public boolean isCompressed(){
+		return compressed != null;
+	}
 
-		samples = resample(samples, weights);
+	/**
+	* Saves Pacman's location, the particles and the state of the random number generator. After restore()
+	* the filter draws exactly the same random numbers, so the same readings give the same particles.
+	*
+	* @param path
+	* 			Where to write the checkpoint
+	*/
+	@Override
+	public void checkpoint(Path path) throws IOException{
+		long fingerprint = map == null ? 0 : map.fingerprint();
+		if(compressed != null){
+			int k = compressed.getNumCells();
+			int[] ints = new int[2*k];
+			double[] weights = new double[k + 1];
+			for(int i = 0; i < k; i++){
+				ints[i] = compressed.getCell(i);
+				ints[k + i] = compressed.getCount(i);
+				weights[i] = compressed.getWeight(i);
+			}
+			weights[k] = ess;
+			new Checkpoint(Checkpoint.COMPRESSED, size, location, fingerprint, rng.getState(), N)
+					.write(path, ints, ints.length, weights, weights.length);
+		}
+		else{
+			new Checkpoint(Checkpoint.PARTICLES, size, location, fingerprint, rng.getState(), N)
+					.write(path, cell, N, new double[]{ess}, 1);
+		}
+	}
+
+	/**
+	* Restores the location, particles and random number generator saved by checkpoint(). The filter must
+	* have the same number of particles and the same storage (compressed or not) as the one that was saved.
+	*
+	* @param path
+	* 			The checkpoint file
+	*/
+	@Override
+	public void restore(Path path) throws IOException{
+		Checkpoint checkpoint = Checkpoint.read(path);
+		checkpoint.check(compressed != null ? Checkpoint.COMPRESSED : Checkpoint.PARTICLES, size, map);
+		if(checkpoint.getCount() != N){
+			throw new IOException("The checkpoint holds " + checkpoint.getCount() + " particles, not " + N);
+		}
+		if(compressed != null){
+			int k = checkpoint.getNumInts() / 2;
+			if(checkpoint.getNumDoubles() != k + 1){
+				throw new IOException("The checkpoint's particles are incomplete");
+			}
+			int[] ints = new int[2*k];
+			double[] weights = new double[k + 1];
+			checkpoint.readInts(ints);
+			checkpoint.readDoubles(weights);
+			int[] counts = new int[k];
+			System.arraycopy(ints, k, counts, 0, k);
+			try{
+				compressed.set(k, ints, counts, weights);
+			}
+			catch(IllegalArgumentException e){
+				throw new IOException("The checkpoint's particles do not fit this board", e);
+			}
+			ess = weights[k];
+		}
+		else{
+			if(checkpoint.getNumInts() != N || checkpoint.getNumDoubles() != 1){
+				throw new IOException("The checkpoint's particles are incomplete");
+			}
+			//The particles are read into nextCell and checked there, so a bad checkpoint leaves the filter alone
+			checkpoint.readInts(nextCell);
+			for(int i = 0; i < N; i++){
+				if(nextCell[i] < 0 || nextCell[i] >= size*size || !model.isOpen(nextCell[i])){
+					throw new IOException("Particle " + i + " is not on an open cell of the board");
+				}
+			}
+			double[] extra = new double[1];
+			checkpoint.readDoubles(extra);
+			int[] swap = cell; cell = nextCell; nextCell = swap;
+			ess = extra[0];
+			countsStale = true;
+		}
+		rng.setState(checkpoint.getRngState());
+		location = checkpoint.getLocation();
+		beliefStale = true;
+	}
+
+	/**
+	* Returns the k cells holding the most particles, from the occupied cells rather than the whole board
+	*/
+	@Override
+	public int[] topCells(int k, double[] probabilities){
+		int n = occupiedWeights();
+		return queries().topK(occupied, occupiedWeights, n, k, probabilities);
+	}
+
+	/**
+	* Returns the smallest set of cells holding the given fraction of the particles, from the occupied
+	* cells rather than the whole board
+	*/
+	@Override
+	public int[] credibleRegion(double mass){
+		int n = occupiedWeights();
+		return queries().credibleRegion(occupied, occupiedWeights, n, mass);
+	}
 
-		//TODO update belief... create new WeightedSet based on samples and set belief to that??
+	@Override
+	public double[] getMoments(){
+		int n = occupiedWeights();
+		return queries().moments(occupied, occupiedWeights, n);
+	}
+
+	@Override
+	protected Coords mostLikely(){
+		if(compressed != null){
+			return model.coords(compressed.mostPopulated());
+		}
+		countParticles();
+		return model.coords(modeCell);
+	}
+
+	//Moves every particle according to the ghost's transition model (stay or move to a legal neighbor)
+	private void elapseParticles(){
+		for(int i = 0; i < N; i++){
+			int c = cell[i];
+			cell[i] = model.move(c, rng.nextInt(model.numMoves(c)));
+		}
+	}
+
+	//Weights every particle by the emission probability of the reading. Returns false if every weight is 0.
+	private boolean weighParticles(int[] noisyDistances, int[] observers, int n){
+		double sum = 0.0, sumSquares = 0.0;
+		boolean manhattan = model.isManhattan();
+		for(int j = 0; j < n; j++){
+			//each reading multiplies in its likelihood; the sums are taken on the last one
+			model.likelihoods(noisyDistances[j], likelihood);
+			int pacmanCell = observers[j];
+			int pr = pacmanCell / size, pc = pacmanCell % size;
+			boolean last = j == n - 1;
+			for(int i = 0; i < N; i++){
+				int c = cell[i];
+				int d = manhattan ? Math.abs(c / size - pr) + Math.abs(c % size - pc) : model.distance(pacmanCell, c);
+				double w = j == 0 ? likelihood[d] : weight[i] * likelihood[d];
+				weight[i] = w;
+				if(last){
+					sum += w;
+					sumSquares += w * w;
+				}
+			}
+		}
+		ess = sumSquares == 0.0 ? 0.0 : sum * sum / sumSquares;
+		if(sum == 0.0){
+			return false;
+		}
+		GridModel.scale(weight, sum);
+		return true;
+	}
+
+	//Systematic resampling: one random offset, then N evenly spaced pointers into the cumulative weights
+	private void resampleParticles(){
+		double step = 1.0 / N;
+		double u = rng.nextDouble() * step;
+		double cumulative = weight[0];
+		int j = 0;
+		for(int i = 0; i < N; i++){
+			while(u > cumulative && j < N - 1){
+				cumulative += weight[++j];
+			}
+			nextCell[i] = cell[j];
+			u += step;
+		}
+		int[] swap = cell; cell = nextCell; nextCell = swap;
+	}
+
+	//Lists the occupied cells in occupied and the fraction of the particles in each in occupiedWeights,
+	//returning how many there are
+	private int occupiedWeights(){
+		int n;
+		if(compressed != null){
+			n = compressed.getNumCells();
+			if(occupied == null || occupied.length < n){
+				occupied = new int[n];
+			}
+			for(int i = 0; i < n; i++){
+				occupied[i] = compressed.getCell(i);
+			}
+		}
+		else{
+			countParticles();
+			n = distinct;
+		}
+		if(occupiedWeights == null || occupiedWeights.length < n){
+			occupiedWeights = new double[occupied.length];
+		}
+		for(int i = 0; i < n; i++){
+			occupiedWeights[i] = (double) (compressed != null ? compressed.getCount(i) : occupiedCounts[i]) / N;
+		}
+		return n;
+	}
+
+	//Counts the particles in each occupied cell in O(N)
+	private void countParticles(){
+		if(!countsStale){
+			return;
+		}
+		distinct = 0;
+		modeCell = cell[0];
+		for(int i = 0; i < N; i++){
+			int c = cell[i];
+			if(counts[c]++ == 0){
+				occupied[distinct++] = c;
+			}
+			if(counts[c] > counts[modeCell]){
+				modeCell = c;
+			}
+		}
+		for(int i = 0; i < distinct; i++){
+			occupiedCounts[i] = counts[occupied[i]];
+			counts[occupied[i]] = 0;
+		}
+		countsStale = false;
+	}
+
+	//One step of the compressed particle filter: every operation is once per occupied cell
+	private void updateCompressed(int[] noisyDistances, int[] observers, int n){
+		compressed.elapse();
+		compressed.weigh(observers, noisyDistances, n);
+
+		//effective sample size (sum w)^2 / sum w^2 where each cell's weight counts once per particle
+		double sum = 0.0, sumSquares = 0.0;
+		for(int i = 0; i < compressed.getNumCells(); i++){
+			double w = compressed.getWeight(i);
+			sum += compressed.getCount(i) * w;
+			sumSquares += compressed.getCount(i) * w * w;
+		}
+		ess = sumSquares == 0.0 ? 0.0 : sum * sum / sumSquares;
 
+		//if no particle agrees with the reading we keep the elapsed particles rather than lose them all
+		compressed.resample();
 	}
 }
@@ -0,0 +1,229 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import inference.QuadtreeBelief;
+import util.BoardMap;
+import util.Coords;
+import util.WeightedSet;
+
+/**
+ * The version of Pacman that runs the forward algorithm on a quadtree belief (see QuadtreeBelief).
+ * Parts of the board where the belief is nearly uniform are kept as coarse blocks and the blocks are
+ * refined around the readings, so memory and the cost of an update grow with how complicated the
+ * belief is rather than with the area of the board. On a board of a few thousand rows, where a dense
+ * belief has millions of cells, this is the only exact-ish filter that stays cheap from the first
+ * reading on.
+ *
+ * The queries (topCells, credibleRegion, getMoments) and the choice of move work on the leaves. The
+ * WeightedSet from getBelief() lists every cell with non-zero probability, which on a large board
+ * can be far bigger than the tree, so it is best left to the GUI on small boards.
+ *
+ * Walls and shortest-path sonars are not supported.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanQuadtree extends Pacman {
+	public static final double DEFAULT_TOLERANCE = 1e-7;
+
+	private QuadtreeBelief tree;
+	private boolean beliefStale;	// true if the published WeightedSet does not reflect the tree
+
+	/**
+	 * Creates a new Pacman agent that uses a quadtree belief with the default tolerance
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 *
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 *
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears). It must measure Manhattan distances.
+	 */
+	public PacmanQuadtree(int size, BufferedImage[] images, Sonar sonar) {
+		this(size, images, sonar, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Creates a new Pacman agent that uses a quadtree belief
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param images
+	 * 			Images of Pacman in the 4 cardinal directions
+	 * @param sonar
+	 * 			Pacman's sonar apparatus (i.e. his ears). It must measure Manhattan distances.
+	 * @param tolerance
+	 * 			The most probability mass that splitting or merging any one block may misplace. Smaller
+	 * 			values keep more, finer blocks.
+	 */
+	public PacmanQuadtree(int size, BufferedImage[] images, Sonar sonar, double tolerance) {
+		super(size, images, sonar);
+		tree = new QuadtreeBelief(size, sonar, tolerance);
+		beliefStale = true;
+	}
+
+	/**
+	 * Updates Pacman's belief of the ghost's location.
+	 *
+	 * @param noisyDistance
+	 * 			A noisy distance reading -- i.e., the noisy distance from Pacman to the ghost
+	 */
+	@Override
+	public void update(int noisyDistance) {
+		observeHere(noisyDistance);
+	}
+
+	/**
+	 * Predicts the belief one ghost step and weighs it by every reading of that step, each from the cell
+	 * it was taken from
+	 *
+	 * @param noisyDistances
+	 * 			The readings
+	 * @param observers
+	 * 			The row-major cell each reading was taken from
+	 * @param n
+	 * 			The number of readings
+	 */
+	@Override
+	protected void observe(int[] noisyDistances, int[] observers, int n) {
+		tree.predict();
+		double sum = weigh(noisyDistances, observers, n);
+		if(sum == 0) {
+			//the readings are impossible under the belief, so the belief was wrong: start over from the prior
+			tree.uniform();
+			sum = weigh(noisyDistances, observers, n);
+		}
+		tree.scale(sum);
+		tree.adapt();
+		beliefStale = true;
+	}
+
+	/**
+	 * Moves the belief forward the given number of ghost steps without a reading
+	 *
+	 * @param steps
+	 * 			The number of times the ghost moved
+	 */
+	@Override
+	public void predict(int steps) {
+		if(steps < 0) {
+			throw new IllegalArgumentException("The number of steps must not be negative");
+		}
+		if(steps == 0) {
+			return;
+		}
+		for(int k = 0; k < steps; k++) {
+			tree.predict();
+		}
+		//The transition keeps the mass, but renormalizing stops rounding errors from building up
+		tree.scale(tree.getTotalMass());
+		tree.adapt();
+		beliefStale = true;
+	}
+
+	/**
+	 * Walls are not supported: only null, which leaves the board empty, is accepted
+	 *
+	 * @param map
+	 * 			Must be null
+	 * @throws UnsupportedOperationException if the map is not null
+	 */
+	@Override
+	public void setBoardMap(BoardMap map) {
+		if(map != null) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support walls");
+		}
+		super.setBoardMap(null);
+		tree.uniform();
+		beliefStale = true;
+	}
+
+	/**
+	 * Returns the number of leaves of the belief's quadtree
+	 */
+	public int getNumLeaves() {
+		return tree.getNumLeaves();
+	}
+
+	/**
+	 * Returns the belief's quadtree. It must not be modified.
+	 */
+	public QuadtreeBelief getTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns Pacman's belief of the ghost's location
+	 *
+	 * @return
+	 * 			A distribution over the cells with non-zero probability
+	 */
+	@Override
+	public WeightedSet<Coords> getBelief() {
+		if(beliefStale) {
+			if(belief == null) {
+				belief = new WeightedSet<Coords>();
+			}
+			belief.clear();
+			for(int i = 0; i < tree.getNumLeaves(); i++) {
+				double mass = tree.getLeafMass(i);
+				if(mass == 0) {
+					continue;
+				}
+				double density = mass/((tree.getLeafRowMax(i) - tree.getLeafRowMin(i) + 1)*(long)(tree.getLeafColMax(i) - tree.getLeafColMin(i) + 1));
+				for(int r = tree.getLeafRowMin(i); r <= tree.getLeafRowMax(i); r++) {
+					for(int c = tree.getLeafColMin(i); c <= tree.getLeafColMax(i); c++) {
+						belief.addEvent(new Coords(r, c), density);
+					}
+				}
+			}
+			beliefStale = false;
+		}
+		return belief;
+	}
+
+	@Override
+	public double[] getBeliefVector(double[] dst) {
+		if(dst == null || dst.length != size*size) {
+			dst = new double[size*size];
+		}
+		tree.toDense(dst);
+		return dst;
+	}
+
+	@Override
+	public int[] topCells(int k, double[] probabilities) {
+		return tree.topCells(k, probabilities);
+	}
+
+	@Override
+	public int[] credibleRegion(double mass) {
+		return tree.credibleRegion(mass);
+	}
+
+	@Override
+	public double[] getMoments() {
+		return tree.moments();
+	}
+
+	@Override
+	protected Coords mostLikely() {
+		int cell = tree.mostLikely();
+		return new Coords(cell/size, cell%size);
+	}
+
+	//Multiplies the belief by the likelihood of every reading and returns the total weight left
+	private double weigh(int[] noisyDistances, int[] observers, int n) {
+		double sum = 0;
+		for(int j = 0; j < n; j++) {
+			sum = tree.weigh(observers[j]/size, observers[j]%size, noisyDistances[j]);
+			if(sum == 0) {
+				break;
+			}
+		}
+		return sum;
+	}
+}
@@ -36,16 +36,16 @@ public class RandomGhost extends Ghost {
 	@Override
 	public Coords move() {
 		Direction[] legalMoves = new Direction[4];
-		if(0 < location.row) {
+		if(0 < location.row && isOpen(location.row-1, location.col)) {
 			legalMoves[0] = Direction.UP;
 		}
-		if(location.row < boardSize-1) {
+		if(location.row < boardSize-1 && isOpen(location.row+1, location.col)) {
 			legalMoves[1] = Direction.DOWN;
 		}
-		if(0 < location.col) {
+		if(0 < location.col && isOpen(location.row, location.col-1)) {
 			legalMoves[2] = Direction.LEFT;
 		}
-		if(location.col < boardSize-1) {
+		if(location.col < boardSize-1 && isOpen(location.row, location.col+1)) {
 			legalMoves[3] = Direction.RIGHT;
 		}
 		
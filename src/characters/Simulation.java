@@ -0,0 +1,154 @@
+package characters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.BoardMap;
+import util.Coords;
+import util.DistanceTable;
+
+/**
+ * Plays games of Ghost Busters without the GUI to compare move policies. Each game runs the same
+ * loop as the panel (the ghost moves, Pacman takes a reading, updates and moves) until Pacman
+ * catches the ghost or the step limit is reached.
+ *
+ * Usage: java characters.Simulation [boardSize] [games] [pacmanType] [greedy|infogain|mcts]...
+ * Add -Dghostbusters.map=<file> to play on a board with walls, and -Dghostbusters.shortestPaths=true
+ * to have the sonar measure the shortest path around them.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Simulation {
+	private static final int SONAR_RANGE = 2;
+	private static final int STEPS_PER_CELL_OF_SIZE = 50;	// a game is abandoned after this many steps per row of the board
+
+	private long games;
+	private long captures;
+	private long steps;
+	private long moveNanos;
+
+	/**
+	 * Plays a single game against a random ghost
+	 *
+	 * @param pacman
+	 * 			A fresh Pacman, with the policy to evaluate already set
+	 * @param ghost
+	 * 			A fresh ghost on the same board
+	 * @param sonar
+	 * 			The sonar Pacman was created with
+	 * @param maxSteps
+	 * 			The number of steps after which the game is abandoned
+	 * @return
+	 * 			True if Pacman caught the ghost
+	 */
+	public boolean play(Pacman pacman, Ghost ghost, Sonar sonar, int maxSteps) {
+		games++;
+		for(int step = 0; step < maxSteps; step++) {
+			Coords ghostLocation = ghost.move();
+			pacman.update(sonar.getNoisyDistance(ghostLocation, pacman.getLocation()));
+
+			long start = System.nanoTime();
+			pacman.move();
+			moveNanos += System.nanoTime() - start;
+			steps++;
+
+			if(pacman.getLocation().equals(ghost.getLocation())) {
+				captures++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of ghosts caught per step played, the rate at which a Pacman playing games back
+	 * to back catches ghosts
+	 */
+	public double getCapturesPerStep() {
+		return steps == 0 ? 0.0 : (double)captures/steps;
+	}
+
+	/**
+	 * Returns the fraction of games in which the ghost was caught
+	 */
+	public double getCaptureRate() {
+		return games == 0 ? 0.0 : (double)captures/games;
+	}
+
+	/**
+	 * Returns the mean number of steps per game
+	 */
+	public double getMeanSteps() {
+		return games == 0 ? 0.0 : (double)steps/games;
+	}
+
+	/**
+	 * Returns the mean time spent choosing a move in nanoseconds
+	 */
+	public double getMeanMoveNanos() {
+		return steps == 0 ? 0.0 : (double)moveNanos/steps;
+	}
+
+	/**
+	 * Creates a move policy by name ("greedy", "infogain" or "mcts"). Greedy is Pacman's default and is returned as null.
+	 */
+	public static MovePolicy createPolicy(String name, int size, Sonar sonar) {
+		switch(name) {
+		case "greedy":
+			return null;
+		case "infogain":
+			return new InformationGainPolicy(size, sonar);
+		case "mcts":
+			return new MctsPolicy(size, sonar);
+		default:
+			throw new IllegalArgumentException("Unknown move policy: " + name);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int numGames = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		String type = args.length > 2 ? args[2] : "hybrid";
+		String[] policies = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : new String[] {"greedy", "infogain"};
+
+		Sonar sonar = new Sonar(size, SONAR_RANGE);
+		String mapPath = System.getProperty("ghostbusters.map");
+		BoardMap map = mapPath == null ? null : BoardMap.load(Paths.get(mapPath));
+		if(map != null && Boolean.getBoolean("ghostbusters.shortestPaths")) {
+			sonar.setDistanceTable(DistanceTable.compute(map));
+		}
+		int maxSteps = STEPS_PER_CELL_OF_SIZE*size;
+		for(String name : policies) {
+			Simulation simulation = new Simulation();
+			MovePolicy policy = createPolicy(name, size, sonar);
+			for(int game = 0; game < numGames; game++) {
+				Pacman pacman = TraceReplay.createPacman(type, size, sonar);
+				Ghost ghost = new RandomGhost(size, null);
+				if(map != null) {
+					pacman.setBoardMap(map);
+					ghost.setBoardMap(map);
+				}
+				pacman.setMovePolicy(policy);
+				try {
+					simulation.play(pacman, ghost, sonar, maxSteps);
+				}
+				finally {
+					// An off-heap Pacman holds memory until it is closed; one is made for every game
+					if(pacman instanceof Closeable) {
+						((Closeable) pacman).close();
+					}
+				}
+			}
+			if(policy instanceof MctsPolicy) {
+				((MctsPolicy) policy).close();
+			}
+			System.out.printf("%-10s %5d games  caught %5.1f%%  %8.1f steps/game  %.5f captures/step  %8.1f us/move%n",
+					name, numGames, 100*simulation.getCaptureRate(), simulation.getMeanSteps(),
+					simulation.getCapturesPerStep(), simulation.getMeanMoveNanos()/1000.0);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package characters;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.Coords;
+import util.FilterMetrics;
+import util.TraceReader;
+import util.TraceRecord;
+
+/**
+ * Feeds the readings of a recorded trace back into a Pacman. Before each update Pacman is placed
+ * where he was when the reading was taken, so every filter sees exactly the same input stream
+ * and can be compared against the others.
+ *
+ * Usage: java characters.TraceReplay trace.bin [forward|particle|compressed|fixedlag|hybrid|quadtree|offheap]...
+ * Add -Dghostbusters.metrics=true to print per-step metrics for each filter.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TraceReplay {
+	private static final int COMPRESSED_PARTICLES = 1000000;
+
+	private long steps;
+	private long updateNanos;
+	private long totalError;
+
+	/**
+	 * Replays every record of the trace through the given Pacman
+	 *
+	 * @param trace
+	 * 			An open trace positioned at its first record
+	 * @param pacman
+	 * 			The Pacman to update. It must have been created for the trace's board size.
+	 * @throws IOException if the trace cannot be read
+	 */
+	public void replay(TraceReader trace, Pacman pacman) throws IOException {
+		replay(trace, pacman, null);
+	}
+
+	/**
+	 * Replays every record of the trace through the given Pacman, recording per-step metrics
+	 *
+	 * @param trace
+	 * 			An open trace positioned at its first record
+	 * @param pacman
+	 * 			The Pacman to update. It must have been created for the trace's board size.
+	 * @param metrics
+	 * 			Where to record per-step metrics, or null
+	 * @throws IOException if the trace cannot be read
+	 */
+	public void replay(TraceReader trace, Pacman pacman, FilterMetrics metrics) throws IOException {
+		TraceRecord record = new TraceRecord();
+		while(trace.next(record)) {
+			pacman.location.row = record.pacman.row;
+			pacman.location.col = record.pacman.col;
+
+			long start = System.nanoTime();
+			Instrumentation.update(pacman, record.noisyDistance, record.ghost, metrics);
+			updateNanos += System.nanoTime() - start;
+
+			Coords estimate = pacman.mostLikely();
+			if(estimate != null) {
+				totalError += pacman.sonar.manhattanDistance(estimate, record.ghost);
+			}
+			steps++;
+		}
+	}
+
+	/**
+	 * Returns the number of readings replayed
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the mean time spent in Pacman.update in nanoseconds
+	 */
+	public double getMeanUpdateNanos() {
+		return steps == 0 ? 0.0 : (double)updateNanos/steps;
+	}
+
+	/**
+	 * Returns the mean Manhattan distance between the most likely cell and the ghost's true location
+	 */
+	public double getMeanError() {
+		return steps == 0 ? 0.0 : (double)totalError/steps;
+	}
+
+	/**
+	 * Creates a Pacman by name ("forward", "particle", "compressed", "fixedlag", "hybrid", "quadtree" or
+	 * "offheap") without images, for replaying traces. An off-heap Pacman must be closed when done.
+	 */
+	public static Pacman createPacman(String type, int size, Sonar sonar) {
+		BufferedImage[] images = new BufferedImage[4];
+		switch(type) {
+		case "forward":
+			return new PacmanForwardAlgorithm(size, images, sonar);
+		case "particle":
+			return new PacmanParticleFilter(size, images, sonar);
+		case "fixedlag":
+			return new PacmanFixedLagSmoother(size, images, sonar);
+		case "hybrid":
+			return new PacmanHybrid(size, images, sonar);
+		case "quadtree":
+			return new PacmanQuadtree(size, images, sonar);
+		case "offheap":
+			return new PacmanOffHeap(size, images, sonar);
+		case "compressed":
+			return new PacmanParticleFilter(size, images, sonar, COMPRESSED_PARTICLES, true);
+		default:
+			throw new IllegalArgumentException("Unknown Pacman type: " + type);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java characters.TraceReplay trace.bin [forward|particle|compressed|fixedlag|hybrid|quadtree|offheap]...");
+			System.exit(-1);
+		}
+		Path path = Paths.get(args[0]);
+		String[] types = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"forward", "particle"};
+		for(String type : types) {
+			try(TraceReader trace = new TraceReader(path)) {
+				Sonar sonar = new Sonar(trace.getBoardSize(), trace.getSonarRange());
+				Pacman pacman = createPacman(type, trace.getBoardSize(), sonar);
+				FilterMetrics metrics = FilterMetrics.fromSystemProperties(type);
+				TraceReplay replay = new TraceReplay();
+				replay.replay(trace, pacman, metrics);
+				System.out.printf("%-10s %8d steps  %12.1f us/update  mean error %.3f%n", type, replay.getSteps(),
+						replay.getMeanUpdateNanos()/1000.0, replay.getMeanError());
+				if(metrics != null) {
+					System.out.print(metrics.dump());
+				}
+				if(pacman instanceof Closeable) {
+					((Closeable)pacman).close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package characters;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Coords;
+
+/**
+ * A blocking client for one session of a TrackingServer on this machine. See TrackingServer for the
+ * protocol. Not thread-safe: give each thread its own client.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TrackingClient implements Closeable {
+	private final SocketChannel channel;
+	private ByteBuffer request = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Connects to the server on the given port of the loopback interface
+	 *
+	 * @throws IOException if the server cannot be reached
+	 */
+	public TrackingClient(int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Creates the session's filter
+	 *
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param type
+	 * 			The kind of Pacman, as in TraceReplay.createPacman
+	 */
+	public void open(int boardSize, String type) throws IOException {
+		byte[] name = type.getBytes(StandardCharsets.UTF_8);
+		begin(TrackingServer.OPEN, 4 + name.length).putInt(boardSize).put(name);
+		call();
+	}
+
+	/**
+	 * Updates the filter with a reading taken after the ghost moved the given number of times
+	 */
+	public void update(int noisyDistance, int steps) throws IOException {
+		begin(TrackingServer.UPDATE, 8).putInt(noisyDistance).putInt(steps);
+		call();
+	}
+
+	/**
+	 * Moves the filter's belief forward the given number of ghost steps without a reading
+	 */
+	public void predict(int steps) throws IOException {
+		begin(TrackingServer.PREDICT, 4).putInt(steps);
+		call();
+	}
+
+	/**
+	 * Moves Pacman and returns his new location
+	 */
+	public Coords move() throws IOException {
+		begin(TrackingServer.MOVE, 0);
+		ByteBuffer response = call();
+		return new Coords(response.getInt(), response.getInt());
+	}
+
+	/**
+	 * Returns the most likely cell
+	 */
+	public Coords mostLikely() throws IOException {
+		begin(TrackingServer.MAP, 0);
+		ByteBuffer response = call();
+		return new Coords(response.getInt(), response.getInt());
+	}
+
+	/**
+	 * Returns the k most likely cells, most likely first
+	 *
+	 * @param k
+	 * 			The number of cells
+	 * @param probabilities
+	 * 			Filled with the probability of each cell, or null
+	 */
+	public List<Coords> topK(int k, double[] probabilities) throws IOException {
+		begin(TrackingServer.TOP_K, 4).putInt(k);
+		ByteBuffer response = call();
+		int n = response.getInt();
+		List<Coords> cells = new ArrayList<>(n);
+		for(int i = 0; i < n; i++) {
+			cells.add(new Coords(response.getInt(), response.getInt()));
+			double p = response.getDouble();
+			if(probabilities != null && i < probabilities.length) {
+				probabilities[i] = p;
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Returns the whole belief as a row-major vector, in single precision
+	 */
+	public double[] belief() throws IOException {
+		begin(TrackingServer.BELIEF, 0);
+		ByteBuffer response = call();
+		int size = response.getInt();
+		double[] belief = new double[size*size];
+		for(int i = 0; i < belief.length; i++) {
+			belief[i] = response.getFloat();
+		}
+		return belief;
+	}
+
+	/**
+	 * Returns the server's request count and its p50, p90, p99 and maximum latency in nanoseconds
+	 */
+	public long[] stats() throws IOException {
+		begin(TrackingServer.STATS, 0);
+		ByteBuffer response = call();
+		long[] stats = new long[5];
+		for(int i = 0; i < stats.length; i++) {
+			stats[i] = response.getLong();
+		}
+		return stats;
+	}
+
+	/**
+	 * Ends the session and closes the connection
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(channel.isOpen()) {
+				begin(TrackingServer.CLOSE, 0);
+				call();
+			}
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Starts a request frame with room for the given payload
+	private ByteBuffer begin(byte op, int payloadBytes) {
+		if(request.capacity() < 5 + payloadBytes) {
+			request = ByteBuffer.allocate(5 + payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		request.clear();
+		return request.putInt(1 + payloadBytes).put(op);
+	}
+
+	// Sends the request and returns the payload of the response
+	private ByteBuffer call() throws IOException {
+		request.flip();
+		while(request.hasRemaining()) {
+			channel.write(request);
+		}
+		header.clear();
+		readFully(header);
+		header.flip();
+		ByteBuffer response = ByteBuffer.allocate(header.getInt()).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(response);
+		response.flip();
+		if(response.get() != TrackingServer.OK) {
+			byte[] message = new byte[response.remaining()];
+			response.get(message);
+			throw new IOException("The tracking server refused the request: " + new String(message, StandardCharsets.UTF_8));
+		}
+		return response;
+	}
+
+	private void readFully(ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			if(channel.read(buf) < 0) {
+				throw new EOFException("The tracking server closed the connection");
+			}
+		}
+	}
+}
@@ -0,0 +1,562 @@
+package characters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import graphics.Sonar;
+import util.Coords;
+import util.Histogram;
+
+/**
+ * Runs filters as a long-lived process that other tools feed with sonar readings and query for the
+ * belief over a socket. Every connection is a session with its own Pacman. The server only listens
+ * on the loopback interface.
+ *
+ * One thread multiplexes every connection with a selector and a pool of workers runs the filters, so
+ * a slow update in one session does not hold up the others. A session's requests are handled one at
+ * a time in the order they arrive; a client may send several before reading the responses.
+ *
+ * Every message is a frame, little-endian:
+ *
+ * 		request:   int length, byte op, payload     (length counts the op and the payload)
+ * 		response:  int length, byte status, payload (status OK, or ERROR with a UTF-8 message as payload)
+ *
+ * 		op         request payload                  response payload
+ * 		OPEN       int boardSize, UTF-8 type        -                 (type as in TraceReplay.createPacman)
+ * 		UPDATE     int noisyDistance, int steps     -                 (steps: ghost moves since the last reading)
+ * 		PREDICT    int steps                        -                 (ghost moves without a reading)
+ *
+ * A request may cover at most STEPS_PER_ROW*maxBoardSize ghost steps, enough to cross the largest board
+ * several times; a longer gap would only tie up a worker.
+ * 		MOVE       -                                int row, int col  (Pacman's new location)
+ * 		MAP        -                                int row, int col, double probability
+ * 		TOP_K      int k                            int n, then n times int row, int col, double probability
+ * 		BELIEF     -                                int size, then size*size floats in row-major order
+ * 		STATS      -                                long count, then p50, p90, p99 and max latency in nanoseconds
+ * 		CLOSE      -                                -                 (the server then closes the connection)
+ *
+ * The latency of a request is measured from the moment it has been read to the moment its response is
+ * ready, so it includes the time spent waiting for a worker.
+ *
+ * Usage: java characters.TrackingServer [port] [workers] [maxBoardSize]
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TrackingServer implements Closeable {
+	public static final byte OPEN = 1;
+	public static final byte UPDATE = 2;
+	public static final byte PREDICT = 3;
+	public static final byte MOVE = 4;
+	public static final byte MAP = 5;
+	public static final byte TOP_K = 6;
+	public static final byte BELIEF = 7;
+	public static final byte STATS = 8;
+	public static final byte CLOSE = 9;
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	public static final int MAX_FRAME_BYTES = 1 << 20;
+	public static final int DEFAULT_PORT = 7461;
+	public static final int STEPS_PER_ROW = 4;		// the most ghost steps one request may cover, per row of the largest board
+
+	private static final int SONAR_RANGE = 2;
+	private static final int REPORT_MILLIS = 30_000;
+	private static final int SHUTDOWN_SECONDS = 5;	// how long close() waits for the requests being handled
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final int port;
+	private final ExecutorService workers;
+	private final int maxBoardSize;
+	private final int maxSteps;
+	private final Queue<Session> finished = new ConcurrentLinkedQueue<>();	// sessions whose request a worker has handled
+	private final Histogram latency = new Histogram();		// nanoseconds from a request being read to its response being ready
+	private final AtomicInteger numSessions = new AtomicInteger();
+	private volatile boolean running;
+	private Thread loop;
+
+	// One connection. Its buffers and flags belong to the selector thread; the worker handling a request
+	// only touches the Pacman, and hands the response back through the finished queue.
+	private static class Session {
+		final SocketChannel channel;
+		final SelectionKey key;
+		ByteBuffer in = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+		final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+		boolean busy;			// a worker is handling one of its requests
+		boolean closing;		// the connection is closed once the responses are written
+		long arrived;			// when the request being handled was read
+		ByteBuffer response;	// the response to it
+
+		Pacman pacman;
+		double[] belief;		// scratch for the belief vector
+
+		Session(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Opens the server socket. Call start() to begin serving.
+	 *
+	 * @param port
+	 * 			The port on the loopback interface, or 0 for any free port
+	 * @param numWorkers
+	 * 			The number of threads that run the filters
+	 * @param maxBoardSize
+	 * 			The largest board a session may open
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public TrackingServer(int port, int numWorkers, int maxBoardSize) throws IOException {
+		if(numWorkers < 1 || maxBoardSize < 1) {
+			throw new IllegalArgumentException("There must be at least one worker and the boards must have at least one cell");
+		}
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+		this.maxBoardSize = maxBoardSize;
+		this.maxSteps = (int) Math.min(Integer.MAX_VALUE, (long) STEPS_PER_ROW*maxBoardSize);
+		AtomicInteger threads = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(numWorkers, r -> {
+			Thread t = new Thread(r, "TrackingServer-worker-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Starts serving on a background thread
+	 */
+	public synchronized void start() {
+		if(loop != null) {
+			return;
+		}
+		running = true;
+		loop = new Thread(this::run, "TrackingServer");
+		loop.start();
+	}
+
+	/**
+	 * Stops serving and closes every connection, and the filter of every session that holds resources
+	 * of its own (see PacmanOffHeap)
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		Thread thread;
+		synchronized(this) {
+			thread = loop;
+		}
+		if(thread != null) {
+			try {
+				thread.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		workers.shutdownNow();
+		try {
+			// A filter may only be closed once no worker is using it
+			workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(SelectionKey key : selector.keys()) {
+			key.channel().close();
+			if(key.attachment() instanceof Session) {
+				release((Session) key.attachment());
+			}
+		}
+		selector.close();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the latency of every request so far, in nanoseconds
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	public int getNumSessions() {
+		return numSessions.get();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int numWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int maxBoardSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		TrackingServer server = new TrackingServer(port, numWorkers, maxBoardSize);
+		server.start();
+		System.out.println("Tracking server listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort());
+		while(true) {
+			Thread.sleep(REPORT_MILLIS);
+			Histogram latency = server.getLatency();
+			System.out.printf("%d sessions, %d requests, latency p50 %.1f us  p90 %.1f us  p99 %.1f us  max %.1f us%n",
+					server.getNumSessions(), latency.getCount(), latency.getValueAtPercentile(50)/1000.0,
+					latency.getValueAtPercentile(90)/1000.0, latency.getValueAtPercentile(99)/1000.0, latency.getMax()/1000.0);
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				SELECTOR THREAD
+	 *------------------------------------------------------*/
+
+	private void run() {
+		while(running) {
+			try {
+				selector.select();
+			}
+			catch(IOException e) {
+				System.err.println("TrackingServer: the selector failed: " + e.getMessage());
+				break;
+			}
+			Session done;
+			while((done = finished.poll()) != null) {
+				complete(done);
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) {
+					continue;
+				}
+				if(key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				Session session = (Session) key.attachment();
+				try {
+					if(key.isReadable()) {
+						read(session);
+					}
+					if(key.isValid() && key.isWritable()) {
+						write(session);
+					}
+				}
+				catch(IOException e) {
+					drop(session);
+				}
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = server.accept();
+			if(channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Session(channel, key));
+			numSessions.incrementAndGet();
+		}
+		catch(IOException e) {
+			System.err.println("TrackingServer: unable to accept a connection: " + e.getMessage());
+		}
+	}
+
+	private void read(Session session) throws IOException {
+		if(session.channel.read(session.in) < 0) {
+			drop(session);
+			return;
+		}
+		dispatch(session);
+	}
+
+	private void write(Session session) throws IOException {
+		while(!session.out.isEmpty()) {
+			ByteBuffer buf = session.out.peek();
+			session.channel.write(buf);
+			if(buf.hasRemaining()) {
+				break;
+			}
+			session.out.poll();
+		}
+		if(session.out.isEmpty() && session.closing && !session.busy) {
+			drop(session);
+			return;
+		}
+		interest(session);
+	}
+
+	// Reads only while no request is being handled, so that a client sending faster than its filter
+	// keeps up is held back by TCP instead of filling the buffer, and writes while responses are pending
+	private void interest(Session session) {
+		int ops = (session.busy || session.closing ? 0 : SelectionKey.OP_READ) | (session.out.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+		session.key.interestOps(ops);
+	}
+
+	// Hands the next complete request to a worker, unless one is already being handled
+	private void dispatch(Session session) throws IOException {
+		if(session.busy || session.closing) {
+			return;
+		}
+		ByteBuffer in = session.in;
+		in.flip();
+		ByteBuffer frame = null;
+		int length = -1;
+		if(in.remaining() >= 4) {
+			length = in.getInt(in.position());
+			if(length < 1 || length > MAX_FRAME_BYTES) {
+				in.clear();
+				session.out.add(error("A request must be between 1 and " + MAX_FRAME_BYTES + " bytes long"));
+				session.closing = true;
+				write(session);
+				return;
+			}
+			if(in.remaining() >= 4 + length) {
+				in.getInt();
+				frame = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+				int limit = in.limit();
+				in.limit(in.position() + length);
+				frame.put(in);
+				frame.flip();
+				in.limit(limit);
+			}
+		}
+		in.compact();
+		if(frame == null) {
+			if(length > 0 && in.capacity() < 4 + length) {
+				// The request does not fit yet: make room for all of it
+				ByteBuffer bigger = ByteBuffer.allocate(4 + length).order(ByteOrder.LITTLE_ENDIAN);
+				in.flip();
+				bigger.put(in);
+				session.in = bigger;
+			}
+			return;
+		}
+
+		session.busy = true;
+		session.arrived = System.nanoTime();
+		interest(session);
+		ByteBuffer request = frame;
+		workers.execute(() -> {
+			try {
+				session.response = handle(session, request);
+			}
+			finally {
+				// Even if an Error escaped, so that the session is not left busy forever
+				finished.add(session);
+				selector.wakeup();
+			}
+		});
+	}
+
+	// Queues the response a worker produced and moves on to the session's next request
+	private void complete(Session session) {
+		session.busy = false;
+		if(!session.key.isValid()) {
+			release(session);	// dropped while the worker held the filter
+			return;
+		}
+		latency.record(System.nanoTime() - session.arrived);
+		if(session.response == null) {
+			// The worker failed with an Error; the filter may be half updated, so the session ends here
+			session.response = error("The server failed while handling the request");
+			session.closing = true;
+		}
+		session.out.add(session.response);
+		session.response = null;
+		try {
+			write(session);
+			if(session.key.isValid()) {
+				dispatch(session);
+			}
+		}
+		catch(IOException e) {
+			drop(session);
+		}
+	}
+
+	private void drop(Session session) {
+		if(session.key.isValid()) {
+			numSessions.decrementAndGet();
+		}
+		session.key.cancel();
+		try {
+			session.channel.close();
+		}
+		catch(IOException e) {
+			// the connection is gone either way
+		}
+		if(!session.busy) {
+			release(session);	// otherwise complete() does it once the worker is done
+		}
+	}
+
+	// Closes the session's filter if it holds resources of its own, e.g. off-heap memory
+	private static void release(Session session) {
+		Pacman pacman = session.pacman;
+		session.pacman = null;
+		if(pacman instanceof Closeable) {
+			try {
+				((Closeable) pacman).close();
+			}
+			catch(IOException e) {
+				System.err.println("TrackingServer: unable to close a filter: " + e.getMessage());
+			}
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				WORKERS
+	 *------------------------------------------------------*/
+
+	// Runs one request against the session's Pacman and returns the response frame
+	private ByteBuffer handle(Session session, ByteBuffer request) {
+		try {
+			byte op = request.get();
+			if(op == OPEN) {
+				return open(session, request);
+			}
+			if(op == STATS) {
+				ByteBuffer response = response(5*8);
+				response.putLong(latency.getCount()).putLong(latency.getValueAtPercentile(50))
+						.putLong(latency.getValueAtPercentile(90)).putLong(latency.getValueAtPercentile(99)).putLong(latency.getMax());
+				return finish(response);
+			}
+			if(op == CLOSE) {
+				session.closing = true;
+				return finish(response(0));
+			}
+			Pacman pacman = session.pacman;
+			if(pacman == null) {
+				return error("No filter is open; send OPEN first");
+			}
+			switch(op) {
+			case UPDATE: {
+				int noisyDistance = request.getInt();
+				int steps = request.getInt();
+				if(steps > maxSteps) {
+					return error("A request may cover at most " + maxSteps + " ghost steps");
+				}
+				pacman.update(noisyDistance, steps);
+				return finish(response(0));
+			}
+			case PREDICT: {
+				int steps = request.getInt();
+				if(steps > maxSteps) {
+					return error("A request may cover at most " + maxSteps + " ghost steps");
+				}
+				pacman.predict(steps);
+				return finish(response(0));
+			}
+			case MOVE: {
+				Coords location = pacman.move();
+				return finish(response(8).putInt(location.row).putInt(location.col));
+			}
+			case MAP: {
+				double[] probability = new double[1];
+				int[] best = pacman.topCells(1, probability);
+				if(best.length == 0) {
+					return error("The belief is empty");
+				}
+				int size = pacman.size;
+				return finish(response(16).putInt(best[0]/size).putInt(best[0]%size).putDouble(probability[0]));
+			}
+			case TOP_K: {
+				int k = request.getInt();
+				if(k < 1 || k > MAX_FRAME_BYTES/16) {
+					return error("k must be between 1 and " + MAX_FRAME_BYTES/16);
+				}
+				double[] probabilities = new double[k];
+				int[] top = pacman.topCells(k, probabilities);
+				int size = pacman.size;
+				ByteBuffer response = response(4 + 16*top.length).putInt(top.length);
+				for(int i = 0; i < top.length; i++) {
+					response.putInt(top[i]/size).putInt(top[i]%size).putDouble(probabilities[i]);
+				}
+				return finish(response);
+			}
+			case BELIEF: {
+				double[] belief = beliefVector(session);
+				if(4 + 4L*belief.length > MAX_FRAME_BYTES) {
+					return error("The belief over " + belief.length + " cells is too large for one response");
+				}
+				ByteBuffer response = response(4 + 4*belief.length).putInt(pacman.size);
+				for(double p : belief) {
+					response.putFloat((float) p);
+				}
+				return finish(response);
+			}
+			default:
+				return error("Unknown request " + op);
+			}
+		}
+		catch(BufferUnderflowException e) {
+			return error("The request is too short");
+		}
+		catch(RuntimeException e) {
+			return error(e.getClass().getSimpleName() + ": " + e.getMessage());
+		}
+	}
+
+	private ByteBuffer open(Session session, ByteBuffer request) {
+		if(session.pacman != null) {
+			return error("A filter is already open in this session");
+		}
+		int boardSize = request.getInt();
+		if(boardSize < 1 || boardSize > maxBoardSize) {
+			return error("The board size must be between 1 and " + maxBoardSize);
+		}
+		byte[] name = new byte[request.remaining()];
+		request.get(name);
+		session.pacman = TraceReplay.createPacman(new String(name, StandardCharsets.UTF_8), boardSize, new Sonar(boardSize, SONAR_RANGE));
+		return finish(response(0));
+	}
+
+	private static double[] beliefVector(Session session) {
+		session.belief = session.pacman.getBeliefVector(session.belief);
+		return session.belief;
+	}
+
+	private static ByteBuffer response(int payloadBytes) {
+		ByteBuffer response = ByteBuffer.allocate(5 + payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+		response.putInt(1 + payloadBytes).put(OK);
+		return response;
+	}
+
+	private static ByteBuffer finish(ByteBuffer response) {
+		response.flip();
+		return response;
+	}
+
+	private static ByteBuffer error(String message) {
+		byte[] text = message.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer response = ByteBuffer.allocate(5 + text.length).order(ByteOrder.LITTLE_ENDIAN);
+		response.putInt(1 + text.length).put(ERROR).put(text);
+		return finish(response);
+	}
+}
@@ -0,0 +1,142 @@
+package graphics;
+
+/**
+ * A level-of-detail pyramid over a row-major belief vector, used to draw the heat map. Level 0 is the
+ * belief itself; each level above halves the number of rows and columns, and every block holds both
+ * the max and the sum of the four blocks below it.
+ *
+ * The pyramid is rebuilt in O(cells) when the belief changes. Drawing then reads the level whose blocks
+ * are about as large as a pixel, so a repaint (zooming, panning, resizing) visits a few blocks per pixel
+ * no matter how many cells the board has.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class BeliefPyramid {
+	private final int boardSize;
+	private final int[] sides;	// sides[k] is the number of rows (and columns) of blocks at level k
+	private double[] cells;		// level 0: the belief vector itself
+	private float[][] max;		// max[k] and sum[k] for k >= 1; index 0 is unused
+	private float[][] sum;
+
+	/**
+	 * Creates an empty pyramid for a board of the given size
+	 *
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 */
+	public BeliefPyramid(int boardSize) {
+		this.boardSize = boardSize;
+		int levels = 1;
+		while((boardSize - 1) >> (levels - 1) > 0) {
+			levels++;
+		}
+		sides = new int[levels];
+		max = new float[levels][];
+		sum = new float[levels][];
+		for(int k = 0; k < levels; k++) {
+			sides[k] = ((boardSize - 1) >> k) + 1;
+			if(k > 0) {
+				max[k] = new float[sides[k]*sides[k]];
+				sum[k] = new float[sides[k]*sides[k]];
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the pyramid over the given belief. The vector is kept as level 0, so it must not be
+	 * changed until the next build.
+	 *
+	 * @param belief
+	 * 			A row-major belief vector of length boardSize*boardSize
+	 */
+	public void build(double[] belief) {
+		if(belief.length != boardSize*boardSize) {
+			throw new IllegalArgumentException("Expected a belief over " + boardSize*boardSize + " cells");
+		}
+		cells = belief;
+		for(int k = 1; k < sides.length; k++) {
+			int side = sides[k], below = sides[k - 1];
+			for(int r = 0; r < side; r++) {
+				for(int c = 0; c < side; c++) {
+					float m = 0, s = 0;
+					for(int i = 2*r; i <= Math.min(2*r + 1, below - 1); i++) {
+						for(int j = 2*c; j <= Math.min(2*c + 1, below - 1); j++) {
+							float mm = k == 1 ? (float)cells[i*below + j] : max[k - 1][i*below + j];
+							float ss = k == 1 ? (float)cells[i*below + j] : sum[k - 1][i*below + j];
+							m = Math.max(m, mm);
+							s += ss;
+						}
+					}
+					max[k][r*side + c] = m;
+					sum[k][r*side + c] = s;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if build() has been called
+	 */
+	public boolean isBuilt() {
+		return cells != null;
+	}
+
+	/**
+	 * Returns the number of levels, including the belief itself
+	 */
+	public int getNumLevels() {
+		return sides.length;
+	}
+
+	/**
+	 * Returns the deepest level whose blocks have at most the given number of cells on a side
+	 *
+	 * @param cellsPerPixel
+	 * 			The number of board rows or columns that share one pixel
+	 * @return
+	 * 			The level; its blocks are 2^level cells on a side
+	 */
+	public int levelFor(int cellsPerPixel) {
+		int level = 0;
+		while(level + 1 < sides.length && (2 << level) <= cellsPerPixel) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Returns the number of rows (and columns) of blocks at the given level
+	 */
+	public int getSide(int level) {
+		return sides[level];
+	}
+
+	/**
+	 * Returns the largest probability of any cell in a block
+	 *
+	 * @param level
+	 * 			The level of the block
+	 * @param row
+	 * 			The row of the block at that level
+	 * @param col
+	 * 			The column of the block at that level
+	 */
+	public double getMax(int level, int row, int col) {
+		return level == 0 ? cells[row*boardSize + col] : max[level][row*sides[level] + col];
+	}
+
+	/**
+	 * Returns the total probability of the cells in a block
+	 *
+	 * @param level
+	 * 			The level of the block
+	 * @param row
+	 * 			The row of the block at that level
+	 * @param col
+	 * 			The column of the block at that level
+	 */
+	public double getSum(int level, int row, int col) {
+		return level == 0 ? cells[row*boardSize + col] : sum[level][row*sides[level] + col];
+	}
+}
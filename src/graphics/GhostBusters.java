@@ -16,14 +16,14 @@ public class GhostBusters{
      * this method should be invoked from the
      * event-dispatching thread.
      */
-    private static void createAndShowGUI() {
+    private static void createAndShowGUI(int boardSize) {
         //Create and set up the window.
         JFrame frame = new JFrame("Ghost Busters");
         frame.setLocation(new Point(700, 10));
         frame.setPreferredSize(new Dimension(500, 500));        
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setResizable(false);
-        JPanel panel = new GhostBustersPanel();
+        frame.setResizable(true);
+        JPanel panel = new GhostBustersPanel(boardSize);
         panel.setBackground(Color.WHITE);
         frame.add(panel);
        
@@ -33,11 +33,14 @@ public class GhostBusters{
     }
  
     public static void main(String[] args) {
+    	// The board size may be given on the command line, e.g. java graphics.GhostBusters 200
+    	final int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : GhostBustersPanel.DEFAULT_BOARD_SIZE;
+
     	//Schedule a job for the event-dispatching thread:
         //creating and showing this application's GUI.
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                createAndShowGUI();
+                createAndShowGUI(boardSize);
             }
         });
     }
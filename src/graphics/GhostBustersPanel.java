@@ -7,37 +7,93 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
 import javax.swing.Timer;
 
 import characters.*;
+import util.BoardMap;
 import util.Coords;
-import util.WeightedSet;
+import util.DistanceTable;
+import util.FilterMetrics;
+import util.ObservationQueue;
+import util.TraceWriter;
 
 public class GhostBustersPanel extends JPanel implements ActionListener {
-	private static final int BOARD_SIZE = 10;
+	public static final int DEFAULT_BOARD_SIZE = 10;
+	public static final int MIN_BOARD_SIZE = 10;
+	public static final int MAX_BOARD_SIZE = 5000;
 	private static final int SONAR_RANGE = 2; // do not change this value
 	private static int MARGIN = 10;
+	private static final int MIN_GRID_TILE = 4;  // grid lines are only drawn when a tile is at least this many pixels
+	private static final int QUEUE_CAPACITY = 64;
 
+	private final int boardSize;
 	private Ghost ghost;
 	private Pacman pacman;
 	private Sonar sonar;
 
 	private boolean gameOver;
-	private PixelCoords[][] board;
+	private Viewport viewport;
+	private boolean sumCells;	// when several cells share a pixel, draw their sum instead of their max
+	private double[] bins;		// the aggregated belief for each pixel of the heat map
+	private BufferedImage heatMap;
+	private BeliefPyramid pyramid;	// the belief at every level of detail, rebuilt when the belief changes
+	private boolean beliefStale;	// true if beliefVector and the pyramid do not reflect Pacman's belief
+	private boolean pyramidStale;
+	private TraceWriter trace;	// records every step when -Dghostbusters.trace=<file> is given
+	private boolean traceBeliefs;
+	private Thread traceCloser;	// closes the trace if the window is closed before the game is over
+	private double[] beliefVector;
+	private FilterMetrics metrics;	// per-step metrics when -Dghostbusters.metrics=true is given, null otherwise
+	private BoardMap map;			// the walls when -Dghostbusters.map=<file> is given, null otherwise
+	private ObservationQueue readings;			// the sonar's readings on their way to Pacman...
+	private ObservationQueue.Batch batch = new ObservationQueue.Batch();	// ...and the ones ready for him
+	private long step;							// the number of steps the ghost has taken
+	private BufferedImage wallMap;
+	private boolean[][] wallLevels;	// wallLevels[k][block]: some cell of the block is blocked, for the pyramid levels k >= 1
+	private int[] wallPixels;
+	private int[] wallView;			// the view wallMap was last drawn for
 
 	public GhostBustersPanel(){
-		board = null; // this is created when we call repaint() for the first time
+		this(DEFAULT_BOARD_SIZE);
+	}
+
+	/**
+	 * Creates a new game on a board of the given size
+	 *
+	 * @param boardSize
+	 * 			The size of the grid (between MIN_BOARD_SIZE and MAX_BOARD_SIZE rows/columns)
+	 */
+	public GhostBustersPanel(int boardSize){
+		if(boardSize < MIN_BOARD_SIZE || boardSize > MAX_BOARD_SIZE) {
+			throw new IllegalArgumentException("Board size must be between " + MIN_BOARD_SIZE + " and " + MAX_BOARD_SIZE);
+		}
+		this.boardSize = boardSize;
+		viewport = new Viewport(boardSize, MARGIN);
+		pyramid = new BeliefPyramid(boardSize);
+		beliefStale = true;
+		pyramidStale = true;
 		gameOver = false;
-		sonar = new Sonar(BOARD_SIZE, SONAR_RANGE);
+		sonar = createSonar();
+		loadMap();
 
 		// SET THE GHOST TYPE HERE
-		ghost = new Ghost(BOARD_SIZE, loadImage("./images/ghost_34_35.png"));
+		ghost = new Ghost(boardSize, loadImage("./images/ghost_34_35.png"));
 
 		BufferedImage[] pacman_images = new BufferedImage[4];
 		pacman_images[0] = loadImage("./images/pacman_right.png");
@@ -46,7 +102,27 @@ public class GhostBustersPanel extends JPanel implements ActionListener {
 		pacman_images[3] = loadImage("./images/pacman_up.png");
 
 		// SET THE PACMAN TYPE HERE
-		pacman = new PacmanParticleFilter(BOARD_SIZE, pacman_images, sonar);
+		pacman = new PacmanParticleFilter(boardSize, pacman_images, sonar);
+
+		// Pacman steps towards the most likely cell unless another policy is chosen, e.g. -Dghostbusters.policy=infogain
+		pacman.setMovePolicy(Simulation.createPolicy(System.getProperty("ghostbusters.policy", "greedy"), boardSize, sonar));
+
+		if(map != null) {
+			ghost.setBoardMap(map);
+			pacman.setBoardMap(map);
+		}
+
+		// A ghost that stands still lets the forward algorithm stop predicting once its belief has converged
+		if(pacman instanceof PacmanForwardAlgorithm && ghost.getClass() == Ghost.class) {
+			((PacmanForwardAlgorithm) pacman).setStationaryGhost(true);
+			((PacmanForwardAlgorithm) pacman).setConvergence(1e-3, 3);
+		}
+
+		addViewportControls();
+		openTrace();
+		metrics = FilterMetrics.fromSystemProperties(pacman.getClass().getSimpleName());
+		readings = new ObservationQueue(QUEUE_CAPACITY, 0);
+		readings.setMetrics(metrics);
 
 		Timer t = new Timer(500, this);
 		t.setInitialDelay(1900);
@@ -65,82 +141,187 @@ public class GhostBustersPanel extends JPanel implements ActionListener {
 		}
 	}
 
-	// Computes the pixel location of the upper left corner of each cell in the board
-	private void populateBoard(int width, int height) {
-		board = new PixelCoords[BOARD_SIZE][BOARD_SIZE];
-		final int TILE_WIDTH = (width-2*MARGIN)/BOARD_SIZE;
-		final int TILE_HEIGHT = (height-2*MARGIN)/BOARD_SIZE;
+	// Reads the sonar's CPT from the cache in -Dghostbusters.cache, building and caching it on the first run
+	private Sonar createSonar() {
+		try {
+			return new Sonar(boardSize, SONAR_RANGE, cacheDir());
+		}
+		catch (IOException e) {
+			System.err.println("Had a problem with the sonar cache: " + e.getMessage());
+			return new Sonar(boardSize, SONAR_RANGE);
+		}
+	}
+
+	private static Path cacheDir() {
+		return Paths.get(System.getProperty("ghostbusters.cache", Paths.get(System.getProperty("java.io.tmpdir"), "ghostbusters").toString()));
+	}
+
+	// Loads the walls if a map was given, e.g. -Dghostbusters.map=maze.txt. With -Dghostbusters.shortestPaths=true
+	// the sonar measures the shortest path around the walls, from a table cached in -Dghostbusters.cache.
+	private void loadMap() {
+		String path = System.getProperty("ghostbusters.map");
+		if(path == null) {
+			return;
+		}
+		try {
+			map = BoardMap.load(Paths.get(path));
+			if(map.getSize() != boardSize) {
+				throw new IllegalArgumentException("The map " + path + " is for a board of size " + map.getSize()
+						+ "; pass that size on the command line");
+			}
+			if(Boolean.getBoolean("ghostbusters.shortestPaths")) {
+				sonar.setDistanceTable(DistanceTable.load(map, cacheDir()));
+			}
+			buildWallLevels();
+		}
+		catch (IOException e) {
+			System.err.println("Had a problem loading the map " + path + ": " + e.getMessage());
+			map = null;
+		}
+	}
+
+	// Starts recording if a trace file was given, e.g. -Dghostbusters.trace=run.bin -Dghostbusters.traceBeliefs=true
+	private void openTrace() {
+		String path = System.getProperty("ghostbusters.trace");
+		if(path == null) {
+			return;
+		}
+		traceBeliefs = Boolean.getBoolean("ghostbusters.traceBeliefs");
+		try {
+			trace = new TraceWriter(Paths.get(path), boardSize, SONAR_RANGE, traceBeliefs);
+		}
+		catch (IOException e) {
+			System.err.println("Had a problem creating the trace " + path + ": " + e.getMessage());
+			return;
+		}
+		// The frame exits the JVM when it is closed, so the buffered records are flushed by a shutdown hook
+		traceCloser = new Thread(this::closeTrace, "trace-closer");
+		Runtime.getRuntime().addShutdownHook(traceCloser);
+	}
+
+	// Appends the current step to the trace. Recording stops if the trace cannot be written.
+	private synchronized void recordStep(Coords ghostLocation, Coords pacmanLocation, int noisyDistance) {
+		if(trace == null) {
+			return;
+		}
+		try {
+			trace.write(ghostLocation, pacmanLocation, noisyDistance, traceBeliefs ? beliefVector() : null);
+		}
+		catch (IOException e) {
+			System.err.println("Had a problem writing the trace: " + e.getMessage());
+			trace = null;
+		}
+	}
 
-		int x = MARGIN, y = MARGIN;
-		for(int i = 0; i < BOARD_SIZE; i++) {
-			for(int j = 0; j < BOARD_SIZE; j++) {
-				board[i][j] = new PixelCoords(x, y);
-				x += TILE_WIDTH;
+	// Flushes and closes the trace. Called when the game is over and, from the shutdown hook, on exit.
+	private synchronized void closeTrace() {
+		if(trace == null) {
+			return;
+		}
+		try {
+			trace.close();
+		}
+		catch (IOException e) {
+			System.err.println("Had a problem closing the trace: " + e.getMessage());
+		}
+		trace = null;
+		if(Thread.currentThread() != traceCloser) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(traceCloser);
+			}
+			catch (IllegalStateException e) {
+				// the JVM is already shutting down
 			}
-			x = MARGIN;
-			y += TILE_HEIGHT;
 		}
 	}
 
+	// Returns Pacman's belief as a row-major vector, copying it only if it changed since the last call
+	private double[] beliefVector() {
+		if(beliefStale) {
+			beliefVector = pacman.getBeliefVector(beliefVector);
+			beliefStale = false;
+		}
+		return beliefVector;
+	}
+
+	// Mouse wheel zooms, dragging pans, 'r' resets the view and 'a' toggles between max and sum aggregation
+	private void addViewportControls() {
+		MouseAdapter mouse = new MouseAdapter() {
+			private int lastX, lastY;
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				lastX = e.getX();
+				lastY = e.getY();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				viewport.pan(e.getX()-lastX, e.getY()-lastY);
+				lastX = e.getX();
+				lastY = e.getY();
+				repaint();
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				viewport.zoom(Math.pow(1.25, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+				repaint();
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+
+		getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_R, 0), "reset");
+		getActionMap().put("reset", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				viewport.reset();
+				repaint();
+			}
+		});
+		getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_A, 0), "aggregate");
+		getActionMap().put("aggregate", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				sumCells = !sumCells;
+				repaint();
+			}
+		});
+	}
 
 
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
 		Graphics2D g2 = (Graphics2D) g;
 
-		// The first time through, calculate the pixel positions of each of the cells in the grid
-		if(board == null) {
-			populateBoard(getWidth(), getHeight());
-		}
+		// The layout is cached by the viewport and only recomputed when the panel is resized, zoomed or panned
+		viewport.setPanelSize(getWidth(), getHeight());
 
-		final int TILE_WIDTH = (getWidth()-2*MARGIN)/BOARD_SIZE;
-		final int TILE_HEIGHT = (getHeight()-2*MARGIN)/BOARD_SIZE;
 		Coords ghost = this.ghost.getLocation();
 		Coords pacman = this.pacman.getLocation();
-		WeightedSet<Coords> belief = this.pacman.getBelief();
-
-		double upperThreshold = 0.1;
-		for(int i = 0; i < BOARD_SIZE; i++) {
-			for(int j = 0; j < BOARD_SIZE; j++) {
 
-				double prob = 0.0;
-				if(belief != null) {
-					prob = belief.getWeight(new Coords(i, j));
-				}
-				if(prob > 0.0) {
-					if(prob > upperThreshold) {
-						prob = upperThreshold;
-					}
-					float hue = 1.33333333F;
-					float saturation = (float)(prob*(1.0/upperThreshold));
-					float brightness = 1.0F;
-					g2.setColor(new Color(Color.HSBtoRGB(hue, saturation, brightness)));
-					g2.fillRect(board[i][j].row, board[i][j].col, TILE_WIDTH, TILE_HEIGHT);
-				}
-			}
+		paintBelief(g2);
+		if(map != null) {
+			paintWalls(g2);
 		}
 
+		int firstRow = viewport.getFirstRow(), lastRow = viewport.getLastRow();
+		int firstCol = viewport.getFirstCol(), lastCol = viewport.getLastCol();
 		g2.setColor(Color.BLACK);
-		for(int i = 0; i < BOARD_SIZE; i++) {
-			for(int j = 0; j < BOARD_SIZE; j++) {
-				PixelCoords cell = board[i][j];
-				g2.drawRect(cell.row, cell.col, TILE_WIDTH, TILE_HEIGHT);
-				if(i == ghost.row && j == ghost.col) {
-					int imageWidth = this.ghost.getImage().getWidth();
-					int imageHeight = this.ghost.getImage().getHeight();
-					int x = (TILE_WIDTH - imageWidth)/2;
-					int y = (TILE_HEIGHT - imageHeight)/2;
-					g.drawImage(this.ghost.getImage(),cell.row+x, cell.col+y, null);
-				}
-				if(i == pacman.row && j == pacman.col) {
-					int imageWidth = this.pacman.getImage().getWidth();
-					int imageHeight = this.pacman.getImage().getHeight();
-					int x = (TILE_WIDTH - imageWidth)/2;
-					int y = (TILE_HEIGHT - imageHeight)/2;
-					g.drawImage(this.pacman.getImage(),  cell.row+x, cell.col+y, null);
+		if(viewport.getTileSize() >= MIN_GRID_TILE) {
+			for(int i = firstRow; i <= lastRow; i++) {
+				for(int j = firstCol; j <= lastCol; j++) {
+					int x = viewport.colToPixel(j), y = viewport.rowToPixel(i);
+					g2.drawRect(x, y, viewport.colToPixel(j+1)-x, viewport.rowToPixel(i+1)-y);
 				}
 			}
 		}
+		else {
+			int x = viewport.colToPixel(firstCol), y = viewport.rowToPixel(firstRow);
+			g2.drawRect(x, y, viewport.colToPixel(lastCol+1)-x, viewport.rowToPixel(lastRow+1)-y);
+		}
+		paintCharacter(g2, this.ghost.getImage(), ghost);
+		paintCharacter(g2, this.pacman.getImage(), pacman);
 
 		FontMetrics metrics = g2.getFontMetrics();
 		if(gameOver) {
@@ -154,6 +335,148 @@ public class GhostBustersPanel extends JPanel implements ActionListener {
 		}
 	}
 
+	// Draws the belief as a heat map with at most one bin per pixel. When several cells share a pixel,
+	// the bin holds either the max or the sum of their probabilities. The bins are filled from the level
+	// of the pyramid whose blocks are about a pixel wide, so after the pyramid is built the drawing cost
+	// is bounded by the number of pixels rather than the number of cells.
+	private void paintBelief(Graphics2D g2) {
+		int firstRow = viewport.getFirstRow(), lastRow = viewport.getLastRow();
+		int firstCol = viewport.getFirstCol(), lastCol = viewport.getLastCol();
+		int rows = lastRow - firstRow + 1, cols = lastCol - firstCol + 1;
+		int x = viewport.colToPixel(firstCol), y = viewport.rowToPixel(firstRow);
+		int width = viewport.colToPixel(lastCol+1) - x, height = viewport.rowToPixel(lastRow+1) - y;
+		if(width <= 0 || height <= 0) {
+			return;
+		}
+		if(pyramidStale) {
+			pyramid.build(beliefVector());
+			pyramidStale = false;
+		}
+
+		int binCols = Math.min(cols, width), binRows = Math.min(rows, height);
+		if(bins == null || bins.length < binRows*binCols) {
+			bins = new double[binRows*binCols];
+		}
+		Arrays.fill(bins, 0, binRows*binCols, 0.0);
+		int level = pyramid.levelFor(Math.min(rows/binRows, cols/binCols));
+		for(int br = firstRow >> level; br <= lastRow >> level; br++) {
+			// a block that starts above the view goes into the first bin row
+			int binRow = (int)((long)(Math.max(br << level, firstRow)-firstRow)*binRows/rows);
+			for(int bc = firstCol >> level; bc <= lastCol >> level; bc++) {
+				int bin = binRow*binCols + (int)((long)(Math.max(bc << level, firstCol)-firstCol)*binCols/cols);
+				if(sumCells) {
+					bins[bin] += pyramid.getSum(level, br, bc);
+				}
+				else {
+					bins[bin] = Math.max(bins[bin], pyramid.getMax(level, br, bc));
+				}
+			}
+		}
+
+		// A cell at ten times the uniform probability is drawn fully saturated (0.1 on the default 10x10 board)
+		double upperThreshold = Math.min(0.1, 10.0/((double)boardSize*boardSize));
+		if(sumCells) {
+			upperThreshold *= (double)rows*cols/(binRows*binCols);
+		}
+		if(heatMap == null || heatMap.getWidth() < binCols || heatMap.getHeight() < binRows) {
+			heatMap = new BufferedImage(Math.max(binCols, 1), Math.max(binRows, 1), BufferedImage.TYPE_INT_ARGB);
+		}
+		float hue = 1.33333333F;
+		float brightness = 1.0F;
+		for(int i = 0; i < binRows; i++) {
+			for(int j = 0; j < binCols; j++) {
+				double prob = bins[i*binCols + j];
+				int argb = 0; // transparent
+				if(prob > 0.0) {
+					float saturation = (float)(Math.min(prob, upperThreshold)*(1.0/upperThreshold));
+					argb = Color.HSBtoRGB(hue, saturation, brightness);
+				}
+				heatMap.setRGB(j, i, argb);
+			}
+		}
+		g2.drawImage(heatMap, x, y, x+width, y+height, 0, 0, binCols, binRows, null);
+	}
+
+	// Draws the blocked cells in dark gray, binned to at most one bin per pixel like the heat map. The walls
+	// never move, so the image is only redrawn when the view changes, from the level of the wall pyramid
+	// whose blocks are about a pixel wide; any other repaint just draws the cached image.
+	private void paintWalls(Graphics2D g2) {
+		int firstRow = viewport.getFirstRow(), lastRow = viewport.getLastRow();
+		int firstCol = viewport.getFirstCol(), lastCol = viewport.getLastCol();
+		int rows = lastRow - firstRow + 1, cols = lastCol - firstCol + 1;
+		int x = viewport.colToPixel(firstCol), y = viewport.rowToPixel(firstRow);
+		int width = viewport.colToPixel(lastCol+1) - x, height = viewport.rowToPixel(lastRow+1) - y;
+		if(width <= 0 || height <= 0) {
+			return;
+		}
+
+		int binCols = Math.min(cols, width), binRows = Math.min(rows, height);
+		int[] view = {firstRow, firstCol, rows, cols, binRows, binCols};
+		if(!Arrays.equals(view, wallView)) {
+			if(wallPixels == null || wallPixels.length < binRows*binCols) {
+				wallPixels = new int[binRows*binCols];
+			}
+			Arrays.fill(wallPixels, 0, binRows*binCols, 0); // transparent
+			int wall = Color.DARK_GRAY.getRGB();
+			int level = pyramid.levelFor(Math.min(rows/binRows, cols/binCols));
+			int side = pyramid.getSide(level);
+			for(int br = firstRow >> level; br <= lastRow >> level; br++) {
+				// a block that starts above the view goes into the first bin row
+				int binRow = (int)((long)(Math.max(br << level, firstRow)-firstRow)*binRows/rows);
+				for(int bc = firstCol >> level; bc <= lastCol >> level; bc++) {
+					if(level == 0 ? map.isBlocked(br, bc) : wallLevels[level][br*side + bc]) {
+						wallPixels[binRow*binCols + (int)((long)(Math.max(bc << level, firstCol)-firstCol)*binCols/cols)] = wall;
+					}
+				}
+			}
+			if(wallMap == null || wallMap.getWidth() < binCols || wallMap.getHeight() < binRows) {
+				wallMap = new BufferedImage(Math.max(binCols, 1), Math.max(binRows, 1), BufferedImage.TYPE_INT_ARGB);
+			}
+			wallMap.setRGB(0, 0, binCols, binRows, wallPixels, 0, binCols);
+			wallView = view;
+		}
+		g2.drawImage(wallMap, x, y, x+width, y+height, 0, 0, binCols, binRows, null);
+	}
+
+	// Marks the blocks at every level of the pyramid above the cells that hold a wall. Built once with the
+	// map, so that drawing the walls visits about one block per pixel however large the board is.
+	private void buildWallLevels() {
+		wallLevels = new boolean[pyramid.getNumLevels()][];
+		for(int k = 1; k < wallLevels.length; k++) {
+			int side = pyramid.getSide(k), below = pyramid.getSide(k-1);
+			wallLevels[k] = new boolean[side*side];
+			for(int i = 0; i < below; i++) {
+				for(int j = 0; j < below; j++) {
+					if(k == 1 ? map.isBlocked(i, j) : wallLevels[k-1][i*below + j]) {
+						wallLevels[k][(i >> 1)*side + (j >> 1)] = true;
+					}
+				}
+			}
+		}
+	}
+
+	// Draws a character centered in its cell, shrinking the image when the cell is too small to hold it
+	private void paintCharacter(Graphics2D g2, BufferedImage image, Coords location) {
+		if(image == null || !viewport.isVisible(location.row, location.col)) {
+			return;
+		}
+		int cellX = viewport.colToPixel(location.col), cellY = viewport.rowToPixel(location.row);
+		int tileWidth = Math.max(viewport.colToPixel(location.col+1)-cellX, 1);
+		int tileHeight = Math.max(viewport.rowToPixel(location.row+1)-cellY, 1);
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		if(imageWidth <= tileWidth && imageHeight <= tileHeight) {
+			int x = (tileWidth - imageWidth)/2;
+			int y = (tileHeight - imageHeight)/2;
+			g2.drawImage(image, cellX+x, cellY+y, null);
+		}
+		else {
+			// Keep tiny characters visible by drawing them at least a few pixels wide
+			int w = Math.max(tileWidth, MIN_GRID_TILE), h = Math.max(tileHeight, MIN_GRID_TILE);
+			g2.drawImage(image, cellX+(tileWidth-w)/2, cellY+(tileHeight-h)/2, w, h, null);
+		}
+	}
+
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
@@ -165,28 +488,28 @@ public class GhostBustersPanel extends JPanel implements ActionListener {
 			Coords pacmanLocation = pacman.getLocation();
 			int noisyDistance = sonar.getNoisyDistance(ghostLocation, pacmanLocation);
 
-			// Given the noisy reading, we compute the distribution over the location of the ghost
-			pacman.update(noisyDistance);
+			// Given the noisy reading, we compute the distribution over the location of the ghost. The reading
+			// goes through the same queue as readings from a sensor that delivers them in bursts; the panel
+			// drains it right away, so it is never full.
+			readings.offer(step++, noisyDistance, pacmanLocation);
+			if(readings.drain(batch) > 0) {
+				Instrumentation.update(pacman, batch, ghostLocation, metrics);
+				beliefStale = true;
+				pyramidStale = true;
+			}
+			recordStep(ghostLocation, pacmanLocation, noisyDistance);
 
 			// Pacman now takes a move given the updated distribution
-			pacman.move();
+			Instrumentation.move(pacman, metrics);
 
 			// We check if Pacman has captured the ghost
 			if(pacman.getLocation().equals(ghost.getLocation())) {
 				gameOver = true;
+				closeTrace();
 			}
 
 			// We repaint the screen
 			repaint();
 		}
 	}
-
-	private class PixelCoords{
-		public int row;
-		public int col;
-		public PixelCoords(int row, int col) {
-			this.row = row;
-			this.col = col;
-		}
-	}
 }
@@ -1,9 +1,14 @@
 package graphics;
 
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import util.Coords;
+import util.DistanceTable;
+import util.EmissionTableCache;
 
 /**
  * This class provides sonar capabilities. In particular, it has methods for:
@@ -36,69 +41,46 @@ public class Sonar {
 	private static int SONAR_MAX;
 	private int[] noise_values;
 	private double[] noise_probs;	
-	double[][] cpt;
+	private DistanceTable distances;	// shortest-path distances around walls, or null to use the Manhattan distance
+
+	/*
+	 * Identifies the noise distribution above in the names of cached tables. Change it whenever the
+	 * distribution changes so that tables computed for the old one are not loaded.
+	 */
+	public static final int NOISE_MODEL = 1;
+
+	/*
+	 * Each true distance only produces noisy distances in a window of bandWidth values, so the CPT is
+	 * stored banded: band[d*bandWidth + j] = p(noisyDistance = getBandStart(d) + j | trueDistance = d).
+	 * The full rows handed out by getEmissionTable are built from the band the first time each is asked
+	 * for, so constructing a Sonar costs O(boardSize) instead of O(boardSize^2).
+	 */
+	private int sonarMax;
+	private int numDistances;
+	private int bandWidth;
+	private double[] band;
+	private AtomicReferenceArray<double[]> cpt;
 
 	public Sonar(int boardSize, int sonarMax) {
-		SONAR_MAX = sonarMax;		
-		SONAR_NOISE_RANGE = 2*sonarMax + 1;
-				
-		// Produces the full range of noise values from {-SONAR_MAX,...,0,...,SONAR_MAX}
-		noise_values = new int[SONAR_NOISE_RANGE];
-		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
-			noise_values[i] = i-SONAR_MAX;
-		}
-		// Computes the probability of producing each noise value
-		noise_probs = new double[SONAR_NOISE_RANGE];
-		double normalizer = 0.0;
-		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
-			int abs = Math.abs(noise_values[i]);
-			noise_probs[i] = Math.pow(2, SONAR_MAX-abs);
-			normalizer += noise_probs[i];
-		}
-		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
-			noise_probs[i] /= normalizer;
-		}		
-		
-		// Constructs the full CPT for p(noisyDistance|trueDistance)
-		int maxDistance = 2*boardSize  - 1;
-		cpt = new double[maxDistance][maxDistance];		
-		
-		// We are iterating over all possible noisy distances given the true distance
-		for(int trueDistance = 0; trueDistance < maxDistance; trueDistance++ ) {
-			for(int i = 0; i < noise_values.length; i++) {								
-				// Some possible noisy distances are negative.
-				// These values are pooled with the smallest possible distance (0) 				
-				int possibleNoisy = trueDistance + noise_values[i];
-				if(possibleNoisy < 0) {
-					possibleNoisy = 0;
-				}				
-				
-				// Some possible noisy distances are greater than the maximum possible Manhattan distance
-				// These values are pooled with the greatest possible distance
-				if(possibleNoisy >= maxDistance) {
-					possibleNoisy = maxDistance-1;
-				}
-				
-				// Note that we are NOT iterating over every entry in the cpt
-				// There are many, many values that remain 0. 
-				// In particular, for each row, only those columns in the range [true-MAX, true+MAX] are filled in
-				cpt[trueDistance][possibleNoisy] += noise_probs[i];				
-			}
-		}
-	
-		// Make sure that each row sums to 1.0
-		double sum = 0.0;
-		double error = 1e-6;
-		for(int trueDistance = 0; trueDistance < maxDistance; trueDistance++) {
-			for(int col = 0; col < maxDistance; col++) {
-				sum += cpt[trueDistance][col];
-			}			
-			if(Math.abs(sum-1.0) > error){
-				System.err.println("Sonar: The probability distribution for " + trueDistance + " does not sum to 1.0");
-				System.exit(-1);
-			}
-			sum = 0.0;
-		}		
+		init(boardSize, sonarMax);
+		band = computeBand();
+	}
+
+	/**
+	 * Creates a sonar whose CPT is read from (or, the first time, saved to) a cache of tables keyed by
+	 * the board size, the sonar range and the noise model
+	 *
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonarMax
+	 * 			The greatest amount of noise the sonar adds
+	 * @param cacheDir
+	 * 			The directory holding cached tables
+	 * @throws IOException if the cache cannot be read or written
+	 */
+	public Sonar(int boardSize, int sonarMax, Path cacheDir) throws IOException {
+		init(boardSize, sonarMax);
+		band = EmissionTableCache.load(cacheDir, boardSize, sonarMax, NOISE_MODEL, numDistances, bandWidth, this::computeBand);
 	}
 	
 	
@@ -121,10 +103,57 @@ public class Sonar {
 	 * 
 	 */
 	public double[] getEmissionTable(int trueDistance) {
-		if(trueDistance < 0 || cpt.length <= trueDistance) {
+		if(trueDistance < 0 || numDistances <= trueDistance) {
 			throw new IndexOutOfBoundsException();
 		}
-		return cpt[trueDistance];
+		double[] row = cpt.get(trueDistance);
+		if(row == null) {
+			row = new double[numDistances];
+			System.arraycopy(band, trueDistance*bandWidth, row, getBandStart(trueDistance), bandWidth);
+			if(!cpt.compareAndSet(trueDistance, null, row)) {
+				row = cpt.get(trueDistance);
+			}
+		}
+		return row;
+	}
+	
+	/**
+	 * Returns a single entry of the CPT, p(NoisyDistance = noisyDistance | TrueDistance = trueDistance),
+	 * without building the full row
+	 * 
+	 * @param trueDistance
+	 * 					A valid Manhattan Distance
+	 * @param noisyDistance
+	 * 					A noisy distance, at most getNumDistances()-1
+	 */
+	public double likelihood(int trueDistance, int noisyDistance) {
+		if(trueDistance < 0 || numDistances <= trueDistance || noisyDistance < 0 || numDistances <= noisyDistance) {
+			throw new IndexOutOfBoundsException();
+		}
+		int j = noisyDistance - getBandStart(trueDistance);
+		return j >= 0 && j < bandWidth ? band[trueDistance*bandWidth + j] : 0.0;
+	}
+	
+	/**
+	 * Returns the number of distinct distances, i.e. the length of every row of the CPT
+	 */
+	public int getNumDistances() {
+		return numDistances;
+	}
+	
+	/**
+	 * Returns the number of noisy distances in the window each true distance can produce
+	 */
+	public int getBandWidth() {
+		return bandWidth;
+	}
+	
+	/**
+	 * Returns the smallest noisy distance in the window the true distance can produce. Every noisy
+	 * distance outside [getBandStart(d), getBandStart(d) + getBandWidth()) has probability 0.
+	 */
+	public int getBandStart(int trueDistance) {
+		return Math.min(Math.max(0, trueDistance - sonarMax), numDistances - bandWidth);
 	}
 	
 	
@@ -138,11 +167,49 @@ public class Sonar {
 	 * @return
 	 */
 	public int getNoisyDistance(Coords p1, Coords p2) {
-		int true_distance = manhattanDistance(p1, p2);
+		int true_distance = distance(p1, p2);
 		int noise = sample_noise();		
 		return Math.max(0, true_distance+noise);		
 	}
 	
+	/**
+	 * Makes the sonar measure the length of the shortest path around the walls instead of the
+	 * Manhattan distance
+	 * 
+	 * @param distances
+	 * 			The shortest-path distances of the board, or null to go back to the Manhattan distance
+	 */
+	public void setDistanceTable(DistanceTable distances) {
+		this.distances = distances;
+	}
+	
+	/**
+	 * Returns the shortest-path distances the sonar measures, or null if it measures the Manhattan distance
+	 */
+	public DistanceTable getDistanceTable() {
+		return distances;
+	}
+	
+	/**
+	 * Returns the true distance the sonar measures between 2 coordinates on the grid. This is the
+	 * Manhattan distance unless a distance table has been set. Paths longer than the CPT covers, or
+	 * no path at all, are pooled with the greatest distance in the CPT.
+	 * 
+	 * @param p1
+	 * 			A position on the grid
+	 * 
+	 * @param p2
+	 * 			A position on the grid
+	 * @return
+	 */
+	public int distance(Coords p1, Coords p2) {
+		if(distances == null) {
+			return manhattanDistance(p1, p2);
+		}
+		int d = distances.distance(p1, p2);
+		return d == DistanceTable.UNREACHABLE || d >= numDistances ? numDistances-1 : d;
+	}
+	
 	// Computes Manhattan distance between two positions on the grid
 	public int manhattanDistance(Coords p1, Coords p2) {
 		int row_diff = Math.abs(p1.row - p2.row);
@@ -155,6 +222,72 @@ public class Sonar {
 	 * 				PRIVATE HELPER METHODS
 	 *------------------------------------------------------*/
 	
+	private void init(int boardSize, int sonarMax) {
+		SONAR_MAX = sonarMax;		
+		SONAR_NOISE_RANGE = 2*sonarMax + 1;
+		this.sonarMax = sonarMax;
+				
+		// Produces the full range of noise values from {-SONAR_MAX,...,0,...,SONAR_MAX}
+		noise_values = new int[SONAR_NOISE_RANGE];
+		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
+			noise_values[i] = i-SONAR_MAX;
+		}
+		// Computes the probability of producing each noise value
+		noise_probs = new double[SONAR_NOISE_RANGE];
+		double normalizer = 0.0;
+		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
+			int abs = Math.abs(noise_values[i]);
+			noise_probs[i] = Math.pow(2, SONAR_MAX-abs);
+			normalizer += noise_probs[i];
+		}
+		for(int i = 0; i < SONAR_NOISE_RANGE; i++) {
+			noise_probs[i] /= normalizer;
+		}		
+		
+		numDistances = 2*boardSize - 1;
+		bandWidth = Math.min(SONAR_NOISE_RANGE, numDistances);
+		cpt = new AtomicReferenceArray<>(numDistances);
+	}
+	
+	// Constructs the banded CPT for p(noisyDistance|trueDistance)
+	private double[] computeBand() {
+		double[] band = new double[numDistances*bandWidth];
+		
+		// We are iterating over all possible noisy distances given the true distance
+		for(int trueDistance = 0; trueDistance < numDistances; trueDistance++ ) {
+			int row = trueDistance*bandWidth - getBandStart(trueDistance);
+			for(int i = 0; i < noise_values.length; i++) {								
+				// Some possible noisy distances are negative.
+				// These values are pooled with the smallest possible distance (0) 				
+				int possibleNoisy = trueDistance + noise_values[i];
+				if(possibleNoisy < 0) {
+					possibleNoisy = 0;
+				}				
+				
+				// Some possible noisy distances are greater than the maximum possible Manhattan distance
+				// These values are pooled with the greatest possible distance
+				if(possibleNoisy >= numDistances) {
+					possibleNoisy = numDistances-1;
+				}
+				
+				band[row + possibleNoisy] += noise_probs[i];				
+			}
+		}
+	
+		// Make sure that each row sums to 1.0
+		double error = 1e-6;
+		for(int trueDistance = 0; trueDistance < numDistances; trueDistance++) {
+			double sum = 0.0;
+			for(int j = 0; j < bandWidth; j++) {
+				sum += band[trueDistance*bandWidth + j];
+			}			
+			if(Math.abs(sum-1.0) > error){
+				throw new IllegalStateException("Sonar: The probability distribution for " + trueDistance + " does not sum to 1.0");
+			}
+		}
+		return band;
+	}
+	
 	private int sample_noise() {
 		double rand = Math.random();
 		double totProb = 0.0;	
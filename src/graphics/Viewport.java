@@ -0,0 +1,215 @@
+package graphics;
+
+/**
+ * Maps the cells of the board onto the pixels of the panel. The viewport keeps track of
+ * - The size of the panel it is drawing into
+ * - Which part of the board is visible (zoom and pan)
+ * - The pixel edges of each visible row and column
+ *
+ * The pixel edges are cached and are only recomputed when the panel is resized or the
+ * user zooms or pans, so painting never rebuilds the layout.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Viewport {
+	private static final double MAX_ZOOM_TILE = 64.0; // largest tile (in pixels) we allow the user to zoom into
+
+	private final int boardSize;
+	private final int margin;
+
+	private int width;
+	private int height;
+	private double tileSize;	// the size of one cell in pixels (may be less than one pixel)
+	private double zoom;		// 1.0 means the whole board fits in the panel
+	private double originRow;	// the (fractional) board row drawn at the top edge of the panel
+	private double originCol;	// the (fractional) board column drawn at the left edge of the panel
+
+	private boolean stale;
+	private int firstRow, lastRow, firstCol, lastCol;
+	private int[] rowEdges;		// rowEdges[i] is the pixel y of the top of row firstRow+i
+	private int[] colEdges;		// colEdges[j] is the pixel x of the left of column firstCol+j
+
+	/**
+	 * Creates a viewport that shows the entire board
+	 *
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param margin
+	 * 			The number of blank pixels around the board
+	 */
+	public Viewport(int boardSize, int margin) {
+		this.boardSize = boardSize;
+		this.margin = margin;
+		this.zoom = 1.0;
+		this.stale = true;
+	}
+
+	/**
+	 * Tells the viewport the current size of the panel. This is cheap to call on every repaint;
+	 * the layout is only recomputed if the size actually changed.
+	 *
+	 * @param width
+	 * 			The width of the panel in pixels
+	 * @param height
+	 * 			The height of the panel in pixels
+	 */
+	public void setPanelSize(int width, int height) {
+		if(width != this.width || height != this.height) {
+			this.width = width;
+			this.height = height;
+			stale = true;
+		}
+	}
+
+	/**
+	 * Zooms in (factor > 1) or out (factor < 1) keeping the board position under the given pixel fixed
+	 *
+	 * @param factor
+	 * 			The amount to multiply the zoom by
+	 * @param x
+	 * 			The pixel column to zoom around
+	 * @param y
+	 * 			The pixel row to zoom around
+	 */
+	public void zoom(double factor, int x, int y) {
+		layout();
+		double anchorCol = originCol + (x - margin)/tileSize;
+		double anchorRow = originRow + (y - margin)/tileSize;
+		double maxZoom = Math.max(1.0, MAX_ZOOM_TILE/baseTileSize());
+		zoom = Math.max(1.0, Math.min(maxZoom, zoom*factor));
+		tileSize = baseTileSize()*zoom;
+		originCol = anchorCol - (x - margin)/tileSize;
+		originRow = anchorRow - (y - margin)/tileSize;
+		clampOrigin();
+		stale = true;
+	}
+
+	/**
+	 * Moves the visible part of the board by the given number of pixels
+	 *
+	 * @param dx
+	 * 			Horizontal distance in pixels
+	 * @param dy
+	 * 			Vertical distance in pixels
+	 */
+	public void pan(int dx, int dy) {
+		layout();
+		originCol -= dx/tileSize;
+		originRow -= dy/tileSize;
+		clampOrigin();
+		stale = true;
+	}
+
+	/**
+	 * Shows the entire board again
+	 */
+	public void reset() {
+		zoom = 1.0;
+		originRow = 0.0;
+		originCol = 0.0;
+		stale = true;
+	}
+
+	/**
+	 * Returns the size of a cell in pixels. This is less than 1.0 when several cells share a pixel.
+	 */
+	public double getTileSize() {
+		layout();
+		return tileSize;
+	}
+
+	public int getFirstRow() {
+		layout();
+		return firstRow;
+	}
+
+	public int getLastRow() {
+		layout();
+		return lastRow;
+	}
+
+	public int getFirstCol() {
+		layout();
+		return firstCol;
+	}
+
+	public int getLastCol() {
+		layout();
+		return lastCol;
+	}
+
+	/**
+	 * Returns the pixel y coordinate of the top of the given row. Passing lastRow+1 returns the bottom edge
+	 * of the last visible row.
+	 */
+	public int rowToPixel(int row) {
+		layout();
+		return rowEdges[row - firstRow];
+	}
+
+	/**
+	 * Returns the pixel x coordinate of the left of the given column. Passing lastCol+1 returns the right edge
+	 * of the last visible column.
+	 */
+	public int colToPixel(int col) {
+		layout();
+		return colEdges[col - firstCol];
+	}
+
+	/**
+	 * Checks if the given cell is currently visible
+	 */
+	public boolean isVisible(int row, int col) {
+		layout();
+		return firstRow <= row && row <= lastRow && firstCol <= col && col <= lastCol;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// The tile size when the whole board fits in the panel
+	private double baseTileSize() {
+		int usable = Math.min(width, height) - 2*margin;
+		return Math.max(usable, 1)/(double)boardSize;
+	}
+
+	// Keeps the visible window on the board
+	private void clampOrigin() {
+		double visible = boardSize/zoom;
+		originRow = Math.max(0.0, Math.min(boardSize - visible, originRow));
+		originCol = Math.max(0.0, Math.min(boardSize - visible, originCol));
+	}
+
+	// Recomputes the pixel edges of the visible rows and columns
+	private void layout() {
+		if(!stale) {
+			return;
+		}
+		tileSize = baseTileSize()*zoom;
+		clampOrigin();
+
+		int visible = (int)Math.ceil(boardSize/zoom);
+		firstRow = (int)Math.floor(originRow);
+		firstCol = (int)Math.floor(originCol);
+		lastRow = Math.min(boardSize-1, firstRow + visible);
+		lastCol = Math.min(boardSize-1, firstCol + visible);
+
+		rowEdges = edges(firstRow, lastRow, originRow, rowEdges);
+		colEdges = edges(firstCol, lastCol, originCol, colEdges);
+		stale = false;
+	}
+
+	private int[] edges(int first, int last, double origin, int[] edges) {
+		int n = last - first + 2;
+		if(edges == null || edges.length < n) {
+			edges = new int[n];
+		}
+		for(int i = 0; i < n; i++) {
+			edges[i] = margin + (int)Math.floor((first + i - origin)*tileSize);
+		}
+		return edges;
+	}
+}
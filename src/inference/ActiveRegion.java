@@ -0,0 +1,128 @@
+package inference;
+
+/**
+ * A rectangle of the board (inclusive row and column bounds) outside of which a belief is known
+ * to be exactly zero. Kernels that are given a region only touch the cells inside it, so a belief
+ * that has been narrowed down to a small part of a large board costs little to update.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class ActiveRegion {
+	int rowMin, rowMax, colMin, colMax;
+
+	/**
+	 * Creates a region covering the whole board
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 */
+	public ActiveRegion(int size) {
+		setFull(size);
+	}
+
+	/**
+	 * Makes the region cover the whole board
+	 */
+	public void setFull(int size) {
+		rowMin = 0;
+		rowMax = size-1;
+		colMin = 0;
+		colMax = size-1;
+	}
+
+	/**
+	 * Makes the region empty
+	 */
+	public void setEmpty() {
+		rowMin = 0;
+		rowMax = -1;
+		colMin = 0;
+		colMax = -1;
+	}
+
+	/**
+	 * Sets the bounds of the region, inclusive
+	 */
+	public void set(int rowMin, int rowMax, int colMin, int colMax) {
+		this.rowMin = rowMin;
+		this.rowMax = rowMax;
+		this.colMin = colMin;
+		this.colMax = colMax;
+	}
+
+	/**
+	 * Copies another region
+	 */
+	public void set(ActiveRegion other) {
+		rowMin = other.rowMin;
+		rowMax = other.rowMax;
+		colMin = other.colMin;
+		colMax = other.colMax;
+	}
+
+	/**
+	 * Sets this region to the smallest rectangle holding both regions
+	 */
+	public void union(ActiveRegion a, ActiveRegion b) {
+		if(a.isEmpty()) {
+			set(b);
+		}
+		else if(b.isEmpty()) {
+			set(a);
+		}
+		else {
+			rowMin = Math.min(a.rowMin, b.rowMin);
+			rowMax = Math.max(a.rowMax, b.rowMax);
+			colMin = Math.min(a.colMin, b.colMin);
+			colMax = Math.max(a.colMax, b.colMax);
+		}
+	}
+
+	/**
+	 * Sets this region to the given region grown by one cell on every side (one step of the ghost),
+	 * clipped to the board
+	 */
+	public void grow(ActiveRegion from, int size) {
+		if(from.isEmpty()) {
+			setEmpty();
+			return;
+		}
+		rowMin = Math.max(0, from.rowMin-1);
+		rowMax = Math.min(size-1, from.rowMax+1);
+		colMin = Math.max(0, from.colMin-1);
+		colMax = Math.min(size-1, from.colMax+1);
+	}
+
+	public boolean isEmpty() {
+		return rowMin > rowMax || colMin > colMax;
+	}
+
+	/**
+	 * Returns the number of cells in the region
+	 */
+	public long getNumCells() {
+		return isEmpty() ? 0 : (long)(rowMax - rowMin + 1)*(colMax - colMin + 1);
+	}
+
+	public int getRowMin() {
+		return rowMin;
+	}
+
+	public int getRowMax() {
+		return rowMax;
+	}
+
+	public int getColMin() {
+		return colMin;
+	}
+
+	public int getColMax() {
+		return colMax;
+	}
+
+	@Override
+	public String toString() {
+		return isEmpty() ? "[]" : "[" + rowMin + ".." + rowMax + "] x [" + colMin + ".." + colMax + "]";
+	}
+}
@@ -0,0 +1,554 @@
+package inference;
+
+import java.util.Arrays;
+
+/**
+ * Questions about a belief that would otherwise need a sorted copy of it: the k most likely cells, the
+ * smallest set of cells holding a given share of the mass (a credible region), and the expected position
+ * with its variance. Each comes in two forms, for a dense row-major vector restricted to its active region
+ * and for a sparse list of (cell, weight) pairs such as the occupied cells of a particle filter. Weights
+ * need not be normalized.
+ *
+ * - Top-k keeps the k best cells seen so far in a min-heap: O(n log k), and O(n) while few cells displace
+ *   the heap's minimum.
+ * - The credible region is found by radix selection on the bits of the weights, which order positive
+ *   doubles just as their values do. One pass buckets every cell by its top 16 bits and finds the bucket
+ *   where the mass crosses the target; every cell above it is in the region, and only the cells of that
+ *   bucket are looked at again, by their next 16 bits. O(n) with no sort and no copy of the belief.
+ * - The moments take one pass. A belief with no mass has no mean, so its moments are all NaN.
+ *
+ * The scratch arrays are reused between queries, so an instance is not thread-safe. The heap, the radix
+ * keys and bucket boundaries and the final step of the moments are static and package-private, for
+ * beliefs of this package that cannot hand over a vector or a list (see OffHeapBelief, QuadtreeBelief).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class BeliefQueries {
+	static final int BITS = 16;						// the bits of the weights examined per radix pass
+	static final int BUCKETS = 1 << BITS;
+	private static final int SMALL = 4096;			// below this many cells a heapsort beats clearing the buckets
+	static final double SLACK = 1e-12;				// keeps rounding in the total from costing an extra cell
+
+	private final int size;
+	private double[] bucketMass;	// the mass and number of cells in each bucket of a radix pass
+	private int[] bucketCount;
+	private int[] candidates = new int[16];			// the cells of the bucket the mass crosses...
+	private double[] candidateWeights = new double[16];	// ...and their weights
+	private int[] region = new int[16];				// the cells of the credible region found so far
+
+	/**
+	 * Creates the queries for a square board
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 */
+	public BeliefQueries(int size) {
+		this.size = size;
+	}
+
+	/*------------------------------------------------------
+	 * 				TOP K
+	 *------------------------------------------------------*/
+
+	/**
+	 * Returns the k most likely cells of a dense belief, most likely first
+	 *
+	 * @param v
+	 * 			The belief, zero outside the region
+	 * @param area
+	 * 			The active region of v
+	 * @param k
+	 * 			The number of cells
+	 * @param probabilities
+	 * 			Filled with the weight of each returned cell, or null
+	 * @return
+	 * 			The row-major indices of at most k cells with non-zero weight
+	 */
+	public int[] topK(double[] v, ActiveRegion area, int k, double[] probabilities) {
+		int[] heap = new int[Math.max(0, k)];
+		double[] heapWeights = new double[heap.length];
+		int n = 0;
+		for(int r = area.rowMin; r <= area.rowMax; r++) {
+			for(int p = r*size + area.colMin; p <= r*size + area.colMax; p++) {
+				if(v[p] > 0.0) {
+					n = offer(heap, heapWeights, n, p, v[p]);
+				}
+			}
+		}
+		return finishTopK(heap, heapWeights, n, probabilities);
+	}
+
+	/**
+	 * Returns the k most likely cells of a sparse belief, most likely first
+	 *
+	 * @param cells
+	 * 			The cells holding weight
+	 * @param weights
+	 * 			weights[i] is the weight of cells[i]
+	 * @param n
+	 * 			The number of cells
+	 * @param k
+	 * 			The number of cells to return
+	 * @param probabilities
+	 * 			Filled with the weight of each returned cell, or null
+	 * @return
+	 * 			The row-major indices of at most k cells with non-zero weight
+	 */
+	public int[] topK(int[] cells, double[] weights, int n, int k, double[] probabilities) {
+		int[] heap = new int[Math.max(0, k)];
+		double[] heapWeights = new double[heap.length];
+		int m = 0;
+		for(int i = 0; i < n; i++) {
+			if(weights[i] > 0.0) {
+				m = offer(heap, heapWeights, m, cells[i], weights[i]);
+			}
+		}
+		return finishTopK(heap, heapWeights, m, probabilities);
+	}
+
+	/*------------------------------------------------------
+	 * 				CREDIBLE REGION
+	 *------------------------------------------------------*/
+
+	/**
+	 * Returns the smallest set of cells of a dense belief whose weights add up to at least the given share
+	 * of the total
+	 *
+	 * @param v
+	 * 			The belief, zero outside the region
+	 * @param area
+	 * 			The active region of v
+	 * @param mass
+	 * 			The share of the total weight to cover, in [0, 1]
+	 * @return
+	 * 			The row-major indices of the cells, in no particular order
+	 */
+	public int[] credibleRegion(double[] v, ActiveRegion area, double mass) {
+		if(area.getNumCells() <= SMALL) {
+			int[] heap = new int[(int) area.getNumCells()];
+			double[] heapWeights = new double[heap.length];
+			int n = 0;
+			for(int r = area.rowMin; r <= area.rowMax; r++) {
+				for(int p = r*size + area.colMin; p <= r*size + area.colMax; p++) {
+					if(v[p] > 0.0) {
+						heap[n] = p;
+						heapWeights[n++] = v[p];
+					}
+				}
+			}
+			return smallRegion(heap, heapWeights, n, mass);
+		}
+		prepareBuckets();
+		double total = 0.0;
+		for(int r = area.rowMin; r <= area.rowMax; r++) {
+			for(int p = r*size + area.colMin; p <= r*size + area.colMax; p++) {
+				double w = v[p];
+				if(w > 0.0) {
+					int key = key(w, 0);
+					bucketMass[key] += w;
+					bucketCount[key]++;
+					total += w;
+				}
+			}
+		}
+		double target = target(mass, total);
+		if(target <= 0.0) {
+			clearBuckets();
+			return new int[0];
+		}
+		int boundary = boundary(bucketMass, bucketCount, target);
+		double above = massAbove(bucketMass, boundary);
+		int numCandidates = bucketCount[boundary];
+		clearBuckets();
+
+		int found = 0, c = 0;
+		ensureCandidates(numCandidates);
+		for(int r = area.rowMin; r <= area.rowMax; r++) {
+			for(int p = r*size + area.colMin; p <= r*size + area.colMax; p++) {
+				double w = v[p];
+				if(w > 0.0) {
+					int key = key(w, 0);
+					if(key > boundary) {
+						found = add(found, p);
+					}
+					else if(key == boundary) {
+						candidates[c] = p;
+						candidateWeights[c++] = w;
+					}
+				}
+			}
+		}
+		return refine(found, c, target - above);
+	}
+
+	/**
+	 * Returns the smallest set of cells of a sparse belief whose weights add up to at least the given share
+	 * of the total
+	 *
+	 * @param cells
+	 * 			The cells holding weight
+	 * @param weights
+	 * 			weights[i] is the weight of cells[i]
+	 * @param n
+	 * 			The number of cells
+	 * @param mass
+	 * 			The share of the total weight to cover, in [0, 1]
+	 * @return
+	 * 			The row-major indices of the cells, in no particular order
+	 */
+	public int[] credibleRegion(int[] cells, double[] weights, int n, double mass) {
+		if(n <= SMALL) {
+			int[] heap = new int[n];
+			double[] heapWeights = new double[n];
+			int m = 0;
+			for(int i = 0; i < n; i++) {
+				if(weights[i] > 0.0) {
+					heap[m] = cells[i];
+					heapWeights[m++] = weights[i];
+				}
+			}
+			return smallRegion(heap, heapWeights, m, mass);
+		}
+		prepareBuckets();
+		double total = 0.0;
+		for(int i = 0; i < n; i++) {
+			double w = weights[i];
+			if(w > 0.0) {
+				int key = key(w, 0);
+				bucketMass[key] += w;
+				bucketCount[key]++;
+				total += w;
+			}
+		}
+		double target = target(mass, total);
+		if(target <= 0.0) {
+			clearBuckets();
+			return new int[0];
+		}
+		int boundary = boundary(bucketMass, bucketCount, target);
+		double above = massAbove(bucketMass, boundary);
+		int numCandidates = bucketCount[boundary];
+		clearBuckets();
+
+		int found = 0, c = 0;
+		ensureCandidates(numCandidates);
+		for(int i = 0; i < n; i++) {
+			double w = weights[i];
+			if(w > 0.0) {
+				int key = key(w, 0);
+				if(key > boundary) {
+					found = add(found, cells[i]);
+				}
+				else if(key == boundary) {
+					candidates[c] = cells[i];
+					candidateWeights[c++] = w;
+				}
+			}
+		}
+		return refine(found, c, target - above);
+	}
+
+	/*------------------------------------------------------
+	 * 				MOMENTS
+	 *------------------------------------------------------*/
+
+	/**
+	 * Returns the expected position of a dense belief and its spread
+	 *
+	 * @param v
+	 * 			The belief, zero outside the region
+	 * @param area
+	 * 			The active region of v
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}, all NaN if the
+	 * 			belief has no mass
+	 */
+	public double[] moments(double[] v, ActiveRegion area) {
+		double w = 0, sr = 0, sc = 0, srr = 0, scc = 0, src = 0;
+		for(int r = area.rowMin; r <= area.rowMax; r++) {
+			// Summing each row first leaves one multiply by r per row
+			double rowW = 0, rowC = 0, rowCC = 0;
+			for(int c = area.colMin; c <= area.colMax; c++) {
+				double p = v[r*size + c];
+				rowW += p;
+				rowC += p*c;
+				rowCC += p*c*c;
+			}
+			w += rowW;
+			sr += rowW*r;
+			srr += rowW*r*r;
+			sc += rowC;
+			scc += rowCC;
+			src += rowC*r;
+		}
+		return finishMoments(w, sr, sc, srr, scc, src);
+	}
+
+	/**
+	 * Returns the expected position of a sparse belief and its spread
+	 *
+	 * @param cells
+	 * 			The cells holding weight
+	 * @param weights
+	 * 			weights[i] is the weight of cells[i]
+	 * @param n
+	 * 			The number of cells
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}, all NaN if the
+	 * 			belief has no mass
+	 */
+	public double[] moments(int[] cells, double[] weights, int n) {
+		double w = 0, sr = 0, sc = 0, srr = 0, scc = 0, src = 0;
+		for(int i = 0; i < n; i++) {
+			double p = weights[i];
+			int r = cells[i]/size, c = cells[i]%size;
+			w += p;
+			sr += p*r;
+			sc += p*c;
+			srr += p*r*r;
+			scc += p*c*c;
+			src += p*r*c;
+		}
+		return finishMoments(w, sr, sc, srr, scc, src);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				SHARED WITH THE OTHER BELIEFS
+	 *------------------------------------------------------*/
+
+	/**
+	 * Adds a cell to a min-heap of the heaviest cells seen so far, kept as parallel arrays whose length is
+	 * the number of cells wanted. Once the heap is full a cell only gets in by displacing the lightest.
+	 *
+	 * @return
+	 * 			The number of cells in the heap afterwards
+	 */
+	static int offer(int[] cells, double[] weights, int n, int cell, double w) {
+		if(n < cells.length) {
+			int j = n++;
+			while(j > 0 && weights[(j - 1)/2] > w) {
+				cells[j] = cells[(j - 1)/2];
+				weights[j] = weights[(j - 1)/2];
+				j = (j - 1)/2;
+			}
+			cells[j] = cell;
+			weights[j] = w;
+		}
+		else if(n > 0 && w > weights[0]) {
+			siftDown(cells, weights, n, cell, w);
+		}
+		return n;
+	}
+
+	/**
+	 * Sorts a heap filled by offer() from the heaviest cell to the lightest, in place
+	 *
+	 * @param probabilities
+	 * 			Filled with the weight of each cell, or null
+	 * @return
+	 * 			A copy of the n sorted cells
+	 */
+	static int[] finishTopK(int[] cells, double[] weights, int n, double[] probabilities) {
+		// Pop the minimum into the back until the heap is sorted from most to least likely
+		for(int last = n - 1; last > 0; last--) {
+			int minCell = cells[0];
+			double minWeight = weights[0];
+			siftDown(cells, weights, last, cells[last], weights[last]);
+			cells[last] = minCell;
+			weights[last] = minWeight;
+		}
+		if(probabilities != null) {
+			System.arraycopy(weights, 0, probabilities, 0, Math.min(n, probabilities.length));
+		}
+		return Arrays.copyOf(cells, n);
+	}
+
+	/**
+	 * Turns the weighted sums of a belief into its moments
+	 *
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}, all NaN if the
+	 * 			total weight w is not positive
+	 */
+	static double[] finishMoments(double w, double sr, double sc, double srr, double scc, double src) {
+		if(w <= 0.0) {
+			return new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+		}
+		double meanRow = sr/w, meanCol = sc/w;
+		return new double[] {meanRow, meanCol, Math.max(0.0, srr/w - meanRow*meanRow),
+				Math.max(0.0, scc/w - meanCol*meanCol), src/w - meanRow*meanCol};
+	}
+
+	/**
+	 * Returns the share of the total a credible region must cover; a mass of 1 takes every cell with weight
+	 */
+	static double target(double mass, double total) {
+		return mass >= 1.0 ? total : mass*total*(1.0 - SLACK);
+	}
+
+	/**
+	 * Returns the BITS bits of a positive weight examined by the given radix pass, most significant first
+	 */
+	static int key(double w, int pass) {
+		return (int)(Double.doubleToRawLongBits(w) >>> (64 - BITS*(pass + 1))) & (BUCKETS - 1);
+	}
+
+	/**
+	 * Returns the bucket in which the mass, added from the heaviest bucket down, reaches the target
+	 */
+	static int boundary(double[] bucketMass, int[] bucketCount, double target) {
+		double cumulative = 0.0;
+		int lowest = -1;
+		for(int b = BUCKETS - 1; b >= 0; b--) {
+			if(bucketCount[b] == 0) {
+				continue;
+			}
+			lowest = b;
+			cumulative += bucketMass[b];
+			if(cumulative >= target) {
+				return b;
+			}
+		}
+		return lowest;	// rounding left the total just short of the target: take everything
+	}
+
+	/**
+	 * Returns the mass of the buckets above the given one
+	 */
+	static double massAbove(double[] bucketMass, int boundary) {
+		double above = 0.0;
+		for(int b = BUCKETS - 1; b > boundary; b--) {
+			above += bucketMass[b];
+		}
+		return above;
+	}
+
+	/**
+	 * Returns the number of cells in the buckets above the given one
+	 */
+	static long countAbove(int[] bucketCount, int boundary) {
+		long above = 0;
+		for(int b = BUCKETS - 1; b > boundary; b--) {
+			above += bucketCount[b];
+		}
+		return above;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Puts (cell, w) at the root of the min-heap [0, n) and sifts it down
+	private static void siftDown(int[] cells, double[] weights, int n, int cell, double w) {
+		int j = 0;
+		while(true) {
+			int child = 2*j + 1;
+			if(child >= n) {
+				break;
+			}
+			if(child + 1 < n && weights[child + 1] < weights[child]) {
+				child++;
+			}
+			if(weights[child] >= w) {
+				break;
+			}
+			cells[j] = cells[child];
+			weights[j] = weights[child];
+			j = child;
+		}
+		cells[j] = cell;
+		weights[j] = w;
+	}
+
+	// The credible region of a few cells with positive weight: heapsorts them from most to least likely
+	// and takes them until the target is covered
+	private static int[] smallRegion(int[] heap, double[] heapWeights, int n, double mass) {
+		double total = 0.0;
+		for(int i = 0; i < n; i++) {
+			total += heapWeights[i];
+		}
+		double target = target(mass, total);
+		if(target <= 0.0) {
+			return new int[0];
+		}
+		int m = 0;
+		for(int i = 0; i < n; i++) {
+			m = offer(heap, heapWeights, m, heap[i], heapWeights[i]);
+		}
+		int[] sorted = finishTopK(heap, heapWeights, m, null);
+		int found = 0;
+		double covered = 0.0;
+		while(found < sorted.length && covered < target) {
+			covered += heapWeights[found++];
+		}
+		return Arrays.copyOf(sorted, found);
+	}
+
+	private void prepareBuckets() {
+		if(bucketMass == null) {
+			bucketMass = new double[BUCKETS];
+			bucketCount = new int[BUCKETS];
+		}
+	}
+
+	private void clearBuckets() {
+		Arrays.fill(bucketMass, 0.0);
+		Arrays.fill(bucketCount, 0);
+	}
+
+	// Adds the cells the region still needs from the candidates, which share their first bits, looking
+	// at the next 16 bits of their weights each pass
+	private int[] refine(int found, int numCandidates, double target) {
+		for(int pass = 1; numCandidates > 0 && target > 0.0; pass++) {
+			if(pass == 64/BITS) {
+				// The candidates all have the same weight: any of them will do
+				for(int i = 0; i < numCandidates && target > 0.0; i++) {
+					found = add(found, candidates[i]);
+					target -= candidateWeights[i];
+				}
+				break;
+			}
+			for(int i = 0; i < numCandidates; i++) {
+				int key = key(candidateWeights[i], pass);
+				bucketMass[key] += candidateWeights[i];
+				bucketCount[key]++;
+			}
+			int boundary = boundary(bucketMass, bucketCount, target);
+			target -= massAbove(bucketMass, boundary);
+			clearBuckets();
+
+			// Keep the candidates of the boundary bucket, compacted to the front
+			int kept = 0;
+			for(int i = 0; i < numCandidates; i++) {
+				int key = key(candidateWeights[i], pass);
+				if(key > boundary) {
+					found = add(found, candidates[i]);
+				}
+				else if(key == boundary) {
+					candidates[kept] = candidates[i];
+					candidateWeights[kept++] = candidateWeights[i];
+				}
+			}
+			numCandidates = kept;
+		}
+		return Arrays.copyOf(region, found);
+	}
+
+	private int add(int found, int cell) {
+		if(found == region.length) {
+			region = Arrays.copyOf(region, 2*found);
+		}
+		region[found] = cell;
+		return found + 1;
+	}
+
+	private void ensureCandidates(int n) {
+		if(candidates.length < n) {
+			candidates = new int[n];
+			candidateWeights = new double[n];
+		}
+	}
+}
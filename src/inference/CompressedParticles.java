@@ -0,0 +1,339 @@
+package inference;
+
+import java.util.Arrays;
+
+import util.SplitMix64;
+
+/**
+ * A particle set stored as (cell, count, weight) tuples, one per distinct occupied cell, instead of
+ * one entry per particle. On a discrete grid most particles share a cell with many others, so every
+ * operation below costs O(occupied cells) rather than O(particles):
+ *
+ * - elapse: the particles in a cell are split over its moves with a multinomial draw
+ * - weigh: the emission probability is computed once per cell
+ * - resample: the N new particles are split over the cells with a multinomial draw
+ *
+ * The multinomials are drawn as a chain of binomials, which gives the same distribution as moving
+ * or resampling the particles one at a time (binomials with a large mean use the normal approximation).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class CompressedParticles {
+	private static final double NORMAL_APPROXIMATION = 30.0;	// binomials with a smaller mean are drawn exactly
+
+	private final GridModel model;
+	private final SplitMix64 rng;
+	private final int numParticles;
+
+	private int size;			// the number of distinct cells
+	private int[] cells;
+	private int[] counts;
+	private double[] weights;
+
+	private final int[] perCell;	// scratch counts indexed by cell, all zero between uses
+	private final int[] touched;	// the cells with a non-zero entry in perCell
+	private int numTouched;
+
+	/**
+	 * Creates a particle set drawn from the uniform distribution
+	 *
+	 * @param model
+	 * 			The HMM of the ghost and the sonar
+	 * @param numParticles
+	 * 			The number of particles, N
+	 * @param rng
+	 * 			The source of randomness
+	 */
+	public CompressedParticles(GridModel model, int numParticles, SplitMix64 rng) {
+		if(numParticles <= 0) {
+			throw new IllegalArgumentException("There must be at least one particle");
+		}
+		this.model = model;
+		this.rng = rng;
+		this.numParticles = numParticles;
+		int n = model.getNumCells();
+		this.perCell = new int[n];
+		this.touched = new int[n];
+		this.cells = new int[Math.min(n, numParticles)];
+		this.counts = new int[cells.length];
+		this.weights = new double[cells.length];
+
+		// Spread the particles uniformly: a multinomial with equal probabilities over all open cells
+		int remaining = numParticles;
+		int openLeft = model.getNumOpenCells();
+		for(int c = 0; c < n && remaining > 0; c++) {
+			if(!model.isOpen(c)) {
+				continue;
+			}
+			int k = binomial(remaining, 1.0/openLeft--);
+			if(k > 0) {
+				add(c, k);
+			}
+			remaining -= k;
+		}
+		compact();
+	}
+
+	/**
+	 * Returns the number of particles, N
+	 */
+	public int getNumParticles() {
+		return numParticles;
+	}
+
+	/**
+	 * Returns the number of distinct cells occupied by particles
+	 */
+	public int getNumCells() {
+		return size;
+	}
+
+	/**
+	 * Returns the cell of the i'th tuple
+	 */
+	public int getCell(int i) {
+		return cells[i];
+	}
+
+	/**
+	 * Returns the number of particles in the i'th tuple
+	 */
+	public int getCount(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * Returns the emission weight of the i'th tuple from the most recent call to weigh(), or 1.0 if the
+	 * particles have been moved or resampled since
+	 */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * Replaces the tuples, e.g. with ones saved in a checkpoint
+	 *
+	 * @param numCells
+	 * 			The number of tuples
+	 * @param cells
+	 * 			The distinct cells...
+	 * @param counts
+	 * 			...the number of particles in each, which must add up to N...
+	 * @param weights
+	 * 			...and their emission weights
+	 * @throws IllegalArgumentException if a cell is off the board, blocked or listed twice, a count is not
+	 * 			positive or the counts do not add up to N. The tuples are left as they were.
+	 */
+	public void set(int numCells, int[] cells, int[] counts, double[] weights) {
+		if(numCells > this.cells.length) {
+			throw new IllegalArgumentException("At most " + this.cells.length + " cells can be occupied");
+		}
+		long total = 0;
+		try {
+			for(int i = 0; i < numCells; i++) {
+				int cell = cells[i];
+				if(cell < 0 || cell >= perCell.length || !model.isOpen(cell)) {
+					throw new IllegalArgumentException("Cell " + cell + " is not an open cell of the board");
+				}
+				if(counts[i] <= 0) {
+					throw new IllegalArgumentException("Cell " + cell + " holds " + counts[i] + " particles");
+				}
+				if(perCell[cell]++ > 0) {
+					throw new IllegalArgumentException("Cell " + cell + " is listed twice");
+				}
+				total += counts[i];
+			}
+		}
+		finally {
+			// perCell is scratch that must be all zero between uses
+			for(int i = 0; i < numCells; i++) {
+				if(cells[i] >= 0 && cells[i] < perCell.length) {
+					perCell[cells[i]] = 0;
+				}
+			}
+		}
+		if(total != numParticles) {
+			throw new IllegalArgumentException("The counts add up to " + total + " instead of " + numParticles);
+		}
+		System.arraycopy(cells, 0, this.cells, 0, numCells);
+		System.arraycopy(counts, 0, this.counts, 0, numCells);
+		System.arraycopy(weights, 0, this.weights, 0, numCells);
+		size = numCells;
+	}
+
+	/**
+	 * Moves every particle one step according to the ghost's transition model
+	 */
+	public void elapse() {
+		for(int i = 0; i < size; i++) {
+			int cell = cells[i];
+			int remaining = counts[i];
+			int moves = model.numMoves(cell);
+			for(int m = 0; m < moves && remaining > 0; m++) {
+				int k = m == moves-1 ? remaining : binomial(remaining, 1.0/(moves - m));
+				if(k > 0) {
+					add(model.move(cell, m), k);
+				}
+				remaining -= k;
+			}
+		}
+		compact();
+	}
+
+	/**
+	 * Computes the emission weight of every occupied cell: the product of the likelihoods of the given
+	 * readings of one ghost step
+	 *
+	 * @param pacmanCells
+	 * 			Where each reading was taken from
+	 * @param noisyDistances
+	 * 			The noisy distance readings
+	 * @param n
+	 * 			The number of readings
+	 * @return
+	 * 			The total weight of all particles, sum of count*weight
+	 */
+	public double weigh(int[] pacmanCells, int[] noisyDistances, int n) {
+		double total = 0.0;
+		for(int i = 0; i < size; i++) {
+			double w = 1.0;
+			for(int j = 0; j < n && w > 0.0; j++) {
+				w *= model.emission(pacmanCells[j], cells[i], noisyDistances[j]);
+			}
+			weights[i] = w;
+			total += counts[i]*w;
+		}
+		return total;
+	}
+
+	/**
+	 * Draws N new unweighted particles in proportion to count*weight. Every tuple kept has weight 1.0
+	 * afterwards, so resampling again without weighing draws in proportion to the counts alone.
+	 *
+	 * @return
+	 * 			False (leaving the particles unchanged) if every particle has weight 0
+	 */
+	public boolean resample() {
+		double mass = 0.0;
+		for(int i = 0; i < size; i++) {
+			mass += counts[i]*weights[i];
+		}
+		if(mass <= 0.0) {
+			return false;
+		}
+		int remaining = numParticles;
+		int kept = 0;
+		for(int i = 0; i < size && remaining > 0; i++) {
+			double share = counts[i]*weights[i];
+			int k = i == size-1 || share >= mass ? remaining : binomial(remaining, share/mass);
+			mass -= share;
+			remaining -= k;
+			if(k > 0) {
+				cells[kept] = cells[i];
+				counts[kept] = k;
+				weights[kept] = 1.0;
+				kept++;
+			}
+		}
+		size = kept;
+		return true;
+	}
+
+	/**
+	 * Returns the cell holding the most particles
+	 */
+	public int mostPopulated() {
+		int best = 0;
+		for(int i = 1; i < size; i++) {
+			if(counts[i] > counts[best]) {
+				best = i;
+			}
+		}
+		return cells[best];
+	}
+
+	/**
+	 * Fills dst with the fraction of particles in each cell
+	 */
+	public void toDense(double[] dst) {
+		Arrays.fill(dst, 0.0);
+		for(int i = 0; i < size; i++) {
+			dst[cells[i]] = (double)counts[i]/numParticles;
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Adds k particles to the scratch count of the given cell
+	private void add(int cell, int k) {
+		if(perCell[cell] == 0) {
+			touched[numTouched++] = cell;
+		}
+		perCell[cell] += k;
+	}
+
+	// Replaces the tuples with the scratch counts, unweighted
+	private void compact() {
+		int n = numTouched;
+		if(cells.length < n) {
+			cells = new int[n];
+			counts = new int[n];
+			weights = new double[n];
+		}
+		for(int i = 0; i < n; i++) {
+			int cell = touched[i];
+			cells[i] = cell;
+			counts[i] = perCell[cell];
+			weights[i] = 1.0;
+			perCell[cell] = 0;
+		}
+		size = n;
+		numTouched = 0;
+	}
+
+	// Draws from Binomial(n, p). Small means are drawn exactly by inversion and large means with the
+	// normal approximation, which is indistinguishable at that scale.
+	private int binomial(int n, double p) {
+		if(n == 0 || p <= 0.0) {
+			return 0;
+		}
+		if(p >= 1.0) {
+			return n;
+		}
+		if(p > 0.5) {
+			return n - binomial(n, 1.0 - p);
+		}
+		double mean = n*p;
+		if(mean < NORMAL_APPROXIMATION) {
+			double q = 1.0 - p;
+			double ratio = p/q;
+			double prob = Math.exp(n*Math.log(q));	// P(X = 0)
+			double u = rng.nextDouble();
+			int k = 0;
+			while(u > prob && k < n) {
+				u -= prob;
+				prob *= ratio*(n - k)/(k + 1);
+				k++;
+			}
+			return k;
+		}
+		double sd = Math.sqrt(mean*(1.0 - p));
+		long k = Math.round(mean + sd*gaussian());
+		return (int)Math.max(0, Math.min(n, k));
+	}
+
+	private double gaussian() {
+		// Marsaglia polar method
+		double u, v, s;
+		do {
+			u = 2*rng.nextDouble() - 1;
+			v = 2*rng.nextDouble() - 1;
+			s = u*u + v*v;
+		} while(s >= 1 || s == 0);
+		return u*Math.sqrt(-2*Math.log(s)/s);
+	}
+}
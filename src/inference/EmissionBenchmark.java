@@ -0,0 +1,94 @@
+package inference;
+
+import java.util.SplittableRandom;
+
+import graphics.Sonar;
+
+/**
+ * Compares the row kernel of GridModel.weigh() and the ring-by-ring RingEmission with the per-cell
+ * weighScalar() on boards of increasing size, and checks that all three give the same belief. The
+ * ring kernel is timed on a belief spread over the whole board, its worst case.
+ *
+ * Usage: java inference.EmissionBenchmark [boardSize]...
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class EmissionBenchmark {
+	private static final int SONAR_RANGE = 2;
+	private static final long MIN_NANOS = 500000000L;	// time each kernel for at least half a second
+	private static final int SCALAR = 0, ROW = 1, RING = 2;
+
+	public static void main(String[] args) {
+		int[] sizes = {100, 300, 1000, 2000};
+		if(args.length > 0) {
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%6s %14s %14s %8s %14s %8s %12s%n", "size", "scalar ns/cell", "row ns/cell", "speedup",
+				"ring ns/cell", "speedup", "max error");
+		for(int size : sizes) {
+			GridModel model = new GridModel(size, new Sonar(size, SONAR_RANGE));
+			SplittableRandom rng = new SplittableRandom(size);
+			double[] prior = new double[model.getNumCells()];
+			for(int i = 0; i < prior.length; i++) {
+				prior[i] = rng.nextDouble();
+			}
+			int pacman = rng.nextInt(prior.length);
+			int reading = size/2;
+
+			RingEmission rings = new RingEmission(model);
+			double[] a = prior.clone(), b = prior.clone(), c = prior.clone();
+			double sumA = model.weighScalar(a, pacman, reading);
+			double sumB = model.weigh(b, pacman, reading);
+			double sumC = rings.weigh(c, pacman, reading, new ActiveRegion(size));
+			double error = Math.max(Math.abs(sumA - sumB), Math.abs(sumA - sumC))/sumA;
+			for(int i = 0; i < a.length; i++) {
+				error = Math.max(error, Math.max(Math.abs(a[i] - b[i]), Math.abs(a[i] - c[i])));
+			}
+
+			double scalar = time(model, rings, prior, pacman, reading, SCALAR);
+			double row = time(model, rings, prior, pacman, reading, ROW);
+			double ring = time(model, rings, prior, pacman, reading, RING);
+			System.out.printf("%6d %14.3f %14.3f %7.2fx %14.3f %7.2fx %12.2e%n", size, scalar, row, scalar/row,
+					ring, scalar/ring, error);
+		}
+	}
+
+	// Returns the mean nanoseconds per cell of one kernel. The belief is refreshed every pass so the
+	// values do not underflow to zero, which would make later passes unrepresentatively fast.
+	private static double time(GridModel model, RingEmission rings, double[] prior, int pacman, int reading, int kernel) {
+		double[] belief = new double[prior.length];
+		ActiveRegion region = new ActiveRegion(model.getSize());
+		double sink = 0.0;
+		long passes = 0, nanos = 0;
+		for(int warmup = 0; warmup < 5; warmup++) {
+			System.arraycopy(prior, 0, belief, 0, prior.length);
+			region.setFull(model.getSize());
+			sink += weigh(model, rings, belief, pacman, reading, region, kernel);
+		}
+		while(nanos < MIN_NANOS) {
+			System.arraycopy(prior, 0, belief, 0, prior.length);
+			region.setFull(model.getSize());
+			long start = System.nanoTime();
+			sink += weigh(model, rings, belief, pacman, reading, region, kernel);
+			nanos += System.nanoTime() - start;
+			passes++;
+		}
+		if(sink == 42.0) {
+			System.out.print("");
+		}
+		return (double)nanos/passes/prior.length;
+	}
+
+	private static double weigh(GridModel model, RingEmission rings, double[] belief, int pacman, int reading,
+			ActiveRegion region, int kernel) {
+		switch(kernel) {
+			case SCALAR: return model.weighScalar(belief, pacman, reading);
+			case ROW: return model.weigh(belief, pacman, reading);
+			default: return rings.weigh(belief, pacman, reading, region);
+		}
+	}
+}
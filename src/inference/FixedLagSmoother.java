@@ -0,0 +1,151 @@
+package inference;
+
+import java.util.Arrays;
+
+/**
+ * A streaming fixed-lag smoother. Every step it filters the new reading (exactly like the forward
+ * algorithm) and, once it has seen more than L readings, also produces the smoothed estimate
+ *
+ * 						p(X_t-L | e_0..e_t)
+ *
+ * The last L+1 filtered beliefs and readings are kept in a ring buffer and the backward message is
+ * recomputed over the lag window each step, so a step costs O(L*cells) and allocates nothing.
+ * A larger lag uses more future readings (more accurate) but the estimate is L steps old.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class FixedLagSmoother {
+	private final GridModel model;
+	private final int lag;
+	private final int cells;
+
+	private final double[][] filtered;	// ring buffer of the last lag+1 filtered beliefs
+	private final int[] pacmanCells;	// ... and the readings that produced them
+	private final int[] readings;
+	private long step;					// the number of readings seen so far
+
+	private double[] beta;
+	private double[] scratch;
+	private final double[] smoothed;
+
+	/**
+	 * Creates a new smoother that starts from the uniform distribution
+	 *
+	 * @param model
+	 * 			The HMM of the ghost and the sonar
+	 * @param lag
+	 * 			How many steps the smoothed estimate trails the newest reading (0 means plain filtering)
+	 */
+	public FixedLagSmoother(GridModel model, int lag) {
+		if(lag < 0) {
+			throw new IllegalArgumentException("The lag must be non-negative");
+		}
+		this.model = model;
+		this.lag = lag;
+		this.cells = model.getNumCells();
+		this.filtered = new double[lag+1][cells];
+		this.pacmanCells = new int[lag+1];
+		this.readings = new int[lag+1];
+		this.beta = new double[cells];
+		this.scratch = new double[cells];
+		this.smoothed = new double[cells];
+		reset();
+	}
+
+	/**
+	 * Forgets every reading and goes back to the uniform distribution
+	 */
+	public void reset() {
+		step = 0;
+		model.uniform(filtered[lag]); // the slot just before slot 0 holds the prior
+		model.uniform(smoothed);
+	}
+
+	public int getLag() {
+		return lag;
+	}
+
+	/**
+	 * Returns the number of readings seen so far
+	 */
+	public long getNumSteps() {
+		return step;
+	}
+
+	/**
+	 * Incorporates the next reading
+	 *
+	 * @param pacmanCell
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @return
+	 * 			True if a smoothed estimate is available, i.e. at least lag+1 readings have been seen
+	 */
+	public boolean update(int pacmanCell, int noisyDistance) {
+		int slot = (int)(step % (lag+1));
+		int prev = (slot + lag) % (lag+1);
+
+		// Predict into the scratch buffer and swap it into the ring: with lag 0, prev and slot are the
+		// same slot, and the prediction must not write over its own source
+		double[] alpha = scratch;
+		model.predict(filtered[prev], alpha);
+		scratch = filtered[slot];
+		filtered[slot] = alpha;
+		GridModel.scale(alpha, model.weigh(alpha, pacmanCell, noisyDistance));
+		pacmanCells[slot] = pacmanCell;
+		readings[slot] = noisyDistance;
+		step++;
+
+		if(step <= lag) {
+			return false;
+		}
+
+		// Backward message from the newest reading down to step t-lag+1
+		Arrays.fill(beta, 1.0);
+		for(int i = 0; i < lag; i++) {
+			int s = (slot - i + lag + 1) % (lag+1);
+			model.weigh(beta, pacmanCells[s], readings[s]);
+			model.predictTranspose(beta, scratch);
+			double max = 0.0;
+			for(int c = 0; c < cells; c++) {
+				max = Math.max(max, scratch[c]);
+			}
+			GridModel.scale(scratch, max);
+			double[] swap = beta; beta = scratch; scratch = swap;
+		}
+
+		// The oldest belief in the window is the one at t-lag
+		double[] oldest = filtered[(slot + 1) % (lag+1)];
+		double sum = 0.0;
+		for(int c = 0; c < cells; c++) {
+			smoothed[c] = oldest[c]*beta[c];
+			sum += smoothed[c];
+		}
+		GridModel.scale(smoothed, sum);
+		return true;
+	}
+
+	/**
+	 * Returns the filtered belief p(X_t | e_0..e_t) after the newest reading. The array is owned by the smoother.
+	 */
+	public double[] getFiltered() {
+		return filtered[(int)((step + lag) % (lag+1))];
+	}
+
+	/**
+	 * Returns the smoothed belief p(X_t-L | e_0..e_t). Before lag+1 readings have been seen this is uniform.
+	 * The array is owned by the smoother.
+	 */
+	public double[] getSmoothed() {
+		return smoothed;
+	}
+
+	/**
+	 * Returns the step that getSmoothed() refers to, or -1 if there is no smoothed estimate yet
+	 */
+	public long getSmoothedStep() {
+		return step > lag ? step - 1 - lag : -1;
+	}
+}
@@ -0,0 +1,258 @@
+package inference;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.TraceReader;
+import util.TraceRecord;
+
+/**
+ * Batch inference over a recorded sequence of readings using the sonar's emission model and
+ * the ghost's random-walk transition model (see GridModel):
+ *
+ * - smooth() computes the smoothed marginals p(X_t | e_0..e_T-1) with the forward-backward algorithm
+ * - viterbi() computes the most likely sequence of ghost locations
+ *
+ * Both are checkpointed: the forward pass only keeps one vector every sqrt(T) steps and each block
+ * of steps is recomputed from its checkpoint when the backward pass reaches it. Memory is therefore
+ * O(sqrt(T)*cells) instead of O(T*cells), at the cost of running the forward pass twice.
+ *
+ * As in the filters, the belief before the first reading is uniform and every reading is preceded
+ * by one ghost move.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class ForwardBackward {
+
+	/**
+	 * Receives the smoothed marginals. The steps are delivered from last to first and the
+	 * array is reused, so copy it if you need to keep it.
+	 */
+	public interface MarginalSink {
+		void accept(int step, double[] marginal);
+	}
+
+	private final GridModel model;
+	private final int cells;
+
+	public ForwardBackward(GridModel model) {
+		this.model = model;
+		this.cells = model.getNumCells();
+	}
+
+	/**
+	 * Computes the smoothed marginal of every step
+	 *
+	 * @param obs
+	 * 			The readings
+	 * @param sink
+	 * 			Receives the marginal of each step, from the last step to the first
+	 * @return
+	 * 			The log-likelihood of the readings
+	 */
+	public double smooth(Observations obs, MarginalSink sink) {
+		int T = obs.length();
+		if(T == 0) {
+			return 0.0;
+		}
+		int B = blockSize(T);
+		int numBlocks = (T + B - 1)/B;
+
+		// Forward pass: keep the filtered belief just before each block
+		double[][] checkpoints = new double[numBlocks][];
+		double[] alpha = new double[cells];
+		double[] scratch = new double[cells];
+		model.uniform(alpha);
+		double logLikelihood = 0.0;
+		for(int t = 0; t < T; t++) {
+			if(t % B == 0) {
+				checkpoints[t/B] = alpha.clone();
+			}
+			logLikelihood += Math.log(filterStep(alpha, scratch, obs, t));
+			double[] swap = alpha; alpha = scratch; scratch = swap;
+		}
+
+		// Backward pass, one block at a time from the end
+		double[][] block = new double[B][cells];
+		double[] beta = new double[cells];
+		double[] marginal = scratch;
+		Arrays.fill(beta, 1.0);
+		for(int k = numBlocks-1; k >= 0; k--) {
+			int start = k*B, end = Math.min(T, start + B);
+			double[] prev = checkpoints[k];
+			for(int t = start; t < end; t++) {
+				filterStep(prev, block[t-start], obs, t);
+				prev = block[t-start];
+			}
+			checkpoints[k] = null;
+
+			for(int t = end-1; t >= start; t--) {
+				double[] a = block[t-start];
+				double sum = 0.0;
+				for(int i = 0; i < cells; i++) {
+					marginal[i] = a[i]*beta[i];
+					sum += marginal[i];
+				}
+				GridModel.scale(marginal, sum);
+				sink.accept(t, marginal);
+
+				// beta_t-1(q) = sum_p p(p|q) p(e_t|p) beta_t(p), rescaled to avoid underflow
+				model.weigh(beta, obs.getPacmanCell(t), obs.getReading(t));
+				model.predictTranspose(beta, alpha);
+				double max = 0.0;
+				for(int i = 0; i < cells; i++) {
+					max = Math.max(max, alpha[i]);
+				}
+				GridModel.scale(alpha, max);
+				double[] swap = beta; beta = alpha; alpha = swap;
+			}
+		}
+		return logLikelihood;
+	}
+
+	/**
+	 * Computes the most likely sequence of ghost locations
+	 *
+	 * @param obs
+	 * 			The readings
+	 * @return
+	 * 			The row-major cell of the ghost at each step
+	 */
+	public int[] viterbi(Observations obs) {
+		int T = obs.length();
+		int[] path = new int[T];
+		if(T == 0) {
+			return path;
+		}
+		int B = blockSize(T);
+		int numBlocks = (T + B - 1)/B;
+
+		// Forward pass: keep the path scores just before each block. Backpointers are thrown away.
+		double[][] checkpoints = new double[numBlocks][];
+		double[] delta = new double[cells];
+		double[] scratch = new double[cells];
+		int[] backpointer = new int[cells];
+		model.uniform(delta);
+		for(int t = 0; t < T; t++) {
+			if(t % B == 0) {
+				checkpoints[t/B] = delta.clone();
+			}
+			viterbiStep(delta, scratch, backpointer, obs, t);
+			double[] swap = delta; delta = scratch; scratch = swap;
+		}
+		int state = 0;
+		for(int i = 1; i < cells; i++) {
+			if(delta[i] > delta[state]) {
+				state = i;
+			}
+		}
+
+		// Backtrack one block at a time, recomputing the block's backpointers from its checkpoint
+		int[][] pointers = new int[B][cells];
+		for(int k = numBlocks-1; k >= 0; k--) {
+			int start = k*B, end = Math.min(T, start + B);
+			double[] prev = checkpoints[k];
+			for(int t = start; t < end; t++) {
+				viterbiStep(prev, delta, pointers[t-start], obs, t);
+				double[] swap = delta; delta = scratch; scratch = swap;
+				prev = scratch;
+			}
+			checkpoints[k] = null;
+
+			for(int t = end-1; t >= start; t--) {
+				path[t] = state;
+				state = pointers[t-start][state];
+			}
+		}
+		return path;
+	}
+
+
+	/**
+	 * Compares the smoothed and Viterbi estimates of a recorded trace against the ghost's true path.
+	 *
+	 * Usage: java inference.ForwardBackward trace.bin
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java inference.ForwardBackward trace.bin");
+			System.exit(-1);
+		}
+		Path path = Paths.get(args[0]);
+		try(TraceReader trace = new TraceReader(path)) {
+			int size = trace.getBoardSize();
+			GridModel model = new GridModel(size, new Sonar(size, trace.getSonarRange()));
+			Observations obs = Observations.fromTrace(trace);
+			ForwardBackward fb = new ForwardBackward(model);
+
+			long start = System.nanoTime();
+			int[] smoothedMap = new int[obs.length()];
+			double logLikelihood = fb.smooth(obs, (step, marginal) -> {
+				int best = 0;
+				for(int i = 1; i < marginal.length; i++) {
+					if(marginal[i] > marginal[best]) {
+						best = i;
+					}
+				}
+				smoothedMap[step] = best;
+			});
+			long smoothNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int[] viterbiPath = fb.viterbi(obs);
+			long viterbiNanos = System.nanoTime() - start;
+
+			int[] ghost = new int[obs.length()];
+			try(TraceReader again = new TraceReader(path)) {
+				TraceRecord record = new TraceRecord();
+				for(int t = 0; again.next(record); t++) {
+					ghost[t] = record.ghost.row*size + record.ghost.col;
+				}
+			}
+			System.out.printf("%d steps, log-likelihood %.2f%n", obs.length(), logLikelihood);
+			System.out.printf("smoothed MAP: mean error %.3f  (%d ms)%n", meanError(smoothedMap, ghost, size), smoothNanos/1000000);
+			System.out.printf("viterbi path: mean error %.3f  (%d ms)%n", meanError(viterbiPath, ghost, size), viterbiNanos/1000000);
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Mean Manhattan distance between the estimated and true cells
+	private static double meanError(int[] estimate, int[] truth, int size) {
+		long total = 0;
+		for(int t = 0; t < estimate.length; t++) {
+			total += Math.abs(estimate[t]/size - truth[t]/size) + Math.abs(estimate[t]%size - truth[t]%size);
+		}
+		return estimate.length == 0 ? 0.0 : (double)total/estimate.length;
+	}
+
+	private static int blockSize(int T) {
+		return Math.max(1, (int)Math.ceil(Math.sqrt(T)));
+	}
+
+	// One step of the forward algorithm from src into dst. Returns the normalizer.
+	private double filterStep(double[] src, double[] dst, Observations obs, int t) {
+		model.predict(src, dst);
+		double sum = model.weigh(dst, obs.getPacmanCell(t), obs.getReading(t));
+		GridModel.scale(dst, sum);
+		return sum;
+	}
+
+	// One step of max-product from src into dst, rescaled so the best score is 1.0
+	private void viterbiStep(double[] src, double[] dst, int[] backpointer, Observations obs, int t) {
+		model.predictMax(src, dst, backpointer);
+		model.weigh(dst, obs.getPacmanCell(t), obs.getReading(t));
+		double max = 0.0;
+		for(int i = 0; i < cells; i++) {
+			max = Math.max(max, dst[i]);
+		}
+		GridModel.scale(dst, max);
+	}
+}
@@ -0,0 +1,617 @@
+package inference;
+
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.BoardMap;
+import util.Coords;
+import util.DistanceTable;
+
+/**
+ * The hidden Markov model that Pacman uses to track the ghost, over a dense row-major vector
+ * of cells (cell (r, c) is stored at r*size + c):
+ *
+ * - Transition: the ghost either stays put or moves to one of its legal neighbors, each with
+ *   probability 1/(number of neighbors + 1). This is how RandomGhost moves and how
+ *   PacmanParticleFilter elapses its samples. If the board has walls, blocked cells are not legal
+ *   neighbors and always have probability 0.
+ * - Emission: p(noisyDistance | ghost at cell) is read from Sonar.likelihood using the
+ *   distance the sonar measures from Pacman to the cell: the Manhattan distance, or the shortest
+ *   path around the walls if the sonar has a distance table.
+ *
+ * All methods write into caller-supplied arrays so that inference loops do not allocate. The only
+ * state they keep is two small scratch columns used by weigh(), which is therefore not thread-safe,
+ * and the clearance of every cell, built on first use by the StepKernel versions of the transition.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class GridModel {
+	private final int size;
+	private final int cells;
+	private final Sonar sonar;
+	private final double[] moveProb;	// moveProb[q] = p(ghost moves from q to any one particular legal next cell)
+	private final byte[] numMoves;		// numMoves[q] = number of legal next cells of q, including q itself
+	private final int maxReading;
+	private final BoardMap map;				// the walls, or null for an empty board
+	private final int[] blockedCells;		// the blocked cells, whose probability the kernels force to 0
+	private final DistanceTable distances;	// the sonar's shortest-path distances, or null for Manhattan distances
+	private double[] column;				// scratch for weigh: p(reading | d) for every distance d...
+	private double[] reversed;				// ...and the same column back to front
+	private volatile short[] clearance;		// the distance to the nearest cell with fewer than five moves, built on first use
+
+	/**
+	 * Creates the model for a square board without walls
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 */
+	public GridModel(int size, Sonar sonar) {
+		this(size, sonar, null);
+	}
+
+	/**
+	 * Creates the model for a square board. If the sonar measures shortest paths, its distance table
+	 * must be set before the model is created.
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus
+	 * @param map
+	 * 			The walls of the board, or null for an empty board
+	 */
+	public GridModel(int size, Sonar sonar, BoardMap map) {
+		if(map != null && map.getSize() != size) {
+			throw new IllegalArgumentException("The map is for a board of size " + map.getSize());
+		}
+		this.size = size;
+		this.cells = size*size;
+		this.sonar = sonar;
+		this.map = map;
+		this.distances = sonar.getDistanceTable();
+		this.maxReading = sonar.getNumDistances() - 1;
+		this.moveProb = new double[cells];
+		this.numMoves = new byte[cells];
+		this.blockedCells = new int[map == null ? 0 : map.getNumBlocked()];
+		int numBlocked = 0;
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				int cell = r*size + c;
+				if(!isOpen(cell)) {
+					// The ghost is never in a blocked cell, so nothing moves out of one
+					blockedCells[numBlocked++] = cell;
+					numMoves[cell] = 1;
+					continue;
+				}
+				int moves = 1;
+				if(r > 0 && isOpen(cell-size)) moves++;
+				if(r < size-1 && isOpen(cell+size)) moves++;
+				if(c > 0 && isOpen(cell-1)) moves++;
+				if(c < size-1 && isOpen(cell+1)) moves++;
+				moveProb[cell] = 1.0/moves;
+				numMoves[cell] = (byte)moves;
+			}
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getNumCells() {
+		return cells;
+	}
+
+	public Sonar getSonar() {
+		return sonar;
+	}
+
+	/**
+	 * Returns the walls of the board, or null if it has none
+	 */
+	public BoardMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Returns the number of cells the ghost can be in
+	 */
+	public int getNumOpenCells() {
+		return cells - blockedCells.length;
+	}
+
+	/**
+	 * Checks if the ghost can be in the given cell
+	 */
+	public boolean isOpen(int cell) {
+		return map == null || !map.isBlocked(cell);
+	}
+
+	/**
+	 * Returns the row-major index of the given cell
+	 */
+	public int index(Coords cell) {
+		return cell.row*size + cell.col;
+	}
+
+	/**
+	 * Returns the coordinates of the given row-major index
+	 */
+	public Coords coords(int cell) {
+		return new Coords(cell/size, cell%size);
+	}
+
+	/**
+	 * Returns the probability that the ghost moves from cell q to cell p in one step
+	 */
+	public double transition(int q, int p) {
+		int dr = Math.abs(q/size - p/size), dc = Math.abs(q%size - p%size);
+		return dr + dc <= 1 && isOpen(p) ? moveProb[q] : 0.0;
+	}
+
+	/**
+	 * Returns the number of cells the ghost can be in after one step from the given cell (including staying put)
+	 */
+	public int numMoves(int cell) {
+		return numMoves[cell];
+	}
+
+	/**
+	 * Returns one of the cells the ghost can move to from the given cell. The choices are ordered
+	 * stay, up, down, left, right with illegal moves left out.
+	 *
+	 * @param cell
+	 * 			The ghost's cell
+	 * @param choice
+	 * 			A number in [0, numMoves(cell))
+	 */
+	public int move(int cell, int choice) {
+		if(choice == 0) {
+			return cell;
+		}
+		int r = cell/size, c = cell%size;
+		if(r > 0 && isOpen(cell-size) && --choice == 0) return cell-size;
+		if(r < size-1 && isOpen(cell+size) && --choice == 0) return cell+size;
+		if(c > 0 && isOpen(cell-1) && --choice == 0) return cell-1;
+		if(c < size-1 && isOpen(cell+1) && --choice == 0) return cell+1;
+		throw new IllegalArgumentException("Cell " + cell + " does not have that many moves");
+	}
+
+	/**
+	 * One step of prediction:  dst[p] = sum over q of p(p | q) * src[q]
+	 *
+	 * @param src
+	 * 			The distribution at time t-1
+	 * @param dst
+	 * 			Filled with the (unnormalized) distribution at time t. Must not be src.
+	 */
+	public void predict(double[] src, double[] dst) {
+		for(int r = 0; r < size; r++) {
+			int row = r*size;
+			for(int c = 0; c < size; c++) {
+				int p = row + c;
+				double sum = src[p]*moveProb[p];
+				if(r > 0) sum += src[p-size]*moveProb[p-size];
+				if(r < size-1) sum += src[p+size]*moveProb[p+size];
+				if(c > 0) sum += src[p-1]*moveProb[p-1];
+				if(c < size-1) sum += src[p+1]*moveProb[p+1];
+				dst[p] = sum;
+			}
+		}
+		// Blocked cells hold nothing; they still picked up their open neighbors' moveProb above
+		for(int b : blockedCells) {
+			dst[b] = 0.0;
+		}
+	}
+
+	/**
+	 * One step of prediction that only touches the active region. The ghost moves at most one cell, so
+	 * the prediction is zero outside the source region grown by one cell.
+	 *
+	 * @param src
+	 * 			The distribution at time t-1, zero outside from
+	 * @param from
+	 * 			The active region of src
+	 * @param dst
+	 * 			Filled with the (unnormalized) distribution at time t inside to. Must not be src, and must
+	 * 			already be zero outside to.
+	 * @param to
+	 * 			Set to from grown by one cell, the active region of dst
+	 */
+	public void predict(double[] src, ActiveRegion from, double[] dst, ActiveRegion to) {
+		to.grow(from, size);
+		for(int r = to.rowMin; r <= to.rowMax; r++) {
+			int row = r*size;
+			for(int c = to.colMin; c <= to.colMax; c++) {
+				int p = row + c;
+				double sum = src[p]*moveProb[p];
+				if(r > 0) sum += src[p-size]*moveProb[p-size];
+				if(r < size-1) sum += src[p+size]*moveProb[p+size];
+				if(c > 0) sum += src[p-1]*moveProb[p-1];
+				if(c < size-1) sum += src[p+1]*moveProb[p+1];
+				dst[p] = sum;
+			}
+		}
+		for(int b : blockedCells) {
+			dst[b] = 0.0;
+		}
+	}
+
+	/**
+	 * Checks that the ghost has all five moves on each of its next steps from the given cell, so that
+	 * where it ends up after that many steps is given by StepKernel.get(steps)
+	 */
+	public boolean isInterior(int cell, int steps) {
+		return steps <= clearance()[cell];
+	}
+
+	/**
+	 * Counts the cells of the region that hold mass, if the ghost has all five moves on each of its next
+	 * steps from every one of them
+	 *
+	 * @param src
+	 * 			A distribution, zero outside from
+	 * @param from
+	 * 			The active region of src
+	 * @param steps
+	 * 			The number of steps
+	 * @return
+	 * 			The number of cells holding mass, or -1 if StepKernel.get(steps) does not apply to one of them
+	 */
+	public long countInterior(double[] src, ActiveRegion from, int steps) {
+		short[] clearance = clearance();
+		long count = 0;
+		for(int r = from.rowMin; r <= from.rowMax; r++) {
+			for(int p = r*size + from.colMin; p <= r*size + from.colMax; p++) {
+				if(src[p] != 0.0) {
+					if(clearance[p] < steps) {
+						return -1;
+					}
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * kernel.getSteps() steps of prediction at once, by scattering each cell's mass over the kernel's
+	 * stencil. Every cell of src that holds mass must pass isInterior (see countInterior). This costs
+	 * O(cells holding mass * 2k^2) against O(k * area) for k one-step predictions, so it pays off when
+	 * the mass is concentrated on a few cells.
+	 *
+	 * @param src
+	 * 			The distribution at time t-k, zero outside from
+	 * @param from
+	 * 			The active region of src
+	 * @param dst
+	 * 			Filled with the distribution at time t inside to. Must not be src, and must already be zero
+	 * 			outside to.
+	 * @param to
+	 * 			Set to from grown by k cells, the active region of dst
+	 * @param kernel
+	 * 			The k-step kernel
+	 */
+	public void predict(double[] src, ActiveRegion from, double[] dst, ActiveRegion to, StepKernel kernel) {
+		int k = kernel.getSteps();
+		if(from.isEmpty()) {
+			to.setEmpty();
+			return;
+		}
+		to.set(Math.max(0, from.rowMin-k), Math.min(size-1, from.rowMax+k), Math.max(0, from.colMin-k), Math.min(size-1, from.colMax+k));
+		for(int r = to.rowMin; r <= to.rowMax; r++) {
+			Arrays.fill(dst, r*size + to.colMin, r*size + to.colMax + 1, 0.0);
+		}
+		int n = kernel.getNumOffsets();
+		int[] offset = new int[n];
+		double[] prob = new double[n];
+		for(int i = 0; i < n; i++) {
+			offset[i] = kernel.getRowOffset(i)*size + kernel.getColOffset(i);
+			prob[i] = kernel.getProbability(i);
+		}
+		for(int r = from.rowMin; r <= from.rowMax; r++) {
+			for(int p = r*size + from.colMin; p <= r*size + from.colMax; p++) {
+				double mass = src[p];
+				if(mass != 0.0) {
+					for(int i = 0; i < n; i++) {
+						dst[p + offset[i]] += mass*prob[i];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * One step of backward propagation:  dst[q] = sum over p of p(p | q) * src[p]
+	 *
+	 * @param src
+	 * 			A message over the cells at time t
+	 * @param dst
+	 * 			Filled with the message over the cells at time t-1. Must not be src.
+	 */
+	public void predictTranspose(double[] src, double[] dst) {
+		for(int r = 0; r < size; r++) {
+			int row = r*size;
+			for(int c = 0; c < size; c++) {
+				int q = row + c;
+				double sum = src[q];
+				if(r > 0) sum += src[q-size];
+				if(r < size-1) sum += src[q+size];
+				if(c > 0) sum += src[q-1];
+				if(c < size-1) sum += src[q+1];
+				dst[q] = sum*moveProb[q];
+			}
+		}
+		// The ghost cannot move into a blocked cell, so take back what the open neighbors counted from one
+		for(int b : blockedCells) {
+			int r = b/size, c = b%size;
+			if(r > 0) dst[b-size] -= src[b]*moveProb[b-size];
+			if(r < size-1) dst[b+size] -= src[b]*moveProb[b+size];
+			if(c > 0) dst[b-1] -= src[b]*moveProb[b-1];
+			if(c < size-1) dst[b+1] -= src[b]*moveProb[b+1];
+		}
+	}
+
+	/**
+	 * One step of max-product prediction for Viterbi:  dst[p] = max over q of p(p | q) * src[q]
+	 *
+	 * @param src
+	 * 			The best path scores at time t-1
+	 * @param dst
+	 * 			Filled with the best path scores at time t (before the emission). Must not be src.
+	 * @param backpointer
+	 * 			Filled with the cell at time t-1 that achieves each maximum
+	 */
+	public void predictMax(double[] src, double[] dst, int[] backpointer) {
+		for(int r = 0; r < size; r++) {
+			int row = r*size;
+			for(int c = 0; c < size; c++) {
+				int p = row + c;
+				int best = p;
+				double max = src[p]*moveProb[p];
+				if(r > 0 && src[p-size]*moveProb[p-size] > max) { best = p-size; max = src[best]*moveProb[best]; }
+				if(r < size-1 && src[p+size]*moveProb[p+size] > max) { best = p+size; max = src[best]*moveProb[best]; }
+				if(c > 0 && src[p-1]*moveProb[p-1] > max) { best = p-1; max = src[best]*moveProb[best]; }
+				if(c < size-1 && src[p+1]*moveProb[p+1] > max) { best = p+1; max = src[best]*moveProb[best]; }
+				dst[p] = max;
+				backpointer[p] = best;
+			}
+		}
+		for(int b : blockedCells) {
+			dst[b] = 0.0;
+			backpointer[b] = b;
+		}
+	}
+
+	/**
+	 * Returns the number of distinct distances the sonar distinguishes (0 to 2*size-2)
+	 */
+	public int getNumDistances() {
+		return 2*size - 1;
+	}
+
+	/**
+	 * Returns the distance the sonar measures between two cells: the Manhattan distance, or the
+	 * shortest path around the walls (pooled with the greatest distance if longer or missing)
+	 */
+	public int distance(int a, int b) {
+		if(distances != null) {
+			int d = distances.distance(a, b);
+			return d == DistanceTable.UNREACHABLE || d > maxDistance() ? maxDistance() : d;
+		}
+		return Math.abs(a/size - b/size) + Math.abs(a%size - b%size);
+	}
+
+	/**
+	 * Checks if distance() is the Manhattan distance, which lets kernels compute it from the coordinates
+	 */
+	public boolean isManhattan() {
+		return distances == null;
+	}
+
+	/**
+	 * Fills dst with p(noisyDistance | true distance = d) for every distance d. Looking the emission up in
+	 * this column is cheaper than fetching a row of the sonar's CPT for every cell.
+	 *
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @param dst
+	 * 			An array of length getNumDistances()
+	 */
+	public void likelihoods(int noisyDistance, double[] dst) {
+		int reading = clampReading(noisyDistance);
+		for(int d = 0; d < dst.length; d++) {
+			dst[d] = sonar.likelihood(d, reading);
+		}
+	}
+
+	/**
+	 * Returns the emission probability p(noisyDistance | ghost at cell) when Pacman is at pacmanCell
+	 */
+	public double emission(int pacmanCell, int cell, int noisyDistance) {
+		return sonar.likelihood(distance(pacmanCell, cell), clampReading(noisyDistance));
+	}
+
+	/**
+	 * Multiplies the belief by the emission probabilities of the reading, in place.
+	 *
+	 * With Manhattan distances this is done a row at a time. Within a row the distance from Pacman
+	 * grows by one per cell on either side of his column, so the weights of the cells right of him are
+	 * a contiguous slice of the likelihood column and the weights of the cells left of him are a
+	 * contiguous slice of the reversed column. Each half row is then a single streaming multiply, with
+	 * no per-cell distance, abs or table lookup, which the JIT compiles to SIMD instructions. The sum is
+	 * accumulated in the same pass. Shortest-path distances fall back on weighScalar().
+	 *
+	 * The likelihood columns are scratch space owned by the model, so weigh must not be called on the
+	 * same model from several threads at once.
+	 *
+	 * @param belief
+	 * 			A (possibly unnormalized) distribution over the cells
+	 * @param pacmanCell
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @return
+	 * 			The sum of the weighted belief, i.e. the normalizer
+	 */
+	public double weigh(double[] belief, int pacmanCell, int noisyDistance) {
+		if(distances != null) {
+			return weighScalar(belief, pacmanCell, noisyDistance);
+		}
+		if(column == null) {
+			column = new double[getNumDistances()];
+			reversed = new double[column.length];
+		}
+		likelihoods(noisyDistance, column);
+		int last = column.length-1;
+		for(int j = 0; j <= last; j++) {
+			reversed[j] = column[last - j];
+		}
+
+		int pr = pacmanCell/size, pc = pacmanCell%size;
+		double sum = 0.0;
+		for(int r = 0; r < size; r++) {
+			int row = r*size, dr = Math.abs(r - pr);
+			// Left of Pacman the distance of column c is dr + pc - c, i.e. reversed[last - dr - pc + c]
+			sum += multiply(belief, row, reversed, last - dr - pc, pc);
+			// From Pacman's column rightwards the distance of column pc + k is dr + k
+			sum += multiply(belief, row + pc, column, dr, size - pc);
+		}
+		return sum;
+	}
+
+	/**
+	 * The reference version of weigh(): one distance and one CPT lookup per cell. This works for any
+	 * distance the sonar measures.
+	 *
+	 * @param belief
+	 * 			A (possibly unnormalized) distribution over the cells
+	 * @param pacmanCell
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @return
+	 * 			The sum of the weighted belief, i.e. the normalizer
+	 */
+	public double weighScalar(double[] belief, int pacmanCell, int noisyDistance) {
+		int reading = clampReading(noisyDistance);
+		double sum = 0.0;
+		for(int cell = 0; cell < cells; cell++) {
+			double w = belief[cell]*sonar.likelihood(distance(pacmanCell, cell), reading);
+			belief[cell] = w;
+			sum += w;
+		}
+		return sum;
+	}
+
+	/**
+	 * Divides every entry by the given sum
+	 */
+	public static void scale(double[] v, double sum) {
+		if(sum == 0.0) {
+			return;
+		}
+		double inv = 1.0/sum;
+		for(int i = 0; i < v.length; i++) {
+			v[i] *= inv;
+		}
+	}
+
+	/**
+	 * Divides every entry inside the region by the given sum
+	 */
+	public void scale(double[] v, double sum, ActiveRegion region) {
+		if(sum == 0.0) {
+			return;
+		}
+		double inv = 1.0/sum;
+		for(int r = region.rowMin; r <= region.rowMax; r++) {
+			int row = r*size;
+			for(int c = region.colMin; c <= region.colMax; c++) {
+				v[row + c] *= inv;
+			}
+		}
+	}
+
+	/**
+	 * Fills the vector with the uniform distribution over the open cells
+	 */
+	public void uniform(double[] v) {
+		Arrays.fill(v, 1.0/getNumOpenCells());
+		for(int b : blockedCells) {
+			v[b] = 0.0;
+		}
+	}
+
+	// v[vOff + k] *= w[wOff + k] for k in [0, n), returning the sum of the products. Four independent
+	// partial sums keep the additions from serializing on one register.
+	private static double multiply(double[] v, int vOff, double[] w, int wOff, int n) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int k = 0;
+		for(; k + 3 < n; k += 4) {
+			double a = v[vOff + k]*w[wOff + k];
+			double b = v[vOff + k + 1]*w[wOff + k + 1];
+			double c = v[vOff + k + 2]*w[wOff + k + 2];
+			double d = v[vOff + k + 3]*w[wOff + k + 3];
+			v[vOff + k] = a;
+			v[vOff + k + 1] = b;
+			v[vOff + k + 2] = c;
+			v[vOff + k + 3] = d;
+			s0 += a;
+			s1 += b;
+			s2 += c;
+			s3 += d;
+		}
+		for(; k < n; k++) {
+			double a = v[vOff + k]*w[wOff + k];
+			v[vOff + k] = a;
+			s0 += a;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	private int maxDistance() {
+		return getNumDistances() - 1;
+	}
+
+	// Readings beyond the largest possible distance are pooled with it, just as the sonar's CPT does
+	private int clampReading(int noisyDistance) {
+		return Math.min(noisyDistance, maxReading);
+	}
+
+	// clearance[p] = the Manhattan distance from p to the nearest cell where the ghost has fewer than five
+	// moves (an edge, a blocked cell or a cell next to one), capped at Short.MAX_VALUE. The ghost cannot
+	// reach such a cell in fewer steps, so for clearance[p] steps it moves like on an endless board.
+	// Two sweeps of the distance transform compute it exactly for the Manhattan metric.
+	private short[] clearance() {
+		short[] result = clearance;
+		if(result != null) {
+			return result;
+		}
+		int[] dist = new int[cells];
+		for(int p = 0; p < cells; p++) {
+			dist[p] = numMoves[p] == 5 ? Short.MAX_VALUE : 0;
+		}
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				int p = r*size + c;
+				if(r > 0) dist[p] = Math.min(dist[p], dist[p-size] + 1);
+				if(c > 0) dist[p] = Math.min(dist[p], dist[p-1] + 1);
+			}
+		}
+		result = new short[cells];
+		for(int r = size-1; r >= 0; r--) {
+			for(int c = size-1; c >= 0; c--) {
+				int p = r*size + c;
+				if(r < size-1) dist[p] = Math.min(dist[p], dist[p+size] + 1);
+				if(c < size-1) dist[p] = Math.min(dist[p], dist[p+1] + 1);
+				result[p] = (short)Math.min(dist[p], Short.MAX_VALUE);
+			}
+		}
+		clearance = result;
+		return result;
+	}
+}
@@ -0,0 +1,78 @@
+package inference;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import util.TraceReader;
+import util.TraceRecord;
+
+/**
+ * A sequence of sonar readings together with where Pacman was when each one was taken.
+ * Cells are row-major indices (r*size + c).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Observations {
+	private int[] pacmanCells;
+	private int[] readings;
+	private int length;
+
+	/**
+	 * Creates an empty sequence
+	 */
+	public Observations() {
+		pacmanCells = new int[16];
+		readings = new int[16];
+		length = 0;
+	}
+
+	/**
+	 * Reads every step of a trace
+	 *
+	 * @param trace
+	 * 			An open trace positioned at its first record
+	 * @return
+	 * 			The readings of the trace
+	 * @throws IOException if the trace cannot be read
+	 */
+	public static Observations fromTrace(TraceReader trace) throws IOException {
+		Observations obs = new Observations();
+		int size = trace.getBoardSize();
+		TraceRecord record = new TraceRecord();
+		while(trace.next(record)) {
+			obs.add(record.pacman.row*size + record.pacman.col, record.noisyDistance);
+		}
+		return obs;
+	}
+
+	/**
+	 * Appends a reading
+	 *
+	 * @param pacmanCell
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 */
+	public void add(int pacmanCell, int noisyDistance) {
+		if(length == readings.length) {
+			pacmanCells = Arrays.copyOf(pacmanCells, 2*length);
+			readings = Arrays.copyOf(readings, 2*length);
+		}
+		pacmanCells[length] = pacmanCell;
+		readings[length] = noisyDistance;
+		length++;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public int getPacmanCell(int step) {
+		return pacmanCells[step];
+	}
+
+	public int getReading(int step) {
+		return readings[step];
+	}
+}
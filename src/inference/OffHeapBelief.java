@@ -0,0 +1,521 @@
+package inference;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.BoardMap;
+import util.OffHeapVector;
+
+/**
+ * The forward algorithm's belief kept outside the Java heap, in a pair of OffHeapVectors (the current
+ * belief and the one being computed), for boards whose belief is too large for the heap or for an array.
+ * The belief is only ever touched a row at a time: each kernel copies a row of the active region into
+ * an on-heap row buffer, works on it with the same arithmetic as GridModel, and copies it back, so the
+ * heap holds O(size) doubles however large the board is.
+ *
+ * - predict keeps three source rows in flight, each already multiplied by its cells' move
+ *   probabilities, and adds up the five terms of every cell of the next row.
+ * - weigh multiplies each row by the likelihood of every cell's Manhattan distance from Pacman and
+ *   clears the rows the reading rules out without reading them. The active region is shrunk to the
+ *   rows and columns still holding mass.
+ * - The queries stream over the rows. The credible region is found by radix selection on the bits of
+ *   the weights, as in BeliefQueries, with one pass over the rows per 16 bits.
+ *
+ * The move probabilities are worked out from the walls as they are needed, since a table of them
+ * would be as large as the belief. Only sonars that measure Manhattan distances are supported. The
+ * belief lives in two memory-mapped scratch files, which close() truncates and deletes, so the memory
+ * is released right then rather than whenever the garbage collector gets to it; the belief cannot be
+ * used afterwards.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class OffHeapBelief implements Closeable {
+
+	private final int size;
+	private final Sonar sonar;
+	private BoardMap map;			// the walls, or null for an empty board
+	private OffHeapVector alpha;	// the current belief, zero outside alphaRegion
+	private OffHeapVector next;		// the belief being computed, zero outside nextRegion
+	private ActiveRegion alphaRegion;
+	private ActiveRegion nextRegion;
+	private final ActiveRegion grown;	// scratch: the region of the prediction
+
+	private double[] above, here, below;	// predict: source rows times their move probabilities, one cell of padding each side
+	private final double[] row;				// a row of the belief
+	private final double[] column;			// weigh: L[d] = p(reading | distance d)...
+	private int lowest, highest;			// ...the distances with L[d] > 0 lie in [lowest, highest]
+
+	/**
+	 * Creates a uniform belief over the open cells of the board
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus. It must measure Manhattan distances.
+	 * @param map
+	 * 			The walls of the board, or null for an empty board
+	 * @param directory
+	 * 			Where to put the memory-mapped files holding the belief, or null for java.io.tmpdir
+	 * @throws IOException if the files cannot be created
+	 */
+	public OffHeapBelief(int size, Sonar sonar, BoardMap map, Path directory) throws IOException {
+		if(sonar.getDistanceTable() != null) {
+			throw new IllegalArgumentException("The off-heap belief needs Manhattan distances");
+		}
+		this.size = size;
+		this.sonar = sonar;
+		if(directory == null) {
+			directory = Paths.get(System.getProperty("java.io.tmpdir"));
+		}
+		alpha = OffHeapVector.map(Files.createTempFile(directory, "belief", ".bin"), size, size);
+		try {
+			next = OffHeapVector.map(Files.createTempFile(directory, "belief", ".bin"), size, size);
+		}
+		catch(IOException e) {
+			alpha.close();
+			throw e;
+		}
+		alphaRegion = new ActiveRegion(size);
+		nextRegion = new ActiveRegion(size);
+		grown = new ActiveRegion(size);
+		above = new double[size + 2];
+		here = new double[size + 2];
+		below = new double[size + 2];
+		row = new double[size];
+		column = new double[sonar.getNumDistances()];
+		setBoardMap(map);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the rectangle of the board outside of which the belief is zero. It must not be modified.
+	 */
+	public ActiveRegion getActiveRegion() {
+		return alphaRegion;
+	}
+
+	/**
+	 * Puts walls on the board and resets the belief to the uniform distribution over the open cells
+	 *
+	 * @param map
+	 * 			The walls of the board, or null to remove them
+	 */
+	public void setBoardMap(BoardMap map) {
+		if(map != null && map.getSize() != size) {
+			throw new IllegalArgumentException("The map is for a board of size " + map.getSize());
+		}
+		this.map = map;
+		uniform();
+	}
+
+	/**
+	 * Makes the belief the uniform distribution over the open cells
+	 */
+	public void uniform() {
+		long open = map == null ? (long)size*size : map.getNumOpen();
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				row[c] = isOpen(r, c) ? 1.0/open : 0.0;
+			}
+			alpha.writeRow(r, 0, row, 0, size);
+		}
+		alphaRegion.setFull(size);
+		nextRegion.setFull(size);	// next holds whatever it held before, so all of it is cleared on the next prediction
+	}
+
+	/**
+	 * One step of prediction:  alpha[p] = sum over q of p(p | q) * alpha[q], inside the active region grown
+	 * by one cell
+	 */
+	public void predict() {
+		grown.grow(alphaRegion, size);
+		clearOutside(next, nextRegion, grown);
+		nextRegion.set(grown);
+		if(grown.isEmpty()) {
+			swap();
+			return;
+		}
+		int c0 = grown.colMin, width = grown.colMax - grown.colMin + 1;
+		load(grown.rowMin - 1, c0, width, above);
+		load(grown.rowMin, c0, width, here);
+		for(int r = grown.rowMin; r <= grown.rowMax; r++) {
+			load(r + 1, c0, width, below);
+			// here[i] holds column c0 - 1 + i
+			for(int i = 1; i <= width; i++) {
+				row[i - 1] = above[i] + below[i] + here[i - 1] + here[i] + here[i + 1];
+			}
+			if(map != null) {
+				for(int i = 0; i < width; i++) {
+					if(map.isBlocked(r, c0 + i)) {
+						row[i] = 0.0;
+					}
+				}
+			}
+			next.writeRow(r, c0, row, 0, width);
+			double[] swap = above;
+			above = here;
+			here = below;
+			below = swap;
+		}
+		swap();
+	}
+
+	/**
+	 * Multiplies the belief by the emission probabilities of the reading, in place, and shrinks the
+	 * active region to the cells that are still non-zero
+	 *
+	 * @param pacmanRow
+	 * 			Pacman's row when the reading was taken
+	 * @param pacmanCol
+	 * 			Pacman's column when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @return
+	 * 			The sum of the weighted belief, i.e. the normalizer
+	 */
+	public double weigh(int pacmanRow, int pacmanCol, int noisyDistance) {
+		likelihoods(noisyDistance);
+		int c0 = alphaRegion.colMin, c1 = alphaRegion.colMax;
+		int rowMin = size, rowMax = -1, colMin = size, colMax = -1;
+		double sum = 0.0;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			int dr = Math.abs(r - pacmanRow);
+			int near = dr + (pacmanCol < c0 ? c0 - pacmanCol : pacmanCol > c1 ? pacmanCol - c1 : 0);
+			int far = dr + Math.max(pacmanCol - c0, c1 - pacmanCol);
+			if(near > highest || far < lowest) {
+				alpha.fillRow(r, c0, c1 + 1, 0.0);
+				continue;
+			}
+			int width = c1 - c0 + 1;
+			alpha.readRow(r, c0, row, 0, width);
+			int first = -1, last = -1;
+			double rowSum = 0.0;
+			for(int i = 0; i < width; i++) {
+				double w = row[i]*column[dr + Math.abs(c0 + i - pacmanCol)];
+				row[i] = w;
+				if(w != 0.0) {
+					rowSum += w;
+					last = i;
+					if(first < 0) {
+						first = i;
+					}
+				}
+			}
+			alpha.writeRow(r, c0, row, 0, width);
+			if(first >= 0) {
+				sum += rowSum;
+				rowMin = Math.min(rowMin, r);
+				rowMax = r;
+				colMin = Math.min(colMin, c0 + first);
+				colMax = Math.max(colMax, c0 + last);
+			}
+		}
+		// Everything outside the new region is zero, so the cleared cells need not be touched again
+		if(rowMax < 0) {
+			alphaRegion.setEmpty();
+		}
+		else {
+			alphaRegion.set(rowMin, rowMax, colMin, colMax);
+		}
+		return sum;
+	}
+
+	/**
+	 * Divides every entry of the belief by the given sum
+	 */
+	public void scale(double sum) {
+		if(sum == 0.0) {
+			return;
+		}
+		double inv = 1.0/sum;
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			for(int i = 0; i < width; i++) {
+				row[i] *= inv;
+			}
+			alpha.writeRow(r, c0, row, 0, width);
+		}
+	}
+
+	/**
+	 * Returns the sum of the belief
+	 */
+	public double getTotalMass() {
+		double sum = 0.0;
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			for(int i = 0; i < width; i++) {
+				sum += row[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the probability of a single cell
+	 */
+	public double probability(int r, int c) {
+		return alpha.get(r, c);
+	}
+
+	/**
+	 * Copies the belief into a row-major vector of size*size cells
+	 */
+	public void toDense(double[] dst) {
+		if(dst.length != (long)size*size) {
+			throw new IllegalArgumentException("Expected a vector of " + (long)size*size + " cells");
+		}
+		Arrays.fill(dst, 0.0);
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, dst, r*size + c0, width);
+		}
+	}
+
+	/**
+	 * Returns the row-major index of the most likely cell
+	 */
+	public int mostLikely() {
+		int best = 0;
+		double max = -1.0;
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			for(int i = 0; i < width; i++) {
+				if(row[i] > max) {
+					max = row[i];
+					best = r*size + c0 + i;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the k most likely cells, most likely first, kept in a min-heap of k cells as the rows go by
+	 *
+	 * @param k
+	 * 			The number of cells
+	 * @param probabilities
+	 * 			Filled with the probability of each returned cell, or null
+	 * @return
+	 * 			The row-major indices (r*size + c) of at most k cells with non-zero probability
+	 */
+	public int[] topCells(int k, double[] probabilities) {
+		int[] cells = new int[Math.max(0, k)];
+		double[] weights = new double[cells.length];
+		int n = 0;
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax && k > 0; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			for(int i = 0; i < width; i++) {
+				if(row[i] > 0.0) {
+					n = BeliefQueries.offer(cells, weights, n, r*size + c0 + i, row[i]);
+				}
+			}
+		}
+		return BeliefQueries.finishTopK(cells, weights, n, probabilities);
+	}
+
+	/**
+	 * Returns the smallest set of cells that the ghost is in with at least the given probability, by the
+	 * radix selection of BeliefQueries. Rather than copy the cells that tie with the boundary onto the
+	 * heap, each pass over the rows buckets them by the next 16 bits of their weight, which fixes 16 more
+	 * bits of the smallest weight in the region; a last pass lists the cells.
+	 *
+	 * @param mass
+	 * 			The probability to cover, e.g. 0.95
+	 * @return
+	 * 			The row-major indices (r*size + c) of the cells, in no particular order
+	 */
+	public int[] credibleRegion(double mass) {
+		double[] bucketMass = new double[BeliefQueries.BUCKETS];
+		int[] bucketCount = new int[BeliefQueries.BUCKETS];
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		double target = -1.0;
+		long prefix = 0;	// the bits of the boundary weight fixed so far
+		long taken = 0;		// the number of cells above the boundary
+		int boundaryCount = 0;	// the number of cells in the boundary bucket
+		for(int pass = 0; pass < 64/BeliefQueries.BITS; pass++) {
+			int shift = 64 - BeliefQueries.BITS*pass;
+			double total = 0.0;
+			for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+				alpha.readRow(r, c0, row, 0, width);
+				for(int i = 0; i < width; i++) {
+					if(row[i] > 0.0) {
+						if(pass == 0 || Double.doubleToRawLongBits(row[i]) >>> shift == prefix) {
+							int key = BeliefQueries.key(row[i], pass);
+							bucketMass[key] += row[i];
+							bucketCount[key]++;
+							total += row[i];
+						}
+					}
+				}
+			}
+			if(pass == 0) {
+				target = BeliefQueries.target(mass, total);
+				if(target <= 0.0) {
+					return new int[0];
+				}
+			}
+			int boundary = BeliefQueries.boundary(bucketMass, bucketCount, target);
+			target -= BeliefQueries.massAbove(bucketMass, boundary);
+			taken += BeliefQueries.countAbove(bucketCount, boundary);
+			boundaryCount = bucketCount[boundary];
+			prefix = prefix << BeliefQueries.BITS | boundary;
+			Arrays.fill(bucketMass, 0.0);
+			Arrays.fill(bucketCount, 0);
+		}
+
+		// prefix is now the smallest weight in the region: every cell above it is in, and enough of the
+		// cells equal to it to cover what is left of the target
+		long ties = Math.min(boundaryCount, Math.max(1, (long)Math.ceil(target/Double.longBitsToDouble(prefix) - BeliefQueries.SLACK)));
+		if(taken + ties > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("The credible region has too many cells to list");
+		}
+		int[] region = new int[(int)(taken + ties)];
+		int found = 0;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			for(int i = 0; i < width; i++) {
+				if(row[i] > 0.0) {
+					long bits = Double.doubleToRawLongBits(row[i]);
+					if(bits > prefix || (bits == prefix && ties-- > 0)) {
+						region[found++] = r*size + c0 + i;
+					}
+				}
+			}
+		}
+		return found == region.length ? region : Arrays.copyOf(region, found);
+	}
+
+	/**
+	 * Returns the expected position and its spread
+	 *
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}, all NaN if the
+	 * 			belief has no mass
+	 */
+	public double[] moments() {
+		double w = 0, sr = 0, sc = 0, srr = 0, scc = 0, src = 0;
+		int c0 = alphaRegion.colMin, width = alphaRegion.colMax - alphaRegion.colMin + 1;
+		for(int r = alphaRegion.rowMin; r <= alphaRegion.rowMax; r++) {
+			alpha.readRow(r, c0, row, 0, width);
+			double rowW = 0, rowC = 0, rowCC = 0;
+			for(int i = 0; i < width; i++) {
+				double p = row[i];
+				int c = c0 + i;
+				rowW += p;
+				rowC += p*c;
+				rowCC += p*c*c;
+			}
+			w += rowW;
+			sr += rowW*r;
+			srr += rowW*r*r;
+			sc += rowC;
+			scc += rowCC;
+			src += rowC*r;
+		}
+		return BeliefQueries.finishMoments(w, sr, sc, srr, scc, src);
+	}
+
+	/**
+	 * Releases the off-heap memory, deleting the mapped files if there are any
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			alpha.close();
+		}
+		finally {
+			next.close();
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private boolean isOpen(int r, int c) {
+		return map == null || !map.isBlocked(r, c);
+	}
+
+	// p(ghost moves from (r, c) to any one particular legal next cell), 0 for a blocked cell
+	private double moveProb(int r, int c) {
+		if(!isOpen(r, c)) {
+			return 0.0;
+		}
+		int moves = 1;
+		if(r > 0 && isOpen(r-1, c)) moves++;
+		if(r < size-1 && isOpen(r+1, c)) moves++;
+		if(c > 0 && isOpen(r, c-1)) moves++;
+		if(c < size-1 && isOpen(r, c+1)) moves++;
+		return 1.0/moves;
+	}
+
+	// Fills dst[i] with alpha(r, c0 - 1 + i) times its move probability for i in [0, width + 2), or with
+	// zeros if the row is off the board or outside the active region
+	private void load(int r, int c0, int width, double[] dst) {
+		Arrays.fill(dst, 0, width + 2, 0.0);
+		if(r < 0 || r >= size || r < alphaRegion.rowMin || r > alphaRegion.rowMax) {
+			return;
+		}
+		int from = Math.max(alphaRegion.colMin, c0 - 1), to = Math.min(alphaRegion.colMax, c0 + width);
+		alpha.readRow(r, from, dst, from - c0 + 1, to - from + 1);
+		for(int c = from; c <= to; c++) {
+			int i = c - c0 + 1;
+			if(dst[i] != 0.0) {
+				dst[i] *= moveProb(r, c);
+			}
+		}
+	}
+
+	// Zeroes the cells of v that are inside old but outside keep
+	private void clearOutside(OffHeapVector v, ActiveRegion old, ActiveRegion keep) {
+		for(int r = old.rowMin; r <= old.rowMax; r++) {
+			if(keep.isEmpty() || r < keep.rowMin || r > keep.rowMax) {
+				v.fillRow(r, old.colMin, old.colMax + 1, 0.0);
+			}
+			else {
+				v.fillRow(r, old.colMin, Math.min(old.colMax + 1, keep.colMin), 0.0);
+				v.fillRow(r, Math.max(old.colMin, keep.colMax + 1), old.colMax + 1, 0.0);
+			}
+		}
+	}
+
+	// Fills the likelihood column for the reading
+	private void likelihoods(int noisyDistance) {
+		int reading = Math.min(noisyDistance, column.length - 1);
+		lowest = column.length;
+		highest = -1;
+		for(int d = 0; d < column.length; d++) {
+			column[d] = sonar.likelihood(d, reading);
+			if(column[d] > 0) {
+				lowest = Math.min(lowest, d);
+				highest = d;
+			}
+		}
+	}
+
+	// Makes next the current belief
+	private void swap() {
+		OffHeapVector swap = alpha;
+		alpha = next;
+		next = swap;
+		ActiveRegion swapRegion = alphaRegion;
+		alphaRegion = nextRegion;
+		nextRegion = swapRegion;
+	}
+}
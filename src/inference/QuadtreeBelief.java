@@ -0,0 +1,847 @@
+package inference;
+
+import java.util.Arrays;
+
+import graphics.Sonar;
+
+/**
+ * A belief stored as a quadtree of square blocks instead of one probability per cell. Each leaf holds
+ * the mass of its block, spread evenly over the block's cells, so a part of the board where the belief
+ * is nearly uniform (or zero) costs one leaf however large it is, and memory and the cost of a step
+ * grow with the number of leaves rather than with the area of the board. The root covers the smallest
+ * power of two at least as large as the board; blocks are clipped to the board, and blocks entirely off
+ * the board are ignored.
+ *
+ * - Prediction moves mass between adjacent leaves: the mass the ghost carries over their shared edge
+ *   is each side's density times the move probability of each cell along the edge, the same terms
+ *   GridModel.predict adds up cell by cell. Where every leaf is a single cell this is exactly the
+ *   forward algorithm. A coarse leaf spreads what flows into it over its whole block, so a leaf that
+ *   would take in more than the tolerance from a finer neighbor is split first.
+ * - The emission multiplies each leaf by the mean likelihood of its cells. With Manhattan distances
+ *   every row of a block covers one or two runs of distances, so the mean costs O(rows) with a prefix
+ *   sum of the likelihood column. Before weighing, a leaf over which the likelihood varies enough to
+ *   misplace more than the tolerance is split, down to single cells where needed.
+ * - After each update four sibling leaves are merged back into their parent if spreading their mass
+ *   evenly over it moves less than the tolerance, and leaves are split until no two adjacent leaves
+ *   differ in size by more than a factor of two, so that mass leaking out of a finely resolved region
+ *   is not smeared over a huge block in one step.
+ *
+ * Only boards without walls and sonars that measure Manhattan distances are supported. The model of
+ * the ghost is the one in GridModel, but GridModel itself is not used since it keeps a dense array per
+ * cell of the board. The scratch arrays are reused between calls, so an instance is not thread-safe.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class QuadtreeBelief {
+	private static final int ROOT = 0;
+	private static final int LEAF = -1;		// child[] of a leaf
+	private static final int FREE = -2;		// child[] of a node whose block of siblings has been freed
+	private static final double SLACK = 1e-12;	// keeps rounding in the total from costing an extra cell
+
+	private final int size;
+	private final Sonar sonar;
+	private final double tolerance;
+	private final int rootLevel;		// the root block is 2^rootLevel cells on a side
+
+	// The nodes of the tree. The four children of a node are allocated together as a block of siblings,
+	// in the order top left, top right, bottom left, bottom right. Only leaves hold mass.
+	private int numNodes;
+	private int[] row;			// the top left cell of each node's block
+	private int[] col;
+	private byte[] level;		// the block is 2^level cells on a side
+	private int[] child;		// the first of the node's four children, LEAF or FREE
+	private int[] parent;
+	private double[] mass;
+	private double[] flow;		// scratch for predict: the net mass flowing into each leaf
+	private int[] freeBlocks = new int[16];	// the first node of each freed block of siblings
+	private int numFree;
+
+	private int[] leaves = new int[16];	// the leaves that overlap the board
+	private int numLeaves;
+
+	private int[] found = new int[16];	// scratch for collect: the leaves overlapping a rectangle
+	private int numFound;
+	private int[] stack;				// scratch for walking the tree
+	private int[] work = new int[16];	// scratch worklist for refine, coarsen and balance
+	private int[] order;				// scratch for the queries: the leaves by decreasing density
+	private int[] created = new int[16];	// the leaves made by splits since the last balance
+	private int numCreated;
+
+	private final double[] column;		// L[d] = p(reading | distance d) for the most recent reading...
+	private final double[] prefix;		// ...prefix[d] = L[0] + ... + L[d-1]...
+	private int lowest, highest;		// ...the distances with L[d] > 0 lie in [lowest, highest]...
+	private double peak;				// ...and the largest L[d]
+
+	/**
+	 * Creates a uniform belief over a board without walls
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonar
+	 * 			Pacman's sonar apparatus. It must measure Manhattan distances.
+	 * @param tolerance
+	 * 			The most probability mass that splitting or merging any one block may misplace
+	 */
+	public QuadtreeBelief(int size, Sonar sonar, double tolerance) {
+		if(sonar.getDistanceTable() != null) {
+			throw new IllegalArgumentException("The quadtree belief needs Manhattan distances");
+		}
+		if(!(tolerance > 0)) {
+			throw new IllegalArgumentException("The tolerance must be positive");
+		}
+		this.size = size;
+		this.sonar = sonar;
+		this.tolerance = tolerance;
+		this.rootLevel = 32 - Integer.numberOfLeadingZeros(size - 1);
+		this.column = new double[sonar.getNumDistances()];
+		this.prefix = new double[column.length + 1];
+		this.stack = new int[3*rootLevel + 4];
+		allocate(64);
+		uniform();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of leaves that overlap the board
+	 */
+	public int getNumLeaves() {
+		return numLeaves;
+	}
+
+	/**
+	 * Returns the number of nodes in the tree, leaves included
+	 */
+	public int getNumNodes() {
+		return numNodes - 4*numFree;
+	}
+
+	/**
+	 * Returns the number of bytes the nodes of the tree take up
+	 */
+	public long getMemoryBytes() {
+		return (long)row.length*(4 + 4 + 1 + 4 + 4 + 8 + 8);
+	}
+
+	/**
+	 * Returns the first row of the i-th leaf's block
+	 */
+	public int getLeafRowMin(int i) {
+		return row[leaves[i]];
+	}
+
+	/**
+	 * Returns the last row of the i-th leaf's block that is on the board
+	 */
+	public int getLeafRowMax(int i) {
+		return rowEnd(leaves[i]);
+	}
+
+	public int getLeafColMin(int i) {
+		return col[leaves[i]];
+	}
+
+	public int getLeafColMax(int i) {
+		return colEnd(leaves[i]);
+	}
+
+	/**
+	 * Returns the mass of the i-th leaf, which is spread evenly over its cells
+	 */
+	public double getLeafMass(int i) {
+		return mass[leaves[i]];
+	}
+
+	/**
+	 * Makes the belief the uniform distribution, held by the root alone
+	 */
+	public void uniform() {
+		numNodes = 1;
+		numFree = 0;
+		row[ROOT] = 0;
+		col[ROOT] = 0;
+		level[ROOT] = (byte)rootLevel;
+		child[ROOT] = LEAF;
+		parent[ROOT] = -1;
+		mass[ROOT] = 1.0;
+		numCreated = 0;
+		rebuildLeaves();
+	}
+
+	/**
+	 * One step of prediction. The mass is kept, up to rounding.
+	 */
+	public void predict() {
+		refineForFlow();
+		for(int i = 0; i < numLeaves; i++) {
+			flow[leaves[i]] = 0.0;
+		}
+		// Every shared edge is visited once, from the leaf above it or left of it
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			double density = mass[a]/area(a);
+			int r0 = row[a], r1 = rowEnd(a), c0 = col[a], c1 = colEnd(a);
+			if(r1 < size-1) {
+				collect(a, r1+1, r1+1, c0, c1);
+				for(int j = 0; j < numFound; j++) {
+					int b = found[j];
+					int lo = Math.max(c0, col[b]), hi = Math.min(c1, colEnd(b));
+					double net = density*moveShare(r1, lo, hi) - mass[b]/area(b)*moveShare(r1+1, lo, hi);
+					flow[a] -= net;
+					flow[b] += net;
+				}
+			}
+			if(c1 < size-1) {
+				collect(a, r0, r1, c1+1, c1+1);
+				for(int j = 0; j < numFound; j++) {
+					int b = found[j];
+					int lo = Math.max(r0, row[b]), hi = Math.min(r1, rowEnd(b));
+					double net = density*moveShare(c1, lo, hi) - mass[b]/area(b)*moveShare(c1+1, lo, hi);
+					flow[a] -= net;
+					flow[b] += net;
+				}
+			}
+		}
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			mass[a] = Math.max(0.0, mass[a] + flow[a]);
+		}
+	}
+
+	/**
+	 * Multiplies the belief by the emission probabilities of the reading, first splitting the leaves over
+	 * which the likelihood varies too much to be averaged
+	 *
+	 * @param pacmanRow
+	 * 			Pacman's row when the reading was taken
+	 * @param pacmanCol
+	 * 			Pacman's column when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @return
+	 * 			The sum of the weighted belief, i.e. the normalizer
+	 */
+	public double weigh(int pacmanRow, int pacmanCol, int noisyDistance) {
+		likelihoods(noisyDistance);
+		refine(pacmanRow, pacmanCol);
+		double sum = 0.0;
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			if(mass[a] != 0.0) {
+				mass[a] *= meanLikelihood(a, pacmanRow, pacmanCol);
+				sum += mass[a];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the total mass of the leaves
+	 */
+	public double getTotalMass() {
+		double sum = 0.0;
+		for(int i = 0; i < numLeaves; i++) {
+			sum += mass[leaves[i]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Divides the mass of every leaf by the given sum
+	 */
+	public void scale(double sum) {
+		if(sum == 0.0) {
+			return;
+		}
+		double inv = 1.0/sum;
+		for(int i = 0; i < numLeaves; i++) {
+			mass[leaves[i]] *= inv;
+		}
+	}
+
+	/**
+	 * Merges the blocks where the belief has become nearly uniform and splits blocks until adjacent leaves
+	 * differ in size by at most a factor of two. Call this after every update.
+	 */
+	public void adapt() {
+		coarsen();
+		rebuildLeaves();
+		balance();
+		rebuildLeaves();
+	}
+
+	/**
+	 * Returns the probability of a single cell
+	 */
+	public double probability(int r, int c) {
+		int node = ROOT;
+		while(child[node] >= 0) {
+			int half = 1 << (level[node] - 1);
+			node = child[node] + (r - row[node] >= half ? 2 : 0) + (c - col[node] >= half ? 1 : 0);
+		}
+		return mass[node]/area(node);
+	}
+
+	/**
+	 * Copies the belief into a row-major vector of size*size cells
+	 */
+	public void toDense(double[] dst) {
+		Arrays.fill(dst, 0.0);
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			double density = mass[a]/area(a);
+			if(density != 0.0) {
+				for(int r = row[a]; r <= rowEnd(a); r++) {
+					Arrays.fill(dst, r*size + col[a], r*size + colEnd(a) + 1, density);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the row-major index of the most likely cell: the cell nearest the center of the densest leaf
+	 */
+	public int mostLikely() {
+		int best = leaves[0];
+		double bestDensity = -1.0;
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			double density = mass[a]/area(a);
+			if(density > bestDensity) {
+				best = a;
+				bestDensity = density;
+			}
+		}
+		return (row[best] + rowEnd(best))/2*size + (col[best] + colEnd(best))/2;
+	}
+
+	/**
+	 * Returns the k most likely cells, most likely first. Cells of the same leaf are equally likely and
+	 * are listed in row-major order.
+	 *
+	 * @param k
+	 * 			The number of cells
+	 * @param probabilities
+	 * 			Filled with the probability of each returned cell, or null
+	 * @return
+	 * 			The row-major indices (r*size + c) of at most k cells with non-zero probability
+	 */
+	public int[] topCells(int k, double[] probabilities) {
+		int n = sortLeaves();
+		int[] result = new int[k];
+		int count = 0;
+		for(int i = 0; i < n && count < k; i++) {
+			int a = order[i];
+			double density = mass[a]/area(a);
+			for(int r = row[a]; r <= rowEnd(a) && count < k; r++) {
+				for(int c = col[a]; c <= colEnd(a) && count < k; c++) {
+					if(probabilities != null) {
+						probabilities[count] = density;
+					}
+					result[count++] = r*size + c;
+				}
+			}
+		}
+		return count == k ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Returns the smallest set of cells that the ghost is in with at least the given probability. The
+	 * densest leaves are taken whole and the last one only in part.
+	 *
+	 * @param target
+	 * 			The probability to cover, e.g. 0.95
+	 * @return
+	 * 			The row-major indices (r*size + c) of the cells, in no particular order
+	 */
+	public int[] credibleRegion(double target) {
+		int n = sortLeaves();
+		double goal = target*getTotalMass()*(1 - SLACK);
+		double covered = 0.0;
+		long cells = 0;
+		int taken = 0;
+		long partial = 0;
+		for(; taken < n && covered < goal; taken++) {
+			int a = order[taken];
+			double density = mass[a]/area(a);
+			if(covered + mass[a] >= goal) {
+				partial = Math.min(area(a), (long)Math.ceil((goal - covered)/density));
+				cells += partial;
+				covered = goal;
+			}
+			else {
+				cells += area(a);
+				covered += mass[a];
+			}
+		}
+		if(cells > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("The credible region has too many cells to list");
+		}
+		int[] region = new int[(int)cells];
+		int count = 0;
+		for(int i = 0; i < taken; i++) {
+			int a = order[i];
+			long limit = i == taken-1 && partial > 0 ? partial : area(a);
+			for(int r = row[a]; r <= rowEnd(a) && limit > 0; r++) {
+				for(int c = col[a]; c <= colEnd(a) && limit > 0; c++, limit--) {
+					region[count++] = r*size + c;
+				}
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * Returns the expected position and its spread. A leaf contributes its block's center and the spread
+	 * of a uniform distribution over its rows and columns, so no cell is visited.
+	 *
+	 * @return
+	 * 			{mean row, mean column, variance of the row, variance of the column, covariance}, all NaN if the
+	 * 			belief has no mass
+	 */
+	public double[] moments() {
+		double w = 0, sr = 0, sc = 0, srr = 0, scc = 0, src = 0;
+		for(int i = 0; i < numLeaves; i++) {
+			int a = leaves[i];
+			double p = mass[a];
+			if(p == 0.0) {
+				continue;
+			}
+			double rows = rowEnd(a) - row[a] + 1, cols = colEnd(a) - col[a] + 1;
+			double r = row[a] + (rows - 1)/2, c = col[a] + (cols - 1)/2;
+			w += p;
+			sr += p*r;
+			sc += p*c;
+			srr += p*(r*r + (rows*rows - 1)/12);
+			scc += p*(c*c + (cols*cols - 1)/12);
+			src += p*r*c;
+		}
+		return BeliefQueries.finishMoments(w, sr, sc, srr, scc, src);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// The last row and column of a node's block that are on the board, and the number of its cells on the board
+	private int rowEnd(int node) {
+		return Math.min(row[node] + (1 << level[node]), size) - 1;
+	}
+
+	private int colEnd(int node) {
+		return Math.min(col[node] + (1 << level[node]), size) - 1;
+	}
+
+	private long area(int node) {
+		if(row[node] >= size || col[node] >= size) {
+			return 0;
+		}
+		return (long)(rowEnd(node) - row[node] + 1)*(colEnd(node) - col[node] + 1);
+	}
+
+	// The sum of the move probabilities (1/numMoves) of the cells at (fixed, lo..hi), or equally (lo..hi, fixed).
+	// Without walls a cell has five moves less one for every edge of the board it is on.
+	private double moveShare(int fixed, int lo, int hi) {
+		int edges = (fixed == 0 ? 1 : 0) + (fixed == size-1 ? 1 : 0);
+		int ends = (lo == 0 ? 1 : 0) + (hi == size-1 ? 1 : 0);
+		return (double)(hi - lo + 1 - ends)/(5 - edges) + (double)ends/(4 - edges);
+	}
+
+	// Lists in found the leaves on the board that overlap the rectangle [r0, r1] x [c0, c1]. The search
+	// starts from the smallest ancestor of the given node whose block holds the rectangle, which for the
+	// cells next to a node is usually a few levels up rather than the root.
+	private void collect(int near, int r0, int r1, int c0, int c1) {
+		int start = near;
+		while(parent[start] >= 0 && !(row[start] <= r0 && r1 < row[start] + (1 << level[start])
+				&& col[start] <= c0 && c1 < col[start] + (1 << level[start]))) {
+			start = parent[start];
+		}
+		numFound = 0;
+		int top = 0;
+		stack[top++] = start;
+		while(top > 0) {
+			int node = stack[--top];
+			int side = 1 << level[node];
+			if(row[node] > r1 || row[node] + side <= r0 || col[node] > c1 || col[node] + side <= c0 || area(node) == 0) {
+				continue;
+			}
+			if(child[node] == LEAF) {
+				found = push(found, numFound++, node);
+			}
+			else {
+				for(int k = 0; k < 4; k++) {
+					stack[top++] = child[node] + k;
+				}
+			}
+		}
+	}
+
+	// Lists the leaves on the board in leaves
+	private void rebuildLeaves() {
+		numLeaves = 0;
+		int top = 0;
+		stack[top++] = ROOT;
+		while(top > 0) {
+			int node = stack[--top];
+			if(child[node] >= 0) {
+				for(int k = 3; k >= 0; k--) {
+					stack[top++] = child[node] + k;
+				}
+			}
+			else if(area(node) > 0) {
+				leaves = push(leaves, numLeaves++, node);
+			}
+		}
+	}
+
+	// Fills the likelihood column and its prefix sums for the reading
+	private void likelihoods(int noisyDistance) {
+		int reading = Math.min(noisyDistance, column.length - 1);
+		lowest = column.length;
+		highest = -1;
+		peak = 0.0;
+		for(int d = 0; d < column.length; d++) {
+			column[d] = sonar.likelihood(d, reading);
+			prefix[d+1] = prefix[d] + column[d];
+			if(column[d] > 0) {
+				lowest = Math.min(lowest, d);
+				highest = d;
+				peak = Math.max(peak, column[d]);
+			}
+		}
+	}
+
+	// Splits every leaf holding mass over which the likelihood varies so much that weighing it by the mean
+	// could misplace more than the tolerance, measured against the most likely distance
+	private void refine(int pr, int pc) {
+		int n = 0;
+		for(int i = 0; i < numLeaves; i++) {
+			work = push(work, n++, leaves[i]);
+		}
+		while(n > 0) {
+			int node = work[--n];
+			if(level[node] == 0 || mass[node] == 0.0) {
+				continue;
+			}
+			int r0 = row[node], r1 = rowEnd(node), c0 = col[node], c1 = colEnd(node);
+			int near = gap(pr, r0, r1) + gap(pc, c0, c1);
+			int far = Math.max(pr - r0, r1 - pr) + Math.max(pc - c0, c1 - pc);
+			if(far < lowest || near > highest) {
+				continue; // the reading rules out the whole block
+			}
+			double max = 0.0, min = near < lowest || far > highest ? 0.0 : Double.MAX_VALUE;
+			for(int d = Math.max(near, lowest); d <= Math.min(far, highest); d++) {
+				max = Math.max(max, column[d]);
+				min = Math.min(min, column[d]);
+			}
+			if(mass[node]*(max - min) > tolerance*peak) {
+				split(node);
+				for(int k = 0; k < 4; k++) {
+					if(area(child[node] + k) > 0) {
+						work = push(work, n++, child[node] + k);
+					}
+				}
+			}
+		}
+		rebuildLeaves();
+	}
+
+	// Splits every leaf that is coarser than a neighbor holding mass and would take in more than the
+	// tolerance from it, since what flows into a leaf is spread over its whole block
+	private void refineForFlow() {
+		int n = 0;
+		for(int i = 0; i < numLeaves; i++) {
+			if(mass[leaves[i]] != 0.0) {
+				work = push(work, n++, leaves[i]);
+			}
+		}
+		while(n > 0) {
+			int a = work[--n];
+			if(child[a] != LEAF) {
+				continue;
+			}
+			double density = mass[a]/area(a);
+			int coarse = -1;
+			for(int side = 0; side < 4 && coarse < 0; side++) {
+				if(!strip(a, side)) {
+					continue;
+				}
+				int edge = side < 2 ? (side == 0 ? row[a] : rowEnd(a)) : (side == 2 ? col[a] : colEnd(a));
+				for(int j = 0; j < numFound && coarse < 0; j++) {
+					int b = found[j];
+					int lo = side < 2 ? Math.max(col[a], col[b]) : Math.max(row[a], row[b]);
+					int hi = side < 2 ? Math.min(colEnd(a), colEnd(b)) : Math.min(rowEnd(a), rowEnd(b));
+					if(level[b] > level[a] && density*moveShare(edge, lo, hi) > tolerance) {
+						coarse = b;
+					}
+				}
+			}
+			if(coarse >= 0) {
+				split(coarse);
+				for(int k = 0; k < 4; k++) {
+					if(mass[child[coarse] + k] != 0.0) {
+						work = push(work, n++, child[coarse] + k);
+					}
+				}
+				work = push(work, n++, a);
+			}
+		}
+		rebuildLeaves();
+	}
+
+	// The mean likelihood of the cells of a block. Within a row the distance from Pacman runs up by one per
+	// cell on either side of his column, so each row is one or two ranges of the prefix sums.
+	private double meanLikelihood(int node, int pr, int pc) {
+		int r0 = row[node], r1 = rowEnd(node), c0 = col[node], c1 = colEnd(node);
+		double sum = 0.0;
+		for(int r = Math.max(r0, pr - highest); r <= Math.min(r1, pr + highest); r++) {
+			int dr = Math.abs(r - pr);
+			if(pc < c0) {
+				sum += range(dr + c0 - pc, dr + c1 - pc);
+			}
+			else if(pc > c1) {
+				sum += range(dr + pc - c1, dr + pc - c0);
+			}
+			else {
+				sum += range(dr + 1, dr + pc - c0) + range(dr, dr + c1 - pc);
+			}
+		}
+		return sum/area(node);
+	}
+
+	// L[from] + ... + L[to]
+	private double range(int from, int to) {
+		return from > to ? 0.0 : prefix[to + 1] - prefix[from];
+	}
+
+	// Merges four sibling leaves into their parent wherever spreading their mass evenly over it moves
+	// less than the tolerance and the parent would still be at most twice the size of its neighbors
+	private void coarsen() {
+		int n = 0;
+		for(int i = 0; i < numLeaves; i++) {
+			int leaf = leaves[i];
+			if(parent[leaf] >= 0 && child[parent[leaf]] == leaf) {
+				work = push(work, n++, parent[leaf]);
+			}
+		}
+		while(n > 0) {
+			int p = work[--n];
+			int first = child[p];
+			if(first < 0) {
+				continue;
+			}
+			double total = 0.0;
+			boolean mergeable = true;
+			for(int k = 0; k < 4 && mergeable; k++) {
+				mergeable = child[first + k] == LEAF;
+				total += mass[first + k];
+			}
+			if(!mergeable) {
+				continue;
+			}
+			double areaP = area(p);
+			double moved = 0.0;
+			for(int k = 0; k < 4; k++) {
+				moved += Math.abs(mass[first + k] - total*area(first + k)/areaP);
+			}
+			if(moved/2 > tolerance || hasFinerNeighbor(p, level[p] - 1)) {
+				continue;
+			}
+			for(int k = 0; k < 4; k++) {
+				child[first + k] = FREE;
+			}
+			freeBlocks = push(freeBlocks, numFree++, first);
+			child[p] = LEAF;
+			mass[p] = total;
+			if(parent[p] >= 0 && child[parent[p]] == p) {
+				work = push(work, n++, parent[p]);
+			}
+		}
+	}
+
+	// Checks if a leaf smaller than 2^minLevel cells on a side touches the node's block
+	private boolean hasFinerNeighbor(int node, int minLevel) {
+		for(int side = 0; side < 4; side++) {
+			if(!strip(node, side)) {
+				continue;
+			}
+			for(int j = 0; j < numFound; j++) {
+				if(level[found[j]] < minLevel) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Splits leaves until every leaf is at most twice the size of its neighbors. Merges never break this,
+	// so only the leaves made by splits since the last balance need to be checked.
+	private void balance() {
+		int n = 0;
+		for(int i = 0; i < numCreated; i++) {
+			work = push(work, n++, created[i]);
+		}
+		while(n > 0) {
+			int x = work[--n];
+			if(child[x] != LEAF) {
+				continue;
+			}
+			int coarse = -1;
+			for(int side = 0; side < 4 && coarse < 0; side++) {
+				if(!strip(x, side)) {
+					continue;
+				}
+				for(int j = 0; j < numFound && coarse < 0; j++) {
+					if(level[found[j]] > level[x] + 1) {
+						coarse = found[j];
+					}
+				}
+			}
+			if(coarse >= 0) {
+				split(coarse);
+				for(int k = 0; k < 4; k++) {
+					if(area(child[coarse] + k) > 0) {
+						work = push(work, n++, child[coarse] + k);
+					}
+				}
+				work = push(work, n++, x);
+			}
+		}
+		numCreated = 0;
+	}
+
+	// Lists in found the leaves along one side of the node's block (0 above, 1 below, 2 left, 3 right),
+	// returning false if that side is the edge of the board
+	private boolean strip(int node, int side) {
+		int r0 = row[node], r1 = rowEnd(node), c0 = col[node], c1 = colEnd(node);
+		switch(side) {
+		case 0:
+			if(r0 == 0) return false;
+			collect(node, r0-1, r0-1, c0, c1);
+			return true;
+		case 1:
+			if(r1 == size-1) return false;
+			collect(node, r1+1, r1+1, c0, c1);
+			return true;
+		case 2:
+			if(c0 == 0) return false;
+			collect(node, r0, r1, c0-1, c0-1);
+			return true;
+		default:
+			if(c1 == size-1) return false;
+			collect(node, r0, r1, c1+1, c1+1);
+			return true;
+		}
+	}
+
+	// Splits a leaf into four, spreading its mass over them by area
+	private void split(int node) {
+		int first;
+		if(numFree > 0) {
+			first = freeBlocks[--numFree];
+		}
+		else {
+			if(numNodes + 4 > row.length) {
+				allocate(2*row.length);
+			}
+			first = numNodes;
+			numNodes += 4;
+		}
+		int half = 1 << (level[node] - 1);
+		double total = area(node);
+		for(int k = 0; k < 4; k++) {
+			int c = first + k;
+			row[c] = row[node] + (k >> 1)*half;
+			col[c] = col[node] + (k & 1)*half;
+			level[c] = (byte)(level[node] - 1);
+			child[c] = LEAF;
+			parent[c] = node;
+			mass[c] = mass[node]*area(c)/total;
+			if(area(c) > 0) {
+				created = push(created, numCreated++, c);
+			}
+		}
+		child[node] = first;
+		mass[node] = 0.0;
+	}
+
+	// Grows the node arrays to the given capacity
+	private void allocate(int capacity) {
+		if(row == null) {
+			row = new int[capacity];
+			col = new int[capacity];
+			level = new byte[capacity];
+			child = new int[capacity];
+			parent = new int[capacity];
+			mass = new double[capacity];
+			flow = new double[capacity];
+			return;
+		}
+		row = Arrays.copyOf(row, capacity);
+		col = Arrays.copyOf(col, capacity);
+		level = Arrays.copyOf(level, capacity);
+		child = Arrays.copyOf(child, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		flow = Arrays.copyOf(flow, capacity);
+	}
+
+	// Fills order with the leaves holding mass by decreasing density, returning how many there are
+	private int sortLeaves() {
+		if(order == null || order.length < numLeaves) {
+			order = new int[numLeaves];
+		}
+		int n = 0;
+		for(int i = 0; i < numLeaves; i++) {
+			if(mass[leaves[i]] > 0.0) {
+				order[n++] = leaves[i];
+			}
+		}
+		// Heapsort on a min-heap leaves the densest leaf first
+		for(int i = n/2 - 1; i >= 0; i--) {
+			siftDown(i, n);
+		}
+		for(int end = n-1; end > 0; end--) {
+			int swap = order[0];
+			order[0] = order[end];
+			order[end] = swap;
+			siftDown(0, end);
+		}
+		return n;
+	}
+
+	private void siftDown(int i, int n) {
+		int item = order[i];
+		double density = mass[item]/area(item);
+		while(2*i + 1 < n) {
+			int j = 2*i + 1;
+			if(j + 1 < n && mass[order[j+1]]/area(order[j+1]) < mass[order[j]]/area(order[j])) {
+				j++;
+			}
+			if(mass[order[j]]/area(order[j]) >= density) {
+				break;
+			}
+			order[i] = order[j];
+			i = j;
+		}
+		order[i] = item;
+	}
+
+	// The distance from x to the nearest point of [lo, hi]
+	private static int gap(int x, int lo, int hi) {
+		return x < lo ? lo - x : x > hi ? x - hi : 0;
+	}
+
+	// Stores value at a[n], growing a if it is full
+	private static int[] push(int[] a, int n, int value) {
+		if(n == a.length) {
+			a = Arrays.copyOf(a, 2*n);
+		}
+		a[n] = value;
+		return a;
+	}
+}
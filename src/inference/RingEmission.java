@@ -0,0 +1,211 @@
+package inference;
+
+import java.util.Arrays;
+
+import graphics.Sonar;
+
+/**
+ * The emission update done one Manhattan ring at a time. The sonar's likelihood depends only on
+ * the distance from Pacman, so every cell on the diamond ring at distance d around him is multiplied
+ * by the same number L[d]. With the sonar's bounded noise only a handful of rings around the reading
+ * have L[d] > 0; every other ring is simply cleared without being multiplied.
+ *
+ * The rings are walked a board row at a time: a row crosses the band of rings with non-zero
+ * likelihood in at most two segments, one on each side of Pacman's column. Only the rows and columns
+ * of the belief's active region are visited, and the region is shrunk to the cells that are still
+ * non-zero afterwards, so a belief that has been narrowed down stays cheap.
+ *
+ * The update also keeps the mass on every ring. The normalizer is their sum, and expectations that
+ * only depend on the distance (the expected distance, the expected next reading) cost O(rings)
+ * instead of a pass over the board.
+ *
+ * Only valid when the sonar measures Manhattan distances (GridModel.isManhattan()).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class RingEmission {
+	private final GridModel model;
+	private final int size;
+	private final double[] likelihood;	// L[d] for the most recent reading
+	private final double[] mass;		// the (unnormalized) belief on each ring after the most recent update
+	private final double[] meanReading;	// the expected reading for each true distance
+	private double total;				// the sum of mass
+
+	/**
+	 * Creates the ring update for a board
+	 *
+	 * @param model
+	 * 			The HMM of the ghost and the sonar. Its sonar must measure Manhattan distances.
+	 */
+	public RingEmission(GridModel model) {
+		if(!model.isManhattan()) {
+			throw new IllegalArgumentException("Rings need Manhattan distances");
+		}
+		this.model = model;
+		this.size = model.getSize();
+		this.likelihood = new double[model.getNumDistances()];
+		this.mass = new double[likelihood.length];
+		this.meanReading = new double[likelihood.length];
+		Sonar sonar = model.getSonar();
+		for(int d = 0; d < meanReading.length; d++) {
+			for(int e = sonar.getBandStart(d); e < sonar.getBandStart(d) + sonar.getBandWidth(); e++) {
+				meanReading[d] += e*sonar.likelihood(d, e);
+			}
+		}
+	}
+
+	/**
+	 * Multiplies the belief by the emission probabilities of the reading, in place, and shrinks the
+	 * region to the cells that are still non-zero
+	 *
+	 * @param belief
+	 * 			A (possibly unnormalized) distribution over the cells, zero outside the region
+	 * @param pacmanCell
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reading
+	 * @param region
+	 * 			The belief's active region, updated in place
+	 * @return
+	 * 			The sum of the weighted belief, i.e. the normalizer
+	 */
+	public double weigh(double[] belief, int pacmanCell, int noisyDistance, ActiveRegion region) {
+		model.likelihoods(noisyDistance, likelihood);
+		Arrays.fill(mass, 0.0);
+		total = 0.0;
+
+		// The band of rings the reading is possible from
+		int lo = 0, hi = likelihood.length-1;
+		while(lo <= hi && likelihood[lo] == 0.0) {
+			lo++;
+		}
+		while(hi >= lo && likelihood[hi] == 0.0) {
+			hi--;
+		}
+
+		int pr = pacmanCell/size, pc = pacmanCell%size;
+		int c0 = region.colMin, c1 = region.colMax;
+		int rowMin = Integer.MAX_VALUE, rowMax = -1, colMin = Integer.MAX_VALUE, colMax = -1;
+		for(int r = region.rowMin; r <= region.rowMax; r++) {
+			int row = r*size, dr = Math.abs(r - pr);
+			if(dr > hi) {
+				Arrays.fill(belief, row + c0, row + c1 + 1, 0.0);
+				continue;
+			}
+			// The cells of this row with d in [lo, hi] have |c - pc| in [near, far]
+			int near = Math.max(lo - dr, 0), far = hi - dr;
+			int leftStart = Math.max(c0, pc - far), leftEnd = Math.min(c1, pc - near);
+			int rightStart = Math.max(c0, pc + Math.max(near, 1)), rightEnd = Math.min(c1, pc + far);
+
+			int cursor = c0;
+			int first = Integer.MAX_VALUE, last = -1;	// the first and last non-zero cells of the row
+			if(leftStart <= leftEnd) {
+				Arrays.fill(belief, row + cursor, row + leftStart, 0.0);
+				for(int c = leftStart, d = dr + pc - leftStart; c <= leftEnd; c++, d--) {
+					double w = belief[row + c]*likelihood[d];
+					belief[row + c] = w;
+					mass[d] += w;
+					if(w != 0.0) {
+						first = Math.min(first, c);
+						last = c;
+					}
+				}
+				cursor = leftEnd + 1;
+			}
+			if(rightStart <= rightEnd) {
+				Arrays.fill(belief, row + cursor, row + rightStart, 0.0);
+				for(int c = rightStart, d = dr + rightStart - pc; c <= rightEnd; c++, d++) {
+					double w = belief[row + c]*likelihood[d];
+					belief[row + c] = w;
+					mass[d] += w;
+					if(w != 0.0) {
+						first = Math.min(first, c);
+						last = c;
+					}
+				}
+				cursor = rightEnd + 1;
+			}
+			if(cursor <= c1) {
+				Arrays.fill(belief, row + cursor, row + c1 + 1, 0.0);
+			}
+
+			if(last >= 0) {
+				rowMin = Math.min(rowMin, r);
+				rowMax = r;
+				colMin = Math.min(colMin, first);
+				colMax = Math.max(colMax, last);
+			}
+		}
+
+		if(rowMax < 0) {
+			region.setEmpty();
+		}
+		else {
+			region.rowMin = rowMin;
+			region.rowMax = rowMax;
+			region.colMin = colMin;
+			region.colMax = colMax;
+		}
+		for(int d = lo; d <= hi; d++) {
+			total += mass[d];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the probability that the ghost is at distance d from where Pacman took the most recent
+	 * reading, under the updated belief
+	 */
+	public double getRingProbability(int d) {
+		return total == 0.0 ? 0.0 : mass[d]/total;
+	}
+
+	/**
+	 * Returns the expected distance from where Pacman took the most recent reading to the ghost,
+	 * under the updated belief, in O(rings)
+	 */
+	public double getExpectedDistance() {
+		double sum = 0.0;
+		for(int d = 0; d < mass.length; d++) {
+			sum += d*mass[d];
+		}
+		return total == 0.0 ? 0.0 : sum/total;
+	}
+
+	/**
+	 * Returns the reading the sonar is expected to give if Pacman and the ghost both stay where they
+	 * are, under the updated belief, in O(rings)
+	 */
+	public double getExpectedReading() {
+		double sum = 0.0;
+		for(int d = 0; d < mass.length; d++) {
+			sum += meanReading[d]*mass[d];
+		}
+		return total == 0.0 ? 0.0 : sum/total;
+	}
+
+	/**
+	 * Fills dst with the distribution of the reading the sonar would give if Pacman and the ghost both
+	 * stay where they are, under the updated belief. Costs O(rings * sonar band width).
+	 *
+	 * @param dst
+	 * 			An array with one entry per possible reading
+	 */
+	public void readingDistribution(double[] dst) {
+		Arrays.fill(dst, 0.0);
+		if(total == 0.0) {
+			return;
+		}
+		for(int d = 0; d < mass.length; d++) {
+			if(mass[d] == 0.0) {
+				continue;
+			}
+			double p = mass[d]/total;
+			Sonar sonar = model.getSonar();
+			for(int e = sonar.getBandStart(d); e < sonar.getBandStart(d) + sonar.getBandWidth(); e++) {
+				dst[e] += p*sonar.likelihood(d, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package inference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the ghost ends up after k steps of its random walk, as a stencil of offsets (dr, dc) and
+ * their probabilities. Away from the edges and walls every cell has the same five moves (stay, up,
+ * down, left, right, each with probability 1/5), so the k-step distribution is the same for every
+ * starting cell at least k cells from an edge, and with no wall within reach. For such a cell, k steps
+ * of prediction are one scatter of the stencil, and k steps of a particle are one draw from it.
+ *
+ * The stencil for k steps is a diamond of 2k^2 + 2k + 1 offsets. Stencils are built by convolving
+ * the one-step stencil, starting from the largest smaller stencil that is still cached, and the most
+ * recently used ones are kept in an LRU cache shared by every model.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class StepKernel {
+	public static final int CACHE_CAPACITY = 16;
+
+	private static final Map<Integer, StepKernel> cache = new LinkedHashMap<Integer, StepKernel>(CACHE_CAPACITY, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, StepKernel> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+	private final int steps;
+	private final int[] dr;			// the offsets...
+	private final int[] dc;
+	private final double[] prob;	// ...and the probability of ending up at each
+	private final double[] cdf;		// cdf[i] = prob[0] + ... + prob[i]
+
+	/**
+	 * Returns the stencil for the given number of steps, from the cache if it is there
+	 *
+	 * @param steps
+	 * 			The number of steps, at least 1
+	 */
+	public static StepKernel get(int steps) {
+		if(steps < 1) {
+			throw new IllegalArgumentException("The number of steps must be positive");
+		}
+		synchronized(cache) {
+			StepKernel kernel = cache.get(steps);
+			if(kernel == null) {
+				// Carry on from the longest cached walk that is shorter than this one
+				int from = 0;
+				for(int k : cache.keySet()) {
+					if(k < steps && k > from) {
+						from = k;
+					}
+				}
+				kernel = new StepKernel(steps, from == 0 ? null : cache.get(from));
+				cache.put(steps, kernel);
+			}
+			return kernel;
+		}
+	}
+
+	// Walks the given stencil (or a point, if null) on for the remaining steps
+	private StepKernel(int steps, StepKernel start) {
+		this.steps = steps;
+		int width = 2*steps + 1;
+		double[] grid = new double[width*width];
+		double[] next = new double[grid.length];
+		int center = steps*width + steps;
+		int done = 0;
+		if(start == null) {
+			grid[center] = 1.0;
+		}
+		else {
+			for(int i = 0; i < start.dr.length; i++) {
+				grid[center + start.dr[i]*width + start.dc[i]] = start.prob[i];
+			}
+			done = start.steps;
+		}
+		for(; done < steps; done++) {
+			// After `done` steps the walk is within `done` of the center, so the next step stays within
+			// `done + 1` and only that square is swept
+			int lo = steps - done - 1, hi = steps + done + 1;
+			for(int r = lo; r <= hi; r++) {
+				for(int c = lo; c <= hi; c++) {
+					int p = r*width + c;
+					double sum = grid[p];
+					if(r > lo) sum += grid[p-width];
+					if(r < hi) sum += grid[p+width];
+					if(c > lo) sum += grid[p-1];
+					if(c < hi) sum += grid[p+1];
+					next[p] = sum/5;
+				}
+			}
+			double[] swap = grid;
+			grid = next;
+			next = swap;
+		}
+
+		int n = 0;
+		for(double p : grid) {
+			if(p > 0.0) {
+				n++;
+			}
+		}
+		dr = new int[n];
+		dc = new int[n];
+		prob = new double[n];
+		cdf = new double[n];
+		double total = 0.0;
+		for(int p = 0, i = 0; p < grid.length; p++) {
+			if(grid[p] > 0.0) {
+				dr[i] = p/width - steps;
+				dc[i] = p%width - steps;
+				prob[i] = grid[p];
+				total += grid[p];
+				cdf[i] = total;
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of steps the stencil covers
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the number of offsets in the stencil
+	 */
+	public int getNumOffsets() {
+		return dr.length;
+	}
+
+	public int getRowOffset(int i) {
+		return dr[i];
+	}
+
+	public int getColOffset(int i) {
+		return dc[i];
+	}
+
+	public double getProbability(int i) {
+		return prob[i];
+	}
+
+	/**
+	 * Returns the offset whose share of the cumulative probability holds u, i.e. a sample of where the
+	 * walk ends up when u is uniform on [0, 1). O(log offsets)
+	 */
+	public int sample(double u) {
+		double target = u*cdf[cdf.length-1];
+		int lo = 0, hi = cdf.length-1;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(cdf[mid] <= target) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,347 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the belief at every step of a run in a memory-mapped file. Each step is a row-major
+ * vector of doubles (one per cell) and any step can be read back without loading the rest of the run,
+ * so the history of a long run on a large board never has to fit on the heap.
+ *
+ * The file is a small header followed by the belief vectors back to back:
+ *
+ * 		header:  int magic, int version, int cells, long numSteps  (padded to HEADER_BYTES)
+ * 		step t:  double belief[cells] at offset HEADER_BYTES + t*cells*8
+ *
+ * The file is mapped in segments of whole steps so that runs larger than 2GB can be stored. Only the
+ * few segments used last stay mapped; the others are unmapped as soon as they are left behind, so a
+ * long run does not keep its whole history in the address space. close() unmaps everything before it
+ * cuts the unused tail of the last segment off the file, since touching a mapped page past the end of
+ * a file crashes the JVM. Where the JVM cannot unmap on demand the tail is left in place: it is past
+ * the step count in the header, so readers never look at it.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class BeliefHistory implements Closeable {
+	public static final int MAGIC = 0x48424247;	// "GBBH"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 64;
+	private static final long SEGMENT_BYTES = 1L << 26;	// the file is mapped (and grown) 64MB at a time
+	private static final int MAX_MAPPED = 4;			// segments kept mapped at once
+	private static final Object UNSAFE;				// sun.misc.Unsafe and its invokeCleaner, or null if unavailable
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch(ReflectiveOperationException | RuntimeException e) {
+			// mappings are then released by the garbage collector
+		}
+		UNSAFE = invokeCleaner == null ? null : unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final FileChannel channel;
+	private final boolean writable;
+	private final int cells;
+	private final long stepBytes;
+	private final int stepsPerSegment;
+	private MappedByteBuffer header;
+	private final List<MappedByteBuffer> mapped;	// the mapped segments, null while not mapped
+	private final List<DoubleBuffer> segments;		// double views of the mapped segments
+	private final ArrayDeque<Integer> recent = new ArrayDeque<>();	// the mapped segments, least recently mapped first
+	private long numSteps;
+	private boolean closed;
+
+	/**
+	 * Creates a new, empty history, replacing any existing file
+	 *
+	 * @param path
+	 * 			Where to store the history
+	 * @param cells
+	 * 			The number of cells in each belief vector
+	 * @return
+	 * 			A history that can be appended to
+	 * @throws IOException if the file cannot be created
+	 */
+	public static BeliefHistory create(Path path, int cells) throws IOException {
+		return create(path, cells, SEGMENT_BYTES);
+	}
+
+	// Creates a history mapped in segments of the given size; the layout of the file does not depend on it
+	static BeliefHistory create(Path path, int cells, long segmentBytes) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new BeliefHistory(channel, true, cells, 0, segmentBytes);
+	}
+
+	/**
+	 * Opens an existing history
+	 *
+	 * @param path
+	 * 			The history file
+	 * @param writable
+	 * 			True if more steps will be appended, false to open it read-only
+	 * @return
+	 * 			The history
+	 * @throws IOException if the file cannot be read or is not a belief history
+	 */
+	public static BeliefHistory open(Path path, boolean writable) throws IOException {
+		return open(path, writable, SEGMENT_BYTES);
+	}
+
+	// Opens a history mapped in segments of the given size
+	static BeliefHistory open(Path path, boolean writable, long segmentBytes) throws IOException {
+		FileChannel channel = writable
+				? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(path, StandardOpenOption.READ);
+		ByteBuffer buf = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(buf, 0);
+		buf.flip();
+		if(buf.remaining() < 20 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			channel.close();
+			throw new IOException(path + " is not a belief history");
+		}
+		int cells = buf.getInt();
+		long numSteps = buf.getLong();
+		return new BeliefHistory(channel, writable, cells, numSteps, segmentBytes);
+	}
+
+	private BeliefHistory(FileChannel channel, boolean writable, int cells, long numSteps, long segmentBytes) throws IOException {
+		if(cells <= 0) {
+			throw new IllegalArgumentException("A belief must have at least one cell");
+		}
+		this.channel = channel;
+		this.writable = writable;
+		this.cells = cells;
+		this.numSteps = numSteps;
+		this.stepBytes = (long)cells*Double.BYTES;
+		this.stepsPerSegment = (int)Math.max(1, segmentBytes/stepBytes);
+		this.mapped = new ArrayList<>();
+		this.segments = new ArrayList<>();
+
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		this.header = channel.map(mode, 0, HEADER_BYTES);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if(writable) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, cells);
+			header.putLong(12, numSteps);
+		}
+	}
+
+	/**
+	 * Returns the number of cells in each belief vector
+	 */
+	public int getNumCells() {
+		return cells;
+	}
+
+	/**
+	 * Returns the number of steps stored so far
+	 */
+	public long getNumSteps() {
+		return numSteps;
+	}
+
+	/**
+	 * Appends the belief of the next step
+	 *
+	 * @param belief
+	 * 			A belief vector with one entry per cell
+	 * @return
+	 * 			The index of the step that was stored
+	 * @throws IOException if the file cannot be grown
+	 */
+	public long append(double[] belief) throws IOException {
+		if(!writable) {
+			throw new IllegalStateException("The history was opened read-only");
+		}
+		if(belief.length != cells) {
+			throw new IllegalArgumentException("Expected a belief over " + cells + " cells");
+		}
+		long step = numSteps;
+		DoubleBuffer segment = segment(step);
+		segment.put(offset(step), belief, 0, cells);
+		numSteps++;
+		header.putLong(12, numSteps);
+		return step;
+	}
+
+	/**
+	 * Copies the belief of the given step into dst
+	 *
+	 * @param step
+	 * 			A step in [0, getNumSteps())
+	 * @param dst
+	 * 			A vector with one entry per cell, or null to allocate a new one
+	 * @return
+	 * 			The belief vector
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public double[] read(long step, double[] dst) throws IOException {
+		checkStep(step);
+		if(dst == null || dst.length != cells) {
+			dst = new double[cells];
+		}
+		segment(step).get(offset(step), dst, 0, cells);
+		return dst;
+	}
+
+	/**
+	 * Returns the probability of a single cell at the given step
+	 *
+	 * @param step
+	 * 			A step in [0, getNumSteps())
+	 * @param cell
+	 * 			A row-major cell index
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public double get(long step, int cell) throws IOException {
+		checkStep(step);
+		if(cell < 0 || cell >= cells) {
+			throw new IndexOutOfBoundsException();
+		}
+		return segment(step).get(offset(step) + cell);
+	}
+
+	/**
+	 * Flushes the mapped pages to disk
+	 */
+	public void force() {
+		checkOpen();
+		if(writable) {
+			header.force();
+			for(int index : recent) {
+				mapped.get(index).force();
+			}
+		}
+	}
+
+	/**
+	 * Flushes and unmaps the file and closes it. A history that was written to loses the unused tail of
+	 * its last segment, provided every mapping of it could be released first.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		force();
+		closed = true;
+		boolean unmapped = true;
+		while(!recent.isEmpty()) {
+			unmapped &= release(recent.poll());
+		}
+		unmapped &= unmap(header);
+		header = null;
+		try {
+			if(writable && unmapped) {
+				channel.truncate(HEADER_BYTES + numSteps*stepBytes);
+			}
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("The history has been closed");
+		}
+	}
+
+	private void checkStep(long step) {
+		checkOpen();
+		if(step < 0 || step >= numSteps) {
+			throw new IndexOutOfBoundsException("Step " + step + " of " + numSteps);
+		}
+	}
+
+	// The position of the step within its segment, in doubles
+	private int offset(long step) {
+		return (int)((step % stepsPerSegment)*cells);
+	}
+
+	// Returns the segment holding the given step, mapping it if it is not mapped, and unmapping the
+	// segment mapped longest ago if too many are
+	private DoubleBuffer segment(long step) throws IOException {
+		checkOpen();
+		int index = (int)(step/stepsPerSegment);
+		while(segments.size() <= index) {
+			mapped.add(null);
+			segments.add(null);
+		}
+		DoubleBuffer segment = segments.get(index);
+		if(segment == null) {
+			long position = HEADER_BYTES + (long)index*stepsPerSegment*stepBytes;
+			long length = stepsPerSegment*stepBytes;
+			FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+			if(!writable) {
+				length = Math.min(length, channel.size() - position);
+			}
+			MappedByteBuffer buffer = channel.map(mode, position, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			segment = buffer.asDoubleBuffer();
+			mapped.set(index, buffer);
+			segments.set(index, segment);
+			recent.add(index);
+			if(recent.size() > MAX_MAPPED) {
+				release(recent.poll());
+			}
+		}
+		return segment;
+	}
+
+	// Writes back and forgets a mapped segment, returning true if it was unmapped at once
+	private boolean release(int index) {
+		MappedByteBuffer buffer = mapped.get(index);
+		if(writable) {
+			buffer.force();
+		}
+		mapped.set(index, null);
+		segments.set(index, null);
+		return unmap(buffer);
+	}
+
+	// Unmaps a buffer now rather than when it is garbage collected. The buffer and every view of it must
+	// never be touched again. Returns false if the JVM cannot do it.
+	private static boolean unmap(MappedByteBuffer buffer) {
+		if(INVOKE_CLEANER == null) {
+			return false;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			return true;
+		}
+		catch(ReflectiveOperationException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The walls of a square board, stored as one bit per cell (row-major, 1 = blocked). Neither Pacman
+ * nor the ghost can enter a blocked cell.
+ *
+ * A map can be loaded from either of two formats:
+ *
+ * 		ASCII:   one line per row, '#' for a blocked cell and '.' for an open one. Lines starting with
+ * 		         ';' are comments.
+ * 		binary:  int magic, int version, int size, then the bits as ceil(size*size/64) longs,
+ * 		         all little-endian
+ *
+ * load() tells the formats apart by the magic number.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class BoardMap {
+	public static final int MAGIC = 0x4D424247;	// "GBBM"
+	public static final int VERSION = 1;
+	public static final char BLOCKED = '#';
+	public static final char OPEN = '.';
+	private static final char COMMENT = ';';
+
+	private final int size;
+	private final long[] bits;
+	private int numBlocked;
+
+	/**
+	 * Creates a board without walls
+	 *
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 */
+	public BoardMap(int size) {
+		if(size <= 0) {
+			throw new IllegalArgumentException("The board must have at least one cell");
+		}
+		this.size = size;
+		this.bits = new long[(int)(((long)size*size + 63)/64)];
+	}
+
+	/**
+	 * Loads a map in either the ASCII or the binary format
+	 *
+	 * @param path
+	 * 			The map file
+	 * @return
+	 * 			The map
+	 * @throws IOException if the file cannot be read or is not a valid map
+	 */
+	public static BoardMap load(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(header, 0);
+			header.flip();
+			if(header.remaining() == 12 && header.getInt(0) == MAGIC) {
+				return readBinary(channel, header, path);
+			}
+		}
+		return parse(Files.readAllLines(path, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Parses a map in the ASCII format
+	 *
+	 * @param lines
+	 * 			The rows of the board, top to bottom
+	 * @return
+	 * 			The map
+	 * @throws IOException if the rows do not form a square of '#' and '.'
+	 */
+	public static BoardMap parse(List<String> lines) throws IOException {
+		List<String> rows = new ArrayList<>();
+		for(String line : lines) {
+			String row = line.strip();
+			if(!row.isEmpty() && row.charAt(0) != COMMENT) {
+				rows.add(row);
+			}
+		}
+		BoardMap map = new BoardMap(Math.max(rows.size(), 1));
+		for(int r = 0; r < rows.size(); r++) {
+			String row = rows.get(r);
+			if(row.length() != rows.size()) {
+				throw new IOException("Row " + r + " has " + row.length() + " cells but the board has " + rows.size() + " rows");
+			}
+			for(int c = 0; c < row.length(); c++) {
+				char cell = row.charAt(c);
+				if(cell == BLOCKED) {
+					map.setBlocked(r, c, true);
+				}
+				else if(cell != OPEN) {
+					throw new IOException("Unexpected character '" + cell + "' in row " + r);
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Saves the map in the binary format
+	 *
+	 * @param path
+	 * 			Where to save the map
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(12 + 8*bits.length).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(size);
+		for(long word : bits) {
+			buf.putLong(word);
+		}
+		buf.flip();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+	}
+
+	/**
+	 * Returns the map in the ASCII format
+	 */
+	public String toAscii() {
+		StringBuilder sb = new StringBuilder(size*(size + 1));
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				sb.append(isBlocked(r, c) ? BLOCKED : OPEN);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of blocked cells
+	 */
+	public int getNumBlocked() {
+		return numBlocked;
+	}
+
+	/**
+	 * Returns the number of open cells
+	 */
+	public int getNumOpen() {
+		return size*size - numBlocked;
+	}
+
+	/**
+	 * Checks if the given row-major cell is blocked
+	 */
+	public boolean isBlocked(int cell) {
+		return (bits[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Checks if the given cell is blocked. Cells off the board count as blocked.
+	 */
+	public boolean isBlocked(int row, int col) {
+		if(row < 0 || row >= size || col < 0 || col >= size) {
+			return true;
+		}
+		return isBlocked(row*size + col);
+	}
+
+	/**
+	 * Checks if the given cell is blocked. Cells off the board count as blocked.
+	 */
+	public boolean isBlocked(Coords cell) {
+		return isBlocked(cell.row, cell.col);
+	}
+
+	/**
+	 * Blocks or opens a cell
+	 */
+	public void setBlocked(int row, int col, boolean blocked) {
+		int cell = row*size + col;
+		if(isBlocked(cell) != blocked) {
+			bits[cell >>> 6] ^= 1L << cell;
+			numBlocked += blocked ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Returns the first open cell in row-major order, or -1 if every cell is blocked
+	 */
+	public int firstOpen() {
+		for(int w = 0; w < bits.length; w++) {
+			if(bits[w] != -1L) {
+				int cell = w*64 + Long.numberOfTrailingZeros(~bits[w]);
+				return cell < size*size ? cell : -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a 64-bit fingerprint of the map, which changes whenever the size or any wall changes
+	 */
+	public long fingerprint() {
+		// FNV-1a over the size and the words of the bitset
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ size)*0x100000001b3L;
+		for(long word : bits) {
+			hash = (hash ^ word)*0x100000001b3L;
+		}
+		return hash;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private static BoardMap readBinary(FileChannel channel, ByteBuffer header, Path path) throws IOException {
+		int version = header.getInt(4);
+		int size = header.getInt(8);
+		if(version != VERSION || size <= 0) {
+			throw new IOException(path + " is not a version " + VERSION + " board map");
+		}
+		BoardMap map = new BoardMap(size);
+		ByteBuffer buf = ByteBuffer.allocate(8*map.bits.length).order(ByteOrder.LITTLE_ENDIAN);
+		long position = 12;
+		while(buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if(n < 0) {
+				throw new IOException(path + " is truncated");
+			}
+			position += n;
+		}
+		buf.flip();
+		for(int w = 0; w < map.bits.length; w++) {
+			map.bits[w] = buf.getLong();
+			map.numBlocked += Long.bitCount(map.bits[w]);
+		}
+		// Bits past the last cell are ignored
+		int used = size*size % 64;
+		if(used != 0) {
+			long tail = map.bits[map.bits.length-1] & -(1L << used);
+			map.numBlocked -= Long.bitCount(tail);
+			map.bits[map.bits.length-1] ^= tail;
+		}
+		return map;
+	}
+}
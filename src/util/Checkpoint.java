@@ -0,0 +1,238 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A snapshot of a filter's state on disk, from which a restarted tracker carries on where it stopped
+ * instead of converging again from the uniform prior. A checkpoint file looks like this:
+ *
+ * 		header:   int magic, int version, int kind, int size, int row, int col, long mapFingerprint,
+ * 		          long rngState, long count, int numInts, int numDoubles  (padded to HEADER_BYTES)
+ * 		ints:     int[numInts]        (padded to a multiple of 8 bytes)
+ * 		doubles:  double[numDoubles]
+ *
+ * all little-endian. What the arrays and count hold depends on the kind, e.g. the belief vector of the
+ * forward algorithm or the cells of the particles. The arrays are written into and read out of a
+ * memory-mapped file with bulk copies, so a belief of 10^7 cells is restored in milliseconds. The whole
+ * file has to fit in a single mapping (2 GB).
+ *
+ * A checkpoint is written to a temporary file that is then moved over the target, so a crash never
+ * leaves a half-written checkpoint behind.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Checkpoint {
+	public static final int MAGIC = 0x50434247;	// "GBCP"
+	public static final int VERSION = 1;
+	public static final int FORWARD = 1;		// doubles = the belief vector
+	public static final int PARTICLES = 2;		// ints = the particles' cells, count = N
+	public static final int COMPRESSED = 3;		// ints = cells then counts, doubles = weights, count = N
+	private static final int HEADER_BYTES = 64;
+
+	private final int kind;
+	private final int size;
+	private final Coords location;
+	private final long mapFingerprint;
+	private final long rngState;
+	private final long count;
+	private int numInts;
+	private int numDoubles;
+	private MappedByteBuffer buf;		// the mapped file, set once the checkpoint is read
+
+	/**
+	 * Describes a checkpoint to be written
+	 *
+	 * @param kind
+	 * 			What the arrays hold, e.g. FORWARD
+	 * @param size
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param location
+	 * 			Pacman's location
+	 * @param mapFingerprint
+	 * 			The fingerprint of the walls of the board, or 0 if it has none
+	 * @param rngState
+	 * 			The state of the filter's random number generator, or 0 if it has none
+	 * @param count
+	 * 			A number whose meaning depends on the kind, e.g. the number of particles
+	 */
+	public Checkpoint(int kind, int size, Coords location, long mapFingerprint, long rngState, long count) {
+		this.kind = kind;
+		this.size = size;
+		this.location = location;
+		this.mapFingerprint = mapFingerprint;
+		this.rngState = rngState;
+		this.count = count;
+	}
+
+	/**
+	 * Writes the checkpoint with the first numInts ints and numDoubles doubles of the given arrays
+	 *
+	 * @param path
+	 * 			Where to write the checkpoint
+	 * @param ints
+	 * 			The int array, or null if numInts is 0
+	 * @param numInts
+	 * 			The number of ints to write
+	 * @param doubles
+	 * 			The double array, or null if numDoubles is 0
+	 * @param numDoubles
+	 * 			The number of doubles to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path path, int[] ints, int numInts, double[] doubles, int numDoubles) throws IOException {
+		long bytes = doublesOffset(numInts) + 8L*numDoubles;
+		if(bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A checkpoint of " + bytes + " bytes does not fit in one mapping");
+		}
+		Path dir = path.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(dir, "checkpoint", ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+				out.order(ByteOrder.LITTLE_ENDIAN);
+				out.putInt(0, MAGIC);
+				out.putInt(4, VERSION);
+				out.putInt(8, kind);
+				out.putInt(12, size);
+				out.putInt(16, location.row);
+				out.putInt(20, location.col);
+				out.putLong(24, mapFingerprint);
+				out.putLong(32, rngState);
+				out.putLong(40, count);
+				out.putInt(48, numInts);
+				out.putInt(52, numDoubles);
+				if(numInts > 0) {
+					out.slice(HEADER_BYTES, 4*numInts).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(ints, 0, numInts);
+				}
+				if(numDoubles > 0) {
+					out.slice((int)doublesOffset(numInts), 8*numDoubles).order(ByteOrder.LITTLE_ENDIAN)
+							.asDoubleBuffer().put(doubles, 0, numDoubles);
+				}
+				out.force();
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads the header of a checkpoint and maps the rest, which readInts() and readDoubles() copy out
+	 *
+	 * @param path
+	 * 			The checkpoint file
+	 * @return
+	 * 			The checkpoint
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a checkpoint");
+			}
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			in.order(ByteOrder.LITTLE_ENDIAN);
+			if(in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+				throw new IOException(path + " is not a version " + VERSION + " checkpoint");
+			}
+			Checkpoint checkpoint = new Checkpoint(in.getInt(8), in.getInt(12), new Coords(in.getInt(16), in.getInt(20)),
+					in.getLong(24), in.getLong(32), in.getLong(40));
+			checkpoint.numInts = in.getInt(48);
+			checkpoint.numDoubles = in.getInt(52);
+			if(checkpoint.numInts < 0 || checkpoint.numDoubles < 0
+					|| doublesOffset(checkpoint.numInts) + 8L*checkpoint.numDoubles != channel.size()) {
+				throw new IOException(path + " is truncated");
+			}
+			checkpoint.buf = in;
+			return checkpoint;
+		}
+	}
+
+	/**
+	 * Checks that the checkpoint is of the given kind and for a board like the given one, and that Pacman's
+	 * location is an open cell of that board
+	 *
+	 * @throws IOException if it is not
+	 */
+	public void check(int kind, int size, BoardMap map) throws IOException {
+		if(this.kind != kind) {
+			throw new IOException("The checkpoint is of kind " + this.kind + ", not " + kind);
+		}
+		if(this.size != size) {
+			throw new IOException("The checkpoint is for a board of size " + this.size + ", not " + size);
+		}
+		if(mapFingerprint != (map == null ? 0L : map.fingerprint())) {
+			throw new IOException("The checkpoint is for a board with different walls");
+		}
+		if(location.row < 0 || location.row >= size || location.col < 0 || location.col >= size
+				|| (map != null && map.isBlocked(location))) {
+			throw new IOException("The checkpoint puts Pacman at " + location + ", which is not an open cell");
+		}
+	}
+
+	/**
+	 * Copies the checkpoint's ints into dst, which must hold getNumInts() of them
+	 */
+	public void readInts(int[] dst) {
+		buf.slice(HEADER_BYTES, 4*numInts).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dst, 0, numInts);
+	}
+
+	/**
+	 * Copies the checkpoint's doubles into dst, which must hold getNumDoubles() of them
+	 */
+	public void readDoubles(double[] dst) {
+		buf.slice((int)doublesOffset(numInts), 8*numDoubles).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer()
+				.get(dst, 0, numDoubles);
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public Coords getLocation() {
+		return location;
+	}
+
+	public long getMapFingerprint() {
+		return mapFingerprint;
+	}
+
+	public long getRngState() {
+		return rngState;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public int getNumInts() {
+		return numInts;
+	}
+
+	public int getNumDoubles() {
+		return numDoubles;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// The doubles start at the first multiple of 8 after the ints
+	private static long doublesOffset(int numInts) {
+		return HEADER_BYTES + ((4L*numInts + 7) & ~7L);
+	}
+}
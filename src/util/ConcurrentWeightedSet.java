@@ -0,0 +1,298 @@
+package util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A WeightedSet that many threads can add weight to at once, e.g. threads that weigh disjoint slices
+ * of the particles or several agents feeding one shared belief.
+ *
+ * Every element's weight is a DoubleAdder, which spreads concurrent additions to the same element over
+ * several cells instead of having every thread fight over one value, so increment() and addEvent() take
+ * no locks. Operations that read the whole set (getSum, normalize, sample, snapshot, clear) briefly
+ * freeze the writers instead: a writer registers itself in one slot of a striped counter before it
+ * touches a weight, and a freeze raises a flag and waits for every slot to drain. The whole-set
+ * operations therefore see every weight as of one instant. Freezes are serialized among themselves.
+ *
+ * getWeight() reads a single element without freezing, so it may see an increment in progress.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class ConcurrentWeightedSet<E> {
+	private static final int PAD = 16;	// one counter per 128 bytes so that slots do not share a cache line
+	private static final int SPINS = 100;	// busy waits before a waiting thread starts yielding
+
+	private final ConcurrentHashMap<E, DoubleAdder> set = new ConcurrentHashMap<>();
+	private final int mask;
+	private final AtomicLongArray writers;	// writers[slot*PAD] = the number of writers in the slot right now
+	private volatile boolean frozen;
+	private final Object freezeLock = new Object();	// held by the one thread freezing the writers
+
+	/**
+	 * Creates a new <em>empty</em> weighted set
+	 */
+	public ConcurrentWeightedSet() {
+		int slots = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())*2 - 1) << 1;
+		mask = slots - 1;
+		writers = new AtomicLongArray(slots*PAD);
+	}
+
+	/**
+	 * Returns the number of elements in the set
+	 */
+	public int numElements() {
+		return set.size();
+	}
+
+	/**
+	 * Adds a new element to the weighted set with the given numerical value. If the weighted set
+	 * previously contained the element, the old value is replaced. An increment of the same element that
+	 * races with this call is applied either before or after the replacement.
+	 *
+	 * @param element
+	 * 				An element to be added to the weighted set
+	 * @param value
+	 * 				The value of the element
+	 */
+	public void addEvent(E element, double value) {
+		DoubleAdder adder = new DoubleAdder();
+		adder.add(value);
+		int slot = enter();
+		try {
+			set.put(element, adder);
+		}
+		finally {
+			exit(slot);
+		}
+	}
+
+	/**
+	 * Increments the value of the element by the given amount. Unlike WeightedSet.increment, an element
+	 * that is not in the set yet is added with the given amount, since with several writers none of them
+	 * can know whether another has added it already.
+	 *
+	 * @param element
+	 * 			An element of the weighted set
+	 *
+	 * @param amount
+	 * 			The amount by which the value of the element is incremented
+	 */
+	public void increment(E element, double amount) {
+		int slot = enter();
+		try {
+			DoubleAdder adder = set.get(element);
+			if(adder == null) {
+				adder = set.computeIfAbsent(element, e -> new DoubleAdder());
+			}
+			adder.add(amount);
+		}
+		finally {
+			exit(slot);
+		}
+	}
+
+	/**
+	 * Checks if the element is contained in the weighted set
+	 */
+	public boolean contains(E element) {
+		return set.containsKey(element);
+	}
+
+	/**
+	 * Returns the weight associated with the given element, or 0.0 if it is not in the set. This does not
+	 * wait for increments of the element that are in progress.
+	 */
+	public double getWeight(E element) {
+		DoubleAdder adder = set.get(element);
+		return adder == null ? 0.0 : adder.sum();
+	}
+
+	/**
+	 * Returns a live view of the elements in the weighted set
+	 */
+	public Set<E> getElements() {
+		return set.keySet();
+	}
+
+	/**
+	 * Returns the sum of all weights as of one instant
+	 */
+	public double getSum() {
+		synchronized(freezeLock) {
+			freeze();
+			try {
+				return sum();
+			}
+			finally {
+				thaw();
+			}
+		}
+	}
+
+	/**
+	 * Removes all elements from the weighted set
+	 */
+	public void clear() {
+		synchronized(freezeLock) {
+			freeze();
+			try {
+				set.clear();
+			}
+			finally {
+				thaw();
+			}
+		}
+	}
+
+	/**
+	 * Normalizes all weights as of one instant
+	 *
+	 * @post The sum of all weights is 1.0, unless they are all 0
+	 */
+	public void normalize() {
+		synchronized(freezeLock) {
+			freeze();
+			try {
+				double sum = sum();
+				if(sum == 0.0) {
+					return;
+				}
+				for(DoubleAdder adder : set.values()) {
+					double prob = adder.sum()/sum;
+					adder.reset();
+					adder.add(prob);
+				}
+			}
+			finally {
+				thaw();
+			}
+		}
+	}
+
+	/**
+	 * Samples an element from the set according to the weights as of one instant. The weights need not
+	 * be normalized.
+	 *
+	 * @return
+	 * 			An element drawn with probability proportional to its weight
+	 * @throws IllegalStateException if every element has weight 0
+	 */
+	public E sample() {
+		synchronized(freezeLock) {
+			freeze();
+			try {
+				double sum = sum();
+				if(sum == 0.0) {
+					throw new IllegalStateException("All elements have weight 0....unable to sample");
+				}
+				double rand = ThreadLocalRandom.current().nextDouble()*sum;
+				double totProb = 0.0;
+				E last = null;
+				for(Map.Entry<E, DoubleAdder> entry : set.entrySet()) {
+					double prob = entry.getValue().sum();
+					totProb += prob;
+					if(prob > 0.0) {
+						last = entry.getKey();
+						if(rand < totProb) {
+							return last;
+						}
+					}
+				}
+				return last; // only reached through rounding
+			}
+			finally {
+				thaw();
+			}
+		}
+	}
+
+	/**
+	 * Copies the weights as of one instant into a plain WeightedSet, e.g. to publish them as a belief
+	 */
+	public WeightedSet<E> snapshot() {
+		WeightedSet<E> copy = new WeightedSet<>();
+		synchronized(freezeLock) {
+			freeze();
+			try {
+				for(Map.Entry<E, DoubleAdder> entry : set.entrySet()) {
+					copy.addEvent(entry.getKey(), entry.getValue().sum());
+				}
+			}
+			finally {
+				thaw();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a String representation of the contents of the weighted set
+	 */
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Registers the calling thread as a writer, waiting out a freeze, and returns the slot it used
+	private int enter() {
+		int slot = (int)(Thread.currentThread().getId()*0x9E3779B9L >>> 16) & mask;
+		for(;;) {
+			writers.incrementAndGet(slot*PAD);
+			if(!frozen) {
+				return slot;
+			}
+			writers.decrementAndGet(slot*PAD);
+			for(int spins = 0; frozen; spins++) {
+				backOff(spins);
+			}
+		}
+	}
+
+	private void exit(int slot) {
+		writers.decrementAndGet(slot*PAD);
+	}
+
+	// Stops new writers and waits for the ones in progress. A writer increments its slot before it
+	// checks the flag and a freeze raises the flag before it reads the slots, so either the writer
+	// sees the flag and backs off or the freeze sees the writer and waits for it.
+	private void freeze() {
+		frozen = true;
+		for(int slot = 0; slot <= mask; slot++) {
+			for(int spins = 0; writers.get(slot*PAD) != 0; spins++) {
+				backOff(spins);
+			}
+		}
+	}
+
+	private void thaw() {
+		frozen = false;
+	}
+
+	// Spins briefly, then gives up the processor in case the thread being waited for is not running
+	private static void backOff(int spins) {
+		if(spins < SPINS) {
+			Thread.onSpinWait();
+		}
+		else {
+			Thread.yield();
+		}
+	}
+
+	private double sum() {
+		double sum = 0.0;
+		for(DoubleAdder adder : set.values()) {
+			sum += adder.sum();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,204 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The length of the shortest path between every pair of open cells of a board, found by a breadth
+ * first search from every open cell. Paths move between horizontally or vertically adjacent open cells,
+ * so on a board without walls this is the Manhattan distance.
+ *
+ * Computing the table takes O(open cells^2) time, so it is cached on disk and memory-mapped. The
+ * cache file is named after the map's fingerprint and looks like this:
+ *
+ * 		header:  int magic, int version, int size, int numOpen, long fingerprint  (padded to HEADER_BYTES)
+ * 		table:   unsigned short distance[numOpen][numOpen], little-endian, UNREACHABLE_CODE if there is no path
+ *
+ * Open cells are numbered in row-major order, skipping the blocked ones. The whole table has to fit
+ * in a single mapping, i.e. boards with up to about 32,000 open cells (e.g. 180x180).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class DistanceTable {
+	public static final int MAGIC = 0x54444247;	// "GBDT"
+	public static final int VERSION = 1;
+	public static final int UNREACHABLE = -1;
+	private static final int HEADER_BYTES = 32;
+	private static final short UNREACHABLE_CODE = (short)0xFFFF;
+
+	private final BoardMap map;
+	private final int numOpen;
+	private final int[] openIndex;		// openIndex[cell] = the cell's number among the open cells, or -1 if blocked
+	private final ShortBuffer table;
+
+	/**
+	 * Loads the table for the given map from the cache directory, computing and caching it first if
+	 * it is not there yet
+	 *
+	 * @param map
+	 * 			The walls of the board
+	 * @param cacheDir
+	 * 			The directory holding cached tables. It is created if it does not exist.
+	 * @return
+	 * 			The distance table
+	 * @throws IOException if the cache cannot be read or written
+	 */
+	public static DistanceTable load(BoardMap map, Path cacheDir) throws IOException {
+		Files.createDirectories(cacheDir);
+		Path path = cacheDir.resolve(String.format("distances-%d-%016x.bin", map.getSize(), map.fingerprint()));
+		if(!Files.exists(path)) {
+			// Write to a temporary file first so that a crash never leaves a half-written table behind
+			Path temp = Files.createTempFile(cacheDir, "distances", ".tmp");
+			try {
+				write(map, temp);
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if(buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+					|| buf.getInt(8) != map.getSize() || buf.getInt(12) != map.getNumOpen() || buf.getLong(16) != map.fingerprint()) {
+				throw new IOException(path + " is not a distance table for this map");
+			}
+			return new DistanceTable(map, buf.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+		}
+	}
+
+	/**
+	 * Computes the table on the heap without caching it
+	 *
+	 * @param map
+	 * 			The walls of the board
+	 * @return
+	 * 			The distance table
+	 */
+	public static DistanceTable compute(BoardMap map) {
+		ByteBuffer buf = ByteBuffer.allocate(tableBytes(map)).order(ByteOrder.LITTLE_ENDIAN);
+		ShortBuffer table = buf.asShortBuffer();
+		fill(map, openIndex(map), table);
+		return new DistanceTable(map, table);
+	}
+
+	private DistanceTable(BoardMap map, ShortBuffer table) {
+		this.map = map;
+		this.numOpen = map.getNumOpen();
+		this.openIndex = openIndex(map);
+		this.table = table;
+	}
+
+	/**
+	 * Returns the map the table was computed for
+	 */
+	public BoardMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Returns the length of the shortest path between two row-major cells
+	 *
+	 * @return
+	 * 			The number of steps, or UNREACHABLE if either cell is blocked or there is no path
+	 */
+	public int distance(int a, int b) {
+		int i = openIndex[a], j = openIndex[b];
+		if(i < 0 || j < 0) {
+			return UNREACHABLE;
+		}
+		short d = table.get(i*numOpen + j);
+		return d == UNREACHABLE_CODE ? UNREACHABLE : d & 0xFFFF;
+	}
+
+	/**
+	 * Returns the length of the shortest path between two cells, or UNREACHABLE
+	 */
+	public int distance(Coords a, Coords b) {
+		int size = map.getSize();
+		return distance(a.row*size + a.col, b.row*size + b.col);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private static int tableBytes(BoardMap map) {
+		long bytes = 2L*map.getNumOpen()*map.getNumOpen();
+		if(bytes > Integer.MAX_VALUE - HEADER_BYTES) {
+			throw new IllegalArgumentException("A board with " + map.getNumOpen() + " open cells is too large for a distance table");
+		}
+		return (int)bytes;
+	}
+
+	private static int[] openIndex(BoardMap map) {
+		int[] index = new int[map.getSize()*map.getSize()];
+		int next = 0;
+		for(int cell = 0; cell < index.length; cell++) {
+			index[cell] = map.isBlocked(cell) ? -1 : next++;
+		}
+		return index;
+	}
+
+	// Computes the table into a new cache file
+	private static void write(BoardMap map, Path path) throws IOException {
+		int bytes = tableBytes(map);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long)bytes);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(0, MAGIC);
+			buf.putInt(4, VERSION);
+			buf.putInt(8, map.getSize());
+			buf.putInt(12, map.getNumOpen());
+			buf.putLong(16, map.fingerprint());
+			fill(map, openIndex(map), buf.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+			buf.force();
+		}
+	}
+
+	// One breadth first search from every open cell, each filling one row of the table
+	private static void fill(BoardMap map, int[] openIndex, ShortBuffer table) {
+		int size = map.getSize();
+		int numOpen = map.getNumOpen();
+		int[] queue = new int[numOpen];
+		int[] dist = new int[size*size];
+		short[] row = new short[numOpen];
+		for(int source = 0; source < dist.length; source++) {
+			if(openIndex[source] < 0) {
+				continue;
+			}
+			Arrays.fill(dist, -1);
+			int head = 0, tail = 0;
+			queue[tail++] = source;
+			dist[source] = 0;
+			while(head < tail) {
+				int cell = queue[head++];
+				int r = cell/size, c = cell%size;
+				int d = dist[cell] + 1;
+				if(r > 0 && dist[cell-size] < 0 && !map.isBlocked(cell-size)) { dist[cell-size] = d; queue[tail++] = cell-size; }
+				if(r < size-1 && dist[cell+size] < 0 && !map.isBlocked(cell+size)) { dist[cell+size] = d; queue[tail++] = cell+size; }
+				if(c > 0 && dist[cell-1] < 0 && !map.isBlocked(cell-1)) { dist[cell-1] = d; queue[tail++] = cell-1; }
+				if(c < size-1 && dist[cell+1] < 0 && !map.isBlocked(cell+1)) { dist[cell+1] = d; queue[tail++] = cell+1; }
+			}
+			for(int cell = 0; cell < dist.length; cell++) {
+				int j = openIndex[cell];
+				if(j >= 0) {
+					row[j] = dist[cell] < 0 ? UNREACHABLE_CODE : (short)dist[cell];
+				}
+			}
+			table.put(openIndex[source]*numOpen, row);
+		}
+	}
+}
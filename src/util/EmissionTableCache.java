@@ -0,0 +1,108 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * An on-disk cache of the sonar's emission table, p(noisy distance | true distance), so that a new
+ * tracker on a board it has seen before reads the table instead of building and checking it again.
+ *
+ * The table is stored banded: each true distance d only produces readings in a window of bandWidth
+ * readings starting at Sonar.getBandStart(d), so row d is stored as those bandWidth probabilities.
+ * A file is kept for every (board size, sonar range, noise model) and looks like this:
+ *
+ * 		header:  int magic, int version, int boardSize, int sonarMax, int noiseModel, int numDistances,
+ * 		         int bandWidth  (padded to HEADER_BYTES)
+ * 		table:   double band[numDistances][bandWidth], little-endian
+ *
+ * Files are written to a temporary file that is then moved into place, so a crash never leaves a
+ * half-written table behind, and read through a memory mapping.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class EmissionTableCache {
+	public static final int MAGIC = 0x43454247;	// "GBEC"
+	public static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+
+	/**
+	 * Returns the banded table for the given key, loading it from the cache directory or, if it is not
+	 * there yet, computing it and saving it there first
+	 *
+	 * @param cacheDir
+	 * 			The directory holding cached tables. It is created if it does not exist.
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonarMax
+	 * 			The greatest amount of noise the sonar adds
+	 * @param noiseModel
+	 * 			The sonar's noise model (Sonar.NOISE_MODEL), so that a change to it does not load old tables
+	 * @param numDistances
+	 * 			The number of rows
+	 * @param bandWidth
+	 * 			The number of entries in every row
+	 * @param compute
+	 * 			Computes the table, numDistances*bandWidth entries in row-major order, on a cache miss
+	 * @return
+	 * 			The table in row-major order
+	 * @throws IOException if the cache cannot be read or written
+	 */
+	public static double[] load(Path cacheDir, int boardSize, int sonarMax, int noiseModel, int numDistances,
+			int bandWidth, Supplier<double[]> compute) throws IOException {
+		long bytes = HEADER_BYTES + 8L*numDistances*bandWidth;
+		if(bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("An emission table of " + bytes + " bytes is too large to cache");
+		}
+		Files.createDirectories(cacheDir);
+		Path path = cacheDir.resolve(String.format("emissions-%d-%d-%d.bin", boardSize, sonarMax, noiseModel));
+		if(!Files.exists(path)) {
+			double[] table = compute.get();
+			if(table.length != numDistances*bandWidth) {
+				throw new IllegalArgumentException("Expected " + numDistances*bandWidth + " entries but got " + table.length);
+			}
+			Path temp = Files.createTempFile(cacheDir, "emissions", ".tmp");
+			try {
+				try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+					buf.order(ByteOrder.LITTLE_ENDIAN);
+					buf.putInt(0, MAGIC);
+					buf.putInt(4, VERSION);
+					buf.putInt(8, boardSize);
+					buf.putInt(12, sonarMax);
+					buf.putInt(16, noiseModel);
+					buf.putInt(20, numDistances);
+					buf.putInt(24, bandWidth);
+					buf.slice(HEADER_BYTES, (int)bytes - HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(table);
+					buf.force();
+				}
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				Files.deleteIfExists(temp);
+			}
+			return table;
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() != bytes) {
+				throw new IOException(path + " is not an emission table for this sonar");
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(8) != boardSize || buf.getInt(12) != sonarMax
+					|| buf.getInt(16) != noiseModel || buf.getInt(20) != numDistances || buf.getInt(24) != bandWidth) {
+				throw new IOException(path + " is not an emission table for this sonar");
+			}
+			double[] table = new double[numDistances*bandWidth];
+			buf.slice(HEADER_BYTES, (int)bytes - HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(table);
+			return table;
+		}
+	}
+}
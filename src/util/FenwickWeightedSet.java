@@ -0,0 +1,243 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A weighted set over the dense integer keys 0..n-1 (e.g. the row-major cells of the board) that can
+ * be updated and sampled in O(log n). The weights are kept in a Fenwick (binary indexed) tree, so that a
+ * prefix sum, and with it a weighted sample, is a single walk down the tree instead of a scan over
+ * every element the way WeightedSet does it.
+ *
+ * The weights are stored unscaled together with one global scale factor. normalize() and scale() only
+ * change the factor, so they cost O(1) no matter how many keys there are.
+ *
+ * Weights must not be negative.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class FenwickWeightedSet {
+	// Past these the scale is folded into the weights so that neither over- nor underflows
+	private static final double MIN_SCALE = 1e-200, MAX_SCALE = 1e200;
+
+	private final int n;
+	private final double[] raw;		// raw[k] * scale is the weight of key k
+	private final double[] tree;	// tree[i] = sum of raw[i - lowbit(i) .. i-1], 1-based
+	private final int topBit;		// the highest power of two <= n
+	private double scale = 1.0;
+
+	/**
+	 * Creates a set in which every key has weight 0
+	 *
+	 * @param n
+	 * 			The number of keys
+	 */
+	public FenwickWeightedSet(int n) {
+		if(n <= 0) {
+			throw new IllegalArgumentException("The set must have at least one key");
+		}
+		this.n = n;
+		this.raw = new double[n];
+		this.tree = new double[n+1];
+		this.topBit = Integer.highestOneBit(n);
+	}
+
+	/**
+	 * Returns the number of keys, n
+	 */
+	public int numKeys() {
+		return n;
+	}
+
+	/**
+	 * Replaces the weight of a key. O(log n)
+	 *
+	 * @param key
+	 * 			A key in [0, n)
+	 * @param value
+	 * 			The new weight
+	 */
+	public void addEvent(int key, double value) {
+		add(key, value/scale - raw[key]);
+	}
+
+	/**
+	 * Increments the weight of a key by the given amount. O(log n)
+	 *
+	 * @param key
+	 * 			A key in [0, n)
+	 * @param amount
+	 * 			The amount by which the weight is incremented
+	 */
+	public void increment(int key, double amount) {
+		add(key, amount/scale);
+	}
+
+	/**
+	 * Replaces every weight at once in O(n), which is cheaper than n calls to addEvent
+	 *
+	 * @param weights
+	 * 			The weight of every key
+	 */
+	public void setAll(double[] weights) {
+		if(weights.length != n) {
+			throw new IllegalArgumentException("Expected " + n + " weights but got " + weights.length);
+		}
+		System.arraycopy(weights, 0, raw, 0, n);
+		scale = 1.0;
+		rebuild();
+	}
+
+	/**
+	 * Returns the weight of a key. O(1)
+	 */
+	public double getWeight(int key) {
+		return raw[key]*scale;
+	}
+
+	/**
+	 * Returns the sum of the weights of the keys 0..key, inclusive. O(log n)
+	 */
+	public double prefixSum(int key) {
+		double sum = 0.0;
+		for(int i = key+1; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum*scale;
+	}
+
+	/**
+	 * Returns the sum of all weights. O(log n)
+	 */
+	public double getSum() {
+		return prefixSum(n-1);
+	}
+
+	/**
+	 * Multiplies every weight by the given factor. O(1)
+	 */
+	public void scale(double factor) {
+		scale *= factor;
+		if(!(scale >= MIN_SCALE && scale <= MAX_SCALE)) {
+			fold();
+		}
+	}
+
+	/**
+	 * Normalizes all weights. O(log n)
+	 *
+	 * @post The sum of all weights is 1.0, unless they are all 0
+	 */
+	public void normalize() {
+		double sum = getSum();
+		if(sum != 0.0) {
+			scale(1.0/sum);
+		}
+	}
+
+	/**
+	 * Sets every weight to 0. O(n)
+	 */
+	public void clear() {
+		Arrays.fill(raw, 0.0);
+		Arrays.fill(tree, 0.0);
+		scale = 1.0;
+	}
+
+	/**
+	 * Samples a key according to the weights. The weights need not be normalized. O(log n)
+	 *
+	 * @return
+	 * 			A key drawn with probability proportional to its weight
+	 * @throws IllegalStateException if every key has weight 0
+	 */
+	public int sample() {
+		return sample(Math.random());
+	}
+
+	/**
+	 * Returns the key at which the cumulative weight first exceeds the fraction u of the total, i.e. a
+	 * sample when u is uniform on [0, 1). Callers with their own random number generator use this. O(log n)
+	 *
+	 * @param u
+	 * 			A number in [0, 1)
+	 * @return
+	 * 			The key whose share of the cumulative weight holds u
+	 * @throws IllegalStateException if every key has weight 0
+	 */
+	public int sample(double u) {
+		double total = 0.0;
+		for(int i = n; i > 0; i -= i & -i) {
+			total += tree[i];
+		}
+		if(total <= 0.0) {
+			throw new IllegalStateException("All elements have weight 0....unable to sample");
+		}
+		// Walk down the tree, skipping every block whose weight lies entirely at or below the target
+		double remaining = u*total;
+		int pos = 0;
+		for(int step = topBit; step > 0; step >>= 1) {
+			int next = pos + step;
+			if(next <= n && tree[next] <= remaining) {
+				pos = next;
+				remaining -= tree[next];
+			}
+		}
+		// Rounding can carry the walk past the last key with weight; step back onto it
+		if(pos >= n) {
+			pos = n-1;
+		}
+		while(raw[pos] == 0.0 && pos > 0) {
+			pos--;
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns a String representation of the non-zero weights
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Total sum: " + getSum() + "\n");
+		for(int k = 0; k < n; k++) {
+			if(raw[k] != 0.0) {
+				sb.append(k).append(": ").append(getWeight(k)).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Adds delta to the raw weight of a key and to every tree node covering it
+	private void add(int key, double delta) {
+		raw[key] += delta;
+		for(int i = key+1; i <= n; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	// Multiplies the scale into the raw weights
+	private void fold() {
+		for(int k = 0; k < n; k++) {
+			raw[k] *= scale;
+		}
+		scale = 1.0;
+		rebuild();
+	}
+
+	// Builds the tree from the raw weights in O(n): each node passes its sum on to its parent
+	private void rebuild() {
+		System.arraycopy(raw, 0, tree, 1, n);
+		tree[0] = 0.0;
+		for(int i = 1; i <= n; i++) {
+			int parent = i + (i & -i);
+			if(parent <= n) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+}
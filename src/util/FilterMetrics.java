@@ -0,0 +1,341 @@
+package util;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-step metrics of a filter: how long update and move take, how much they allocate and how good
+ * the estimate is (entropy, probability of the most likely cell, effective sample size, particle
+ * diversity and the distance from the most likely cell to the ghost).
+ *
+ * Everything is recorded into lock-free counters and histograms, so recording never blocks the
+ * simulation. The metrics can be read through JMX (see FilterMetricsMBean) or printed periodically.
+ *
+ * Metrics are off unless -Dghostbusters.metrics=true is given, in which case fromSystemProperties()
+ * returns an instance; otherwise it returns null and callers skip all measurement.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class FilterMetrics implements FilterMetricsMBean {
+	private static final double FRACTION_SCALE = 1e6;	// fractions are stored in the histograms as parts per million
+
+	private final String name;
+	private final LongAdder steps = new LongAdder();
+	private final Histogram updateNanos = new Histogram();
+	private final Histogram moveNanos = new Histogram();
+	private final Histogram allocatedBytes = new Histogram();
+	private final Histogram entropy = new Histogram();			// millibits
+	private final Histogram mapProbability = new Histogram();	// parts per million
+	private final Histogram mapError = new Histogram();			// cells
+	private final Histogram effectiveSampleSize = new Histogram();
+	private final Histogram distinctParticles = new Histogram();
+	private final Histogram queueDepth = new Histogram();		// readings waiting in an ObservationQueue
+
+	private volatile double lastEntropy;
+	private volatile double lastMapProbability;
+	private volatile double lastEffectiveSampleSize;
+	private volatile long lastDistinctParticles;
+	private volatile long lastQueueDepth;
+	private ScheduledExecutorService dumper;
+	private ObjectName objectName;	// the name registered with JMX, or null
+
+	/**
+	 * Creates a new set of metrics
+	 *
+	 * @param name
+	 * 			A name that identifies the filter in dumps and in JMX
+	 */
+	public FilterMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Creates metrics if they were requested on the command line, registering them with JMX and starting
+	 * a periodic dump if -Dghostbusters.metrics.dumpSeconds=N is given.
+	 *
+	 * @param name
+	 * 			A name that identifies the filter
+	 * @return
+	 * 			The metrics, or null if metrics are disabled
+	 */
+	public static FilterMetrics fromSystemProperties(String name) {
+		if(!Boolean.getBoolean("ghostbusters.metrics")) {
+			return null;
+		}
+		FilterMetrics metrics = new FilterMetrics(name);
+		metrics.register();
+		long seconds = Long.getLong("ghostbusters.metrics.dumpSeconds", 0);
+		if(seconds > 0) {
+			metrics.startDump(seconds*1000, System.out);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as ghostbusters:type=FilterMetrics,name=...
+	 * If other metrics already hold the name (e.g. another filter of the same kind), a suffix -2, -3, ...
+	 * is added. Registering twice does nothing.
+	 */
+	public synchronized void register() {
+		if(objectName != null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for(int n = 1; objectName == null; n++) {
+				ObjectName candidate = new ObjectName("ghostbusters:type=FilterMetrics,name=" + ObjectName.quote(n == 1 ? name : name + "-" + n));
+				try {
+					server.registerMBean(this, candidate);
+					objectName = candidate;
+				}
+				catch (InstanceAlreadyExistsException e) {
+					// taken: try the next suffix
+				}
+			}
+		}
+		catch (JMException e) {
+			System.err.println("FilterMetrics: unable to register " + name + " with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, freeing their name
+	 */
+	public synchronized void unregister() {
+		if(objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (JMException e) {
+			System.err.println("FilterMetrics: unable to unregister " + objectName + " from JMX: " + e.getMessage());
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Returns the name the metrics are registered under in JMX, or null if they are not registered
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+	/**
+	 * Prints dump() every periodMillis on a background thread
+	 */
+	public synchronized void startDump(long periodMillis, PrintStream out) {
+		if(dumper != null) {
+			return;
+		}
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "FilterMetrics-" + name);
+			t.setDaemon(true);
+			return t;
+		});
+		dumper.scheduleAtFixedRate(() -> out.println(dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic dump
+	 */
+	public synchronized void stopDump() {
+		if(dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	/*------------------------------------------------------
+	 * 				RECORDING
+	 *------------------------------------------------------*/
+
+	/**
+	 * Records the cost of one call to Pacman.update
+	 *
+	 * @param nanos
+	 * 			The time taken
+	 * @param bytes
+	 * 			The bytes allocated, or a negative number if the JVM cannot measure allocations
+	 */
+	public void recordUpdate(long nanos, long bytes) {
+		steps.increment();
+		updateNanos.record(nanos);
+		if(bytes >= 0) {
+			allocatedBytes.record(bytes);
+		}
+	}
+
+	/**
+	 * Records the cost of one call to Pacman.move
+	 */
+	public void recordMove(long nanos) {
+		moveNanos.record(nanos);
+	}
+
+	/**
+	 * Records the quality of the belief after an update
+	 *
+	 * @param entropyBits
+	 * 			The entropy of the belief in bits
+	 * @param mapProbability
+	 * 			The probability of the most likely cell
+	 * @param mapError
+	 * 			The Manhattan distance from the most likely cell to the ghost
+	 */
+	public void recordBelief(double entropyBits, double mapProbability, int mapError) {
+		lastEntropy = entropyBits;
+		lastMapProbability = mapProbability;
+		this.entropy.record(Math.round(entropyBits*1000));
+		this.mapProbability.record(Math.round(mapProbability*FRACTION_SCALE));
+		this.mapError.record(mapError);
+	}
+
+	/**
+	 * Records the state of a particle filter after an update
+	 *
+	 * @param effectiveSampleSize
+	 * 			(sum w)^2 / sum w^2 over the particle weights
+	 * @param distinctParticles
+	 * 			The number of distinct cells occupied by particles
+	 */
+	public void recordParticles(double effectiveSampleSize, long distinctParticles) {
+		lastEffectiveSampleSize = effectiveSampleSize;
+		lastDistinctParticles = distinctParticles;
+		this.effectiveSampleSize.record(Math.round(effectiveSampleSize));
+		this.distinctParticles.record(distinctParticles);
+	}
+
+	/**
+	 * Records the number of readings waiting in the observation queue when it is drained
+	 */
+	public void recordQueueDepth(long depth) {
+		lastQueueDepth = depth;
+		queueDepth.record(depth);
+	}
+
+	/*------------------------------------------------------
+	 * 				READING
+	 *------------------------------------------------------*/
+
+	public String getName() {
+		return name;
+	}
+
+	public Histogram getUpdateNanos() {
+		return updateNanos;
+	}
+
+	public Histogram getMapError() {
+		return mapError;
+	}
+
+	@Override
+	public long getSteps() {
+		return steps.sum();
+	}
+
+	@Override
+	public double getMeanUpdateMicros() {
+		return updateNanos.getMean()/1000.0;
+	}
+
+	@Override
+	public double getUpdateP50Micros() {
+		return updateNanos.getValueAtPercentile(50)/1000.0;
+	}
+
+	@Override
+	public double getUpdateP99Micros() {
+		return updateNanos.getValueAtPercentile(99)/1000.0;
+	}
+
+	@Override
+	public double getMeanMoveMicros() {
+		return moveNanos.getMean()/1000.0;
+	}
+
+	@Override
+	public double getMeanAllocatedBytesPerUpdate() {
+		return allocatedBytes.getMean();
+	}
+
+	@Override
+	public double getLastEntropyBits() {
+		return lastEntropy;
+	}
+
+	@Override
+	public double getLastMapProbability() {
+		return lastMapProbability;
+	}
+
+	@Override
+	public double getMeanMapError() {
+		return mapError.getMean();
+	}
+
+	@Override
+	public double getLastEffectiveSampleSize() {
+		return lastEffectiveSampleSize;
+	}
+
+	@Override
+	public long getLastDistinctParticles() {
+		return lastDistinctParticles;
+	}
+
+	@Override
+	public long getLastQueueDepth() {
+		return lastQueueDepth;
+	}
+
+	@Override
+	public long getQueueDepthP99() {
+		return queueDepth.getValueAtPercentile(99);
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder s = new StringBuilder();
+		s.append("FilterMetrics ").append(name).append(": ").append(getSteps()).append(" steps\n");
+		s.append(String.format("  update    p50 %.1f us  p99 %.1f us  mean %.1f us%n", getUpdateP50Micros(),
+				getUpdateP99Micros(), getMeanUpdateMicros()));
+		s.append(String.format("  move      mean %.1f us%n", getMeanMoveMicros()));
+		s.append(String.format("  allocated mean %.0f bytes/update%n", getMeanAllocatedBytesPerUpdate()));
+		s.append(String.format("  entropy   last %.3f bits  mean %.3f bits%n", lastEntropy, entropy.getMean()/1000.0));
+		s.append(String.format("  MAP prob  last %.4f  mean %.4f%n", lastMapProbability, mapProbability.getMean()/FRACTION_SCALE));
+		s.append(String.format("  MAP error mean %.3f  p90 %d  max %d%n", getMeanMapError(), mapError.getValueAtPercentile(90), mapError.getMax()));
+		if(effectiveSampleSize.getCount() > 0) {
+			s.append(String.format("  particles ESS last %.1f  distinct last %d%n", lastEffectiveSampleSize, lastDistinctParticles));
+		}
+		if(queueDepth.getCount() > 0) {
+			s.append(String.format("  queue     depth last %d  p99 %d  max %d%n", lastQueueDepth, getQueueDepthP99(), queueDepth.getMax()));
+		}
+		return s.toString();
+	}
+
+	@Override
+	public void reset() {
+		steps.reset();
+		updateNanos.reset();
+		moveNanos.reset();
+		allocatedBytes.reset();
+		entropy.reset();
+		mapProbability.reset();
+		mapError.reset();
+		effectiveSampleSize.reset();
+		distinctParticles.reset();
+		queueDepth.reset();
+	}
+}
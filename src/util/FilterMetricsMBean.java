@@ -0,0 +1,25 @@
+package util;
+
+/**
+ * The JMX view of FilterMetrics. Times are in microseconds.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public interface FilterMetricsMBean {
+	long getSteps();
+	double getMeanUpdateMicros();
+	double getUpdateP50Micros();
+	double getUpdateP99Micros();
+	double getMeanMoveMicros();
+	double getMeanAllocatedBytesPerUpdate();
+	double getLastEntropyBits();
+	double getLastMapProbability();
+	double getMeanMapError();
+	double getLastEffectiveSampleSize();
+	long getLastDistinctParticles();
+	long getLastQueueDepth();
+	long getQueueDepthP99();
+	String dump();
+	void reset();
+}
@@ -0,0 +1,150 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values in the style of HdrHistogram. Values are
+ * grouped into buckets whose width doubles with every power of two, and each power of two is
+ * split into 2^precisionBits equal sub-buckets. Percentiles are therefore accurate to within a
+ * relative error of 2^-precisionBits while the histogram stays a fixed, small array.
+ *
+ * Any number of threads may record values concurrently.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class Histogram {
+	private final int precisionBits;
+	private final int subBuckets;
+	private final AtomicLongArray counts;
+	private final LongAdder total;
+	private final LongAdder sum;
+	private final LongAccumulator max;
+
+	/**
+	 * Creates a histogram with about 1.5% relative precision
+	 */
+	public Histogram() {
+		this(6);
+	}
+
+	/**
+	 * Creates an empty histogram
+	 *
+	 * @param precisionBits
+	 * 			Each power of two is split into 2^precisionBits sub-buckets
+	 */
+	public Histogram(int precisionBits) {
+		if(precisionBits < 1 || precisionBits > 12) {
+			throw new IllegalArgumentException("precisionBits must be between 1 and 12");
+		}
+		this.precisionBits = precisionBits;
+		this.subBuckets = 1 << precisionBits;
+		this.counts = new AtomicLongArray((64 - precisionBits + 1)*subBuckets);
+		this.total = new LongAdder();
+		this.sum = new LongAdder();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.incrementAndGet(bucket(value));
+		total.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 */
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * Returns the mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = total.sum();
+		return n == 0 ? 0.0 : (double)sum.sum()/n;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns (an upper bound on) the value below which the given percentage of the values fall
+	 *
+	 * @param percentile
+	 * 			A percentage in [0, 100]
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = total.sum();
+		if(n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(percentile/100.0*n));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every value recorded
+	 */
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Values below 2^precisionBits get a bucket each. Above that, the power of two picks the group
+	// and the next precisionBits bits pick the sub-bucket.
+	private int bucket(long value) {
+		if(value < subBuckets) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);		// >= precisionBits
+		int shift = exponent - precisionBits;
+		int sub = (int)(value >>> shift) - subBuckets;				// in [0, subBuckets)
+		return (shift + 1)*subBuckets + sub;
+	}
+
+	// The largest value that falls into the given bucket
+	private long upperBound(int bucket) {
+		if(bucket < subBuckets) {
+			return bucket;
+		}
+		int shift = bucket/subBuckets - 1;
+		long sub = bucket%subBuckets + subBuckets;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,428 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A streaming ingestion stage in front of Pacman.update for sensors that deliver readings in bursts and
+ * out of order. Each reading is tagged with the ghost step it was taken at and the cell it was taken from.
+ * Any number of producer threads offer readings, and the single thread that owns the Pacman drains them in
+ * step order as a Batch, which Pacman.update(Batch) applies in one call. Steps with no reading turn into
+ * prediction-only steps.
+ *
+ * The queue is a bounded ring buffer without locks: a producer claims a slot by advancing the tail with a
+ * compare-and-set, and each slot carries a sequence number that tells the producers whether the consumer
+ * has emptied it and the consumer whether the producer has filled it. When the ring is full offer() fails
+ * and put() waits (spinning, then yielding, then parking), so producers that outrun the filter are slowed
+ * down to its pace instead of piling up readings.
+ *
+ * On the consumer side the readings go into a heap ordered by step and are released once a reading at
+ * least `window` steps newer has arrived, since nothing older is expected after that. Readings of the same
+ * step that are released together (e.g. from several sensors) stay together in the batch, so Pacman can
+ * weigh his belief by all of them at once. A reading for a step that was already released arrives too
+ * late and is dropped.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class ObservationQueue {
+	private static final int SPINS = 100;			// failed offers before put() starts yielding...
+	private static final int YIELDS = 100;			// ...and before it starts parking
+	private static final long PARK_NANOS = 50_000;
+
+	private final int capacity;
+	private final int mask;
+	private final long[] steps;				// the ring: the step, reading and observer's cell in each slot...
+	private final int[] readings;
+	private final int[] observerRows;
+	private final int[] observerCols;
+	private final AtomicLongArray sequence;	// ...and its sequence number: i when free for the i-th offer, i+1 once filled
+	private final AtomicLong tail = new AtomicLong();	// the number of slots claimed by producers
+	private final AtomicLong head = new AtomicLong();	// the number of slots emptied by the consumer
+	private final LongAdder rejected = new LongAdder();	// offers that found the ring full
+	private final int window;
+	private FilterMetrics metrics;
+
+	// Consumer-side state: a min-heap of readings by step, waiting for the window to pass
+	private long[] heapSteps = new long[16];
+	private int[] heapReadings = new int[16];
+	private int[] heapRows = new int[16];
+	private int[] heapCols = new int[16];
+	private int heapSize;
+	private long newest = Long.MIN_VALUE;	// the newest step seen
+	private long released = Long.MIN_VALUE;	// the step of the most recently released reading
+	private long dropped;
+
+	/**
+	 * A run of ghost steps in step order, drained from the queue, each with the readings taken at it
+	 */
+	public static class Batch {
+		private long[] steps = new long[16];
+		private int[] gaps = new int[16];
+		private int[] first = new int[17];	// the readings of the i-th step are first[i] until first[i + 1]
+		private int size;
+		private int[] readings = new int[16];
+		private int[] observerRows = new int[16];
+		private int[] observerCols = new int[16];
+
+		/**
+		 * Returns the number of steps in the batch
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the ghost step at which the i-th step's readings were taken
+		 */
+		public long getStep(int i) {
+			return steps[i];
+		}
+
+		/**
+		 * Returns the number of ghost steps between the previous step with a reading and the i-th (1 if
+		 * no step was missed)
+		 */
+		public int getGap(int i) {
+			return gaps[i];
+		}
+
+		/**
+		 * Returns the number of readings taken at the i-th step, at least 1
+		 */
+		public int getNumReadings(int i) {
+			return first[i + 1] - first[i];
+		}
+
+		/**
+		 * Returns the j-th reading taken at the i-th step
+		 */
+		public int getReading(int i, int j) {
+			return readings[first[i] + j];
+		}
+
+		/**
+		 * Returns the row of the cell the j-th reading of the i-th step was taken from
+		 */
+		public int getObserverRow(int i, int j) {
+			return observerRows[first[i] + j];
+		}
+
+		/**
+		 * Returns the column of the cell the j-th reading of the i-th step was taken from
+		 */
+		public int getObserverCol(int i, int j) {
+			return observerCols[first[i] + j];
+		}
+
+		private void clear() {
+			size = 0;
+		}
+
+		// Starts a new step with no readings
+		private void addStep(long step, int gap) {
+			if(size == steps.length) {
+				steps = Arrays.copyOf(steps, 2*size);
+				gaps = Arrays.copyOf(gaps, 2*size);
+				first = Arrays.copyOf(first, 2*size + 1);
+			}
+			steps[size] = step;
+			gaps[size] = gap;
+			first[size + 1] = first[size];
+			size++;
+		}
+
+		// Adds a reading to the last step
+		private void addReading(int reading, int row, int col) {
+			int n = first[size];
+			if(n == readings.length) {
+				readings = Arrays.copyOf(readings, 2*n);
+				observerRows = Arrays.copyOf(observerRows, 2*n);
+				observerCols = Arrays.copyOf(observerCols, 2*n);
+			}
+			readings[n] = reading;
+			observerRows[n] = row;
+			observerCols[n] = col;
+			first[size]++;
+		}
+	}
+
+	/**
+	 * Creates an empty queue
+	 *
+	 * @param capacity
+	 * 			The number of readings the ring holds before producers are held back, rounded up to a power of 2
+	 * @param window
+	 * 			How many steps a reading may arrive after a newer one and still be used, or 0 if readings
+	 * 			arrive in order
+	 */
+	public ObservationQueue(int capacity, int window) {
+		if(capacity < 1 || capacity > 1 << 30 || window < 0) {
+			throw new IllegalArgumentException("The capacity must be in [1, 2^30] and the window non-negative");
+		}
+		this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.steps = new long[this.capacity];
+		this.readings = new int[this.capacity];
+		this.observerRows = new int[this.capacity];
+		this.observerCols = new int[this.capacity];
+		this.sequence = new AtomicLongArray(this.capacity);
+		for(int i = 0; i < this.capacity; i++) {
+			sequence.set(i, i);
+		}
+		this.window = window;
+	}
+
+	/**
+	 * Records the depth of the queue in the given metrics every time it is drained
+	 *
+	 * @param metrics
+	 * 			The metrics, or null to stop recording
+	 */
+	public void setMetrics(FilterMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/*------------------------------------------------------
+	 * 				PRODUCERS
+	 *------------------------------------------------------*/
+
+	/**
+	 * Adds a reading if there is room. Safe to call from any number of threads.
+	 *
+	 * @param step
+	 * 			The ghost step at which the reading was taken
+	 * @param noisyDistance
+	 * 			The reading
+	 * @param observer
+	 * 			The cell the reading was taken from, e.g. Pacman's location at the time
+	 * @return
+	 * 			False if the queue is full
+	 */
+	public boolean offer(long step, int noisyDistance, Coords observer) {
+		if(tryOffer(step, noisyDistance, observer.row, observer.col)) {
+			return true;
+		}
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Adds a reading, waiting for room if the queue is full
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void put(long step, int noisyDistance, Coords observer) throws InterruptedException {
+		offer(step, noisyDistance, observer, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Adds a reading, waiting up to the given time for room if the queue is full
+	 *
+	 * @return
+	 * 			False if there was still no room when the time ran out
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean offer(long step, int noisyDistance, Coords observer, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if(offer(step, noisyDistance, observer)) {
+			return true;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(int attempt = 0; !tryOffer(step, noisyDistance, observer.row, observer.col); attempt++) {
+			if(Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if(attempt >= SPINS && deadline - System.nanoTime() <= 0) {
+				return false;
+			}
+			if(attempt < SPINS) {
+				Thread.onSpinWait();
+			}
+			else if(attempt < SPINS + YIELDS) {
+				Thread.yield();
+			}
+			else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+		return true;
+	}
+
+	/*------------------------------------------------------
+	 * 				CONSUMER
+	 *------------------------------------------------------*/
+
+	/**
+	 * Takes every reading out of the ring and fills the batch with those whose window has passed, in
+	 * step order. Only one thread may drain the queue.
+	 *
+	 * @param batch
+	 * 			Cleared and filled with the readings that are ready
+	 * @return
+	 * 			The number of steps in the batch
+	 */
+	public int drain(Batch batch) {
+		return release(batch, false);
+	}
+
+	/**
+	 * Like drain, but releases every reading without waiting for the window, e.g. when the sensor stops
+	 */
+	public int flush(Batch batch) {
+		return release(batch, true);
+	}
+
+	/**
+	 * Returns the number of readings in the queue: those in the ring and those waiting to be reordered
+	 */
+	public int getDepth() {
+		// heapSize is the consumer's; read from another thread it may be a step behind
+		return (int)(tail.get() - head.get()) + heapSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns the number of offers and puts that found the queue full
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the number of readings dropped because they arrived after their step was released
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private boolean tryOffer(long step, int noisyDistance, int row, int col) {
+		while(true) {
+			long t = tail.get();
+			int slot = (int)t & mask;
+			long seq = sequence.get(slot);
+			if(seq == t) {
+				if(tail.compareAndSet(t, t + 1)) {
+					steps[slot] = step;
+					readings[slot] = noisyDistance;
+					observerRows[slot] = row;
+					observerCols[slot] = col;
+					sequence.set(slot, t + 1);	// publishes the slot to the consumer
+					return true;
+				}
+			}
+			else if(seq < t) {
+				return false;	// the consumer has not emptied this slot since the last lap: the ring is full
+			}
+			// Otherwise another producer claimed the slot first; try the next one
+		}
+	}
+
+	private int release(Batch batch, boolean all) {
+		if(metrics != null) {
+			metrics.recordQueueDepth(getDepth());
+		}
+		// Move the ring into the heap
+		for(long h = head.get(); ; h++) {
+			int slot = (int)h & mask;
+			if(sequence.get(slot) != h + 1) {
+				head.set(h);
+				break;
+			}
+			long step = steps[slot];
+			int reading = readings[slot];
+			int row = observerRows[slot], col = observerCols[slot];
+			sequence.set(slot, h + capacity);	// hands the slot back to the producers
+			if(step <= released) {
+				dropped++;
+			}
+			else {
+				push(step, reading, row, col);
+				newest = Math.max(newest, step);
+			}
+		}
+
+		batch.clear();
+		while(heapSize > 0 && (all || heapSteps[0] <= newest - window)) {
+			long step = heapSteps[0];
+			int reading = heapReadings[0], row = heapRows[0], col = heapCols[0];
+			pop();
+			if(step != released) {
+				int gap = released == Long.MIN_VALUE ? 1 : (int)Math.min(step - released, Integer.MAX_VALUE);
+				batch.addStep(step, gap);
+				released = step;
+			}
+			// Readings of a step released together are fused into one step of the batch
+			batch.addReading(reading, row, col);
+		}
+		return batch.size;
+	}
+
+	private void push(long step, int reading, int row, int col) {
+		if(heapSize == heapSteps.length) {
+			heapSteps = Arrays.copyOf(heapSteps, 2*heapSize);
+			heapReadings = Arrays.copyOf(heapReadings, 2*heapSize);
+			heapRows = Arrays.copyOf(heapRows, 2*heapSize);
+			heapCols = Arrays.copyOf(heapCols, 2*heapSize);
+		}
+		int i = heapSize++;
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(heapSteps[parent] <= step) {
+				break;
+			}
+			heapSteps[i] = heapSteps[parent];
+			heapReadings[i] = heapReadings[parent];
+			heapRows[i] = heapRows[parent];
+			heapCols[i] = heapCols[parent];
+			i = parent;
+		}
+		heapSteps[i] = step;
+		heapReadings[i] = reading;
+		heapRows[i] = row;
+		heapCols[i] = col;
+	}
+
+	private void pop() {
+		long step = heapSteps[--heapSize];
+		int reading = heapReadings[heapSize], row = heapRows[heapSize], col = heapCols[heapSize];
+		int i = 0;
+		while(true) {
+			int child = 2*i + 1;
+			if(child >= heapSize) {
+				break;
+			}
+			if(child + 1 < heapSize && heapSteps[child + 1] < heapSteps[child]) {
+				child++;
+			}
+			if(heapSteps[child] >= step) {
+				break;
+			}
+			heapSteps[i] = heapSteps[child];
+			heapReadings[i] = heapReadings[child];
+			heapRows[i] = heapRows[child];
+			heapCols[i] = heapCols[child];
+			i = child;
+		}
+		heapSteps[i] = step;
+		heapReadings[i] = reading;
+		heapRows[i] = row;
+		heapCols[i] = col;
+	}
+}
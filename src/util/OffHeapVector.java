@@ -0,0 +1,239 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A vector of doubles, arranged in rows of equal length, stored outside the Java heap in a memory-mapped
+ * scratch file. The garbage collector never scans or copies it, and
+ * its length is not limited by the maximum length of an array, since it is split into segments of at
+ * most SEGMENT_BYTES holding whole rows (so no row straddles two segments).
+ *
+ * Rows are read and written in bulk through on-heap row buffers, which is how the inference kernels
+ * use it: a row is copied in, worked on, and copied back.
+ *
+ * The memory is released by close(), which truncates and deletes the file, so its pages go at once.
+ * Direct buffers are not used: the JVM frees them only once the garbage collector finds them
+ * unreachable, which may be never for a vector that is closed but still referenced. Using the vector
+ * after it is closed throws IllegalStateException.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class OffHeapVector implements Closeable {
+	private static final long SEGMENT_BYTES = 1L << 30;	// the vector is split into segments of at most 1GB
+
+	private final long rows;
+	private final int rowLength;
+	private final int rowsPerSegment;
+	private final Path file;		// the mapped file
+	private FileChannel channel;
+	private DoubleBuffer[] segments;	// null once closed
+
+	/**
+	 * Creates a vector in a new scratch file in java.io.tmpdir, filled with zeros
+	 *
+	 * @param rows
+	 * 			The number of rows
+	 * @param rowLength
+	 * 			The number of doubles in a row
+	 * @return
+	 * 			The vector
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public static OffHeapVector allocate(long rows, int rowLength) throws IOException {
+		return map(Files.createTempFile("offheap", ".bin"), rows, rowLength);
+	}
+
+	/**
+	 * Creates a vector in a memory-mapped file, filled with zeros, replacing any existing file. The file is
+	 * scratch space: it is deleted when the vector is closed.
+	 *
+	 * @param path
+	 * 			Where to put the file
+	 * @param rows
+	 * 			The number of rows
+	 * @param rowLength
+	 * 			The number of doubles in a row
+	 * @return
+	 * 			The vector
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public static OffHeapVector map(Path path, long rows, int rowLength) throws IOException {
+		OffHeapVector vector = new OffHeapVector(rows, rowLength, path);
+		vector.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			long position = 0;
+			for(int i = 0; i < vector.segments.length; i++) {
+				long length = vector.segmentRows(i)*rowLength*Double.BYTES;
+				ByteBuffer buffer = vector.channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+				vector.segments[i] = buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				position += length;
+			}
+		}
+		catch(IOException e) {
+			vector.close();
+			throw e;
+		}
+		return vector;
+	}
+
+	private OffHeapVector(long rows, int rowLength, Path file) {
+		if(rows <= 0 || rowLength <= 0) {
+			throw new IllegalArgumentException("A vector must have at least one row and one column");
+		}
+		long rowBytes = (long)rowLength*Double.BYTES;
+		if(rowBytes > SEGMENT_BYTES) {
+			throw new IllegalArgumentException("A row of " + rowLength + " doubles does not fit in a segment");
+		}
+		this.rows = rows;
+		this.rowLength = rowLength;
+		this.rowsPerSegment = (int)(SEGMENT_BYTES/rowBytes);
+		this.file = file;
+		this.segments = new DoubleBuffer[(int)((rows + rowsPerSegment - 1)/rowsPerSegment)];
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public int getRowLength() {
+		return rowLength;
+	}
+
+	/**
+	 * Returns the number of doubles in the vector
+	 */
+	public long length() {
+		return rows*rowLength;
+	}
+
+	public boolean isClosed() {
+		return segments == null;
+	}
+
+	/**
+	 * Copies part of a row into dst
+	 *
+	 * @param row
+	 * 			The row
+	 * @param from
+	 * 			The first column to copy
+	 * @param dst
+	 * 			Where to copy the values
+	 * @param offset
+	 * 			The position in dst of the first value
+	 * @param n
+	 * 			The number of values
+	 */
+	public void readRow(long row, int from, double[] dst, int offset, int n) {
+		segment(row).get(position(row) + from, dst, offset, n);
+	}
+
+	/**
+	 * Copies src into part of a row
+	 *
+	 * @param row
+	 * 			The row
+	 * @param from
+	 * 			The first column to overwrite
+	 * @param src
+	 * 			The values
+	 * @param offset
+	 * 			The position in src of the first value
+	 * @param n
+	 * 			The number of values
+	 */
+	public void writeRow(long row, int from, double[] src, int offset, int n) {
+		segment(row).put(position(row) + from, src, offset, n);
+	}
+
+	/**
+	 * Sets the columns [from, to) of a row to the given value
+	 */
+	public void fillRow(long row, int from, int to, double value) {
+		DoubleBuffer segment = segment(row);
+		int start = position(row);
+		for(int c = from; c < to; c++) {
+			segment.put(start + c, value);
+		}
+	}
+
+	public double get(long row, int col) {
+		return segment(row).get(position(row) + col);
+	}
+
+	public void set(long row, int col, double value) {
+		segment(row).put(position(row) + col, value);
+	}
+
+	/**
+	 * Sets every entry to the given value
+	 */
+	public void fill(double value) {
+		double[] buffer = new double[rowLength];
+		Arrays.fill(buffer, value);
+		for(long r = 0; r < rows; r++) {
+			writeRow(r, 0, buffer, 0, rowLength);
+		}
+	}
+
+	/**
+	 * Releases the memory: the file is truncated, which drops its pages even while the mapping is still
+	 * reachable, and deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		segments = null;
+		if(channel != null) {
+			try {
+				channel.truncate(0);
+			}
+			catch(IOException e) {
+				// Some systems cannot truncate a file that is still mapped; deleting it releases the space
+			}
+			try {
+				channel.close();
+			}
+			finally {
+				channel = null;
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	// Returns the segment holding the given row
+	private DoubleBuffer segment(long row) {
+		if(segments == null) {
+			throw new IllegalStateException("The vector has been closed");
+		}
+		if(row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+		}
+		return segments[(int)(row/rowsPerSegment)];
+	}
+
+	// The position of the row within its segment, in doubles
+	private int position(long row) {
+		return (int)(row % rowsPerSegment)*rowLength;
+	}
+
+	// The number of rows in the given segment
+	private long segmentRows(int segment) {
+		return Math.min(rowsPerSegment, rows - (long)segment*rowsPerSegment);
+	}
+}
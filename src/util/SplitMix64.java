@@ -0,0 +1,95 @@
+package util;
+
+/**
+ * The SplitMix64 random number generator: a 64-bit counter stepped by the golden ratio and scrambled
+ * by a mixing function. It is the generator inside java.util.SplittableRandom, but its whole state is
+ * a single long that can be read and written, so a checkpoint can store it and a restored filter
+ * continues with exactly the same random numbers.
+ *
+ * Not thread-safe.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class SplitMix64 {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	private long state;
+
+	/**
+	 * Creates a generator with a seed that differs from run to run
+	 */
+	public SplitMix64() {
+		this(mix(System.nanoTime()) ^ mix(System.identityHashCode(new Object())));
+	}
+
+	/**
+	 * Creates a generator with the given seed
+	 */
+	public SplitMix64(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * Returns the generator's state, from which setState() resumes the same sequence
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Resumes the sequence from a state returned by getState()
+	 */
+	public void setState(long state) {
+		this.state = state;
+	}
+
+	/**
+	 * Returns a uniformly distributed long
+	 */
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	/**
+	 * Returns a uniformly distributed int in [0, bound)
+	 *
+	 * @param bound
+	 * 			The upper bound, which must be positive
+	 */
+	public int nextInt(int bound) {
+		if(bound <= 0) {
+			throw new IllegalArgumentException("The bound must be positive");
+		}
+		// Multiply a 32-bit draw by the bound and keep the high word, rejecting the few draws that would
+		// make some results more likely than others (Lemire's method)
+		long product = (nextLong() >>> 32)*bound;
+		if((product & 0xFFFFFFFFL) < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while((product & 0xFFFFFFFFL) < threshold) {
+				product = (nextLong() >>> 32)*bound;
+			}
+		}
+		return (int)(product >>> 32);
+	}
+
+	/**
+	 * Returns a uniformly distributed double in [0, 1)
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11)*DOUBLE_UNIT;
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,138 @@
+package util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace written by TraceWriter one record at a time.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TraceReader implements Closeable {
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int boardSize;
+	private final int sonarRange;
+	private final boolean beliefs;
+	private final long numSteps;
+
+	/**
+	 * Opens a trace and reads its header
+	 *
+	 * @param path
+	 * 			The trace file
+	 * @throws IOException if the file cannot be read or is not a trace
+	 */
+	public TraceReader(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.limit(0);
+
+		if(!fill(TraceWriter.HEADER_BYTES) || buffer.getInt() != TraceWriter.MAGIC) {
+			channel.close();
+			throw new IOException(path + " is not a trace file");
+		}
+		short version = buffer.getShort();
+		if(version != TraceWriter.VERSION) {
+			channel.close();
+			throw new IOException("Unsupported trace version " + version);
+		}
+		this.beliefs = (buffer.getShort() & TraceWriter.FLAG_BELIEFS) != 0;
+		this.boardSize = buffer.getInt();
+		this.sonarRange = buffer.getInt();
+
+		long recordBytes = TraceWriter.RECORD_BYTES + (beliefs ? (long)boardSize*boardSize*Double.BYTES : 0);
+		this.numSteps = (channel.size() - TraceWriter.HEADER_BYTES)/recordBytes;
+	}
+
+	public int getBoardSize() {
+		return boardSize;
+	}
+
+	public int getSonarRange() {
+		return sonarRange;
+	}
+
+	/**
+	 * Checks if the records contain belief snapshots
+	 */
+	public boolean hasBeliefs() {
+		return beliefs;
+	}
+
+	/**
+	 * Returns the number of complete records in the trace
+	 */
+	public long getNumSteps() {
+		return numSteps;
+	}
+
+	/**
+	 * Reads the next record into the given record
+	 *
+	 * @param record
+	 * 			The record to fill in. Its belief array is allocated on first use and then reused.
+	 * @return
+	 * 			False if there are no more records, true otherwise
+	 * @throws IOException if the trace cannot be read or ends in the middle of a record
+	 */
+	public boolean next(TraceRecord record) throws IOException {
+		if(!fill(TraceWriter.RECORD_BYTES)) {
+			return false;
+		}
+		record.step = buffer.getInt();
+		record.ghost.row = buffer.getShort();
+		record.ghost.col = buffer.getShort();
+		record.pacman.row = buffer.getShort();
+		record.pacman.col = buffer.getShort();
+		record.noisyDistance = buffer.getInt();
+
+		if(beliefs) {
+			int cells = boardSize*boardSize;
+			if(record.belief == null || record.belief.length != cells) {
+				record.belief = new double[cells];
+			}
+			int offset = 0;
+			while(offset < cells) {
+				if(!fill(Double.BYTES)) {
+					throw new EOFException("Trace ends in the middle of step " + record.step);
+				}
+				int n = Math.min(buffer.remaining()/Double.BYTES, cells - offset);
+				buffer.asDoubleBuffer().get(record.belief, offset, n);
+				buffer.position(buffer.position() + n*Double.BYTES);
+				offset += n;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// Makes sure at least the given number of bytes are buffered. Returns false at the end of the file.
+	private boolean fill(int bytes) throws IOException {
+		if(buffer.remaining() >= bytes) {
+			return true;
+		}
+		buffer.compact();
+		while(buffer.position() < bytes) {
+			if(channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+}
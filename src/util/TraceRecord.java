@@ -0,0 +1,23 @@
+package util;
+
+/**
+ * A single step of a recorded run: where the ghost and Pacman were, the noisy distance the sonar
+ * reported, and (optionally) Pacman's belief after the update.
+ *
+ * Records are reused by TraceReader, so copy anything you want to keep.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TraceRecord {
+	public int step;
+	public Coords ghost = new Coords(0, 0);
+	public Coords pacman = new Coords(0, 0);	// Pacman's location when the reading was taken
+	public int noisyDistance;
+	public double[] belief;						// null unless the trace contains belief snapshots
+
+	@Override
+	public String toString() {
+		return "step " + step + ": ghost " + ghost + ", pacman " + pacman + ", reading " + noisyDistance;
+	}
+}
@@ -0,0 +1,137 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a run to a compact binary trace file. The file starts with a fixed header followed by one
+ * fixed-size record per step:
+ *
+ * 		header:  int magic, short version, short flags, int boardSize, int sonarRange
+ * 		record:  int step, short ghostRow, short ghostCol, short pacmanRow, short pacmanCol, int noisyDistance
+ * 		         [double belief[boardSize*boardSize] if FLAG_BELIEFS is set]
+ *
+ * Everything is little-endian. Records are staged in a direct buffer and written to the channel in
+ * large blocks, so recording does not slow down the simulation.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class TraceWriter implements Closeable {
+	public static final int MAGIC = 0x52544247;	// "GBTR"
+	public static final short VERSION = 1;
+	public static final short FLAG_BELIEFS = 1;
+	public static final int HEADER_BYTES = 16;
+	public static final int RECORD_BYTES = 16;	// not counting the belief snapshot
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final boolean beliefs;
+	private final int cells;
+	private int step;
+
+	/**
+	 * Creates a new trace file, replacing any existing file
+	 *
+	 * @param path
+	 * 			Where to write the trace
+	 * @param boardSize
+	 * 			The size of the grid (e.g. 10 rows/columns)
+	 * @param sonarRange
+	 * 			The greatest amount of noise the sonar adds to a reading
+	 * @param beliefs
+	 * 			True if each record should include a snapshot of Pacman's belief
+	 * @throws IOException if the file cannot be created
+	 */
+	public TraceWriter(Path path, int boardSize, int sonarRange, boolean beliefs) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		this.beliefs = beliefs;
+		this.cells = boardSize*boardSize;
+		this.step = 0;
+
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort(beliefs ? FLAG_BELIEFS : 0);
+		buffer.putInt(boardSize);
+		buffer.putInt(sonarRange);
+	}
+
+	/**
+	 * Appends one step to the trace
+	 *
+	 * @param ghost
+	 * 			The ghost's location
+	 * @param pacman
+	 * 			Pacman's location when the reading was taken
+	 * @param noisyDistance
+	 * 			The noisy distance reported by the sonar
+	 * @param belief
+	 * 			Pacman's belief after the update as a row-major vector; ignored unless the trace records beliefs
+	 * @throws IOException if the trace cannot be written
+	 */
+	public void write(Coords ghost, Coords pacman, int noisyDistance, double[] belief) throws IOException {
+		ensure(RECORD_BYTES);
+		buffer.putInt(step++);
+		buffer.putShort((short)ghost.row);
+		buffer.putShort((short)ghost.col);
+		buffer.putShort((short)pacman.row);
+		buffer.putShort((short)pacman.col);
+		buffer.putInt(noisyDistance);
+
+		if(beliefs) {
+			if(belief == null || belief.length < cells) {
+				throw new IllegalArgumentException("Expected a belief over " + cells + " cells");
+			}
+			// Large beliefs do not fit in the buffer, so they are copied over in buffer-sized chunks
+			int offset = 0;
+			while(offset < cells) {
+				ensure(Double.BYTES);
+				int n = Math.min(buffer.remaining()/Double.BYTES, cells - offset);
+				buffer.asDoubleBuffer().put(belief, offset, n);
+				buffer.position(buffer.position() + n*Double.BYTES);
+				offset += n;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of steps written so far
+	 */
+	public int getNumSteps() {
+		return step;
+	}
+
+	/**
+	 * Writes any buffered records to disk
+	 *
+	 * @throws IOException if the trace cannot be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	// Makes room for at least the given number of bytes
+	private void ensure(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+}
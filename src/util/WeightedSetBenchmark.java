@@ -0,0 +1,113 @@
+package util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how ConcurrentWeightedSet scales with the number of threads adding weight to one belief,
+ * against a WeightedSet behind a lock. Every thread increments random cells of a board while one more
+ * thread reads the total every millisecond, which freezes the writers each time, and at the end the
+ * total is checked against the number of increments.
+ *
+ * Usage: java util.WeightedSetBenchmark [boardSize] [incrementsPerThread]
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/18/26
+ */
+public class WeightedSetBenchmark {
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+	public static void main(String[] args) throws InterruptedException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int increments = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		Coords[] cells = new Coords[size*size];
+		for(int i = 0; i < cells.length; i++) {
+			cells[i] = new Coords(i/size, i%size);
+		}
+
+		System.out.printf("%d cells, %d increments per thread, %d cores%n", cells.length, increments,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%7s %16s %16s %9s %8s%n", "threads", "locked Mops/s", "striped Mops/s", "speedup", "freezes");
+		for(int threads : THREADS) {
+			WeightedSet<Coords> plain = new WeightedSet<>();
+			for(Coords c : cells) {
+				plain.addEvent(c, 0.0);
+			}
+			double locked = run(threads, increments, cells, (c, w) -> {
+				synchronized(plain) {
+					plain.increment(c, w);
+				}
+			}, () -> {
+				synchronized(plain) {
+					plain.getWeight(cells[0]);
+				}
+			});
+
+			ConcurrentWeightedSet<Coords> striped = new ConcurrentWeightedSet<>();
+			long[] freezes = new long[1];
+			double concurrent = run(threads, increments, cells, striped::increment, () -> {
+				striped.getSum();
+				freezes[0]++;
+			});
+			double expected = (double)threads*increments;
+			if(striped.getSum() != expected) {
+				throw new IllegalStateException("Lost increments: " + striped.getSum() + " != " + expected);
+			}
+			System.out.printf("%7d %16.1f %16.1f %8.2fx %8d%n", threads, locked, concurrent, concurrent/locked, freezes[0]);
+		}
+	}
+
+	private interface Writer {
+		void increment(Coords cell, double amount);
+	}
+
+	// Returns millions of increments per second
+	private static double run(int threads, int increments, Coords[] cells, Writer writer, Runnable reader)
+			throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			long seed = 0x9E3779B97F4A7C15L*(t + 1);
+			workers[t] = new Thread(() -> {
+				long x = seed;
+				try {
+					start.await();
+				}
+				catch(InterruptedException e) {
+					return;
+				}
+				for(int i = 0; i < increments; i++) {
+					// xorshift, so that drawing the cell costs next to nothing
+					x ^= x << 13;
+					x ^= x >>> 7;
+					x ^= x << 17;
+					writer.increment(cells[(int)((x >>> 1) % cells.length)], 1.0);
+				}
+			});
+			workers[t].start();
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		Thread monitor = new Thread(() -> {
+			while(!done.get()) {
+				reader.run();
+				try {
+					Thread.sleep(1);
+				}
+				catch(InterruptedException e) {
+					return;
+				}
+			}
+		});
+		monitor.start();
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		long nanos = System.nanoTime() - begin;
+		done.set(true);
+		monitor.join();
+		return (double)threads*increments/nanos*1000.0;
+	}
+}
@@ -0,0 +1,67 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.Coords;
+import util.ObservationQueue;
+import util.RandomWalk;
+
+/**
+ * Checks that Pacman.update(Batch) weighs each reading against the cell it was taken from, and fuses
+ * the readings of one step into a single update, against a dense forward pass with GridModel.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class BatchUpdateTest {
+	private static final int SIZE = 9;
+	private static final int STEPS = 30;
+
+	public static void testForwardFusesReadingsFromTheirObservers() {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 46, true);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		GridModel model = new GridModel(SIZE, sonar);
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		ObservationQueue queue = new ObservationQueue(64, 0);
+		ObservationQueue.Batch batch = new ObservationQueue.Batch();
+
+		double[] expected = new double[SIZE*SIZE], scratch = new double[SIZE*SIZE];
+		model.uniform(expected);
+		Coords corner = new Coords(SIZE - 1, 0);
+		for(int t = 0; t < STEPS; t++) {
+			// The walk's readings are taken along its path while pacman.location stays at (0, 0), and a
+			// second sensor in the corner hears the ghost at every other step
+			int second = sonar.getNoisyDistance(walk.ghost(t), corner);
+			queue.offer(t, walk.readings[t], walk.pacman(t));
+			if(t % 2 == 0) {
+				queue.offer(t, second, corner);
+			}
+			queue.drain(batch);
+			pacman.update(batch);
+
+			model.predict(expected, scratch);
+			double sum = model.weigh(scratch, walk.pacmanCells[t], walk.readings[t]);
+			if(t % 2 == 0) {
+				sum = model.weigh(scratch, model.index(corner), second);
+			}
+			GridModel.scale(scratch, sum);
+			double[] swap = expected; expected = scratch; scratch = swap;
+			assertClose(expected, pacman.getBeliefVector(null), 1e-10, "belief at step " + t);
+		}
+	}
+
+	public static void testReadingsElsewhereAreRejectedWhereUnsupported() {
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		PacmanFixedLagSmoother pacman = new PacmanFixedLagSmoother(SIZE, new BufferedImage[4], sonar, 2);
+		assertThrows(UnsupportedOperationException.class,
+				() -> pacman.update(new int[] {3, 4}, new int[] {0, 1}, 2, 1), "two readings of one step");
+		assertThrows(UnsupportedOperationException.class,
+				() -> pacman.update(new int[] {3}, new int[] {5}, 1, 1), "a reading away from Pacman");
+		assertThrows(IllegalArgumentException.class,
+				() -> pacman.update(new int[] {3}, new int[] {SIZE*SIZE}, 1, 1), "a reading off the board");
+	}
+}
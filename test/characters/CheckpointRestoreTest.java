@@ -0,0 +1,142 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import graphics.Sonar;
+import util.Checkpoint;
+import util.Coords;
+import util.RandomWalk;
+
+/**
+ * Checks that a restored filter carries on exactly like the one that was saved, and that a bad
+ * checkpoint is rejected without touching the filter.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class CheckpointRestoreTest {
+	private static final int SIZE = 9;
+	private static final int STEPS = 30;
+
+	public static void testForwardContinuesAfterRestore() throws Exception {
+		assertContinues(() -> new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], new Sonar(SIZE, 2)), 0.0);
+	}
+
+	public static void testParticlesContinueAfterRestore() throws Exception {
+		assertContinues(() -> new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), 300, false), 0.0);
+	}
+
+	public static void testCompressedParticlesContinueAfterRestore() throws Exception {
+		assertContinues(() -> new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), 5000, true), 0.0);
+	}
+
+	public static void testForwardRejectsRegionOffTheBoard() throws Exception {
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], new Sonar(SIZE, 2));
+		double[] belief = new double[SIZE*SIZE];
+		belief[0] = 1.0;
+		assertRejected(pacman, new Checkpoint(Checkpoint.FORWARD, SIZE, new Coords(0, 0), 0, 0, 0),
+				new int[] {0, SIZE, 0, 0}, belief);
+	}
+
+	public static void testForwardRejectsMassOutsideRegion() throws Exception {
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], new Sonar(SIZE, 2));
+		double[] belief = new double[SIZE*SIZE];
+		belief[SIZE*SIZE - 1] = 1.0;
+		assertRejected(pacman, new Checkpoint(Checkpoint.FORWARD, SIZE, new Coords(0, 0), 0, 0, 0),
+				new int[] {0, 1, 0, 1}, belief);
+	}
+
+	public static void testParticlesRejectCellOffTheBoard() throws Exception {
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), 20, false);
+		int[] cells = new int[20];
+		cells[19] = SIZE*SIZE;
+		assertRejected(pacman, new Checkpoint(Checkpoint.PARTICLES, SIZE, new Coords(0, 0), 0, 0, 20), cells, new double[] {20});
+	}
+
+	public static void testCompressedRejectsDuplicateCell() throws Exception {
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), 20, true);
+		int[] ints = {4, 4, 10, 10};	// two tuples for cell 4, holding 10 particles each
+		assertRejected(pacman, new Checkpoint(Checkpoint.COMPRESSED, SIZE, new Coords(0, 0), 0, 0, 20), ints, new double[] {1, 1, 20});
+	}
+
+	public static void testCompressedRejectsCellOffTheBoard() throws Exception {
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), 20, true);
+		int[] ints = {-1, 4, 10, 10};
+		assertRejected(pacman, new Checkpoint(Checkpoint.COMPRESSED, SIZE, new Coords(0, 0), 0, 0, 20), ints, new double[] {1, 1, 20});
+	}
+
+	public static void testRejectsPacmanOffTheBoard() throws Exception {
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], new Sonar(SIZE, 2));
+		double[] belief = new double[SIZE*SIZE];
+		belief[0] = 1.0;
+		assertRejected(pacman, new Checkpoint(Checkpoint.FORWARD, SIZE, new Coords(SIZE, 0), 0, 0, 0),
+				new int[] {0, 0, 0, 0}, belief);
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private interface Factory {
+		Pacman create();
+	}
+
+	// Runs one filter straight through and another that is checkpointed halfway and restored into a fresh
+	// Pacman, and checks that both end with the same belief
+	private static void assertContinues(Factory factory, double tolerance) throws Exception {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 31, true);
+		Pacman straight = factory.create(), saved = factory.create();
+		Path file = Files.createTempFile("checkpoint", ".bin");
+		try {
+			Pacman restored = null;
+			for(int t = 0; t < STEPS; t++) {
+				if(t == STEPS/2) {
+					// the two filters drew different random numbers so far, so restart the straight one from the checkpoint too
+					saved.checkpoint(file);
+					straight.restore(file);
+					restored = factory.create();
+					restored.restore(file);
+				}
+				for(Pacman pacman : restored == null ? new Pacman[] {straight} : new Pacman[] {straight, restored}) {
+					pacman.location = walk.pacman(t);
+					pacman.update(walk.readings[t]);
+				}
+				if(restored == null) {
+					saved.location = walk.pacman(t);
+					saved.update(walk.readings[t]);
+				}
+			}
+			assertClose(straight.getBeliefVector(null), restored.getBeliefVector(null), tolerance, "belief after restoring");
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	// Writes a checkpoint with the given arrays and checks that restoring it throws and changes nothing
+	private static void assertRejected(Pacman pacman, Checkpoint checkpoint, int[] ints, double[] doubles) throws Exception {
+		RandomWalk walk = new RandomWalk(SIZE, 5, 32, false);
+		for(int t = 0; t < 5; t++) {
+			pacman.update(walk.readings[t]);
+		}
+		double[] before = pacman.getBeliefVector(null);
+		Coords location = new Coords(pacman.getLocation().row, pacman.getLocation().col);
+		Path file = Files.createTempFile("checkpoint", ".bin");
+		try {
+			checkpoint.write(file, ints, ints.length, doubles, doubles.length);
+			assertThrows(java.io.IOException.class, () -> pacman.restore(file), "restoring a bad checkpoint");
+			assertClose(before, pacman.getBeliefVector(null), 0.0, "belief after a rejected checkpoint");
+			assertTrue(location.equals(pacman.getLocation()), "location after a rejected checkpoint");
+			// and the filter still works
+			pacman.update(walk.readings[4]);
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.Coords;
+import util.RandomWalk;
+
+/**
+ * Checks the expected information gain read from the banded CPT against the mutual information
+ * computed from the dense emission table over every cell of the predicted belief.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class InformationGainPolicyTest {
+	private static final int SIZE = 11;
+
+	public static void testGainMatchesTheDenseTable() {
+		RandomWalk walk = new RandomWalk(SIZE, 12, 44, true);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		for(int t = 0; t < walk.readings.length; t++) {
+			pacman.location = walk.pacman(t);
+			pacman.update(walk.readings[t]);
+		}
+
+		InformationGainPolicy policy = new InformationGainPolicy(SIZE, sonar);
+		List<Coords> candidates = Arrays.asList(new Coords(0, 0), new Coords(5, 5), new Coords(10, 3), new Coords(2, 9));
+		policy.choose(pacman, candidates);
+
+		double[] predicted = new double[SIZE*SIZE];
+		new GridModel(SIZE, sonar).predict(pacman.getBeliefVector(null), predicted);
+		for(Coords candidate : candidates) {
+			assertEquals(denseGain(sonar, predicted, candidate), policy.expectedGain(candidate), 1e-9,
+					"gain at " + candidate.row + "," + candidate.col);
+		}
+	}
+
+	// I(G; E) = H(E) - H(E | G), with every row of the CPT taken from getEmissionTable()
+	private static double denseGain(Sonar sonar, double[] predicted, Coords from) {
+		double[] pe = null;
+		double conditional = 0.0;
+		for(int i = 0; i < predicted.length; i++) {
+			if(predicted[i] == 0.0) {
+				continue;
+			}
+			double[] row = sonar.getEmissionTable(sonar.manhattanDistance(from, new Coords(i/SIZE, i%SIZE)));
+			if(pe == null) {
+				pe = new double[row.length];
+			}
+			for(int e = 0; e < row.length; e++) {
+				pe[e] += predicted[i]*row[e];
+				if(row[e] > 0.0) {
+					conditional -= predicted[i]*row[e]*Math.log(row[e]);
+				}
+			}
+		}
+		double marginal = 0.0;
+		for(double p : pe) {
+			if(p > 0.0) {
+				marginal -= p*Math.log(p);
+			}
+		}
+		return marginal - conditional;
+	}
+}
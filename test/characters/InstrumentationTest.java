@@ -0,0 +1,48 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import util.Coords;
+import util.FilterMetrics;
+import util.RandomWalk;
+import util.WeightedSet;
+
+/**
+ * Checks the entropy and the probability of the most likely cell that Instrumentation records against
+ * the same quantities computed from getBelief().
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class InstrumentationTest {
+	private static final int SIZE = 9;
+
+	public static void testBeliefMetricsMatchTheWeightedSet() {
+		RandomWalk walk = new RandomWalk(SIZE, 15, 31, true);
+		Pacman pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, RandomWalk.SONAR_RANGE), 500, false);
+		FilterMetrics metrics = new FilterMetrics("InstrumentationTest");
+		for(int t = 0; t < walk.readings.length; t++) {
+			pacman.location = walk.pacman(t);
+			Instrumentation.update(pacman, walk.readings[t], walk.ghost(t), metrics);
+
+			WeightedSet<Coords> belief = pacman.getBelief();
+			double total = 0.0, entropy = 0.0, highest = 0.0;
+			for(Coords cell : belief.getElements()) {
+				total += belief.getWeight(cell);
+			}
+			for(Coords cell : belief.getElements()) {
+				double p = belief.getWeight(cell)/total;
+				if(p > 0.0) {
+					entropy -= p*Math.log(p)/Math.log(2);
+				}
+				highest = Math.max(highest, p);
+			}
+			assertEquals(entropy, metrics.getLastEntropyBits(), 1e-9, "entropy after step " + t);
+			assertEquals(highest, metrics.getLastMapProbability(), 1e-12, "MAP probability after step " + t);
+		}
+		assertEquals(walk.readings.length, metrics.getSteps(), "steps recorded");
+	}
+}
@@ -0,0 +1,55 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import graphics.Sonar;
+import util.Coords;
+
+/**
+ * Checks the search against the greedy move on beliefs that leave no doubt: with an exact sonar, four
+ * readings from the corners pin the ghost to one cell next to Pacman, where the only good move is onto
+ * it. Runs on one thread, which searches in the calling thread, and on two, which share out the trees.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class MctsPolicyTest {
+	private static final int SIZE = 11;
+	private static final int[] CORNERS = {0, SIZE - 1, SIZE*(SIZE - 1), SIZE*SIZE - 1};
+	private static final int ITERATIONS = 500;
+	private static final long BUDGET_NANOS = 10000000000L;	// long enough that every iteration runs
+
+	public static void testMovesOntoAKnownGhost() {
+		Sonar sonar = new Sonar(SIZE, 0);
+		Coords[] starts = {new Coords(5, 5), new Coords(0, 0), new Coords(10, 4), new Coords(3, 10)};
+		for(int threads = 1; threads <= 2; threads++) {
+			try(MctsPolicy policy = new MctsPolicy(SIZE, sonar, threads, ITERATIONS, BUDGET_NANOS)) {
+				for(Coords start : starts) {
+					PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+					pacman.location = start;
+					List<Coords> neighbors = pacman.getLegalNeighbors(start);
+					for(int k = 0; k < neighbors.size(); k++) {
+						locate(pacman, neighbors.get(k));
+						String label = "ghost at " + neighbors.get(k).row + "," + neighbors.get(k).col + " on " + threads + " threads";
+						assertEquals(k, pacman.greedy(neighbors), "greedy move with the " + label);
+						assertEquals(k, policy.choose(pacman, neighbors), "planned move with the " + label);
+						assertEquals(threads*ITERATIONS, policy.getLastIterations(), "iterations with the " + label);
+					}
+				}
+			}
+		}
+	}
+
+	// Leaves all of pacman's belief on the given cell
+	private static void locate(PacmanForwardAlgorithm pacman, Coords ghost) {
+		int[] readings = new int[CORNERS.length];
+		for(int j = 0; j < CORNERS.length; j++) {
+			readings[j] = Math.abs(ghost.row - CORNERS[j]/SIZE) + Math.abs(ghost.col - CORNERS[j]%SIZE);
+		}
+		pacman.update(readings, CORNERS, readings.length, 1);
+		assertEquals(1.0, pacman.getBeliefVector(null)[ghost.row*SIZE + ghost.col], 1e-12, "belief on the located ghost");
+	}
+}
@@ -0,0 +1,68 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import graphics.Sonar;
+import util.Coords;
+import util.RandomWalk;
+import util.WeightedSet;
+
+/**
+ * Checks that PacmanFixedLagSmoother publishes the same belief as PacmanForwardAlgorithm, both as a
+ * vector and as a WeightedSet, and that an update does not allocate.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanFixedLagSmootherTest {
+	private static final int SIZE = 12;
+
+	public static void testPublishesTheForwardBelief() {
+		RandomWalk walk = new RandomWalk(SIZE, 40, 21, true);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		PacmanForwardAlgorithm forward = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		PacmanFixedLagSmoother smoother = new PacmanFixedLagSmoother(SIZE, new BufferedImage[4], sonar, 2);
+		double[] expected = null, actual = null;
+		for(int t = 0; t < walk.readings.length; t++) {
+			forward.location = walk.pacman(t);
+			smoother.location = walk.pacman(t);
+			forward.update(walk.readings[t]);
+			smoother.update(walk.readings[t]);
+			expected = forward.getBeliefVector(expected);
+			actual = smoother.getBeliefVector(actual);
+			assertClose(expected, actual, 1e-12, "belief vector at step " + t);
+			// ties between cells may be broken either way, so compare probabilities rather than cells
+			Coords best = smoother.mostLikely();
+			assertEquals(expected[forward.mostLikely().row*SIZE + forward.mostLikely().col], actual[best.row*SIZE + best.col],
+					1e-12, "probability of the most likely cell at step " + t);
+			double[] top = new double[5], topExpected = new double[5];
+			forward.topCells(5, topExpected);
+			smoother.topCells(5, top);
+			assertClose(topExpected, top, 1e-12, "probabilities of the top cells at step " + t);
+		}
+		WeightedSet<Coords> belief = smoother.getBelief();
+		for(int i = 0; i < SIZE*SIZE; i++) {
+			assertEquals(expected[i], belief.getWeight(new Coords(i/SIZE, i%SIZE)), 1e-12, "published weight of cell " + i);
+		}
+	}
+
+	public static void testUpdateDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		RandomWalk walk = new RandomWalk(SIZE, 200, 22, false);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		PacmanFixedLagSmoother smoother = new PacmanFixedLagSmoother(SIZE, new BufferedImage[4], sonar, 3);
+		for(int t = 0; t < 100; t++) {
+			smoother.update(walk.readings[t]);
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for(int t = 100; t < 200; t++) {
+			smoother.update(walk.readings[t]);
+		}
+		long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+		// a WeightedSet rebuild would allocate a Coords and a Double per cell, about 5 KB a step here
+		assertTrue(bytes < 100*64, "100 updates allocated " + bytes + " bytes");
+	}
+}
@@ -0,0 +1,89 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.RandomWalk;
+
+/**
+ * Checks the convergence-aware mode against the dense prediction and the scalar emission: a stationary
+ * ghost read from each corner in turn is tracked with full updates until the belief settles, then with
+ * the emission alone, and a surprising reading sends the next update back through the prediction.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanForwardAlgorithmTest {
+	private static final int SIZE = 11;
+	private static final int[] CORNERS = {0, SIZE - 1, SIZE*(SIZE - 1), SIZE*SIZE - 1};
+	private static final double THRESHOLD = 0.2;	// in bits: a full update keeps spreading the belief by a step of the ghost
+	private static final int PATIENCE = 3;
+	private static final int MAX_STEPS = 40;
+
+	public static void testConvergenceSkipsPredictionsUntilASurprise() {
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		GridModel model = new GridModel(SIZE, sonar);
+		PacmanForwardAlgorithm pacman = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		pacman.setConvergence(THRESHOLD, PATIENCE);
+		pacman.setStationaryGhost(true);
+		Random rng = new Random(32);
+		int ghost = 3*SIZE + 7;
+
+		// Full updates until the belief has been stable for PATIENCE steps, then the emission alone
+		int t = 0;
+		do {
+			assertTrue(t < MAX_STEPS, "no prediction skipped in " + MAX_STEPS + " steps");
+			t++;
+		} while(!update(pacman, model, CORNERS[t % 4], read(ghost, CORNERS[t % 4], rng), "update " + t));
+		assertTrue(t > PATIENCE, "predictions skipped from update " + t);
+		for(int s = t + 1; s <= t + 20; s++) {
+			assertTrue(update(pacman, model, CORNERS[s % 4], read(ghost, CORNERS[s % 4], rng), "update " + s),
+					"prediction of update " + s + " not skipped");
+		}
+
+		// A reading 3 over the truth is beyond the sonar's noise, so all but impossible under the belief
+		int observer = CORNERS[0];
+		assertTrue(update(pacman, model, observer, distance(ghost, observer) + 3, "surprising update"),
+				"prediction of the surprising update not skipped");
+		assertTrue(!update(pacman, model, observer, read(ghost, observer, rng), "update after the surprise"),
+				"prediction skipped after the surprise");
+	}
+
+	// A noisy reading of the ghost from the observer
+	private static int read(int ghost, int observer, Random rng) {
+		int noise = rng.nextInt(2*RandomWalk.SONAR_RANGE + 1) - RandomWalk.SONAR_RANGE;
+		return Math.max(0, distance(ghost, observer) + noise);
+	}
+
+	private static int distance(int a, int b) {
+		return Math.abs(a/SIZE - b/SIZE) + Math.abs(a%SIZE - b%SIZE);
+	}
+
+	// Updates pacman, checks the result against the scalar emission of the dense prediction, or of the
+	// old belief if the prediction was skipped, and returns true if it was
+	private static boolean update(PacmanForwardAlgorithm pacman, GridModel model, int observer, int reading, String label) {
+		double[] expected = pacman.getBeliefVector(null);
+		long skipped = pacman.getSkippedPredictions();
+		pacman.update(new int[] {reading}, new int[] {observer}, 1, 1);
+		boolean skip = pacman.getSkippedPredictions() > skipped;
+		assertEquals(skip ? skipped + 1 : skipped, pacman.getSkippedPredictions(), "skipped predictions after the " + label);
+
+		if(!skip) {
+			double[] prior = expected;
+			expected = new double[prior.length];
+			model.predict(prior, expected);
+		}
+		double sum = model.weighScalar(expected, observer, reading);
+		if(sum == 0.0) {
+			model.uniform(expected);
+			sum = model.weighScalar(expected, observer, reading);
+		}
+		GridModel.scale(expected, sum);
+		assertClose(expected, pacman.getBeliefVector(null), 1e-9, "belief after the " + label);
+		return skip;
+	}
+}
@@ -0,0 +1,52 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import util.Coords;
+
+/**
+ * Concentrates the hybrid's belief on a board large enough for particles to be cheaper than a sweep,
+ * checks that it switches to particles and back, and that the belief after each switch is the one the
+ * forward algorithm holds.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanHybridTest {
+	private static final int SIZE = 400;
+
+	public static void testSwitchesBothWaysAndKeepsTheBelief() {
+		Sonar sonar = new Sonar(SIZE, 2);
+		PacmanHybrid hybrid = new PacmanHybrid(SIZE, new BufferedImage[4], sonar);
+		PacmanForwardAlgorithm forward = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		assertTrue(hybrid.isExact(), "the uniform prior is held exactly");
+
+		// A ghost right next to Pacman leaves a few dozen cells of support out of 160000; the first sparse
+		// steps are decided on the costs timed at creation, later ones also on a timed particle step
+		Coords middle = new Coords(SIZE/2, SIZE/2);
+		int step = 0;
+		while(hybrid.isExact() && step < 40) {
+			update(hybrid, forward, middle, 1);
+			step++;
+		}
+		assertTrue(!hybrid.isExact(), "still exact after " + step + " steps with a concentrated belief");
+		assertEquals(1, hybrid.getNumSwitches(), "switches to particles");
+		assertClose(forward.getBeliefVector(null), hybrid.getBeliefVector(null), 0.02, "belief after switching to particles");
+
+		// A reading no particle can explain sends the hybrid back to the exact belief, which starts over
+		// from the prior just as the forward algorithm does
+		update(hybrid, forward, new Coords(0, 0), 0);
+		assertTrue(hybrid.getNumSwitches() >= 2, "switches after an impossible reading: " + hybrid.getNumSwitches());
+		assertClose(forward.getBeliefVector(null), hybrid.getBeliefVector(null), 0.02, "belief after switching back");
+	}
+
+	private static void update(Pacman hybrid, Pacman forward, Coords location, int reading) {
+		hybrid.location = location;
+		forward.location = location;
+		hybrid.update(reading);
+		forward.update(reading);
+	}
+}
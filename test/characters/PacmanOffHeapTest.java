@@ -0,0 +1,64 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import graphics.Sonar;
+import util.RandomWalk;
+
+/**
+ * Checks PacmanOffHeap against PacmanForwardAlgorithm on the same readings, and that close() deletes
+ * the files holding the belief.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanOffHeapTest {
+	private static final int SIZE = 13;
+
+	public static void testMatchesTheForwardAlgorithm() throws Exception {
+		RandomWalk walk = new RandomWalk(SIZE, 40, 50, true);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		PacmanForwardAlgorithm forward = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		try(PacmanOffHeap offHeap = new PacmanOffHeap(SIZE, new BufferedImage[4], sonar)) {
+			for(int t = 0; t < walk.readings.length; t++) {
+				forward.location = walk.pacman(t);
+				offHeap.location = walk.pacman(t);
+				if(t % 7 == 6) {
+					forward.update(walk.readings[t], 3);
+					offHeap.update(walk.readings[t], 3);
+				}
+				else {
+					forward.update(walk.readings[t]);
+					offHeap.update(walk.readings[t]);
+				}
+				assertClose(forward.getBeliefVector(null), offHeap.getBeliefVector(null), 1e-12, "belief at step " + t);
+			}
+			assertClose(forward.getMoments(), offHeap.getMoments(), 1e-9, "moments");
+		}
+	}
+
+	public static void testCloseDeletesTheFiles() throws Exception {
+		Path directory = Files.createTempDirectory("offheap-test");
+		try {
+			PacmanOffHeap pacman = new PacmanOffHeap(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), directory);
+			assertEquals(2, count(directory), "files while open");
+			pacman.close();
+			assertEquals(0, count(directory), "files after close");
+			assertThrows(IllegalStateException.class, () -> pacman.update(3), "an update after close");
+		}
+		finally {
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	private static long count(Path directory) throws Exception {
+		try(Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+}
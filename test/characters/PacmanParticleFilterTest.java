@@ -0,0 +1,120 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import graphics.Sonar;
+import inference.GridModel;
+import util.Coords;
+
+/**
+ * Checks the Coords versions of weight() and resample() against the emission model and the weights
+ * they are given, and a multi-step predict() against the same number of one-step moves.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanParticleFilterTest {
+	private static final int SIZE = 10;
+	private static final int N = 50;
+
+	public static void testWeightIsTheEmissionProbability() {
+		Sonar sonar = new Sonar(SIZE, 2);
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], sonar, N, false);
+		Coords[] samples = samples();
+		Coords where = new Coords(3, 4);
+		double[] weights = pacman.weight(samples, 6, where);
+		for(int i = 0; i < N; i++) {
+			int d = sonar.manhattanDistance(where, samples[i]);
+			assertEquals(sonar.getEmissionTable(d)[6], weights[i], 0.0, "weight of sample " + i);
+		}
+	}
+
+	public static void testResampleDrawsFromTheGivenWeights() {
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), N, false);
+		Coords[] samples = samples();
+		Coords[] original = samples.clone();
+		double[] weights = new double[N];
+		weights[7] = 0.25;
+		weights[31] = 0.75;
+		// resample is called without weight() first: it must only depend on its arguments
+		pacman.resample(samples, weights);
+		int seven = 0;
+		for(int i = 0; i < N; i++) {
+			assertTrue(samples[i] == original[7] || samples[i] == original[31], "sample " + i + " has weight 0");
+			if(samples[i] == original[7]) {
+				seven++;
+			}
+		}
+		assertTrue(seven > 0 && seven < 3*N/5, seven + " of " + N + " samples drawn from a quarter of the weight");
+	}
+
+	public static void testResampleKeepsSamplesWhenNoWeight() {
+		PacmanParticleFilter pacman = new PacmanParticleFilter(SIZE, new BufferedImage[4], new Sonar(SIZE, 2), N, false);
+		Coords[] samples = samples();
+		Coords[] original = samples.clone();
+		pacman.resample(samples, new double[N]);
+		for(int i = 0; i < N; i++) {
+			assertTrue(samples[i] == original[i], "sample " + i + " was replaced");
+		}
+	}
+
+	public static void testKernelStepsMatchOneStepMoves() {
+		// From the middle of the board the particles take all the steps in one draw from the kernel
+		assertPredictMatches(41, new Coords(20, 20), 6);
+	}
+
+	public static void testEdgeStepsMatchOneStepMoves() {
+		// From a corner no particle can use the kernel, so they move one step at a time
+		assertPredictMatches(41, new Coords(0, 0), 6);
+	}
+
+	public static void testGapLongerThanTheBoard() {
+		// No particle is ever 5000 steps from an edge: the 10001 x 10001 kernel must not be built
+		int size = 9, steps = 5000;
+		Sonar sonar = new Sonar(size, 2);
+		PacmanParticleFilter pacman = new PacmanParticleFilter(size, new BufferedImage[4], sonar, 20000, false);
+		pacman.predict(steps);
+		assertEquals(20000, pacman.getNumParticles(), "particles after the gap");
+
+		// The walk has long since mixed: each cell holds mass in proportion to its number of moves
+		GridModel model = new GridModel(size, sonar);
+		double[] stationary = new double[size*size];
+		double total = 0.0;
+		for(int c = 0; c < stationary.length; c++) {
+			stationary[c] = model.numMoves(c);
+			total += stationary[c];
+		}
+		GridModel.scale(stationary, total);
+		assertClose(stationary, pacman.getBeliefVector(null), 0.1, "belief after " + steps + " steps");
+	}
+
+	// Puts every particle on the start cell with an exact reading, then predicts the given number of steps
+	// and compares the particle histogram with that many dense one-step predictions
+	private static void assertPredictMatches(int size, Coords start, int steps) {
+		Sonar sonar = new Sonar(size, 0);
+		PacmanParticleFilter pacman = new PacmanParticleFilter(size, new BufferedImage[4], sonar, 200000, false);
+		pacman.location = start;
+		pacman.update(0);
+		assertEquals(1, pacman.getNumDistinctParticles(), "cells occupied after an exact reading");
+
+		pacman.predict(steps);
+		GridModel model = new GridModel(size, sonar);
+		double[] exact = new double[size*size], next = new double[size*size];
+		exact[model.index(start)] = 1.0;
+		for(int k = 0; k < steps; k++) {
+			model.predict(exact, next);
+			double[] swap = exact; exact = next; next = swap;
+		}
+		assertClose(exact, pacman.getBeliefVector(null), 0.04, steps + " steps from " + start.row + "," + start.col);
+	}
+
+	private static Coords[] samples() {
+		Coords[] samples = new Coords[N];
+		for(int i = 0; i < N; i++) {
+			samples[i] = new Coords((i*7) % SIZE, (i*3) % SIZE);
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,70 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import graphics.Sonar;
+import util.RandomWalk;
+
+/**
+ * Checks PacmanQuadtree against PacmanForwardAlgorithm on the same readings. A coarse leaf spreads its
+ * mass evenly, so the two differ slightly: most at the first step, where the dense prediction already
+ * piles mass up along the edges of the board, and less once the readings have split the tree around
+ * the ghost. The queries answered on the leaves must match the tree's own dense belief.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class PacmanQuadtreeTest {
+	private static final int SIZE = 24;
+	private static final int STEPS = 60;
+	private static final int SETTLED = 20;		// steps after which the tree has been refined around the ghost
+
+	public static void testStaysCloseToTheForwardAlgorithm() {
+		for(long seed = 1; seed <= 5; seed++) {
+			RandomWalk walk = new RandomWalk(SIZE, STEPS, seed, true);
+			Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+			PacmanForwardAlgorithm forward = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+			PacmanQuadtree tree = new PacmanQuadtree(SIZE, new BufferedImage[4], sonar);
+			for(int t = 0; t < STEPS; t++) {
+				forward.location = walk.pacman(t);
+				tree.location = walk.pacman(t);
+				forward.update(walk.readings[t]);
+				tree.update(walk.readings[t]);
+				double bound = t < SETTLED ? 0.03 : 0.005;
+				assertClose(forward.getBeliefVector(null), tree.getBeliefVector(null), bound, "seed " + seed + ", step " + t);
+			}
+		}
+	}
+
+	public static void testLeafQueriesMatchTheDenseBelief() {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 6, true);
+		PacmanQuadtree tree = new PacmanQuadtree(SIZE, new BufferedImage[4], new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+		for(int t = 0; t < STEPS; t++) {
+			tree.location = walk.pacman(t);
+			tree.update(walk.readings[t]);
+		}
+		double[] dense = tree.getBeliefVector(null);
+
+		double[] sorted = dense.clone();
+		Arrays.sort(sorted);
+		int k = 8;
+		double[] expected = new double[k], actual = new double[k];
+		for(int i = 0; i < k; i++) {
+			expected[i] = sorted[sorted.length - 1 - i];
+		}
+		int[] cells = tree.topCells(k, actual);
+		assertClose(expected, actual, 1e-12, "probabilities of the top cells");
+		for(int i = 0; i < k; i++) {
+			assertEquals(dense[cells[i]], actual[i], 1e-12, "probability of top cell " + i);
+		}
+
+		double covered = 0;
+		for(int cell : tree.credibleRegion(0.9)) {
+			covered += dense[cell];
+		}
+		assertTrue(covered >= 0.9 - 1e-9, "mass of the 90% credible region is " + covered);
+	}
+}
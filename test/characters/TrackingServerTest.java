@@ -0,0 +1,116 @@
+package characters;
+
+import static util.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import graphics.Sonar;
+import util.Coords;
+import util.RandomWalk;
+
+/**
+ * Runs sessions against a server on the loopback interface and checks every answer against a filter
+ * fed the same readings in this thread, including two sessions at once, and that refused requests come
+ * back as error frames without ending the session.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class TrackingServerTest {
+	private static final int SIZE = 11;
+
+	public static void testSessionMatchesALocalFilter() throws Exception {
+		try(TrackingServer server = new TrackingServer(0, 2, 32)) {
+			server.start();
+			track(server.getPort(), 47);
+		}
+	}
+
+	public static void testConcurrentSessionsAreIndependent() throws Exception {
+		try(TrackingServer server = new TrackingServer(0, 2, 32)) {
+			server.start();
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread[] sessions = new Thread[2];
+			for(int s = 0; s < sessions.length; s++) {
+				long seed = 48 + s;
+				sessions[s] = new Thread(() -> {
+					try {
+						track(server.getPort(), seed);
+					}
+					catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+				sessions[s].start();
+			}
+			for(Thread session : sessions) {
+				session.join();
+			}
+			if(failure.get() != null) {
+				throw new AssertionError("a session failed", failure.get());
+			}
+		}
+	}
+
+	public static void testRefusedRequestsAreErrorFrames() throws Exception {
+		try(TrackingServer server = new TrackingServer(0, 1, 32);
+				TrackingClient client = new TrackingClient(server.getPort())) {
+			server.start();
+			assertThrows(IOException.class, () -> client.predict(1), "predict before a filter is open");
+			assertThrows(IOException.class, () -> client.open(33, "forward"), "a board larger than the server allows");
+			assertThrows(IOException.class, () -> client.open(SIZE, "abacus"), "an unknown kind of filter");
+			client.open(SIZE, "forward");
+			int maxSteps = TrackingServer.STEPS_PER_ROW*32;
+			assertThrows(IOException.class, () -> client.predict(maxSteps + 1), "a gap longer than the limit");
+			assertThrows(IOException.class, () -> client.update(3, maxSteps + 1), "a reading after too long a gap");
+			assertThrows(IOException.class, () -> client.update(3, 0), "a reading after no steps");
+			assertThrows(IOException.class, () -> client.topK(0, null), "k of 0");
+
+			// The session is still usable after every refusal
+			client.predict(maxSteps);
+			assertEquals(SIZE*SIZE, client.belief().length, "cells of the belief");
+		}
+	}
+
+	// Opens a session, feeds it a random walk and checks MAP, TOP_K, BELIEF and STATS against a local filter
+	private static void track(int port, long seed) throws IOException {
+		RandomWalk walk = new RandomWalk(SIZE, 30, seed, false);
+		Pacman local = TraceReplay.createPacman("forward", SIZE, new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+		try(TrackingClient client = new TrackingClient(port)) {
+			client.open(SIZE, "forward");
+			int requests = 1;
+			for(int t = 0; t < walk.readings.length; t++) {
+				int steps = 1 + t % 3;
+				client.update(walk.readings[t], steps);
+				local.update(walk.readings[t], steps);
+				requests++;
+			}
+
+			double[] expected = local.getBeliefVector(null);
+			assertClose(expected, client.belief(), 1e-5, "belief of session " + seed);
+			requests++;
+
+			double[] probability = new double[1];
+			int best = local.topCells(1, probability)[0];
+			Coords map = client.mostLikely();
+			assertEquals(best, map.row*SIZE + map.col, "most likely cell of session " + seed);
+			requests++;
+
+			double[] expectedTop = new double[5], top = new double[5];
+			int[] cells = local.topCells(5, expectedTop);
+			List<Coords> answer = client.topK(5, top);
+			assertEquals(cells.length, answer.size(), "cells in the top 5 of session " + seed);
+			for(int i = 0; i < cells.length; i++) {
+				assertEquals(expectedTop[i], top[i], 1e-12, "probability of cell " + i + " of the top 5");
+				assertEquals(expectedTop[i], expected[answer.get(i).row*SIZE + answer.get(i).col], 1e-12, "cell " + i + " of the top 5");
+			}
+			requests++;
+
+			long[] stats = client.stats();
+			assertTrue(stats[0] >= requests, stats[0] + " requests counted, " + requests + " sent");
+			assertTrue(stats[1] <= stats[2] && stats[2] <= stats[3] && stats[3] <= stats[4], "latency percentiles out of order");
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package graphics;
+
+import static util.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Checks the banded CPT, both through likelihood() and through the full rows of getEmissionTable(),
+ * against a dense table built straight from the noise model, and checks that a cached table loads
+ * back unchanged.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class SonarTest {
+
+	public static void testBandedTableMatchesDenseTable() {
+		for(int size : new int[] {1, 2, 3, 10, 31}) {
+			for(int range : new int[] {0, 1, 2, 4}) {
+				Sonar sonar = new Sonar(size, range);
+				assertMatches(denseTable(size, range), sonar, "size " + size + ", range " + range);
+			}
+		}
+	}
+
+	public static void testCachedTableMatchesDenseTable() throws Exception {
+		Path cache = Files.createTempDirectory("sonar-test");
+		try {
+			new Sonar(17, 2, cache);			// computes and saves the table
+			Sonar loaded = new Sonar(17, 2, cache);
+			assertMatches(denseTable(17, 2), loaded, "cached table");
+		}
+		finally {
+			try(Stream<Path> files = Files.list(cache)) {
+				files.forEach(file -> file.toFile().delete());
+			}
+			Files.delete(cache);
+		}
+	}
+
+	private static void assertMatches(double[][] expected, Sonar sonar, String message) {
+		int n = expected.length;
+		assertEquals(n, sonar.getNumDistances(), message + ": number of distances");
+		for(int d = 0; d < n; d++) {
+			double[] row = sonar.getEmissionTable(d);
+			int start = sonar.getBandStart(d);
+			for(int e = 0; e < n; e++) {
+				assertEquals(expected[d][e], sonar.likelihood(d, e), 1e-15, message + ": p(" + e + " | " + d + ")");
+				assertEquals(expected[d][e], row[e], 1e-15, message + ": row " + d + ", reading " + e);
+				if(e < start || e >= start + sonar.getBandWidth()) {
+					assertEquals(0.0, expected[d][e], 0.0, message + ": reading " + e + " outside the band of " + d);
+				}
+			}
+		}
+	}
+
+	// p(reading | distance d): noise k in [-range, range] with weight 2^(range - |k|), readings clamped to the board
+	private static double[][] denseTable(int size, int range) {
+		int n = 2*size - 1;
+		double normalizer = 0;
+		for(int k = -range; k <= range; k++) {
+			normalizer += Math.pow(2, range - Math.abs(k));
+		}
+		double[][] table = new double[n][n];
+		for(int d = 0; d < n; d++) {
+			for(int k = -range; k <= range; k++) {
+				int e = Math.min(Math.max(d + k, 0), n - 1);
+				table[d][e] += Math.pow(2, range - Math.abs(k))/normalizer;
+			}
+		}
+		return table;
+	}
+}
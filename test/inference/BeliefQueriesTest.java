@@ -0,0 +1,175 @@
+package inference;
+
+import static util.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the top k cells and the credible regions against a sort of the whole belief, for dense and
+ * sparse beliefs on both sides of the size where the credible region switches from a heapsort to radix
+ * selection. The beliefs are random, tied (a few distinct weights), uniform (every candidate shares all
+ * 64 bits, which ends the radix passes early) and empty.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class BeliefQueriesTest {
+	private static final int SMALL_SIZE = 40;		// 1600 cells, below BeliefQueries.SMALL
+	private static final int LARGE_SIZE = 100;		// 10000 cells, above it
+	private static final int[] KS = {1, 5, 100, 20000};
+	private static final double[] MASSES = {0.0, 0.3, 0.9, 0.99, 1.0};
+
+	private enum Kind { RANDOM, TIED, UNIFORM, ZERO }
+
+	public static void testDenseQueriesMatchASort() {
+		Random rng = new Random(48);
+		for(int size : new int[] {SMALL_SIZE, LARGE_SIZE}) {
+			BeliefQueries queries = new BeliefQueries(size);
+			ActiveRegion full = new ActiveRegion(size), part = new ActiveRegion(size);
+			full.setFull(size);
+			part.set(3, size - 8, 5, size - 2);
+			for(ActiveRegion area : new ActiveRegion[] {full, part}) {
+				for(Kind kind : Kind.values()) {
+					double[] v = new double[size*size];
+					int[] cells = new int[(int) area.getNumCells()];
+					int n = 0;
+					for(int r = area.getRowMin(); r <= area.getRowMax(); r++) {
+						for(int c = area.getColMin(); c <= area.getColMax(); c++) {
+							cells[n++] = r*size + c;
+						}
+					}
+					double[] weights = weights(kind, n, rng);
+					for(int i = 0; i < n; i++) {
+						v[cells[i]] = weights[i];
+					}
+					String label = kind + " belief on " + area + " of a " + size + " board";
+					for(int k : KS) {
+						double[] probabilities = new double[k];
+						checkTopK(cells, weights, n, k, queries.topK(v, area, k, probabilities), probabilities, label);
+					}
+					for(double mass : MASSES) {
+						checkRegion(cells, weights, n, mass, queries.credibleRegion(v, area, mass), label);
+					}
+				}
+			}
+		}
+	}
+
+	public static void testSparseQueriesMatchASort() {
+		Random rng = new Random(49);
+		BeliefQueries queries = new BeliefQueries(LARGE_SIZE);
+		for(int n : new int[] {1000, 4096, 4097, 9000}) {
+			// Distinct cells in a random order, with room at the end of the arrays past n
+			int[] cells = new int[LARGE_SIZE*LARGE_SIZE];
+			for(int i = 0; i < cells.length; i++) {
+				cells[i] = i;
+			}
+			for(int i = cells.length - 1; i > 0; i--) {
+				int j = rng.nextInt(i + 1), swap = cells[i];
+				cells[i] = cells[j];
+				cells[j] = swap;
+			}
+			for(Kind kind : Kind.values()) {
+				double[] weights = Arrays.copyOf(weights(kind, n, rng), n + 10);
+				Arrays.fill(weights, n, n + 10, 1.0);	// past n: must be ignored
+				String label = kind + " sparse belief over " + n + " cells";
+				for(int k : KS) {
+					double[] probabilities = new double[k];
+					checkTopK(cells, weights, n, k, queries.topK(cells, weights, n, k, probabilities), probabilities, label);
+				}
+				for(double mass : MASSES) {
+					checkRegion(cells, weights, n, mass, queries.credibleRegion(cells, weights, n, mass), label);
+				}
+			}
+		}
+	}
+
+	// Weights of the given kind, with some zeros among the random and tied ones
+	private static double[] weights(Kind kind, int n, Random rng) {
+		double[] weights = new double[n];
+		for(int i = 0; i < n; i++) {
+			switch(kind) {
+			case RANDOM:
+				weights[i] = rng.nextInt(10) == 0 ? 0.0 : rng.nextDouble()*1e-3;
+				break;
+			case TIED:
+				weights[i] = 0.1*rng.nextInt(4);
+				break;
+			case UNIFORM:
+				weights[i] = 1.0/n;
+				break;
+			case ZERO:
+				break;
+			}
+		}
+		return weights;
+	}
+
+	// The cells with weight sorted from heaviest to lightest
+	private static double[] sortedWeights(double[] weights, int n) {
+		double[] sorted = Arrays.stream(weights, 0, n).filter(w -> w > 0.0).sorted().toArray();
+		for(int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+			double swap = sorted[i];
+			sorted[i] = sorted[j];
+			sorted[j] = swap;
+		}
+		return sorted;
+	}
+
+	// The weights of the top cells must be the first k of the sorted weights; ties may pick any cells
+	private static void checkTopK(int[] cells, double[] weights, int n, int k, int[] top, double[] probabilities, String label) {
+		double[] sorted = sortedWeights(weights, n);
+		String what = "top " + k + " of the " + label;
+		assertEquals(Math.min(k, sorted.length), top.length, "cells in the " + what);
+		double[] weightOf = weightsByCell(cells, weights, n);
+		Set<Integer> seen = new HashSet<>();
+		for(int i = 0; i < top.length; i++) {
+			assertTrue(seen.add(top[i]), "cell " + top[i] + " returned twice in the " + what);
+			assertEquals(sorted[i], weightOf[top[i]], 0.0, "weight of cell " + i + " of the " + what);
+			assertEquals(sorted[i], probabilities[i], 0.0, "probability of cell " + i + " of the " + what);
+		}
+	}
+
+	// The region must be as small as the heaviest cells that reach the target, and hold only cells at
+	// least as heavy as every cell left out
+	private static void checkRegion(int[] cells, double[] weights, int n, double mass, int[] region, String label) {
+		double[] sorted = sortedWeights(weights, n);
+		double total = 0.0;
+		for(double w : sorted) {
+			total += w;
+		}
+		double target = mass >= 1.0 ? total : mass*total*(1.0 - 1e-12);
+		int expected = 0;
+		double covered = 0.0;
+		while(expected < sorted.length && covered < target) {
+			covered += sorted[expected++];
+		}
+		String what = mass + " credible region of the " + label;
+		assertEquals(expected, region.length, "cells in the " + what);
+
+		double[] weightOf = weightsByCell(cells, weights, n);
+		Set<Integer> seen = new HashSet<>();
+		double lightest = Double.MAX_VALUE, sum = 0.0;
+		for(int cell : region) {
+			assertTrue(seen.add(cell), "cell " + cell + " returned twice in the " + what);
+			assertTrue(weightOf[cell] > 0.0, "cell " + cell + " of the " + what + " has no weight");
+			lightest = Math.min(lightest, weightOf[cell]);
+			sum += weightOf[cell];
+		}
+		assertTrue(sum >= target*(1.0 - 1e-9), "the " + what + " covers " + sum + " of " + target);
+		if(region.length > 0 && region.length < sorted.length) {
+			assertTrue(lightest >= sorted[region.length], "the " + what + " leaves out a heavier cell");
+		}
+	}
+
+	private static double[] weightsByCell(int[] cells, double[] weights, int n) {
+		double[] weightOf = new double[LARGE_SIZE*LARGE_SIZE];
+		for(int i = 0; i < n; i++) {
+			weightOf[cells[i]] = weights[i];
+		}
+		return weightOf;
+	}
+}
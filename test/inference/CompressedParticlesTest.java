@@ -0,0 +1,46 @@
+package inference;
+
+import static util.Assert.*;
+
+import graphics.Sonar;
+import util.Coords;
+import util.SplitMix64;
+
+/**
+ * Checks that resampling leaves the compressed particles unweighted, with each tuple's weight moved
+ * along with its cell, so that a second resample without weighing keeps the distribution.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class CompressedParticlesTest {
+	private static final int SIZE = 9;
+	private static final int N = 200000;
+
+	public static void testResampleLeavesTheParticlesUnweighted() {
+		GridModel model = new GridModel(SIZE, new Sonar(SIZE, 2));
+		CompressedParticles particles = new CompressedParticles(model, N, new SplitMix64(34));
+		particles.elapse();
+		double total = particles.weigh(new int[] {model.index(new Coords(4, 4))}, new int[] {3}, 1);
+		assertTrue(total > 0.0, "no particle agrees with the reading");
+
+		// The weighted distribution the resample draws from
+		double[] expected = new double[SIZE*SIZE];
+		for(int i = 0; i < particles.getNumCells(); i++) {
+			expected[particles.getCell(i)] = particles.getCount(i)*particles.getWeight(i)/total;
+		}
+		assertTrue(particles.resample(), "resample with weight");
+		for(int i = 0; i < particles.getNumCells(); i++) {
+			assertEquals(1.0, particles.getWeight(i), 0.0, "weight of tuple " + i + " after resampling");
+		}
+		double[] resampled = new double[SIZE*SIZE];
+		particles.toDense(resampled);
+		assertClose(expected, resampled, 0.02, "particles after resampling");
+
+		// Weights left over from before the resample would skew this one
+		assertTrue(particles.resample(), "resample without weighing");
+		double[] again = new double[SIZE*SIZE];
+		particles.toDense(again);
+		assertClose(expected, again, 0.03, "particles after resampling twice");
+	}
+}
@@ -0,0 +1,64 @@
+package inference;
+
+import static util.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import characters.PacmanForwardAlgorithm;
+import graphics.Sonar;
+import util.RandomWalk;
+
+/**
+ * Checks the fixed-lag smoother against the forward algorithm (lag 0) and against full forward-backward
+ * over the readings seen so far (lag > 0).
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class FixedLagSmootherTest {
+	private static final int SIZE = 7;
+	private static final int STEPS = 30;
+
+	public static void testLagZeroMatchesForwardAlgorithm() {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 11, false);
+		Sonar sonar = new Sonar(SIZE, RandomWalk.SONAR_RANGE);
+		FixedLagSmoother smoother = new FixedLagSmoother(new GridModel(SIZE, sonar), 0);
+		PacmanForwardAlgorithm forward = new PacmanForwardAlgorithm(SIZE, new BufferedImage[4], sonar);
+		double[] expected = null;
+		for(int t = 0; t < STEPS; t++) {
+			assertTrue(smoother.update(walk.pacmanCells[t], walk.readings[t]), "lag 0 has an estimate every step");
+			forward.update(walk.readings[t]);
+			expected = forward.getBeliefVector(expected);
+			assertClose(expected, smoother.getFiltered(), 1e-12, "filtered belief at step " + t);
+			assertClose(expected, smoother.getSmoothed(), 1e-12, "lag-0 smoothed belief at step " + t);
+			assertEquals(t, smoother.getSmoothedStep(), "smoothed step");
+		}
+	}
+
+	public static void testSmoothedBeliefMatchesForwardBackward() {
+		for(int lag : new int[] {1, 3, 6}) {
+			RandomWalk walk = new RandomWalk(SIZE, STEPS, 12 + lag, true);
+			GridModel model = new GridModel(SIZE, new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+			FixedLagSmoother smoother = new FixedLagSmoother(model, lag);
+			ForwardBackward batch = new ForwardBackward(model);
+			Observations seen = new Observations();
+			for(int t = 0; t < STEPS; t++) {
+				boolean ready = smoother.update(walk.pacmanCells[t], walk.readings[t]);
+				seen.add(walk.pacmanCells[t], walk.readings[t]);
+				assertEquals(t >= lag ? 1 : 0, ready ? 1 : 0, "estimate available at step " + t + " with lag " + lag);
+				if(!ready) {
+					continue;
+				}
+				double[] expected = new double[model.getNumCells()];
+				int target = t - lag;
+				batch.smooth(seen, (step, marginal) -> {
+					if(step == target) {
+						System.arraycopy(marginal, 0, expected, 0, marginal.length);
+					}
+				});
+				assertEquals(target, smoother.getSmoothedStep(), "smoothed step");
+				assertClose(expected, smoother.getSmoothed(), 1e-10, "smoothed belief of step " + target + " with lag " + lag);
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package inference;
+
+import static util.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import graphics.Sonar;
+import util.RandomWalk;
+
+/**
+ * Checks ForwardBackward's checkpointed passes against a forward-backward and a Viterbi that keep every
+ * step in memory and use the transition and emission probabilities one entry at a time.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class ForwardBackwardTest {
+	private static final int SIZE = 6;
+	private static final int STEPS = 23;	// not a perfect square, so the last block is short
+
+	public static void testSmoothedMarginalsMatchFullForwardBackward() {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 1, true);
+		GridModel model = new GridModel(SIZE, new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+		double[][] expected = referenceSmooth(model, walk);
+
+		double[][] actual = new double[STEPS][];
+		new ForwardBackward(model).smooth(observations(walk), (t, marginal) -> actual[t] = marginal.clone());
+		for(int t = 0; t < STEPS; t++) {
+			assertClose(expected[t], actual[t], 1e-10, "smoothed marginal at step " + t);
+		}
+	}
+
+	public static void testLastSmoothedMarginalIsTheFilteredBelief() {
+		RandomWalk walk = new RandomWalk(SIZE, STEPS, 2, false);
+		GridModel model = new GridModel(SIZE, new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+		double[] filtered = new double[model.getNumCells()], scratch = new double[model.getNumCells()];
+		model.uniform(filtered);
+		for(int t = 0; t < STEPS; t++) {
+			model.predict(filtered, scratch);
+			GridModel.scale(scratch, model.weigh(scratch, walk.pacmanCells[t], walk.readings[t]));
+			double[] swap = filtered; filtered = scratch; scratch = swap;
+		}
+
+		List<double[]> marginals = new ArrayList<>();
+		new ForwardBackward(model).smooth(observations(walk), (t, marginal) -> {
+			if(t == STEPS - 1) {
+				marginals.add(marginal.clone());
+			}
+		});
+		assertClose(filtered, marginals.get(0), 1e-12, "last smoothed marginal");
+	}
+
+	public static void testViterbiMatchesFullDynamicProgram() {
+		for(long seed = 3; seed < 8; seed++) {
+			RandomWalk walk = new RandomWalk(SIZE, STEPS, seed, true);
+			GridModel model = new GridModel(SIZE, new Sonar(SIZE, RandomWalk.SONAR_RANGE));
+			int[] expected = referenceViterbi(model, walk);
+			int[] actual = new ForwardBackward(model).viterbi(observations(walk));
+			assertEquals(score(model, walk, expected), score(model, walk, actual), 1e-9,
+					"log-probability of the Viterbi path (seed " + seed + ")");
+		}
+	}
+
+
+	/*------------------------------------------------------
+	 * 				PRIVATE HELPER METHODS
+	 *------------------------------------------------------*/
+
+	private static Observations observations(RandomWalk walk) {
+		Observations obs = new Observations();
+		for(int t = 0; t < walk.readings.length; t++) {
+			obs.add(walk.pacmanCells[t], walk.readings[t]);
+		}
+		return obs;
+	}
+
+	// Forward-backward with every alpha kept in memory and the sums written out cell by cell
+	private static double[][] referenceSmooth(GridModel model, RandomWalk walk) {
+		int n = model.getNumCells(), T = walk.readings.length;
+		double[][] alpha = new double[T][n];
+		double[] prev = new double[n];
+		Arrays.fill(prev, 1.0/n);
+		for(int t = 0; t < T; t++) {
+			double sum = 0;
+			for(int p = 0; p < n; p++) {
+				double a = 0;
+				for(int q = 0; q < n; q++) {
+					a += model.transition(q, p)*prev[q];
+				}
+				alpha[t][p] = a*model.emission(walk.pacmanCells[t], p, walk.readings[t]);
+				sum += alpha[t][p];
+			}
+			for(int p = 0; p < n; p++) {
+				alpha[t][p] /= sum;
+			}
+			prev = alpha[t];
+		}
+
+		double[][] marginals = new double[T][n];
+		double[] beta = new double[n];
+		Arrays.fill(beta, 1.0);
+		for(int t = T - 1; t >= 0; t--) {
+			double sum = 0;
+			for(int p = 0; p < n; p++) {
+				marginals[t][p] = alpha[t][p]*beta[p];
+				sum += marginals[t][p];
+			}
+			for(int p = 0; p < n; p++) {
+				marginals[t][p] /= sum;
+			}
+			double[] next = new double[n];
+			double max = 0;
+			for(int q = 0; q < n; q++) {
+				for(int p = 0; p < n; p++) {
+					next[q] += model.transition(q, p)*model.emission(walk.pacmanCells[t], p, walk.readings[t])*beta[p];
+				}
+				max = Math.max(max, next[q]);
+			}
+			for(int q = 0; q < n; q++) {
+				next[q] /= max;
+			}
+			beta = next;
+		}
+		return marginals;
+	}
+
+	// Viterbi in log space with every backpointer kept in memory
+	private static int[] referenceViterbi(GridModel model, RandomWalk walk) {
+		int n = model.getNumCells(), T = walk.readings.length;
+		int[][] back = new int[T][n];
+		double[] delta = new double[n];
+		Arrays.fill(delta, -Math.log(n));
+		for(int t = 0; t < T; t++) {
+			double[] next = new double[n];
+			for(int p = 0; p < n; p++) {
+				double best = Double.NEGATIVE_INFINITY;
+				for(int q = 0; q < n; q++) {
+					double s = delta[q] + Math.log(model.transition(q, p));
+					if(s > best) {
+						best = s;
+						back[t][p] = q;
+					}
+				}
+				next[p] = best + Math.log(model.emission(walk.pacmanCells[t], p, walk.readings[t]));
+			}
+			delta = next;
+		}
+		int[] path = new int[T];
+		int state = 0;
+		for(int p = 1; p < n; p++) {
+			if(delta[p] > delta[state]) {
+				state = p;
+			}
+		}
+		for(int t = T - 1; t >= 0; t--) {
+			path[t] = state;
+			state = back[t][state];
+		}
+		return path;
+	}
+
+	// The log-probability of a path and the readings. Paths with equal scores are equally good answers.
+	private static double score(GridModel model, RandomWalk walk, int[] path) {
+		double s = -Math.log(model.getNumCells());
+		for(int t = 0; t < path.length; t++) {
+			if(t > 0) {
+				s += Math.log(model.transition(path[t-1], path[t]));
+			}
+			else {
+				// the ghost moves once before the first reading, from the best cell of the uniform prior
+				double best = 0;
+				for(int q = 0; q < model.getNumCells(); q++) {
+					best = Math.max(best, model.transition(q, path[0]));
+				}
+				s += Math.log(best);
+			}
+			s += Math.log(model.emission(walk.pacmanCells[t], path[t], walk.readings[t]));
+		}
+		return s;
+	}
+}
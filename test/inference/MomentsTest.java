@@ -0,0 +1,50 @@
+package inference;
+
+import static util.Assert.*;
+
+import graphics.Sonar;
+
+/**
+ * Checks that every implementation of the moments gives the same answer: the same values for the same
+ * belief, and all NaN for a belief with no mass.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class MomentsTest {
+	private static final int SIZE = 5;
+
+	public static void testEmptyBeliefHasNaNMoments() {
+		BeliefQueries queries = new BeliefQueries(SIZE);
+		ActiveRegion board = new ActiveRegion(SIZE);
+		board.setFull(SIZE);
+		assertAllNaN(queries.moments(new double[SIZE*SIZE], board), "dense moments");
+		assertAllNaN(queries.moments(new int[0], new double[0], 0), "sparse moments");
+
+		// Ghosts within 2 of (0, 0) cannot read 0 from (4, 4), so the two readings leave no mass
+		QuadtreeBelief tree = new QuadtreeBelief(SIZE, new Sonar(SIZE, 2), 1e-7);
+		tree.uniform();
+		tree.weigh(0, 0, 0);
+		assertEquals(0.0, tree.weigh(SIZE - 1, SIZE - 1, 0), 0.0, "mass left by the readings");
+		assertAllNaN(tree.moments(), "quadtree moments");
+	}
+
+	public static void testQuadtreeMomentsMatchItsDenseBelief() {
+		QuadtreeBelief tree = new QuadtreeBelief(SIZE, new Sonar(SIZE, 2), 1e-7);
+		tree.uniform();
+		tree.scale(tree.weigh(1, 3, 2));
+		tree.adapt();
+		double[] dense = new double[SIZE*SIZE];
+		tree.toDense(dense);
+		ActiveRegion board = new ActiveRegion(SIZE);
+		board.setFull(SIZE);
+		assertClose(new BeliefQueries(SIZE).moments(dense, board), tree.moments(), 1e-12, "moments");
+	}
+
+	private static void assertAllNaN(double[] moments, String message) {
+		assertEquals(5, moments.length, message + ": length");
+		for(int i = 0; i < moments.length; i++) {
+			assertTrue(Double.isNaN(moments[i]), message + "[" + i + "] = " + moments[i]);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package inference;
+
+import static util.Assert.*;
+
+import java.util.Random;
+
+import graphics.Sonar;
+
+/**
+ * Checks the ring emission and the row kernel of GridModel.weigh against weighScalar on random beliefs
+ * and regions, from every kind of cell and with readings past the far end of the sonar, and the ring
+ * masses and reading distribution against sums over the weighted cells.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class RingEmissionTest {
+	private static final int SIZE = 13;
+	private static final int TRIALS = 300;
+
+	public static void testWeighMatchesTheScalarPath() {
+		Sonar sonar = new Sonar(SIZE, 2);
+		GridModel model = new GridModel(SIZE, sonar);
+		RingEmission rings = new RingEmission(model);
+		Random rng = new Random(39);
+		ActiveRegion region = new ActiveRegion(SIZE);
+		for(int trial = 0; trial < TRIALS; trial++) {
+			int r0 = rng.nextInt(SIZE), r1 = r0 + rng.nextInt(SIZE - r0);
+			int c0 = rng.nextInt(SIZE), c1 = c0 + rng.nextInt(SIZE - c0);
+			region.set(r0, r1, c0, c1);
+			double[] belief = new double[SIZE*SIZE];
+			for(int r = r0; r <= r1; r++) {
+				for(int c = c0; c <= c1; c++) {
+					belief[r*SIZE + c] = rng.nextInt(5) == 0 ? 0.0 : rng.nextDouble();
+				}
+			}
+			int pacman = rng.nextInt(SIZE*SIZE);
+			int reading = rng.nextInt(model.getNumDistances() + 2);
+			String label = "reading " + reading + " from cell " + pacman + " on " + region;
+
+			double[] expected = belief.clone();
+			double sum = model.weighScalar(expected, pacman, reading);
+			double[] rows = belief.clone();
+			assertEquals(sum, model.weigh(rows, pacman, reading), 1e-12, "row sum of the " + label);
+			assertClose(expected, rows, 1e-15, "row weights of the " + label);
+			double[] ringed = belief.clone();
+			assertEquals(sum, rings.weigh(ringed, pacman, reading, region), 1e-12, "ring sum of the " + label);
+			assertClose(expected, ringed, 1e-15, "ring weights of the " + label);
+
+			checkRegion(ringed, region, label);
+			checkRings(model, rings, expected, sum, pacman, label);
+		}
+	}
+
+	// The region must hold every non-zero cell and touch one on each side
+	private static void checkRegion(double[] belief, ActiveRegion region, String label) {
+		int rowMin = SIZE, rowMax = -1, colMin = SIZE, colMax = -1;
+		for(int i = 0; i < belief.length; i++) {
+			if(belief[i] != 0.0) {
+				rowMin = Math.min(rowMin, i/SIZE);
+				rowMax = Math.max(rowMax, i/SIZE);
+				colMin = Math.min(colMin, i%SIZE);
+				colMax = Math.max(colMax, i%SIZE);
+			}
+		}
+		if(rowMax < 0) {
+			assertTrue(region.isEmpty(), "region " + region + " after the " + label + " left nothing");
+			return;
+		}
+		assertEquals(rowMin, region.getRowMin(), "first row after the " + label);
+		assertEquals(rowMax, region.getRowMax(), "last row after the " + label);
+		assertEquals(colMin, region.getColMin(), "first column after the " + label);
+		assertEquals(colMax, region.getColMax(), "last column after the " + label);
+	}
+
+	// The mass on each ring and the next reading, summed over the weighted cells
+	private static void checkRings(GridModel model, RingEmission rings, double[] weighted, double sum, int pacman, String label) {
+		double[] ring = new double[model.getNumDistances()];
+		double[] next = new double[model.getNumDistances()];
+		double distance = 0.0;
+		for(int i = 0; i < weighted.length; i++) {
+			if(weighted[i] == 0.0) {
+				continue;
+			}
+			int d = model.distance(pacman, i);
+			ring[d] += weighted[i]/sum;
+			distance += d*weighted[i]/sum;
+			double[] row = model.getSonar().getEmissionTable(d);
+			for(int e = 0; e < next.length; e++) {
+				next[e] += weighted[i]/sum*row[e];
+			}
+		}
+		double[] probabilities = new double[ring.length];
+		for(int d = 0; d < ring.length; d++) {
+			probabilities[d] = rings.getRingProbability(d);
+		}
+		double[] distribution = new double[next.length];
+		rings.readingDistribution(distribution);
+		double reading = 0.0;
+		for(int e = 0; e < next.length; e++) {
+			reading += e*next[e];
+		}
+		if(sum == 0.0) {
+			ring = new double[ring.length];
+			next = new double[next.length];
+			distance = reading = 0.0;
+		}
+		assertClose(ring, probabilities, 1e-12, "ring probabilities after the " + label);
+		assertClose(next, distribution, 1e-12, "reading distribution after the " + label);
+		assertEquals(distance, rings.getExpectedDistance(), 1e-9, "expected distance after the " + label);
+		assertEquals(reading, rings.getExpectedReading(), 1e-9, "expected reading after the " + label);
+	}
+}
@@ -0,0 +1,73 @@
+package util;
+
+/**
+ * The checks used by the behaviour tests. Each throws AssertionError with the given message when the
+ * check fails.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class Assert {
+
+	/**
+	 * Code that is expected to throw
+	 */
+	public interface Action {
+		void run() throws Exception;
+	}
+
+	private Assert() {
+	}
+
+	public static void assertTrue(boolean condition, String message) {
+		if(!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void assertEquals(long expected, long actual, String message) {
+		if(expected != actual) {
+			throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	public static void assertEquals(double expected, double actual, double tolerance, String message) {
+		if(!(Math.abs(expected - actual) <= tolerance)) {
+			throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	public static void assertArrayEquals(int[] expected, int[] actual, String message) {
+		assertEquals(expected.length, actual.length, message + " (length)");
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], message + " [" + i + "]");
+		}
+	}
+
+	/**
+	 * Checks that two vectors of the same length are within the given L1 distance of each other
+	 */
+	public static void assertClose(double[] expected, double[] actual, double tolerance, String message) {
+		assertEquals(expected.length, actual.length, message + " (length)");
+		double l1 = 0.0;
+		for(int i = 0; i < expected.length; i++) {
+			l1 += Math.abs(expected[i] - actual[i]);
+		}
+		if(!(l1 <= tolerance)) {
+			throw new AssertionError(message + ": L1 distance " + l1 + " exceeds " + tolerance);
+		}
+	}
+
+	public static <T extends Throwable> T assertThrows(Class<T> type, Action code, String message) {
+		try {
+			code.run();
+		}
+		catch(Throwable e) {
+			if(type.isInstance(e)) {
+				return type.cast(e);
+			}
+			throw new AssertionError(message + ": expected " + type.getSimpleName() + " but got " + e, e);
+		}
+		throw new AssertionError(message + ": expected " + type.getSimpleName());
+	}
+}
@@ -0,0 +1,74 @@
+package util;
+
+import static util.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes a history over many small segments, reads it back in random order while writing and after
+ * reopening, and checks that closing cuts the file to the steps written.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class BeliefHistoryTest {
+	private static final int CELLS = 1000;
+	private static final long SEGMENT_BYTES = 1 << 16;	// 8 steps a segment, so the steps span many more segments than stay mapped
+
+	public static void testHistoryRoundTrips() throws Exception {
+		Path file = Files.createTempFile("history", ".bin");
+		Random rng = new Random(28);
+		try {
+			int steps = 100;
+			try(BeliefHistory history = BeliefHistory.create(file, CELLS, SEGMENT_BYTES)) {
+				for(int t = 0; t < steps; t++) {
+					assertEquals(t, history.append(belief(t)), "index of step " + t);
+					// Going back to earlier segments maps them again
+					long s = rng.nextInt(t + 1);
+					assertClose(belief(s), history.read(s, null), 0.0, "step " + s + " while writing");
+				}
+			}
+			assertEquals(BeliefHistory.HEADER_BYTES + (long) steps*CELLS*Double.BYTES, Files.size(file), "bytes after closing");
+
+			try(BeliefHistory history = BeliefHistory.open(file, false, SEGMENT_BYTES)) {
+				assertEquals(steps, history.getNumSteps(), "steps after reopening");
+				assertEquals(CELLS, history.getNumCells(), "cells after reopening");
+				for(int i = 0; i < 3*steps; i++) {
+					long s = rng.nextInt(steps);
+					int cell = rng.nextInt(CELLS);
+					assertEquals(belief(s)[cell], history.get(s, cell), 0.0, "cell " + cell + " of step " + s);
+				}
+			}
+
+			// Appending to a reopened history continues where it left off
+			try(BeliefHistory history = BeliefHistory.open(file, true, SEGMENT_BYTES)) {
+				assertEquals(steps, history.append(belief(steps)), "index of the appended step");
+			}
+			BeliefHistory history = BeliefHistory.open(file, false);
+			try {
+				assertEquals(steps + 1, history.getNumSteps(), "steps after appending");
+				for(long s = 0; s <= steps; s++) {
+					assertClose(belief(s), history.read(s, null), 0.0, "step " + s + " after appending");
+				}
+			}
+			finally {
+				history.close();
+			}
+			assertThrows(IllegalStateException.class, () -> history.read(0, null), "reading a closed history");
+			history.close();
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static double[] belief(long step) {
+		double[] belief = new double[CELLS];
+		for(int i = 0; i < CELLS; i++) {
+			belief[i] = step*CELLS + i + 0.5;
+		}
+		return belief;
+	}
+}
@@ -0,0 +1,141 @@
+package util;
+
+import static util.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Races writers against the operations that freeze them and checks that no increment is lost: against
+ * getSum, snapshot and sample by counting, and against normalize by measuring every key in units of an
+ * anchor that no writer touches, since normalizing rescales the anchor and the keys alike.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class ConcurrentWeightedSetTest {
+	private static final int WRITERS = 4;
+	private static final int INCREMENTS = 20000;
+
+	public static void testNoIncrementIsLostToSnapshots() throws InterruptedException {
+		ConcurrentWeightedSet<Integer> set = new ConcurrentWeightedSet<>();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		CountDownLatch writing = new CountDownLatch(WRITERS);
+		Thread[] writers = new Thread[WRITERS];
+		for(int w = 0; w < WRITERS; w++) {
+			int key = w;
+			writers[w] = new Thread(() -> {
+				for(int i = 0; i < INCREMENTS; i++) {
+					set.increment(key, 1.0);
+					set.increment(WRITERS, 1.0);	// one key shared by every writer
+				}
+				writing.countDown();
+			});
+		}
+		Thread reader = new Thread(() -> {
+			try {
+				double[] previous = new double[WRITERS + 1];
+				while(writing.getCount() > 0) {
+					// Every snapshot is one instant: no key goes backwards, and the shared key holds exactly
+					// the increments of the others, give or take the one each writer is between
+					WeightedSet<Integer> snapshot = set.snapshot();
+					double own = 0.0;
+					for(int key = 0; key <= WRITERS; key++) {
+						double weight = snapshot.contains(key) ? snapshot.getWeight(key) : 0.0;
+						assertTrue(weight >= previous[key], "key " + key + " went from " + previous[key] + " to " + weight);
+						previous[key] = weight;
+						if(key < WRITERS) {
+							own += weight;
+						}
+					}
+					double shared = previous[WRITERS];
+					assertTrue(shared <= own && own <= shared + WRITERS, "shared key " + shared + " against " + own + " in a snapshot");
+					assertTrue(set.getSum() >= own + shared, "sum smaller than an earlier snapshot");
+					if(own > 0.0) {
+						set.sample();
+					}
+				}
+			}
+			catch(Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		});
+		reader.start();
+		for(Thread writer : writers) {
+			writer.start();
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+		reader.join();
+		if(failure.get() != null) {
+			throw new AssertionError("the reader failed", failure.get());
+		}
+		for(int key = 0; key < WRITERS; key++) {
+			assertEquals(INCREMENTS, set.getWeight(key), 0.0, "increments of key " + key);
+		}
+		assertEquals(WRITERS*INCREMENTS, set.getWeight(WRITERS), 0.0, "increments of the shared key");
+		assertEquals(2.0*WRITERS*INCREMENTS, set.getSum(), 0.0, "sum");
+	}
+
+	public static void testNoIncrementIsLostToNormalize() throws InterruptedException {
+		ConcurrentWeightedSet<Integer> set = new ConcurrentWeightedSet<>();
+		int anchor = -1;
+		set.addEvent(anchor, 1.0);
+		CountDownLatch writing = new CountDownLatch(WRITERS);
+		int[] moved = new int[WRITERS];	// increments that a normalize may have rescaled before they landed
+		Thread[] writers = new Thread[WRITERS];
+		for(int w = 0; w < WRITERS; w++) {
+			int key = w;
+			writers[w] = new Thread(() -> {
+				for(int i = 0; i < INCREMENTS; i++) {
+					// One anchor's worth, in the units of the moment: the key gains exactly 1 anchor, or more
+					// if a normalize shrinks the anchor before the increment lands, but never less
+					double unit;
+					while((unit = set.getWeight(anchor)) == 0.0) {
+						Thread.onSpinWait();	// read in the middle of a normalize
+					}
+					set.increment(key, unit);
+					if(set.getWeight(anchor) != unit) {
+						moved[key]++;
+					}
+				}
+				writing.countDown();
+			});
+		}
+		Thread normalizer = new Thread(() -> {
+			while(writing.getCount() > 0) {
+				set.normalize();
+				Thread.yield();
+			}
+		});
+		normalizer.start();
+		for(Thread writer : writers) {
+			writer.start();
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+		normalizer.join();
+
+		WeightedSet<Integer> snapshot = set.snapshot();
+		double unit = snapshot.getWeight(anchor);
+		for(int key = 0; key < WRITERS; key++) {
+			double anchors = snapshot.getWeight(key)/unit;
+			assertTrue(anchors >= INCREMENTS*(1 - 1e-9), "key " + key + " holds " + anchors + " of " + INCREMENTS + " increments");
+			if(moved[key] == 0) {
+				assertEquals(INCREMENTS, anchors, INCREMENTS*1e-9, "increments of key " + key);
+			}
+		}
+	}
+
+	public static void testSamplingAllZeroThrows() {
+		ConcurrentWeightedSet<Integer> set = new ConcurrentWeightedSet<>();
+		assertThrows(IllegalStateException.class, set::sample, "sampling an empty set");
+		set.addEvent(1, 0.0);
+		set.increment(2, 0.0);
+		assertThrows(IllegalStateException.class, set::sample, "sampling a set with no weight");
+		set.increment(2, 0.5);
+		assertEquals(2, set.sample(), "the only element with weight");
+	}
+}
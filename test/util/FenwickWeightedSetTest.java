@@ -0,0 +1,93 @@
+package util;
+
+import static util.Assert.*;
+
+import java.util.Random;
+
+/**
+ * Checks FenwickWeightedSet against a plain array of weights with linear prefix sums and a linear
+ * sampling scan.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class FenwickWeightedSetTest {
+
+	public static void testRandomOperationsMatchPlainArray() {
+		Random rng = new Random(41);
+		int n = 257;
+		FenwickWeightedSet set = new FenwickWeightedSet(n);
+		double[] plain = new double[n];
+		for(int op = 0; op < 20000; op++) {
+			int key = rng.nextInt(n);
+			switch(rng.nextInt(5)) {
+				case 0:
+					double value = rng.nextDouble();
+					set.addEvent(key, value);
+					plain[key] = value;
+					break;
+				case 1:
+					double amount = rng.nextDouble();
+					set.increment(key, amount);
+					plain[key] += amount;
+					break;
+				case 2:
+					double factor = 0.5 + rng.nextDouble();
+					set.scale(factor);
+					for(int k = 0; k < n; k++) {
+						plain[k] *= factor;
+					}
+					break;
+				case 3:
+					set.normalize();
+					double sum = 0;
+					for(int k = 0; k < n; k++) {
+						sum += plain[k];
+					}
+					for(int k = 0; k < n && sum != 0; k++) {
+						plain[k] /= sum;
+					}
+					break;
+				default:
+					double prefix = 0;
+					for(int k = 0; k <= key; k++) {
+						prefix += plain[k];
+					}
+					assertEquals(prefix, set.prefixSum(key), 1e-9*Math.max(1, prefix), "prefix sum of " + key + " after " + op + " operations");
+			}
+			assertEquals(plain[key], set.getWeight(key), 1e-9*Math.max(1, plain[key]), "weight of " + key);
+		}
+	}
+
+	public static void testSampleMatchesLinearScan() {
+		Random rng = new Random(42);
+		int n = 100;
+		double[] weights = new double[n];
+		for(int k = 0; k < n; k++) {
+			weights[k] = rng.nextInt(4) == 0 ? 0.0 : rng.nextDouble();	// some keys can never be drawn
+		}
+		FenwickWeightedSet set = new FenwickWeightedSet(n);
+		set.setAll(weights);
+		set.scale(3.0);
+		double total = 0;
+		for(double w : weights) {
+			total += w;
+		}
+		for(int i = 0; i < 10000; i++) {
+			double u = rng.nextDouble();
+			int expected = 0;
+			double cumulative = weights[0];
+			while(cumulative <= u*total && expected < n - 1) {
+				cumulative += weights[++expected];
+			}
+			int actual = set.sample(u);
+			assertTrue(weights[actual] > 0, "sampled key " + actual + " has weight 0");
+			assertEquals(expected, actual, "key drawn for u = " + u);
+		}
+	}
+
+	public static void testSamplingAllZeroThrows() {
+		FenwickWeightedSet set = new FenwickWeightedSet(8);
+		assertThrows(IllegalStateException.class, () -> set.sample(0.5), "sampling an empty set");
+	}
+}
@@ -0,0 +1,41 @@
+package util;
+
+import static util.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+/**
+ * Checks that metrics of several filters with the same name can all be registered with JMX, and that
+ * unregistering frees the name.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class FilterMetricsTest {
+
+	public static void testDuplicateNamesAreSuffixed() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		FilterMetrics first = new FilterMetrics("FilterMetricsTest"), second = new FilterMetrics("FilterMetricsTest");
+		try {
+			first.register();
+			second.register();
+			second.register();
+			assertTrue(first.getObjectName() != null && second.getObjectName() != null, "both metrics registered");
+			assertTrue(!first.getObjectName().equals(second.getObjectName()), "both registered as " + first.getObjectName());
+			assertTrue(server.isRegistered(first.getObjectName()) && server.isRegistered(second.getObjectName()), "registered with the server");
+
+			first.unregister();
+			assertTrue(first.getObjectName() == null, "name kept after unregistering");
+			FilterMetrics third = new FilterMetrics("FilterMetricsTest");
+			third.register();
+			assertTrue(third.getObjectName().getKeyProperty("name").equals("\"FilterMetricsTest\""), "freed name not reused: " + third.getObjectName());
+			third.unregister();
+		}
+		finally {
+			first.unregister();
+			second.unregister();
+		}
+	}
+}
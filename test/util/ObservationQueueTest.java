@@ -0,0 +1,89 @@
+package util;
+
+import static util.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the queue releases readings in step order once their window has passed, with the right
+ * gaps, keeps the readings of one step and the cells they were taken from together, and drops readings
+ * that arrive after their step was released.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class ObservationQueueTest {
+
+	public static void testShuffledReadingsComeOutInStepOrder() {
+		Random rng = new Random(46);
+		int window = 8, steps = 500;
+		ObservationQueue queue = new ObservationQueue(1024, window);
+		ObservationQueue.Batch batch = new ObservationQueue.Batch();
+
+		// Every third step is missing; the others are shuffled in runs that span less than the window
+		List<Long> order = new ArrayList<>();
+		for(long s = 0; s < steps; s++) {
+			if(s % 3 != 1) {
+				order.add(s);
+			}
+		}
+		for(int i = 0; i + window/2 < order.size(); i += window/2) {
+			Collections.shuffle(order.subList(i, i + window/2), rng);
+		}
+
+		long previous = -1, released = 0;
+		for(long s : order) {
+			assertTrue(queue.offer(s, (int)(s % 17), new Coords((int)s, (int)(2*s))), "offer of step " + s);
+			queue.drain(batch);
+			for(int i = 0; i < batch.getSize(); i++) {
+				long step = batch.getStep(i);
+				assertTrue(step > previous, "step " + step + " released after " + previous);
+				assertEquals(previous < 0 ? 1 : step - previous, batch.getGap(i), "gap before step " + step);
+				assertEquals(1, batch.getNumReadings(i), "readings of step " + step);
+				assertEquals(step % 17, batch.getReading(i, 0), "reading of step " + step);
+				assertEquals(step, batch.getObserverRow(i, 0), "observer row of step " + step);
+				assertEquals(2*step, batch.getObserverCol(i, 0), "observer column of step " + step);
+				previous = step;
+				released++;
+			}
+		}
+		queue.flush(batch);
+		released += batch.getSize();
+		assertEquals(order.size(), released, "readings released");
+		assertEquals(0, queue.getDropped(), "readings dropped");
+	}
+
+	public static void testReadingsOfOneStepAreFused() {
+		ObservationQueue queue = new ObservationQueue(16, 2);
+		ObservationQueue.Batch batch = new ObservationQueue.Batch();
+		queue.offer(5, 3, new Coords(0, 1));
+		queue.offer(4, 7, new Coords(2, 2));
+		queue.offer(5, 4, new Coords(1, 0));
+		assertEquals(0, queue.drain(batch), "steps released before the window passed");
+		queue.offer(7, 9, new Coords(3, 3));
+		assertEquals(2, queue.drain(batch), "steps released");
+		assertEquals(4, batch.getStep(0), "first step");
+		assertEquals(5, batch.getStep(1), "second step");
+		assertEquals(1, batch.getGap(1), "gap before the second step");
+		assertEquals(2, batch.getNumReadings(1), "readings of step 5");
+		// Readings of the same step come out in no particular order
+		int a = batch.getReading(1, 0) == 3 ? 0 : 1;
+		assertEquals(3, batch.getReading(1, a), "reading from (0, 1)");
+		assertEquals(0, batch.getObserverRow(1, a), "row of the first observer");
+		assertEquals(1, batch.getObserverCol(1, a), "column of the first observer");
+		assertEquals(4, batch.getReading(1, 1 - a), "reading from (1, 0)");
+		assertEquals(1, batch.getObserverRow(1, 1 - a), "row of the second observer");
+		assertEquals(0, batch.getObserverCol(1, 1 - a), "column of the second observer");
+
+		// Too late: step 5 was released
+		queue.offer(5, 1, new Coords(0, 0));
+		queue.flush(batch);
+		assertEquals(1, batch.getSize(), "steps flushed");
+		assertEquals(7, batch.getStep(0), "flushed step");
+		assertEquals(2, batch.getGap(0), "gap before the flushed step");
+		assertEquals(1, queue.getDropped(), "readings dropped");
+	}
+}
@@ -0,0 +1,72 @@
+package util;
+
+import java.util.Random;
+
+/**
+ * A reproducible run for the behaviour tests: a ghost taking random steps (staying put or moving to
+ * one of its neighbors, as in the filters' transition model), Pacman either standing still or wandering,
+ * and the noisy readings the sonar would give, with noise of up to SONAR_RANGE either way.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class RandomWalk {
+	public static final int SONAR_RANGE = 2;
+
+	public final int size;
+	public final int[] ghostCells;		// the ghost's row-major cell at each step
+	public final int[] pacmanCells;		// where Pacman was when each reading was taken
+	public final int[] readings;
+
+	/**
+	 * Generates a run
+	 *
+	 * @param size
+	 * 			The size of the grid
+	 * @param steps
+	 * 			The number of readings
+	 * @param seed
+	 * 			The seed of the random number generator
+	 * @param pacmanMoves
+	 * 			True if Pacman takes a random step after every reading, false if he stays at (0, 0)
+	 */
+	public RandomWalk(int size, int steps, long seed, boolean pacmanMoves) {
+		this.size = size;
+		ghostCells = new int[steps];
+		pacmanCells = new int[steps];
+		readings = new int[steps];
+		Random rng = new Random(seed);
+		int ghost = rng.nextInt(size*size), pacman = 0;
+		for(int t = 0; t < steps; t++) {
+			ghost = step(ghost, rng);
+			ghostCells[t] = ghost;
+			pacmanCells[t] = pacman;
+			int distance = Math.abs(ghost/size - pacman/size) + Math.abs(ghost%size - pacman%size);
+			readings[t] = Math.max(0, distance + rng.nextInt(2*SONAR_RANGE + 1) - SONAR_RANGE);
+			if(pacmanMoves) {
+				pacman = step(pacman, rng);
+			}
+		}
+	}
+
+	public Coords ghost(int t) {
+		return new Coords(ghostCells[t]/size, ghostCells[t]%size);
+	}
+
+	public Coords pacman(int t) {
+		return new Coords(pacmanCells[t]/size, pacmanCells[t]%size);
+	}
+
+	// Stays put or moves to a neighbor, uniformly among the legal choices
+	private int step(int cell, Random rng) {
+		int r = cell/size, c = cell%size;
+		int[] choices = new int[5];
+		int n = 0;
+		choices[n++] = cell;
+		if(r > 0) choices[n++] = cell - size;
+		if(r < size-1) choices[n++] = cell + size;
+		if(c > 0) choices[n++] = cell - 1;
+		if(c < size-1) choices[n++] = cell + 1;
+		return choices[rng.nextInt(n)];
+	}
+}
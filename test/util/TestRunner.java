@@ -0,0 +1,82 @@
+package util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs the behaviour tests. A test class is any class whose name ends in "Test"; its tests are its
+ * public static void methods whose names start with "test". A test passes if it returns and fails if
+ * it throws. The tests compare the optimized code paths against the plain implementations they
+ * replace, so they need nothing but the JDK.
+ *
+ * Usage: java util.TestRunner [TestClass]...
+ * (with no arguments, every *Test class next to the runner on the class path is run)
+ *
+ * e.g. javac -d out $(find src test -name '*.java') && java -cp out util.TestRunner
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class TestRunner {
+
+	public static void main(String[] args) throws Exception {
+		List<String> classes = new ArrayList<>();
+		if(args.length > 0) {
+			for(String name : args) {
+				classes.add(name);
+			}
+		}
+		else {
+			classes = findTestClasses();
+		}
+
+		int passed = 0, failed = 0;
+		for(String name : classes) {
+			Class<?> test = Class.forName(name);
+			for(Method method : test.getDeclaredMethods()) {
+				int modifiers = method.getModifiers();
+				if(!method.getName().startsWith("test") || !Modifier.isStatic(modifiers) || !Modifier.isPublic(modifiers)
+						|| method.getParameterCount() != 0) {
+					continue;
+				}
+				long start = System.nanoTime();
+				try {
+					method.invoke(null);
+					passed++;
+					System.out.printf("PASS %s.%s (%d ms)%n", test.getSimpleName(), method.getName(),
+							(System.nanoTime() - start)/1000000);
+				}
+				catch(InvocationTargetException e) {
+					failed++;
+					System.out.printf("FAIL %s.%s: %s%n", test.getSimpleName(), method.getName(), e.getCause());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+		System.out.printf("%d passed, %d failed%n", passed, failed);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	// Lists the *Test classes under the class path root that holds the runner
+	private static List<String> findTestClasses() throws IOException, URISyntaxException {
+		Path root = Paths.get(TestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		List<String> classes = new ArrayList<>();
+		try(Stream<Path> files = Files.walk(root)) {
+			files.map(root::relativize)
+					.map(Path::toString)
+					.filter(f -> f.endsWith("Test.class"))
+					.sorted()
+					.forEach(f -> classes.add(f.substring(0, f.length() - ".class".length()).replace('/', '.').replace('\\', '.')));
+		}
+		return classes;
+	}
+}
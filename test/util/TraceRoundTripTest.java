@@ -0,0 +1,101 @@
+package util;
+
+import static util.Assert.*;
+
+import java.io.EOFException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Checks that TraceReader reads back exactly what TraceWriter wrote, with and without belief snapshots
+ * (including snapshots larger than the writer's buffer), and that a trace cut off in the middle of a
+ * snapshot is reported rather than read as zeros.
+ *
+ * @author Sarah Walling-Bell
+ * @version 10/19/26
+ */
+public class TraceRoundTripTest {
+
+	public static void testRecordsRoundTrip() throws Exception {
+		assertRoundTrip(37, 2000, false);
+	}
+
+	public static void testLargeBeliefsRoundTrip() throws Exception {
+		// 100*100 doubles do not fit in the writer's 64KB buffer
+		assertRoundTrip(100, 6, true);
+	}
+
+	public static void testTruncatedTraceIsReported() throws Exception {
+		Path path = Files.createTempFile("trace-test", ".bin");
+		try {
+			int size = 20;
+			try(TraceWriter writer = new TraceWriter(path, size, 2, true)) {
+				writer.write(new Coords(1, 2), new Coords(3, 4), 5, new double[size*size]);
+				writer.write(new Coords(1, 2), new Coords(3, 4), 5, new double[size*size]);
+			}
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 100);
+			}
+			try(TraceReader reader = new TraceReader(path)) {
+				assertEquals(1, reader.getNumSteps(), "complete records");
+				TraceRecord record = new TraceRecord();
+				assertTrue(reader.next(record), "first record");
+				assertThrows(EOFException.class, () -> reader.next(record), "the cut-off record");
+			}
+		}
+		finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	private static void assertRoundTrip(int size, int steps, boolean beliefs) throws Exception {
+		Random rng = new Random(size*steps);
+		int[][] cells = new int[steps][4];
+		int[] readings = new int[steps];
+		double[][] snapshots = new double[steps][];
+		Path path = Files.createTempFile("trace-test", ".bin");
+		try {
+			try(TraceWriter writer = new TraceWriter(path, size, 3, beliefs)) {
+				for(int t = 0; t < steps; t++) {
+					for(int i = 0; i < 4; i++) {
+						cells[t][i] = rng.nextInt(size);
+					}
+					readings[t] = rng.nextInt(2*size);
+					if(beliefs) {
+						snapshots[t] = new double[size*size];
+						for(int i = 0; i < snapshots[t].length; i++) {
+							snapshots[t][i] = rng.nextDouble();
+						}
+					}
+					writer.write(new Coords(cells[t][0], cells[t][1]), new Coords(cells[t][2], cells[t][3]), readings[t], snapshots[t]);
+				}
+				assertEquals(steps, writer.getNumSteps(), "steps written");
+			}
+
+			try(TraceReader reader = new TraceReader(path)) {
+				assertEquals(size, reader.getBoardSize(), "board size");
+				assertEquals(3, reader.getSonarRange(), "sonar range");
+				assertTrue(reader.hasBeliefs() == beliefs, "belief flag");
+				assertEquals(steps, reader.getNumSteps(), "steps in the header");
+				TraceRecord record = new TraceRecord();
+				for(int t = 0; t < steps; t++) {
+					assertTrue(reader.next(record), "record " + t);
+					assertEquals(t, record.step, "step of record " + t);
+					assertArrayEquals(cells[t], new int[] {record.ghost.row, record.ghost.col, record.pacman.row, record.pacman.col},
+							"cells of record " + t);
+					assertEquals(readings[t], record.noisyDistance, "reading of record " + t);
+					if(beliefs) {
+						assertClose(snapshots[t], record.belief, 0.0, "belief of record " + t);
+					}
+				}
+				assertTrue(!reader.next(record), "no record after the last");
+			}
+		}
+		finally {
+			Files.deleteIfExists(path);
+		}
+	}
+}